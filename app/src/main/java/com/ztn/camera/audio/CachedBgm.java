@@ -0,0 +1,145 @@
+package com.ztn.camera.audio;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * background music decoded once: the first play is decoded as before and written to the
+ * {@link PcmCache} on the way; once the cache has it, it is played from the mapped file and fed along
+ * with the master track, byte for byte, so looping neither sets up a decoder again nor leaves a gap.
+ * <p>
+ * {@link #onDecoded} and {@link #onDecodeFinished} come from the decoder thread, {@link #feed} from
+ * the master track's thread, the rest from the session.
+ */
+public class CachedBgm {
+
+    private static final String TAG = "CachedBgm";
+
+    private final PcmCache mCache;
+    private final String mKey;
+    private final int mFrameBytes;
+    private volatile PcmCache.Writer mWriter;
+    private volatile LoopingPcmReader mReader;
+    private volatile boolean mIsPaused = false;
+
+    /**
+     * @param sampleRate the rate the session mixes at, part of the key
+     * @param frameBytes bytes per frame of all channels
+     */
+    public CachedBgm(PcmCache cache, String path, long clipStartUs, long clipDurationUs, int sampleRate,
+                     int frameBytes) {
+        mCache = cache;
+        mKey = PcmCache.key(path, clipStartUs, clipDurationUs, sampleRate);
+        mFrameBytes = frameBytes;
+    }
+
+    /**
+     * play from the cache if it has the music
+     *
+     * @return false on a miss; decode as before and call {@link #startCaching()}
+     */
+    public boolean startPlaying(boolean isLooping) {
+        File file = mKey != null ? mCache.get(mKey) : null;
+        if (file == null) {
+            return false;
+        }
+        try {
+            mReader = new LoopingPcmReader(file, mFrameBytes, isLooping);
+            Log.d(TAG, "bgm from cache, " + file.length() + " bytes");
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "cannot map " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * write what the decoder delivers from now on into a new cache entry
+     */
+    public void startCaching() {
+        abortCaching();
+        if (mKey == null) {
+            return;
+        }
+        try {
+            mWriter = mCache.openWriter(mKey);
+        } catch (IOException e) {
+            Log.d(TAG, "cannot cache bgm: " + e.getMessage());
+        }
+    }
+
+    /**
+     * decoder thread, before the pcm is pushed anywhere else
+     *
+     * @param pcm size bytes from its position, which is left where it was
+     */
+    public void onDecoded(ByteBuffer pcm, int size) {
+        PcmCache.Writer writer = mWriter;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(pcm, size);
+        } catch (IOException e) {
+            Log.d(TAG, "bgm cache write failed: " + e.getMessage());
+            mWriter = null;
+            writer.abort();
+        }
+    }
+
+    /**
+     * decoder thread; a decode stopped early must be {@link #close closed} before, it is no entry
+     */
+    public void onDecodeFinished(boolean isSuccess) {
+        PcmCache.Writer writer = mWriter;
+        mWriter = null;
+        if (writer == null) {
+            return;
+        }
+        if (isSuccess) {
+            writer.commit();
+        } else {
+            writer.abort();
+        }
+    }
+
+    /**
+     * master track's thread: hand as many bytes of music as the master track just had
+     *
+     * @return bytes handed over, 0 while not playing from the cache, paused or ended
+     */
+    public int feed(int size, LoopingPcmReader.Sink sink) {
+        LoopingPcmReader reader = mReader;
+        if (reader == null || mIsPaused) {
+            return 0;
+        }
+        return reader.read(size - size % mFrameBytes, sink);
+    }
+
+    public boolean isPlaying() {
+        return mReader != null;
+    }
+
+    public void setPaused(boolean isPaused) {
+        mIsPaused = isPaused;
+    }
+
+    private void abortCaching() {
+        PcmCache.Writer writer = mWriter;
+        mWriter = null;
+        if (writer != null) {
+            writer.abort();
+        }
+    }
+
+    /**
+     * stop playing and drop an unfinished entry; before stopping the decoder
+     */
+    public void close() {
+        abortCaching();
+        mReader = null;
+    }
+}
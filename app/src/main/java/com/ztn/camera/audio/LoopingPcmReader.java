@@ -0,0 +1,95 @@
+package com.ztn.camera.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * plays a pcm file from memory, wrapping from the last frame straight to the first when looping
+ * <p>
+ * the file is mapped read only, so pages are read in by the system as they are needed and nothing is
+ * copied on the way to the sink. one thread reads.
+ */
+public class LoopingPcmReader {
+
+    /**
+     * takes pcm straight out of the mapped file
+     */
+    public interface Sink {
+        /**
+         * @param pcm its position is offset and its limit at least offset + size; leave the content alone
+         */
+        void write(ByteBuffer pcm, int offset, int size);
+    }
+
+    private final MappedByteBuffer mPcm;
+    private final int mLength;
+    private final boolean mIsLooping;
+    private int mCursor = 0;
+
+    /**
+     * @param frameBytes bytes per frame of all channels; a trailing partial frame is never played
+     */
+    public LoopingPcmReader(File file, int frameBytes, boolean isLooping) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("pcm too large to map: " + size);
+            }
+            // the mapping stays valid after the channel is closed
+            mPcm = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mPcm.order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            randomAccessFile.close();
+        }
+        mLength = mPcm.capacity() / frameBytes * frameBytes;
+        mIsLooping = isLooping;
+    }
+
+    /**
+     * hand the next size bytes to the sink, in two pieces where it wraps around
+     *
+     * @return bytes handed over, less than size only at the end when not looping
+     */
+    public int read(int size, Sink sink) {
+        if (mLength == 0) {
+            return 0;
+        }
+        int done = 0;
+        while (done < size) {
+            if (mCursor == mLength) {
+                if (!mIsLooping) {
+                    break;
+                }
+                mCursor = 0;
+            }
+            int chunk = Math.min(size - done, mLength - mCursor);
+            mPcm.limit(mCursor + chunk).position(mCursor);
+            sink.write(mPcm, mCursor, chunk);
+            mCursor += chunk;
+            done += chunk;
+        }
+        return done;
+    }
+
+    public boolean isEnded() {
+        return !mIsLooping && mCursor == mLength;
+    }
+
+    /**
+     * @return bytes into the file of the next read
+     */
+    public int getPosition() {
+        return mCursor;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+}
@@ -0,0 +1,230 @@
+package com.ztn.camera.audio;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * decoded pcm on disk, one file per source file, clip and sample rate, least recently used evicted
+ * <p>
+ * an entry is written under a temporary name and only renamed into place once complete, so a reader
+ * never sees a partial file. the last modified time of an entry is its last use; the cache keeps its
+ * total size under the cap by deleting the oldest entries.
+ */
+public class PcmCache {
+
+    private static final String TAG = "PcmCache";
+    private static final String SUFFIX = ".pcm";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DIR_NAME = "bgm_pcm";
+    // about 25 minutes of 44.1k stereo
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static PcmCache sInstance;
+
+    private final File mDir;
+    private final long mMaxBytes;
+
+    /**
+     * the cache under the app's cache dir shared by all sessions
+     */
+    public static synchronized PcmCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PcmCache(new File(context.getCacheDir(), DIR_NAME), DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    public PcmCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return null if the source is not a local file, whose changes could not be told apart
+     */
+    public static String key(String path, long clipStartUs, long clipDurationUs, int sampleRate) {
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        if (lastModified == 0L) {
+            return null;
+        }
+        String identity = file.getAbsolutePath() + "|" + lastModified + "|" + file.length() + "|"
+                + clipStartUs + "|" + clipDurationUs + "|" + sampleRate;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(identity.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the complete entry, marked as just used, or null
+     */
+    public synchronized File get(String key) {
+        File file = new File(mDir, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * start writing an entry; nothing is visible until {@link Writer#commit()}
+     */
+    public Writer openWriter(String key) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("cannot create " + mDir);
+        }
+        return new Writer(key, new File(mDir, key + "." + System.nanoTime() + TEMP_SUFFIX));
+    }
+
+    private synchronized File commit(String key, File temp) {
+        File file = new File(mDir, key + SUFFIX);
+        if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+            temp.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        trim(file);
+        return file;
+    }
+
+    /**
+     * delete least recently used entries until the cache fits, never keep itself
+     */
+    synchronized void trim(File keep) {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0L;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (total <= mMaxBytes) {
+                break;
+            }
+            // temporary files are entries being written
+            if (file.equals(keep) || !file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * @return bytes of all entries and unfinished writes
+     */
+    public synchronized long getSizeBytes() {
+        File[] files = mDir.listFiles();
+        long total = 0L;
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * one entry being written, from one thread; commit or abort it
+     */
+    public class Writer {
+        private final String mKey;
+        private final File mTemp;
+        private FileChannel mChannel;
+
+        Writer(String key, File temp) throws IOException {
+            mKey = key;
+            mTemp = temp;
+            mChannel = new FileOutputStream(temp).getChannel();
+        }
+
+        /**
+         * @param pcm size bytes from its position, which is left where it was
+         */
+        public synchronized void write(ByteBuffer pcm, int size) throws IOException {
+            if (mChannel == null) {
+                return;
+            }
+            int position = pcm.position();
+            int limit = pcm.limit();
+            pcm.limit(position + size);
+            try {
+                while (pcm.hasRemaining()) {
+                    mChannel.write(pcm);
+                }
+            } finally {
+                pcm.limit(limit);
+                pcm.position(position);
+            }
+        }
+
+        /**
+         * @return the entry, or null if it could not be written
+         */
+        public synchronized File commit() {
+            if (mChannel == null) {
+                return null;
+            }
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.d(TAG, "close failed: " + e.getMessage());
+                mChannel = null;
+                mTemp.delete();
+                return null;
+            }
+            mChannel = null;
+            return PcmCache.this.commit(mKey, mTemp);
+        }
+
+        public synchronized void abort() {
+            if (mChannel == null) {
+                return;
+            }
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // deleted anyway
+            }
+            mChannel = null;
+            mTemp.delete();
+        }
+    }
+}
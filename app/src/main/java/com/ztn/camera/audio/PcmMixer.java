@@ -0,0 +1,235 @@
+package com.ztn.camera.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * mixes sub tracks (bgm, sound effects, co-host audio) into the mic pcm, 16 bit interleaved
+ * <p>
+ * each sub track has its own ring, gain and start frame: it joins the mix exactly at that frame of the
+ * mixer clock, which counts the frames mixed so far ({@link #getFramePosition()}). a track that runs
+ * dry adds silence for the missing frames. the sum is soft clipped: linear up to {@link #KNEE} of full
+ * scale, then bending smoothly towards full scale instead of wrapping or cutting off.
+ * <p>
+ * {@link #mix} runs on one thread and allocates nothing once its blocks have grown to the frame size;
+ * each track is written by one producer thread; tracks are added and removed from any thread.
+ */
+public class PcmMixer {
+
+    public static final int MAX_TRACKS = 8;
+    static final float KNEE = 0.8f;
+    private static final float FULL_SCALE = 32768f;
+    private static final float KNEE_SAMPLE = KNEE * FULL_SCALE;
+
+    private static class Track {
+        final PcmRing ring;
+        final long startFrame;
+        volatile float gain = 1.0f;
+        volatile boolean isMuted = false;
+
+        Track(int capacitySamples, long startFrame) {
+            ring = new PcmRing(capacitySamples);
+            this.startFrame = startFrame;
+        }
+    }
+
+    private final int mChannels;
+    // replaced as a whole on add or remove, read once per mix
+    private volatile Track[] mTracks = new Track[MAX_TRACKS];
+    private volatile float mMasterGain = 1.0f;
+    private volatile long mFramePosition = 0L;
+    private volatile long mUnderrunFrames = 0L;
+
+    // mix thread
+    private float[] mSum = new float[0];
+    private byte[] mBlock = new byte[0];
+
+    public PcmMixer(int channels) {
+        mChannels = channels;
+    }
+
+    /**
+     * @param startFrame     mixer frame the track starts at, e.g. {@link #getFramePosition()} plus a delay
+     * @param capacityFrames frames the track can buffer ahead of the mix
+     * @return track id, or -1 if all {@link #MAX_TRACKS} are in use
+     */
+    public synchronized int addTrack(long startFrame, int capacityFrames) {
+        Track[] tracks = mTracks;
+        for (int i = 0; i < tracks.length; i++) {
+            if (tracks[i] == null) {
+                Track[] copy = tracks.clone();
+                copy[i] = new Track(capacityFrames * mChannels, startFrame);
+                mTracks = copy;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void removeTrack(int track) {
+        if (track >= 0 && track < MAX_TRACKS && mTracks[track] != null) {
+            Track[] copy = mTracks.clone();
+            copy[track] = null;
+            mTracks = copy;
+        }
+    }
+
+    public synchronized void clearTracks() {
+        mTracks = new Track[MAX_TRACKS];
+    }
+
+    /**
+     * producer thread of the track
+     *
+     * @param pcm little endian 16 bit pcm with the mixer's channel count, from offset, size bytes
+     * @return false if the track is gone or could not take all of it; what did not fit is dropped
+     */
+    public boolean write(int track, ByteBuffer pcm, int offset, int size) {
+        Track t = getTrack(track);
+        return t != null && t.ring.write(pcm, offset, size) * 2 == (size & ~1);
+    }
+
+    public void setTrackGain(int track, float gain) {
+        Track t = getTrack(track);
+        if (t != null) {
+            t.gain = gain;
+        }
+    }
+
+    /**
+     * a muted track keeps consuming its samples, so it stays in time
+     */
+    public void setTrackMuted(int track, boolean isMuted) {
+        Track t = getTrack(track);
+        if (t != null) {
+            t.isMuted = isMuted;
+        }
+    }
+
+    public void setMasterGain(float gain) {
+        mMasterGain = gain;
+    }
+
+    private Track getTrack(int track) {
+        return track >= 0 && track < MAX_TRACKS ? mTracks[track] : null;
+    }
+
+    /**
+     * mix one block: master (the mic) plus every sub track that has started
+     *
+     * @param master  little endian 16 bit pcm from offset, size bytes, or null for silence
+     * @param out     size bytes of mixed pcm, may be null
+     * @param monitor size bytes of the sub tracks alone, for local playback, may be null
+     * @return frames mixed
+     */
+    public int mix(ByteBuffer master, int offset, int size, byte[] out, byte[] monitor) {
+        int samples = size / 2;
+        int frames = samples / mChannels;
+        samples = frames * mChannels;
+        ensureCapacity(samples);
+        float[] sum = mSum;
+        byte[] block = mBlock;
+        long blockStart = mFramePosition;
+
+        for (int i = 0; i < samples; i++) {
+            sum[i] = 0f;
+        }
+        Track[] tracks = mTracks;
+        for (Track track : tracks) {
+            if (track == null) {
+                continue;
+            }
+            long skipFrames = track.startFrame - blockStart;
+            if (skipFrames >= frames) {
+                continue;
+            }
+            int from = skipFrames > 0 ? (int) skipFrames * mChannels : 0;
+            int read = track.ring.read(block, 0, samples - from);
+            if (read < samples - from) {
+                mUnderrunFrames += (samples - from - read) / mChannels;
+            }
+            if (track.isMuted) {
+                continue;
+            }
+            float gain = track.gain;
+            for (int i = 0; i < read; i++) {
+                sum[from + i] += (short) (block[2 * i] & 0xff | block[2 * i + 1] << 8) * gain;
+            }
+        }
+
+        if (monitor != null) {
+            for (int i = 0; i < samples; i++) {
+                putSample(monitor, i, sum[i]);
+            }
+        }
+        if (out != null) {
+            if (master != null) {
+                // one bulk copy; reading the direct buffer byte by byte costs more than the mix
+                int position = master.position();
+                master.position(offset);
+                master.get(block, 0, samples * 2);
+                master.position(position);
+                float masterGain = mMasterGain;
+                for (int i = 0; i < samples; i++) {
+                    sum[i] += (short) (block[2 * i] & 0xff | block[2 * i + 1] << 8) * masterGain;
+                }
+            }
+            for (int i = 0; i < samples; i++) {
+                putSample(out, i, sum[i]);
+            }
+        }
+        mFramePosition = blockStart + frames;
+        return frames;
+    }
+
+    private void ensureCapacity(int samples) {
+        if (mSum.length < samples) {
+            mSum = new float[samples];
+            mBlock = new byte[samples * 2];
+        }
+    }
+
+    private static void putSample(byte[] out, int index, float sample) {
+        int value;
+        if (sample <= KNEE_SAMPLE && sample >= -KNEE_SAMPLE) {
+            value = (int) sample;
+        } else {
+            value = (int) (softClip(sample / FULL_SCALE) * FULL_SCALE);
+            if (value > Short.MAX_VALUE) {
+                value = Short.MAX_VALUE;
+            }
+        }
+        out[2 * index] = (byte) value;
+        out[2 * index + 1] = (byte) (value >> 8);
+    }
+
+    /**
+     * identity below the knee, then approaches full scale with slope 1 at the knee
+     */
+    static float softClip(float x) {
+        float magnitude = Math.abs(x);
+        if (magnitude <= KNEE) {
+            return x;
+        }
+        float over = (magnitude - KNEE) / (1f - KNEE);
+        float clipped = KNEE + (1f - KNEE) * over / (1f + over);
+        return x < 0 ? -clipped : clipped;
+    }
+
+    /**
+     * frames mixed so far; the clock track start frames refer to
+     */
+    public long getFramePosition() {
+        return mFramePosition;
+    }
+
+    /**
+     * frames a started track had no samples for
+     */
+    public long getUnderrunFrames() {
+        return mUnderrunFrames;
+    }
+
+    public int getChannelCount() {
+        return mChannels;
+    }
+}
@@ -0,0 +1,92 @@
+package com.ztn.camera.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * lock-free ring of 16 bit pcm for exactly one producer thread and one consumer thread
+ * <p>
+ * holds the little endian bytes as written, both sides copy in bulk; counts are in samples, only whole
+ * samples go in. nothing is allocated after construction.
+ */
+public class PcmRing {
+
+    private final byte[] mBytes;
+    private final int mMask;
+    /**
+     * next byte to read, written by consumer only
+     */
+    private final AtomicLong mHead = new AtomicLong(0L);
+    /**
+     * next byte to write, written by producer only
+     */
+    private final AtomicLong mTail = new AtomicLong(0L);
+
+    /**
+     * @param capacity in samples, rounded up to a power of two
+     */
+    public PcmRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+        mBytes = new byte[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * producer thread only. copies as many samples as fit, the rest is dropped
+     *
+     * @param pcm little endian 16 bit pcm from offset, size bytes; its position is restored afterwards
+     * @return samples written
+     */
+    public int write(ByteBuffer pcm, int offset, int size) {
+        long tail = mTail.get();
+        int count = (int) Math.min(size & ~1, mBytes.length - (tail - mHead.get()));
+        int index = (int) tail & mMask;
+        int first = Math.min(count, mBytes.length - index);
+        int position = pcm.position();
+        pcm.position(offset);
+        pcm.get(mBytes, index, first);
+        pcm.get(mBytes, 0, count - first);
+        pcm.position(position);
+        mTail.lazySet(tail + count);
+        return count / 2;
+    }
+
+    /**
+     * consumer thread only
+     *
+     * @param dst     receives little endian pcm from offset, in bytes
+     * @param samples samples wanted
+     * @return samples read, fewer than wanted if the ring ran dry
+     */
+    public int read(byte[] dst, int offset, int samples) {
+        long head = mHead.get();
+        int count = (int) Math.min(samples * 2L, mTail.get() - head);
+        int index = (int) head & mMask;
+        int first = Math.min(count, mBytes.length - index);
+        System.arraycopy(mBytes, index, dst, offset, first);
+        System.arraycopy(mBytes, 0, dst, offset + first, count - first);
+        mHead.lazySet(head + count);
+        return count / 2;
+    }
+
+    /**
+     * consumer thread only; drops everything written so far
+     */
+    public void clear() {
+        mHead.lazySet(mTail.get());
+    }
+
+    /**
+     * @return samples buffered
+     */
+    public int size() {
+        return (int) (mTail.get() - mHead.get()) / 2;
+    }
+
+    /**
+     * @return in samples
+     */
+    public int capacity() {
+        return mBytes.length / 2;
+    }
+}
@@ -0,0 +1,34 @@
+package com.ztn.camera.capture;
+
+import com.baidu.cloud.mediaprocess.listener.OnDeviceFrameUpdateListener;
+
+/**
+ * where AudioCaptureSession gets its pcm from: the microphone, or a synthetic signal for
+ * tests and benchmarks
+ * <p>
+ * 16 bit interleaved pcm at the session's sample rate and channel count, at most 4096 bytes per
+ * buffer, pts in us since the epoch set by {@link #setEpochTimeInNs}.
+ */
+public interface AudioCaptureSource {
+
+    void setOnDeviceFrameUpdateListener(OnDeviceFrameUpdateListener listener);
+
+    void setEpochTimeInNs(long epochTimeInNs);
+
+    /**
+     * a disabled source still delivers, silence
+     */
+    void setEnabled(boolean isEnabled);
+
+    /**
+     * @return false if the source could not be opened
+     */
+    boolean open();
+
+    void close();
+
+    /**
+     * for echo cancellation against playback; 0 if the source has none
+     */
+    int getAudioSessionId();
+}
@@ -0,0 +1,80 @@
+package com.ztn.camera.capture;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+
+import com.baidu.cloud.mediaprocess.device.CameraCaptureDevice;
+
+/**
+ * the device camera through the vendored CameraCaptureDevice
+ */
+public class CameraCaptureSource implements VideoCaptureSource {
+
+    private final CameraCaptureDevice mCameraCaptureDevice;
+
+    public CameraCaptureSource(int width, int height, int fps, int cameraId, int cameraRotation) {
+        mCameraCaptureDevice = new CameraCaptureDevice(width, height, fps, cameraId, cameraRotation);
+    }
+
+    @Override
+    public boolean open(int width, int height, int fps, int cameraId) {
+        return mCameraCaptureDevice.openCamera(width, height, fps, cameraId);
+    }
+
+    @Override
+    public int getWidth() {
+        Camera.Size cameraSize = mCameraCaptureDevice.getCameraSize();
+        return cameraSize == null ? 0 : cameraSize.width;
+    }
+
+    @Override
+    public int getHeight() {
+        Camera.Size cameraSize = mCameraCaptureDevice.getCameraSize();
+        return cameraSize == null ? 0 : cameraSize.height;
+    }
+
+    @Override
+    public int getCurrentCameraId() {
+        return mCameraCaptureDevice.getCurrentCameraId();
+    }
+
+    @Override
+    public void startPreview(SurfaceTexture surfaceTexture) {
+        mCameraCaptureDevice.startCameraPreview(surfaceTexture);
+    }
+
+    @Override
+    public void close() {
+        mCameraCaptureDevice.closeCamera();
+    }
+
+    @Override
+    public void toggleFlash(boolean flag) {
+        mCameraCaptureDevice.toggleFlash(flag);
+    }
+
+    @Override
+    public boolean canSwitchCamera() {
+        return mCameraCaptureDevice.canSwitchCamera();
+    }
+
+    @Override
+    public void switchCamera(int cameraId) {
+        mCameraCaptureDevice.switchCamera(cameraId);
+    }
+
+    @Override
+    public void focusToPoint(int x, int y, int previewWidth, int previewHeight) {
+        mCameraCaptureDevice.focusToPoint(x, y, previewWidth, previewHeight);
+    }
+
+    @Override
+    public int getMaxZoomFactor() {
+        return mCameraCaptureDevice.getMaxZoomFactor();
+    }
+
+    @Override
+    public boolean setZoomFactor(int factor) {
+        return mCameraCaptureDevice.setZoomFactor(factor);
+    }
+}
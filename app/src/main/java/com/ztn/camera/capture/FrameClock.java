@@ -0,0 +1,66 @@
+package com.ztn.camera.capture;
+
+import java.util.Random;
+
+/**
+ * due times of a fixed rate source with random jitter, reproducible from a seed
+ * <p>
+ * each frame moves around its nominal slot; the jitter does not accumulate, so the mean rate stays
+ * exact, and due times never go backwards. one thread only.
+ */
+public class FrameClock {
+
+    private final double mPeriodNs;
+    private final long mMaxJitterNs;
+    private final Random mRandom;
+    private long mStartNs;
+    private long mFrameIndex;
+    private long mLastDueNs;
+
+    /**
+     * @param maxJitterUs a frame is due up to this much before or after its slot
+     * @param seed        same seed, same jitter
+     */
+    public FrameClock(double framesPerSecond, long maxJitterUs, long seed) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("framesPerSecond must be positive: " + framesPerSecond);
+        }
+        mPeriodNs = 1e9 / framesPerSecond;
+        mMaxJitterNs = Math.max(0L, maxJitterUs) * 1000L;
+        mRandom = new Random(seed);
+    }
+
+    public void start(long nowNs) {
+        mStartNs = nowNs;
+        mFrameIndex = 0L;
+        mLastDueNs = nowNs;
+    }
+
+    /**
+     * nominal time of the next frame, without jitter; pts of a synthetic frame
+     */
+    public long nextSlotNs() {
+        return mStartNs + Math.round(mFrameIndex * mPeriodNs);
+    }
+
+    /**
+     * @return when the next frame is due; moves on to the frame after it
+     */
+    public long nextDueNs() {
+        long dueNs = nextSlotNs();
+        if (mMaxJitterNs > 0) {
+            dueNs += (long) ((mRandom.nextDouble() * 2 - 1) * mMaxJitterNs);
+        }
+        dueNs = Math.max(dueNs, mLastDueNs);
+        mLastDueNs = dueNs;
+        mFrameIndex++;
+        return dueNs;
+    }
+
+    /**
+     * frames handed out by {@link #nextDueNs} since start
+     */
+    public long getFrameIndex() {
+        return mFrameIndex;
+    }
+}
@@ -0,0 +1,50 @@
+package com.ztn.camera.capture;
+
+import com.baidu.cloud.mediaprocess.device.AudioRecorderDevice;
+import com.baidu.cloud.mediaprocess.listener.OnDeviceFrameUpdateListener;
+
+/**
+ * the microphone through the vendored AudioRecorderDevice, always stereo
+ */
+public class MicrophoneSource implements AudioCaptureSource {
+
+    private final AudioRecorderDevice mAudioRecorderDevice;
+
+    /**
+     * @param audioSource one of MediaRecorder.AudioSource
+     */
+    public MicrophoneSource(int sampleRateHz, int audioSource) {
+        mAudioRecorderDevice = new AudioRecorderDevice(sampleRateHz, audioSource);
+        mAudioRecorderDevice.setNeedFixCaptureSize(true); // size is limited to 4096
+    }
+
+    @Override
+    public void setOnDeviceFrameUpdateListener(OnDeviceFrameUpdateListener listener) {
+        mAudioRecorderDevice.setOnDeviceFrameUpdateListener(listener);
+    }
+
+    @Override
+    public void setEpochTimeInNs(long epochTimeInNs) {
+        mAudioRecorderDevice.setEpochTimeInNs(epochTimeInNs);
+    }
+
+    @Override
+    public void setEnabled(boolean isEnabled) {
+        mAudioRecorderDevice.setAudioEnabled(isEnabled);
+    }
+
+    @Override
+    public boolean open() {
+        return mAudioRecorderDevice.openAudioRecorder();
+    }
+
+    @Override
+    public void close() {
+        mAudioRecorderDevice.closeAudioRecorder();
+    }
+
+    @Override
+    public int getAudioSessionId() {
+        return mAudioRecorderDevice.getRecorderAudioSessionId();
+    }
+}
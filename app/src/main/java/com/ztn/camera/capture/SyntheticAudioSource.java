@@ -0,0 +1,137 @@
+package com.ztn.camera.capture;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import com.baidu.cloud.mediaprocess.listener.OnDeviceFrameUpdateListener;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 合成音频采集源：无需麦克风，按采样率实时产生正弦音或白噪声，可加入抖动，用于测试和压测
+ * <p>
+ * delivers one aac frame of pcm per buffer, paced by a {@link FrameClock}; pts is the nominal time of the
+ * first sample, so jitter shows up as delivery delay like with a real recorder.
+ */
+public class SyntheticAudioSource implements AudioCaptureSource {
+    private static final String TAG = "SyntheticAudioSource";
+
+    // one aac frame, 4096 bytes in stereo like the recorder's buffers
+    static final int FRAMES_PER_BUFFER = 1024;
+    private static final double TONE_HZ = 440;
+    private static final double AMPLITUDE = 0.5;
+
+    private final int mSampleRateHz;
+    private final int mChannelCount;
+    private final int mWaveform;
+    private final long mMaxJitterUs;
+    private final long mSeed;
+
+    private volatile OnDeviceFrameUpdateListener mListener;
+    private volatile long mEpochTimeInNs = 0L;
+    private volatile boolean mIsEnabled = true;
+    private GeneratorThread mGeneratorThread;
+
+    /**
+     * @param waveform    {@link SyntheticPcm#WAVEFORM_TONE} or {@link SyntheticPcm#WAVEFORM_NOISE}
+     * @param maxJitterUs a buffer is delivered up to this much early or late
+     */
+    public SyntheticAudioSource(int sampleRateHz, int channelCount, int waveform, long maxJitterUs, long seed) {
+        mSampleRateHz = sampleRateHz;
+        mChannelCount = channelCount;
+        mWaveform = waveform;
+        mMaxJitterUs = maxJitterUs;
+        mSeed = seed;
+    }
+
+    @Override
+    public void setOnDeviceFrameUpdateListener(OnDeviceFrameUpdateListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setEpochTimeInNs(long epochTimeInNs) {
+        mEpochTimeInNs = epochTimeInNs;
+    }
+
+    @Override
+    public void setEnabled(boolean isEnabled) {
+        mIsEnabled = isEnabled;
+    }
+
+    @Override
+    public synchronized boolean open() {
+        if (mGeneratorThread == null) {
+            mGeneratorThread = new GeneratorThread();
+            mGeneratorThread.start();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        GeneratorThread generatorThread = mGeneratorThread;
+        mGeneratorThread = null;
+        if (generatorThread != null) {
+            generatorThread.quit();
+            try {
+                generatorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public int getAudioSessionId() {
+        return 0;
+    }
+
+    private class GeneratorThread extends Thread {
+        private volatile boolean mIsRunning = true;
+
+        GeneratorThread() {
+            super(TAG);
+        }
+
+        void quit() {
+            mIsRunning = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            FrameClock clock = new FrameClock((double) mSampleRateHz / FRAMES_PER_BUFFER, mMaxJitterUs, mSeed);
+            SyntheticPcm pcm = new SyntheticPcm(mWaveform, mSampleRateHz, mChannelCount, TONE_HZ, AMPLITUDE, mSeed);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * pcm.getBytesPerFrame());
+            byte[] silence = new byte[buffer.capacity()];
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            long bufferDurationNs = FRAMES_PER_BUFFER * 1000000000L / mSampleRateHz;
+            clock.start(System.nanoTime());
+            Log.i(TAG, "generating " + mSampleRateHz + "Hz x" + mChannelCount + ", jitter " + mMaxJitterUs + "us");
+            while (mIsRunning) {
+                long slotNs = clock.nextSlotNs();
+                // a buffer is complete one buffer duration after its first sample
+                long dueNs = clock.nextDueNs() + bufferDurationNs;
+                long waitNs;
+                while (mIsRunning && (waitNs = dueNs - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, waitNs);
+                }
+                OnDeviceFrameUpdateListener listener = mListener;
+                if (!mIsRunning || listener == null) {
+                    continue;
+                }
+                buffer.clear();
+                if (mIsEnabled) {
+                    pcm.fill(buffer, FRAMES_PER_BUFFER);
+                } else {
+                    buffer.put(silence);
+                }
+                buffer.flip();
+                bufferInfo.set(0, buffer.limit(), (slotNs - mEpochTimeInNs) / 1000, 0);
+                listener.onDeviceFrameUpdateSoon(buffer, bufferInfo);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ztn.camera.capture;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * 16 bit little endian interleaved pcm: a sine tone, continuous across buffers, or white noise
+ * reproducible from a seed. the same sample goes to every channel. one thread only.
+ */
+public class SyntheticPcm {
+
+    public static final int WAVEFORM_TONE = 0;
+    public static final int WAVEFORM_NOISE = 1;
+
+    private final int mWaveform;
+    private final int mChannelCount;
+    private final double mPhaseStep;
+    private final double mAmplitude;
+    private final Random mRandom;
+    private double mPhase = 0;
+
+    /**
+     * @param toneHz    frequency of {@link #WAVEFORM_TONE}, ignored for noise
+     * @param amplitude peak level in [0, 1] of full scale
+     */
+    public SyntheticPcm(int waveform, int sampleRateHz, int channelCount, double toneHz, double amplitude,
+                        long seed) {
+        mWaveform = waveform;
+        mChannelCount = channelCount;
+        mPhaseStep = 2 * Math.PI * toneHz / sampleRateHz;
+        mAmplitude = Math.max(0, Math.min(1, amplitude)) * Short.MAX_VALUE;
+        mRandom = new Random(seed);
+    }
+
+    public int getBytesPerFrame() {
+        return 2 * mChannelCount;
+    }
+
+    /**
+     * put frames sample frames at the position of out
+     */
+    public void fill(ByteBuffer out, int frames) {
+        for (int i = 0; i < frames; i++) {
+            int sample;
+            if (mWaveform == WAVEFORM_NOISE) {
+                sample = (int) ((mRandom.nextDouble() * 2 - 1) * mAmplitude);
+            } else {
+                sample = (int) Math.round(Math.sin(mPhase) * mAmplitude);
+                mPhase += mPhaseStep;
+                if (mPhase >= 2 * Math.PI) {
+                    mPhase -= 2 * Math.PI;
+                }
+            }
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                out.put((byte) sample);
+                out.put((byte) (sample >> 8));
+            }
+        }
+    }
+}
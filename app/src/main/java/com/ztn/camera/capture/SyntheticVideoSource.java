@@ -0,0 +1,189 @@
+package com.ztn.camera.capture;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.SurfaceTexture;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 合成视频采集源：无需摄像头，按帧率向滤镜输入绘制测试图案，可加入抖动，用于测试和压测
+ * <p>
+ * each frame has a background hue and a moving bar that change with the frame index, the index as
+ * {@link #INDEX_BITS} black and white blocks along the top edge, and index and slot time as text, so
+ * dropped or reordered frames can be told apart in the output. pictures depend only on the index,
+ * frame times only on rate, jitter and seed. the buffer timestamp is the time it was posted.
+ */
+public class SyntheticVideoSource implements VideoCaptureSource {
+    private static final String TAG = "SyntheticVideoSource";
+
+    static final int INDEX_BITS = 16;
+
+    private final long mMaxJitterUs;
+    private final long mSeed;
+    private int mWidth;
+    private int mHeight;
+    private int mFps;
+    private int mCameraId;
+    private DrawThread mDrawThread;
+
+    /**
+     * @param maxJitterUs a frame is drawn up to this much before or after its slot
+     */
+    public SyntheticVideoSource(long maxJitterUs, long seed) {
+        mMaxJitterUs = maxJitterUs;
+        mSeed = seed;
+    }
+
+    @Override
+    public boolean open(int width, int height, int fps, int cameraId) {
+        mWidth = width;
+        mHeight = height;
+        mFps = fps;
+        mCameraId = cameraId;
+        return true;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getCurrentCameraId() {
+        return mCameraId;
+    }
+
+    @Override
+    public synchronized void startPreview(SurfaceTexture surfaceTexture) {
+        stopDrawing();
+        surfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+        mDrawThread = new DrawThread(surfaceTexture);
+        mDrawThread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        stopDrawing();
+    }
+
+    private void stopDrawing() {
+        DrawThread drawThread = mDrawThread;
+        mDrawThread = null;
+        if (drawThread != null) {
+            drawThread.quit();
+            try {
+                drawThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void toggleFlash(boolean flag) {
+    }
+
+    @Override
+    public boolean canSwitchCamera() {
+        return false;
+    }
+
+    @Override
+    public void switchCamera(int cameraId) {
+    }
+
+    @Override
+    public void focusToPoint(int x, int y, int previewWidth, int previewHeight) {
+    }
+
+    @Override
+    public int getMaxZoomFactor() {
+        return 0;
+    }
+
+    @Override
+    public boolean setZoomFactor(int factor) {
+        return false;
+    }
+
+    private class DrawThread extends Thread {
+        private final SurfaceTexture mSurfaceTexture;
+        private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final float[] mHsv = {0f, 0.6f, 0.8f};
+        private volatile boolean mIsRunning = true;
+
+        DrawThread(SurfaceTexture surfaceTexture) {
+            super(TAG);
+            mSurfaceTexture = surfaceTexture;
+        }
+
+        void quit() {
+            mIsRunning = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            Surface surface = new Surface(mSurfaceTexture);
+            FrameClock clock = new FrameClock(mFps, mMaxJitterUs, mSeed);
+            clock.start(System.nanoTime());
+            long startNs = clock.nextSlotNs();
+            Log.i(TAG, "drawing " + mWidth + "x" + mHeight + "@" + mFps + ", jitter " + mMaxJitterUs + "us");
+            try {
+                while (mIsRunning) {
+                    long frameIndex = clock.getFrameIndex();
+                    long slotNs = clock.nextSlotNs();
+                    long dueNs = clock.nextDueNs();
+                    long waitNs;
+                    while (mIsRunning && (waitNs = dueNs - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(this, waitNs);
+                    }
+                    if (!mIsRunning) {
+                        break;
+                    }
+                    Canvas canvas = surface.lockCanvas(null);
+                    try {
+                        draw(canvas, frameIndex, (slotNs - startNs) / 1000000);
+                    } finally {
+                        surface.unlockCanvasAndPost(canvas);
+                    }
+                }
+            } catch (Exception e) {
+                // the filter released its texture under us
+                Log.w(TAG, "draw failed. errorMsg=" + e.getMessage());
+            } finally {
+                surface.release();
+            }
+        }
+
+        private void draw(Canvas canvas, long frameIndex, long slotMs) {
+            mHsv[0] = frameIndex * 3 % 360;
+            canvas.drawColor(Color.HSVToColor(mHsv));
+
+            int barWidth = Math.max(1, mWidth / 20);
+            float barX = frameIndex * 4 % Math.max(1, mWidth - barWidth);
+            mPaint.setColor(Color.WHITE);
+            canvas.drawRect(barX, 0, barX + barWidth, mHeight, mPaint);
+
+            float blockWidth = (float) mWidth / INDEX_BITS;
+            float blockHeight = Math.max(8f, mHeight / 20f);
+            for (int bit = 0; bit < INDEX_BITS; bit++) {
+                mPaint.setColor((frameIndex >> (INDEX_BITS - 1 - bit) & 1) != 0 ? Color.WHITE : Color.BLACK);
+                canvas.drawRect(bit * blockWidth, 0, (bit + 1) * blockWidth, blockHeight, mPaint);
+            }
+
+            mPaint.setColor(Color.WHITE);
+            mPaint.setTextSize(blockHeight);
+            canvas.drawText("#" + frameIndex + " " + slotMs + "ms", blockWidth, blockHeight * 3, mPaint);
+        }
+    }
+}
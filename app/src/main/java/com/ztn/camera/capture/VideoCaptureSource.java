@@ -0,0 +1,43 @@
+package com.ztn.camera.capture;
+
+import android.graphics.SurfaceTexture;
+
+/**
+ * where VideoCaptureSession gets its pictures from: the camera, or a synthetic pattern for
+ * tests and benchmarks on devices without one
+ * <p>
+ * frames go into the filter's input SurfaceTexture, stamped on the System.nanoTime() clock.
+ * controls a source does not have are ignored.
+ */
+public interface VideoCaptureSource {
+
+    /**
+     * @return false if the source could not be opened
+     */
+    boolean open(int width, int height, int fps, int cameraId);
+
+    /**
+     * size of the frames delivered, valid after open
+     */
+    int getWidth();
+
+    int getHeight();
+
+    int getCurrentCameraId();
+
+    void startPreview(SurfaceTexture surfaceTexture);
+
+    void close();
+
+    void toggleFlash(boolean flag);
+
+    boolean canSwitchCamera();
+
+    void switchCamera(int cameraId);
+
+    void focusToPoint(int x, int y, int previewWidth, int previewHeight);
+
+    int getMaxZoomFactor();
+
+    boolean setZoomFactor(int factor);
+}
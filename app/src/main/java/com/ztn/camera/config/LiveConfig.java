@@ -37,11 +37,20 @@ public class LiveConfig {
         private int initVideoBitrate = 1024000; // 默认视频码率1024kb(单位为bit)
         private boolean enableQos = true; // 开启动态码率设置
         private int qosSensitivity = 5;
+        private boolean frameRateAdaptationEnabled = false; // 拥塞时是否同时降低帧率
+        private boolean audioOnlyFallbackEnabled = false; // 带宽过低时是否切换为纯音频
+        private int audioOnlyThresholdBitrate = 0; // 上行带宽低于该值时切换纯音频，0表示取最低码率
+        private int audioOnlyRetryInSeconds = 5; // 纯音频至少持续的时长，之后尝试恢复视频
+        private int bandwidthProbeDurationMs = 0; // 连接后探测上行带宽的最长时长，0为不探测
+        private int encoderStallTimeoutMs = 3000; // 编码器无输出超过该时长时重建编码器，0为不检测
         private int maxVideoBitrate = 1024000; // 最高码率
         private int minVideoBitrate = 200000; // 最低码率
         private int audioSampleRate = AUDIO_SAMPLE_RATE_44100; // 默认音频采样率44100
         private int audioBitrate = 64000; // 默认音频码率64k(单位为bit)
         private int gopLengthInSeconds = 2; // 默认GOP长度2秒(即：两个I帧的间隔)
+        private boolean lowLatencyEncoderEnabled = false; // 低延迟编码：帧内刷新代替周期性I帧
+        private boolean seiTimestampEnabled = false; // 视频帧携带采集时间SEI，用于测量端到端延迟
+        private boolean pcmMixerEnabled = false; // 采集线程内混音，复用缓冲区，支持多路音轨
         private float micGain = 1.0f; // 默认音量增益为1.0
         private float musicGain = 1.0f; // 默认音乐音量增益为1.0
 
@@ -227,6 +236,134 @@ public class LiveConfig {
             return this;
         }
 
+        /**
+         * 开启后，动态码率降到当前分辨率和帧率下画质过差时，同时降低编码帧率（如25->15->10），
+         * 网络恢复后帧率逐步回升；需要开启动态码率，默认关闭
+         *
+         * @param frameRateAdaptationEnabled true为开启；false为关闭
+         * @return
+         */
+        public final Builder setFrameRateAdaptationEnabled(boolean frameRateAdaptationEnabled) {
+            this.frameRateAdaptationEnabled = frameRateAdaptationEnabled;
+            return this;
+        }
+
+        /**
+         * 开启后，码率已降到最低而上行带宽仍不足时，暂停推送视频只推音频，观众端画面停在最后一个关键帧；
+         * 之后定期尝试恢复视频，恢复时立即发送关键帧。预览不受影响；需要开启动态码率，默认关闭
+         *
+         * @param audioOnlyFallbackEnabled true为开启；false为关闭
+         * @return
+         */
+        public final Builder setAudioOnlyFallbackEnabled(boolean audioOnlyFallbackEnabled) {
+            this.audioOnlyFallbackEnabled = audioOnlyFallbackEnabled;
+            return this;
+        }
+
+        /**
+         * 纯音频模式阈值：拥塞时测得的上行带宽低于该值时切换纯音频，默认0即取视频最小码率
+         *
+         * @param audioOnlyThresholdBitrate 单位为bit
+         * @return
+         */
+        public final Builder setAudioOnlyThresholdBitrate(int audioOnlyThresholdBitrate) {
+            if (audioOnlyThresholdBitrate < 0) {
+                Log.e(TAG, "audioOnlyThresholdBitrate is not set, should not be negative");
+                return this;
+            }
+            this.audioOnlyThresholdBitrate = audioOnlyThresholdBitrate;
+            return this;
+        }
+
+        /**
+         * 纯音频模式至少持续的时长，之后尝试恢复视频；恢复后很快再次切换纯音频时，下次时长加倍。默认5秒
+         *
+         * @param audioOnlyRetryInSeconds 取值[1, 60]
+         * @return
+         */
+        public final Builder setAudioOnlyRetryInSeconds(int audioOnlyRetryInSeconds) {
+            if (audioOnlyRetryInSeconds < 1 || audioOnlyRetryInSeconds > 60) {
+                Log.e(TAG, "audioOnlyRetryInSeconds is not set, should be between [1, 60]");
+                return this;
+            }
+            this.audioOnlyRetryInSeconds = audioOnlyRetryInSeconds;
+            return this;
+        }
+
+        /**
+         * 开始推流时先探测上行带宽，据此在最小和最大码率之间选择初始码率，代替固定的初始码率；
+         * 探测在连接成功后、发送第一帧之前进行，探测数据不会进入直播流。
+         * 仅对configRtmpPublisher生效，默认0即不探测
+         *
+         * @param bandwidthProbeDurationMs 探测的最长时长，取值0或[200, 3000]毫秒
+         * @return
+         */
+        public final Builder setBandwidthProbeDurationMs(int bandwidthProbeDurationMs) {
+            if (bandwidthProbeDurationMs != 0
+                    && (bandwidthProbeDurationMs < 200 || bandwidthProbeDurationMs > 3000)) {
+                Log.e(TAG, "bandwidthProbeDurationMs is not set, should be 0 or between [200, 3000]");
+                return this;
+            }
+            this.bandwidthProbeDurationMs = bandwidthProbeDurationMs;
+            return this;
+        }
+
+        /**
+         * 推流期间编码器持续有输入却没有输出（如设备过热、编码Surface失效）超过该时长时，只重建出问题的
+         * 音频或视频编码器，重新发送序列头并从关键帧恢复；卡死和恢复耗时通过CaptureErrorListener回调
+         *
+         * @param encoderStallTimeoutMs 取值0或[1000, 30000]毫秒，0为不检测，默认3000
+         * @return
+         */
+        public final Builder setEncoderStallTimeoutMs(int encoderStallTimeoutMs) {
+            if (encoderStallTimeoutMs != 0
+                    && (encoderStallTimeoutMs < 1000 || encoderStallTimeoutMs > 30000)) {
+                Log.e(TAG, "encoderStallTimeoutMs is not set, should be 0 or between [1000, 30000]");
+                return this;
+            }
+            this.encoderStallTimeoutMs = encoderStallTimeoutMs;
+            return this;
+        }
+
+        /**
+         * 低延迟编码：设备支持时用逐帧的帧内刷新代替周期性I帧，刷新周期为GOP长度，完整I帧间隔延长为GOP的数倍，
+         * 避免I帧造成的码率尖峰和发送队列堆积；同时使用实时优先级、固定码率、无B帧等低延迟参数。
+         * 设备不支持时自动退回普通编码参数，默认关闭
+         *
+         * @param lowLatencyEncoderEnabled true为开启；false为关闭
+         * @return
+         */
+        public final Builder setLowLatencyEncoderEnabled(boolean lowLatencyEncoderEnabled) {
+            this.lowLatencyEncoderEnabled = lowLatencyEncoderEnabled;
+            return this;
+        }
+
+        /**
+         * 推流的每个视频帧前插入一个SEI(user_data_unregistered)，内容为该帧的采集时间(毫秒，系统时间)，
+         * 播放端或测试工具用SeiTimestamp解析后与本地时间比较即可得到逐帧的端到端延迟。
+         * 仅用于测量，每帧约多30字节，本地录制不受影响，默认关闭
+         *
+         * @param seiTimestampEnabled true为开启；false为关闭
+         * @return
+         */
+        public final Builder setSeiTimestampEnabled(boolean seiTimestampEnabled) {
+            this.seiTimestampEnabled = seiTimestampEnabled;
+            return this;
+        }
+
+        /**
+         * 使用内置混音器代替AudioFilter：在麦克风采集线程中直接混合背景音乐及通过getAudioMixer添加的音效、连麦等音轨，
+         * 每路音轨可单独设置增益和按采样点对齐的开始时间，超出满幅时平滑压限；混音缓冲区复用，每帧不再分配内存。
+         * 默认关闭
+         *
+         * @param pcmMixerEnabled true为开启；false为关闭
+         * @return
+         */
+        public final Builder setPcmMixerEnabled(boolean pcmMixerEnabled) {
+            this.pcmMixerEnabled = pcmMixerEnabled;
+            return this;
+        }
+
         /**
          * 动态码率设置-视频最大码率
          *
@@ -343,11 +480,20 @@ public class LiveConfig {
     private final int initVideoBitrate;
     private final boolean qosEnabled;
     private final int qosSensitivity;
+    private final boolean frameRateAdaptationEnabled;
+    private final boolean audioOnlyFallbackEnabled;
+    private final int audioOnlyThresholdBitrate;
+    private final int audioOnlyRetryInSeconds;
+    private final int bandwidthProbeDurationMs;
+    private final int encoderStallTimeoutMs;
     private final int maxVideoBitrate;
     private final int minVideoBitrate;
     private final int audioSampleRate;
     private final int audioBitrate;
     private final int gopLengthInSeconds;
+    private final boolean lowLatencyEncoderEnabled;
+    private final boolean seiTimestampEnabled;
+    private final boolean pcmMixerEnabled;
     private final float micGain;
     private final float musicGain;
 
@@ -365,11 +511,20 @@ public class LiveConfig {
         this.initVideoBitrate = builder.initVideoBitrate;
         this.qosEnabled = builder.enableQos;
         this.qosSensitivity = builder.qosSensitivity;
+        this.frameRateAdaptationEnabled = builder.frameRateAdaptationEnabled;
+        this.audioOnlyFallbackEnabled = builder.audioOnlyFallbackEnabled;
+        this.audioOnlyThresholdBitrate = builder.audioOnlyThresholdBitrate;
+        this.audioOnlyRetryInSeconds = builder.audioOnlyRetryInSeconds;
+        this.bandwidthProbeDurationMs = builder.bandwidthProbeDurationMs;
+        this.encoderStallTimeoutMs = builder.encoderStallTimeoutMs;
         this.maxVideoBitrate = builder.maxVideoBitrate;
         this.minVideoBitrate = builder.minVideoBitrate;
         this.audioSampleRate = builder.audioSampleRate;
         this.audioBitrate = builder.audioBitrate;
         this.gopLengthInSeconds = builder.gopLengthInSeconds;
+        this.lowLatencyEncoderEnabled = builder.lowLatencyEncoderEnabled;
+        this.seiTimestampEnabled = builder.seiTimestampEnabled;
+        this.pcmMixerEnabled = builder.pcmMixerEnabled;
         this.micGain = builder.micGain;
         this.musicGain = builder.musicGain;
     }
@@ -432,6 +587,33 @@ public class LiveConfig {
         return qosSensitivity;
     }
 
+    public boolean isFrameRateAdaptationEnabled() {
+        return frameRateAdaptationEnabled;
+    }
+
+    public boolean isAudioOnlyFallbackEnabled() {
+        return audioOnlyFallbackEnabled;
+    }
+
+    /**
+     * @return 未设置时为视频最小码率
+     */
+    public int getAudioOnlyThresholdBitrate() {
+        return audioOnlyThresholdBitrate > 0 ? audioOnlyThresholdBitrate : minVideoBitrate;
+    }
+
+    public int getAudioOnlyRetryInSeconds() {
+        return audioOnlyRetryInSeconds;
+    }
+
+    public int getBandwidthProbeDurationMs() {
+        return bandwidthProbeDurationMs;
+    }
+
+    public int getEncoderStallTimeoutMs() {
+        return encoderStallTimeoutMs;
+    }
+
     public int getMaxVideoBitrate() {
         return maxVideoBitrate;
     }
@@ -448,6 +630,18 @@ public class LiveConfig {
         return gopLengthInSeconds;
     }
 
+    public boolean isLowLatencyEncoderEnabled() {
+        return lowLatencyEncoderEnabled;
+    }
+
+    public boolean isSeiTimestampEnabled() {
+        return seiTimestampEnabled;
+    }
+
+    public boolean isPcmMixerEnabled() {
+        return pcmMixerEnabled;
+    }
+
     public float getMicGain() {
         return micGain;
     }
@@ -471,11 +665,20 @@ public class LiveConfig {
         sder.append(";initVideoBitrate=").append(initVideoBitrate);
         sder.append(";qosEnabled=").append(qosEnabled);
         sder.append(";qosSensitivity=").append(qosSensitivity);
+        sder.append(";frameRateAdaptationEnabled=").append(frameRateAdaptationEnabled);
+        sder.append(";audioOnlyFallbackEnabled=").append(audioOnlyFallbackEnabled);
+        sder.append(";audioOnlyThresholdBitrate=").append(getAudioOnlyThresholdBitrate());
+        sder.append(";audioOnlyRetryInSeconds=").append(audioOnlyRetryInSeconds);
+        sder.append(";bandwidthProbeDurationMs=").append(bandwidthProbeDurationMs);
+        sder.append(";encoderStallTimeoutMs=").append(encoderStallTimeoutMs);
         sder.append(";maxVideoBitrate=").append(maxVideoBitrate);
         sder.append(";minVideoBitrate=").append(minVideoBitrate);
         sder.append(";audioSampleRate=").append(audioSampleRate);
         sder.append(";audioBitrate=").append(audioBitrate);
         sder.append(";gopLengthInSeconds=").append(gopLengthInSeconds);
+        sder.append(";lowLatencyEncoderEnabled=").append(lowLatencyEncoderEnabled);
+        sder.append(";seiTimestampEnabled=").append(seiTimestampEnabled);
+        sder.append(";pcmMixerEnabled=").append(pcmMixerEnabled);
         return sder.toString();
     }
 }
@@ -0,0 +1,75 @@
+package com.ztn.camera.encoder;
+
+import android.view.Surface;
+
+import com.baidu.cloud.mediaprocess.encoder.VideoMediaEncoder;
+import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
+import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
+import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+
+/**
+ * the vendored VideoMediaEncoder: periodic IDR every GOP, codec default latency
+ */
+public class DefaultVideoEncoder implements VideoEncoder {
+
+    private final VideoMediaEncoder mEncoder;
+
+    public DefaultVideoEncoder(String mimeType) {
+        mEncoder = new VideoMediaEncoder(mimeType);
+    }
+
+    @Override
+    public void setOnProcessOverListener(OnFinishListener listener) {
+        mEncoder.setOnProcessOverListener(listener);
+    }
+
+    @Override
+    public void setMediaFormatChangedListener(MediaFormatChangedListener listener) {
+        mEncoder.setMediaFormatChangedListener(listener);
+    }
+
+    @Override
+    public void setOnEncodedFrameUpdateListener(OnEncodedFrameUpdateListener listener) {
+        mEncoder.setOnEncodedFrameUpdateListener(listener);
+    }
+
+    @Override
+    public void setupEncoder(int width, int height, int bitrateInKbps, int fps, int gopLengthInSeconds) {
+        mEncoder.setupEncoder(width, height, bitrateInKbps, fps, gopLengthInSeconds);
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mEncoder.getInputSurface();
+    }
+
+    @Override
+    public void start() {
+        mEncoder.start();
+    }
+
+    @Override
+    public void stop() {
+        mEncoder.stop();
+    }
+
+    @Override
+    public void release() {
+        mEncoder.release();
+    }
+
+    @Override
+    public void frameAvailableSoon() {
+        mEncoder.frameAvailableSoon();
+    }
+
+    @Override
+    public boolean requestKeyFrame() {
+        return mEncoder.requestKeyFrame();
+    }
+
+    @Override
+    public void changeBitrate(int bitrateInKbps) {
+        mEncoder.changeBitrate(bitrateInKbps);
+    }
+}
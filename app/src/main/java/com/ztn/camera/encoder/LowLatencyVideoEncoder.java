@@ -0,0 +1,292 @@
+package com.ztn.camera.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Surface;
+
+import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
+import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
+import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 低延迟视频编码器
+ * <p>
+ * a short GOP sends a full IDR every couple of seconds, each several times the size of a P frame, and
+ * every one of them is a burst in the send queue. where the codec supports it, a gradual intra refresh
+ * cleans the picture over one GOP length instead, and full IDRs come only every
+ * {@link #IDR_INTERVAL_FACTOR} GOPs or on request. also asks for realtime priority, one frame of latency,
+ * constant bitrate and no B-frames where the platform has the keys.
+ * <p>
+ * if the codec rejects that configuration it is configured again with the plain keys, so devices
+ * without support behave like the default encoder. output is drained by a thread blocking on the codec,
+ * so a frame leaves as soon as it is encoded.
+ */
+public class LowLatencyVideoEncoder implements VideoEncoder {
+    private static final String TAG = "LowLatencyVideoEncoder";
+
+    /**
+     * with intra refresh, periodic IDRs only for players joining mid-stream
+     */
+    static final int IDR_INTERVAL_FACTOR = 5;
+    private static final long DRAIN_TIMEOUT_US = 10000L;
+    // newer than the compile sdk
+    private static final String KEY_MAX_B_FRAMES = "max-bframes"; // api 29
+    private static final String KEY_LOW_LATENCY = "low-latency"; // api 30
+
+    private final String mMimeType;
+    private volatile MediaCodec mCodec;
+    private Surface mInputSurface;
+    private DrainThread mDrainThread;
+    private volatile boolean mIsStarted = false;
+    private boolean mIsIntraRefresh = false;
+
+    private volatile OnFinishListener mOnFinishListener;
+    private volatile MediaFormatChangedListener mMediaFormatChangedListener;
+    private volatile OnEncodedFrameUpdateListener mOnEncodedFrameUpdateListener;
+
+    public LowLatencyVideoEncoder(String mimeType) {
+        mMimeType = mimeType;
+    }
+
+    @Override
+    public void setOnProcessOverListener(OnFinishListener listener) {
+        mOnFinishListener = listener;
+    }
+
+    @Override
+    public void setMediaFormatChangedListener(MediaFormatChangedListener listener) {
+        mMediaFormatChangedListener = listener;
+    }
+
+    @Override
+    public void setOnEncodedFrameUpdateListener(OnEncodedFrameUpdateListener listener) {
+        mOnEncodedFrameUpdateListener = listener;
+    }
+
+    /**
+     * @throws IllegalStateException if no encoder could be configured
+     */
+    @Override
+    public void setupEncoder(int width, int height, int bitrateInKbps, int fps, int gopLengthInSeconds) {
+        try {
+            mCodec = MediaCodec.createEncoderByType(mMimeType);
+            try {
+                mCodec.configure(createFormat(width, height, bitrateInKbps, fps, gopLengthInSeconds, true),
+                        null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            } catch (Exception e) {
+                Log.w(TAG, "low latency configuration rejected, using plain keys. errorMsg=" + e.getMessage());
+                mCodec.release();
+                mCodec = MediaCodec.createEncoderByType(mMimeType);
+                mIsIntraRefresh = false;
+                mCodec.configure(createFormat(width, height, bitrateInKbps, fps, gopLengthInSeconds, false),
+                        null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            }
+            mInputSurface = mCodec.createInputSurface();
+            mCodec.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("create " + mMimeType + " encoder failed", e);
+        }
+        mDrainThread = new DrainThread(mCodec);
+        mDrainThread.start();
+        Log.i(TAG, "encoder setup " + width + "x" + height + ", intra refresh " + mIsIntraRefresh);
+    }
+
+    private MediaFormat createFormat(int width, int height, int bitrateInKbps, int fps, int gopLengthInSeconds,
+                                     boolean isLowLatency) {
+        MediaFormat format = MediaFormat.createVideoFormat(mMimeType, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrateInKbps * 1000);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, fps);
+        int idrIntervalInSeconds = gopLengthInSeconds;
+        if (isLowLatency) {
+            MediaCodecInfo.CodecCapabilities capabilities = getCapabilities();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && capabilities != null
+                    && capabilities.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_IntraRefresh)) {
+                mIsIntraRefresh = true;
+                format.setInteger(MediaFormat.KEY_INTRA_REFRESH_PERIOD, Math.max(1, fps * gopLengthInSeconds));
+                idrIntervalInSeconds = gopLengthInSeconds * IDR_INTERVAL_FACTOR;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && capabilities != null
+                    && capabilities.getEncoderCapabilities().isBitrateModeSupported(
+                    MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR)) {
+                format.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // 0 is realtime
+                format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+                format.setInteger(MediaFormat.KEY_LATENCY, 1);
+            }
+            if (Build.VERSION.SDK_INT >= 29) {
+                format.setInteger(KEY_MAX_B_FRAMES, 0);
+            }
+            if (Build.VERSION.SDK_INT >= 30) {
+                format.setInteger(KEY_LOW_LATENCY, 1);
+            }
+        }
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, idrIntervalInSeconds);
+        return format;
+    }
+
+    private MediaCodecInfo.CodecCapabilities getCapabilities() {
+        try {
+            return mCodec.getCodecInfo().getCapabilitiesForType(mMimeType);
+        } catch (Exception e) {
+            Log.w(TAG, "no capabilities for " + mMimeType + ". errorMsg=" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * true if periodic IDRs were replaced by intra refresh
+     */
+    public boolean isIntraRefresh() {
+        return mIsIntraRefresh;
+    }
+
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void start() {
+        mIsStarted = true;
+    }
+
+    @Override
+    public void stop() {
+        mIsStarted = false;
+    }
+
+    @Override
+    public void release() {
+        DrainThread drainThread = mDrainThread;
+        mDrainThread = null;
+        if (drainThread != null) {
+            drainThread.quit();
+            try {
+                drainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        MediaCodec codec = mCodec;
+        mCodec = null;
+        if (codec != null) {
+            codec.stop();
+            codec.release();
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+    }
+
+    /**
+     * the drain thread does not wait for this
+     */
+    @Override
+    public void frameAvailableSoon() {
+    }
+
+    @Override
+    public boolean requestKeyFrame() {
+        MediaCodec codec = mCodec;
+        if (codec == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            codec.setParameters(params);
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void changeBitrate(int bitrateInKbps) {
+        MediaCodec codec = mCodec;
+        if (codec == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrateInKbps * 1000);
+        try {
+            codec.setParameters(params);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "change bitrate failed. errorMsg=" + e.getMessage());
+        }
+    }
+
+    private class DrainThread extends Thread {
+        private final MediaCodec mDrainedCodec;
+        private volatile boolean mIsRunning = true;
+
+        DrainThread(MediaCodec codec) {
+            super(TAG);
+            mDrainedCodec = codec;
+        }
+
+        void quit() {
+            mIsRunning = false;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void run() {
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            ByteBuffer[] outputBuffers = mDrainedCodec.getOutputBuffers();
+            try {
+                while (mIsRunning) {
+                    int index = mDrainedCodec.dequeueOutputBuffer(bufferInfo, DRAIN_TIMEOUT_US);
+                    if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                        continue;
+                    }
+                    if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                        outputBuffers = mDrainedCodec.getOutputBuffers();
+                        continue;
+                    }
+                    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        MediaFormat format = mDrainedCodec.getOutputFormat();
+                        Log.d(TAG, "encoder output format changed: " + format);
+                        MediaFormatChangedListener listener = mMediaFormatChangedListener;
+                        if (listener != null) {
+                            listener.onMediaFormatChanged(format);
+                        }
+                        continue;
+                    }
+                    if (index < 0) {
+                        Log.w(TAG, "unexpected result from encoder.dequeueOutputBuffer: " + index);
+                        continue;
+                    }
+                    OnEncodedFrameUpdateListener listener = mOnEncodedFrameUpdateListener;
+                    if (bufferInfo.size > 0 && mIsStarted && listener != null) {
+                        ByteBuffer buffer = outputBuffers[index];
+                        buffer.position(bufferInfo.offset);
+                        buffer.limit(bufferInfo.offset + bufferInfo.size);
+                        listener.onEncodedFrameUpdate(buffer, bufferInfo);
+                    }
+                    mDrainedCodec.releaseOutputBuffer(index, false);
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, Log.getStackTraceString(e));
+                OnFinishListener listener = mOnFinishListener;
+                if (mIsRunning && listener != null) {
+                    listener.onFinish(false, 0, "video encoder error");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.ztn.camera.encoder;
+
+import android.view.Surface;
+
+import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
+import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
+import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+
+/**
+ * h.264 encoder fed from a surface, as used by the capture sessions
+ * <p>
+ * same contract as the vendored VideoMediaEncoder: {@link #setupEncoder} configures and starts the codec,
+ * output is handed to the listener only between {@link #start} and {@link #stop}, and the codec config
+ * comes through the MediaFormatChangedListener before the first frame.
+ */
+public interface VideoEncoder {
+
+    void setOnProcessOverListener(OnFinishListener listener);
+
+    void setMediaFormatChangedListener(MediaFormatChangedListener listener);
+
+    void setOnEncodedFrameUpdateListener(OnEncodedFrameUpdateListener listener);
+
+    void setupEncoder(int width, int height, int bitrateInKbps, int fps, int gopLengthInSeconds);
+
+    Surface getInputSurface();
+
+    void start();
+
+    void stop();
+
+    void release();
+
+    /**
+     * a frame was drawn into the input surface
+     */
+    void frameAvailableSoon();
+
+    boolean requestKeyFrame();
+
+    void changeBitrate(int bitrateInKbps);
+}
@@ -0,0 +1,112 @@
+package com.ztn.camera.face;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.baidu.cloud.gesturedetector.FaceDetector;
+import com.baidu.idl.facesdk.FaceInfo;
+
+/**
+ * 降频人脸检测：只把部分渲染帧交给检测，中间帧按前两次检测结果推算人脸位置
+ * <p>
+ * the vendored detector reads every frame back from the render thread and detects on its own thread.
+ * here only every {@link FaceDetectionScheduler#getInterval()} frames are read back, at the size given
+ * to {@link #setup} (keep it small, the detector needs more than 100 pixels per side), and never while
+ * a detection is running. the interval grows while render frames come late. frames in between get faces
+ * from {@link FacePredictor}, on the render thread; detected faces come on the detection thread.
+ * <p>
+ * used like the vendored detector: pass it to setFaceDetector and call setup from the render thread.
+ */
+public class DecimatedFaceDetector extends FaceDetector {
+
+    private final OnFaceDetectedCallback mCallback;
+    private final FaceDetectionScheduler mScheduler;
+    private final FacePredictor mPredictor = new FacePredictor();
+    private volatile int mFaceFrameWidth;
+    private volatile int mFaceFrameHeight;
+
+    /**
+     * @param targetFps   render rate to protect, e.g. the capture fps
+     * @param minInterval detect at most every minInterval frames, 1 for every frame
+     */
+    public DecimatedFaceDetector(Context context, OnFaceDetectedCallback callback, int targetFps,
+                                 int minInterval) {
+        this(context, callback, new FaceDetectionScheduler(targetFps, minInterval), new Relay());
+    }
+
+    private DecimatedFaceDetector(Context context, OnFaceDetectedCallback callback,
+                                  FaceDetectionScheduler scheduler, Relay relay) {
+        super(context, relay);
+        mCallback = callback;
+        mScheduler = scheduler;
+        relay.mDetector = this;
+    }
+
+    /**
+     * render thread, every frame
+     */
+    @Override
+    public void onTextureUpdate(int textureId, int width, int height) {
+        long nowNs = System.nanoTime();
+        if (mScheduler.onRenderFrame(nowNs)) {
+            super.onTextureUpdate(textureId, width, height);
+            return;
+        }
+        FaceInfo[] faces = mPredictor.predict(nowNs);
+        if (faces != null && mCallback != null) {
+            mCallback.onFaceDetected(faces, mFaceFrameWidth, mFaceFrameHeight);
+        }
+    }
+
+    /**
+     * detection thread
+     */
+    private void onDetected(FaceInfo[] faces, int width, int height) {
+        mScheduler.onDetected(System.nanoTime(), SystemClock.currentThreadTimeMillis());
+        mFaceFrameWidth = width;
+        mFaceFrameHeight = height;
+        mPredictor.onDetected(faces, mScheduler.getSubmitTimeNs());
+        if (mCallback != null) {
+            mCallback.onFaceDetected(faces, width, height);
+        }
+    }
+
+    /**
+     * frames currently rendered between two detections
+     */
+    public int getDetectionInterval() {
+        return mScheduler.getInterval();
+    }
+
+    public float getRenderFps() {
+        return mScheduler.getRenderFps();
+    }
+
+    public float getDetectionLatencyMs() {
+        return mScheduler.getDetectionLatencyMs();
+    }
+
+    public float getDetectionCpuMs() {
+        return mScheduler.getDetectionCpuMs();
+    }
+
+    /**
+     * share of one core spent detecting
+     */
+    public float getDetectorLoad() {
+        return mScheduler.getDetectorLoad();
+    }
+
+    // the super constructor needs the callback before this exists
+    private static class Relay implements OnFaceDetectedCallback {
+        volatile DecimatedFaceDetector mDetector;
+
+        @Override
+        public void onFaceDetected(FaceInfo[] faces, int width, int height) {
+            DecimatedFaceDetector detector = mDetector;
+            if (detector != null) {
+                detector.onDetected(faces, width, height);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.ztn.camera.face;
+
+/**
+ * decides which render frames go to the face detector
+ * <p>
+ * one frame in every {@link #getInterval()}, and never while the previous one is still being detected.
+ * the interval follows the measured time between render frames: it grows after each window of frames
+ * that came later than the budget, and shrinks again only after several windows on time, so detection takes what the
+ * renderer can spare. also measures render fps, detection latency and detector cpu time.
+ * <p>
+ * {@link #onRenderFrame} from the render thread, {@link #onDetected} from the detection thread.
+ */
+public class FaceDetectionScheduler {
+
+    static final int MAX_INTERVAL = 8;
+    // frames per adaptation window
+    static final int WINDOW_FRAMES = 30;
+    // windows on time before the interval shrinks
+    static final int WINDOWS_TO_SHRINK = 3;
+    // a window whose frames average this much over budget is late
+    private static final float LATE_FACTOR = 1.15f;
+    private static final float EWMA_WEIGHT = 0.1f;
+    // a detection not reported by then is given up, e.g. the detector skipped the frame
+    static final long DETECTION_TIMEOUT_NS = 500000000L;
+
+    private final long mFrameBudgetNs;
+    private final int mMinInterval;
+
+    // render thread
+    private int mInterval;
+    private long mLastFrameNs = -1L;
+    private float mFrameNs = 0f;
+    private int mFramesSinceSubmit = 0;
+    private int mWindowFrames = 0;
+    private long mWindowNs = 0L;
+    private int mWindowsOnTime = 0;
+
+    private volatile boolean mIsBusy = false;
+    private volatile long mSubmitNs = 0L;
+
+    // detection thread
+    private float mLatencyNs = 0f;
+    private float mCpuMs = 0f;
+    private long mLastThreadCpuMs = -1L;
+
+    /**
+     * @param targetFps   render rate to protect
+     * @param minInterval detect at most every minInterval frames, 1 for every frame
+     */
+    public FaceDetectionScheduler(int targetFps, int minInterval) {
+        mFrameBudgetNs = 1000000000L / Math.max(1, targetFps);
+        mMinInterval = Math.max(1, Math.min(MAX_INTERVAL, minInterval));
+        mInterval = mMinInterval;
+    }
+
+    /**
+     * render thread, once per frame
+     *
+     * @return true if this frame should go to the detector
+     */
+    public boolean onRenderFrame(long nowNs) {
+        if (mLastFrameNs >= 0) {
+            long frameNs = nowNs - mLastFrameNs;
+            mFrameNs = mFrameNs == 0f ? frameNs : mFrameNs + (frameNs - mFrameNs) * EWMA_WEIGHT;
+            mWindowNs += frameNs;
+            if (++mWindowFrames >= WINDOW_FRAMES) {
+                adapt();
+            }
+        }
+        mLastFrameNs = nowNs;
+        mFramesSinceSubmit++;
+        if (mIsBusy) {
+            if (nowNs - mSubmitNs < DETECTION_TIMEOUT_NS) {
+                return false;
+            }
+            mIsBusy = false;
+        }
+        if (mFramesSinceSubmit < mInterval) {
+            return false;
+        }
+        mFramesSinceSubmit = 0;
+        mSubmitNs = nowNs;
+        mIsBusy = true;
+        return true;
+    }
+
+    private void adapt() {
+        if (mWindowNs > mFrameBudgetNs * mWindowFrames * LATE_FACTOR) {
+            mWindowsOnTime = 0;
+            if (mInterval < MAX_INTERVAL) {
+                mInterval++;
+            }
+        } else if (++mWindowsOnTime >= WINDOWS_TO_SHRINK) {
+            mWindowsOnTime = 0;
+            if (mInterval > mMinInterval) {
+                mInterval--;
+            }
+        }
+        mWindowFrames = 0;
+        mWindowNs = 0L;
+    }
+
+    /**
+     * detection thread, with the result of the last submitted frame
+     *
+     * @param threadCpuMs cpu time of the detection thread so far, or -1 if unknown
+     */
+    public void onDetected(long nowNs, long threadCpuMs) {
+        float latencyNs = nowNs - mSubmitNs;
+        mLatencyNs = mLatencyNs == 0f ? latencyNs : mLatencyNs + (latencyNs - mLatencyNs) * EWMA_WEIGHT;
+        if (threadCpuMs >= 0) {
+            if (mLastThreadCpuMs >= 0) {
+                float cpuMs = threadCpuMs - mLastThreadCpuMs;
+                mCpuMs = mCpuMs == 0f ? cpuMs : mCpuMs + (cpuMs - mCpuMs) * EWMA_WEIGHT;
+            }
+            mLastThreadCpuMs = threadCpuMs;
+        }
+        mIsBusy = false;
+    }
+
+    /**
+     * when the frame the next result belongs to was submitted
+     */
+    public long getSubmitTimeNs() {
+        return mSubmitNs;
+    }
+
+    public int getInterval() {
+        return mInterval;
+    }
+
+    public float getRenderFps() {
+        return mFrameNs > 0f ? 1e9f / mFrameNs : 0f;
+    }
+
+    /**
+     * from handing a frame over to its result
+     */
+    public float getDetectionLatencyMs() {
+        return mLatencyNs / 1e6f;
+    }
+
+    /**
+     * detector cpu time per detected frame
+     */
+    public float getDetectionCpuMs() {
+        return mCpuMs;
+    }
+
+    /**
+     * share of one core the detector takes at the current render rate and interval
+     */
+    public float getDetectorLoad() {
+        return mCpuMs * getRenderFps() / mInterval / 1000f;
+    }
+}
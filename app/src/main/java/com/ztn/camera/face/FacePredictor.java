@@ -0,0 +1,100 @@
+package com.ztn.camera.face;
+
+import com.baidu.idl.facesdk.FaceInfo;
+
+/**
+ * fills the frames between two face detections
+ * <p>
+ * a face seen in the last two detections under the same face_id keeps moving at the speed it had
+ * between them, for at most that long again, then holds still; a new face holds still until its second
+ * detection. the predicted faces are reused, valid until the next {@link #predict}.
+ */
+public class FacePredictor {
+
+    private FaceInfo[] mLast;
+    private FaceInfo[] mPrevious;
+    private long mLastNs;
+    private long mPreviousNs;
+    private FaceInfo[] mPredicted = new FaceInfo[0];
+
+    /**
+     * @param faces  detected in the frame rendered at frameNs, null or empty if none
+     */
+    public synchronized void onDetected(FaceInfo[] faces, long frameNs) {
+        if (faces == null || faces.length == 0) {
+            mLast = null;
+            mPrevious = null;
+            return;
+        }
+        mPrevious = mLast;
+        mPreviousNs = mLastNs;
+        mLast = faces;
+        mLastNs = frameNs;
+    }
+
+    /**
+     * @return faces expected in the frame rendered at nowNs, null if there are none
+     */
+    public synchronized FaceInfo[] predict(long nowNs) {
+        FaceInfo[] last = mLast;
+        if (last == null) {
+            return null;
+        }
+        if (mPredicted.length != last.length) {
+            mPredicted = new FaceInfo[last.length];
+        }
+        long spanNs = mLastNs - mPreviousNs;
+        long aheadNs = Math.max(0L, Math.min(nowNs - mLastNs, spanNs));
+        for (int i = 0; i < last.length; i++) {
+            FaceInfo face = last[i];
+            FaceInfo previous = mPrevious == null || spanNs <= 0 ? null : find(mPrevious, face.face_id);
+            float progress = previous == null ? 0f : (float) aheadNs / spanNs;
+            mPredicted[i] = predict(mPredicted[i], face, previous, progress);
+        }
+        return mPredicted;
+    }
+
+    private static FaceInfo predict(FaceInfo out, FaceInfo last, FaceInfo previous, float progress) {
+        int landmarkCount = last.landmarks == null ? 0 : last.landmarks.length;
+        if (out == null || (out.landmarks == null ? 0 : out.landmarks.length) != landmarkCount) {
+            out = new FaceInfo(0, 0, 0, 0, 0f, 0, landmarkCount == 0 ? null : new int[landmarkCount]);
+        }
+        out.face_id = last.face_id;
+        out.mConf = last.mConf;
+        out.headPose = last.headPose;
+        out.is_live = last.is_live;
+        if (previous == null) {
+            out.mWidth = last.mWidth;
+            out.mAngle = last.mAngle;
+            out.mCenter_x = last.mCenter_x;
+            out.mCenter_y = last.mCenter_y;
+            if (landmarkCount > 0) {
+                System.arraycopy(last.landmarks, 0, out.landmarks, 0, landmarkCount);
+            }
+            return out;
+        }
+        out.mWidth = extrapolate(previous.mWidth, last.mWidth, progress);
+        out.mAngle = extrapolate(previous.mAngle, last.mAngle, progress);
+        out.mCenter_x = extrapolate(previous.mCenter_x, last.mCenter_x, progress);
+        out.mCenter_y = extrapolate(previous.mCenter_y, last.mCenter_y, progress);
+        boolean isLandmarksMatching = previous.landmarks != null && previous.landmarks.length == landmarkCount;
+        for (int i = 0; i < landmarkCount; i++) {
+            out.landmarks[i] = isLandmarksMatching
+                    ? extrapolate(previous.landmarks[i], last.landmarks[i], progress) : last.landmarks[i];
+        }
+        return out;
+    }
+
+    private static int extrapolate(int previous, int last, float progress) {
+        return last + Math.round((last - previous) * progress);
+    }
+
+    private static FaceInfo find(FaceInfo[] faces, int faceId) {
+        for (FaceInfo face : faces) {
+            if (face.face_id == faceId) {
+                return face;
+            }
+        }
+        return null;
+    }
+}
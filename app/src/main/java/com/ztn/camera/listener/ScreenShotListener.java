@@ -0,0 +1,25 @@
+package com.ztn.camera.listener;
+
+import java.io.File;
+
+/**
+ * 异步截图结果通知，在截图线程中回调
+ */
+public interface ScreenShotListener {
+
+    /**
+     * 截图已写入文件
+     * @param file 目标文件
+     * @param width 图片宽度（缩放后）
+     * @param height 图片高度（缩放后）
+     * @param waitMs 等待滤镜线程读出画面的耗时（毫秒），约为截图给渲染增加的时间
+     * @param encodeMs 缩放与压缩写文件的耗时（毫秒），不占用渲染线程
+     */
+    void onScreenShot(File file, int width, int height, int waitMs, int encodeMs);
+
+    /**
+     * 截图失败：预览未运行、读出超时或写文件失败
+     * @param file 目标文件
+     */
+    void onScreenShotFailed(File file);
+}
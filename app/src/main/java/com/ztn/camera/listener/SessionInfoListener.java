@@ -16,6 +16,42 @@ public interface SessionInfoListener {
      * 开启动态码率后，视频码率会根据网络状态进行调整
      */
     public static final int INFO_QOS_BITRATE_DECREASED = 2;
+
+    /**
+     * 断线重连后恢复推流：
+     * 已重放缓存的GOP，extra为从断线到恢复的耗时（毫秒）
+     */
+    public static final int INFO_STREAM_RESUMED = 3;
+
+    /**
+     * 帧率上调：
+     * 开启拥塞降帧率后，网络恢复时编码帧率逐步回升，extra为新的帧率
+     */
+    public static final int INFO_QOS_FRAME_RATE_INCREASED = 4;
+
+    /**
+     * 帧率下调：
+     * 开启拥塞降帧率后，码率过低时降低编码帧率，extra为新的帧率
+     */
+    public static final int INFO_QOS_FRAME_RATE_DECREASED = 5;
+
+    /**
+     * 切换为纯音频：
+     * 开启纯音频降级后，带宽不足以推送最低码率的视频时暂停推送视频，extra为测得的上行带宽（bps）
+     */
+    public static final int INFO_QOS_AUDIO_ONLY_STARTED = 6;
+
+    /**
+     * 恢复视频：
+     * 纯音频模式结束，视频从下一个关键帧恢复推送
+     */
+    public static final int INFO_QOS_AUDIO_ONLY_STOPPED = 7;
+
+    /**
+     * 首帧已发出：
+     * 开始推流后第一个音视频帧写入推流连接，extra为从调用startStreaming起的耗时（毫秒）
+     */
+    public static final int INFO_FIRST_PACKET_SENT = 8;
     
     /**
      * 信息回调接口
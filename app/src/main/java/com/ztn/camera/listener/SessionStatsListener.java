@@ -0,0 +1,16 @@
+package com.ztn.camera.listener;
+
+import com.ztn.camera.stats.LiveStats;
+
+/**
+ * 带统计快照的录像信息通知，作为SessionInfoListener设置给session即可收到统计回调
+ */
+public interface SessionStatsListener extends SessionInfoListener {
+
+    /**
+     * 周期性统计快照，推流或录制期间每个统计周期回调一次，在session的工作线程中回调
+     * @param stats 不可变的统计快照
+     */
+    void onStats(LiveStats stats);
+
+}
@@ -0,0 +1,19 @@
+package com.ztn.camera.push;
+
+import java.io.IOException;
+
+/**
+ * FrameSink with its own connection; FrameWriterThread connects it, reconnects it with backoff
+ * after a failed write and replays the GOP cache on every new connection
+ */
+public interface ConnectableSink extends FrameSink {
+
+    boolean isConnected();
+
+    /**
+     * blocking, called on the writer thread
+     */
+    void connect() throws IOException;
+
+    void disconnect();
+}
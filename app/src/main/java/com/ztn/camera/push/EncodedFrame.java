@@ -0,0 +1,75 @@
+package com.ztn.camera.push;
+
+import java.nio.ByteBuffer;
+
+/**
+ * one encoded audio or video access unit on its way from the encoders to a FrameSink
+ * <p>
+ * data holds exactly size bytes starting at position 0
+ */
+public class EncodedFrame {
+
+    public static final int TRACK_AUDIO = 0;
+    public static final int TRACK_VIDEO = 1;
+
+    /**
+     * same bit as MediaCodec.BUFFER_FLAG_KEY_FRAME
+     */
+    public static final int FLAG_KEY_FRAME = 1;
+    /**
+     * same bit as MediaCodec.BUFFER_FLAG_CODEC_CONFIG: sps/pps or aac AudioSpecificConfig
+     */
+    public static final int FLAG_CODEC_CONFIG = 2;
+    /**
+     * video frame that no other frame refers to (nal_ref_idc == 0), first to go under congestion
+     */
+    public static final int FLAG_DISPOSABLE = 1 << 8;
+
+    public int trackType;
+    public int flags;
+    public long ptsUs;
+    public int size;
+    public ByteBuffer data;
+    /**
+     * System.nanoTime() when the encoder output was handed to the writer
+     */
+    public long offerTimeNs;
+
+    public boolean isAudio() {
+        return trackType == TRACK_AUDIO;
+    }
+
+    public boolean isVideo() {
+        return trackType == TRACK_VIDEO;
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (flags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    public boolean isDisposable() {
+        return (flags & FLAG_DISPOSABLE) != 0;
+    }
+
+    /**
+     * copy size bytes of src, starting at offset, into a new frame
+     */
+    public static EncodedFrame copyOf(int trackType, ByteBuffer src, int offset, int size, long ptsUs, int flags) {
+        EncodedFrame frame = new EncodedFrame();
+        frame.trackType = trackType;
+        frame.flags = flags;
+        frame.ptsUs = ptsUs;
+        frame.size = size;
+        frame.data = ByteBuffer.allocate(size);
+        ByteBuffer in = src.duplicate();
+        in.limit(offset + size);
+        in.position(offset);
+        frame.data.put(in);
+        frame.data.flip();
+        return frame;
+    }
+}
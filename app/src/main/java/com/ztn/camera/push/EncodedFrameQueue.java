@@ -0,0 +1,205 @@
+package com.ztn.camera.push;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * bounded queue of encoded frames between the encoder output threads and the network writer
+ * <p>
+ * push never blocks. when the queued bytes go over the limit:
+ * 1. drop non-reference video frames
+ * 2. drop whole video GOPs up to the next IDR, or until a new IDR arrives
+ * audio and codec config frames are never dropped.
+ */
+public class EncodedFrameQueue {
+
+    private final ArrayDeque<EncodedFrame> mFrames = new ArrayDeque<EncodedFrame>();
+    private long mMaxQueuedBytes;
+    private long mQueuedBytes = 0L;
+    private boolean mIsWaitingForKeyFrame = false;
+
+    private long mDroppedDisposableFrames = 0L;
+    private long mDroppedGopFrames = 0L;
+
+    private volatile OnKeyFrameRequiredListener mOnKeyFrameRequiredListener;
+    private volatile OnFrameDroppedListener mOnFrameDroppedListener;
+
+    public EncodedFrameQueue(long maxQueuedBytes) {
+        mMaxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * e.g. follow bitrate changes so the limit stays at the same latency
+     */
+    public synchronized void setMaxQueuedBytes(long maxQueuedBytes) {
+        mMaxQueuedBytes = maxQueuedBytes;
+    }
+
+    public void setOnKeyFrameRequiredListener(OnKeyFrameRequiredListener listener) {
+        mOnKeyFrameRequiredListener = listener;
+    }
+
+    /**
+     * e.g. give dropped frames back to their FramePool
+     */
+    public void setOnFrameDroppedListener(OnFrameDroppedListener listener) {
+        mOnFrameDroppedListener = listener;
+    }
+
+    /**
+     * @return false if the frame was dropped
+     */
+    public boolean push(EncodedFrame frame) {
+        boolean isKeyFrameRequired = false;
+        boolean isAccepted = true;
+        synchronized (this) {
+            if (mIsWaitingForKeyFrame && frame.isVideo() && !frame.isCodecConfig()) {
+                if (frame.isKeyFrame()) {
+                    mIsWaitingForKeyFrame = false;
+                } else {
+                    mDroppedGopFrames++;
+                    isAccepted = false;
+                    onDroppedLocked(frame);
+                }
+            }
+            if (isAccepted) {
+                mFrames.addLast(frame);
+                mQueuedBytes += frame.size;
+                isKeyFrameRequired = trimLocked();
+                notifyAll();
+            }
+        }
+        if (isKeyFrameRequired) {
+            requestKeyFrame();
+        }
+        return isAccepted;
+    }
+
+    /**
+     * @return null if empty
+     */
+    public synchronized EncodedFrame poll() {
+        EncodedFrame frame = mFrames.pollFirst();
+        if (frame != null) {
+            mQueuedBytes -= frame.size;
+        }
+        return frame;
+    }
+
+    /**
+     * @return null if nothing arrives in timeoutMs
+     */
+    public synchronized EncodedFrame take(long timeoutMs) throws InterruptedException {
+        if (mFrames.isEmpty()) {
+            wait(timeoutMs);
+        }
+        EncodedFrame frame = mFrames.pollFirst();
+        if (frame != null) {
+            mQueuedBytes -= frame.size;
+        }
+        return frame;
+    }
+
+    public synchronized void clear() {
+        mFrames.clear();
+        mQueuedBytes = 0L;
+        mIsWaitingForKeyFrame = false;
+    }
+
+    public synchronized int getQueuedFrames() {
+        return mFrames.size();
+    }
+
+    public synchronized long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    public synchronized long getDroppedDisposableFrames() {
+        return mDroppedDisposableFrames;
+    }
+
+    public synchronized long getDroppedGopFrames() {
+        return mDroppedGopFrames;
+    }
+
+    /**
+     * @return true if a whole GOP was dropped and a new IDR should be requested
+     */
+    private boolean trimLocked() {
+        if (mQueuedBytes <= mMaxQueuedBytes) {
+            return false;
+        }
+        // step 1: nothing depends on non-reference frames
+        Iterator<EncodedFrame> it = mFrames.iterator();
+        while (it.hasNext() && mQueuedBytes > mMaxQueuedBytes) {
+            EncodedFrame frame = it.next();
+            if (frame.isVideo() && frame.isDisposable() && !frame.isCodecConfig()) {
+                it.remove();
+                mQueuedBytes -= frame.size;
+                mDroppedDisposableFrames++;
+                onDroppedLocked(frame);
+            }
+        }
+        // step 2: oldest GOP, up to the next queued IDR
+        boolean isGopDropped = false;
+        while (mQueuedBytes > mMaxQueuedBytes && dropOldestGopLocked()) {
+            isGopDropped = true;
+        }
+        return isGopDropped && mIsWaitingForKeyFrame;
+    }
+
+    private boolean dropOldestGopLocked() {
+        boolean isAnyDropped = false;
+        boolean isInGop = false;
+        Iterator<EncodedFrame> it = mFrames.iterator();
+        while (it.hasNext()) {
+            EncodedFrame frame = it.next();
+            if (!frame.isVideo() || frame.isCodecConfig()) {
+                continue;
+            }
+            if (frame.isKeyFrame() && isInGop) {
+                // reached the next GOP, it can be decoded on its own
+                return true;
+            }
+            isInGop = true;
+            it.remove();
+            mQueuedBytes -= frame.size;
+            mDroppedGopFrames++;
+            isAnyDropped = true;
+            onDroppedLocked(frame);
+        }
+        if (isAnyDropped) {
+            // no IDR left in queue, the rest of this GOP is useless too
+            mIsWaitingForKeyFrame = true;
+        }
+        return isAnyDropped;
+    }
+
+    private void onDroppedLocked(EncodedFrame frame) {
+        OnFrameDroppedListener listener = mOnFrameDroppedListener;
+        if (listener != null) {
+            listener.onFrameDropped(frame);
+        }
+    }
+
+    void requestKeyFrame() {
+        OnKeyFrameRequiredListener listener = mOnKeyFrameRequiredListener;
+        if (listener != null) {
+            listener.onKeyFrameRequired();
+        }
+    }
+
+    public interface OnFrameDroppedListener {
+        /**
+         * called with the queue locked, the frame will not be touched again by the queue
+         */
+        void onFrameDropped(EncodedFrame frame);
+    }
+
+    public interface OnKeyFrameRequiredListener {
+        /**
+         * called on the pushing thread after a GOP was dropped with no IDR left in queue
+         */
+        void onKeyFrameRequired();
+    }
+}
@@ -0,0 +1,184 @@
+package com.ztn.camera.push;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.baidu.cloud.mediaprocess.muxer.FlvMuxer;
+import com.baidu.cloud.rtmpsocket.BidirectRtmpSocket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * FrameSink on top of FlvMuxer; sps/pps and aac config come from the track formats, not from frames
+ * <p>
+ * FlvMuxer reads the video sequence header from the first format only. a format given to
+ * {@link #setFormat} takes effect when its codec config frame reaches the writer thread, in order
+ * with the frames around it: the first one per track is added to the muxer, a later one replaces the
+ * muxer with a new one on the same connection, so the new sequence header goes out before the first
+ * frame encoded with it.
+ */
+public class FlvMuxerSink implements FrameSink {
+
+    /**
+     * the FlvMuxer calls made by the sink
+     */
+    public interface Muxer {
+        /**
+         * @return track id
+         */
+        int addTrack(MediaFormat mediaFormat);
+
+        void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo bufferInfo);
+
+        void setEpoch(long epochInNs);
+
+        /**
+         * detach from the connection, nothing is written afterwards
+         */
+        void close();
+    }
+
+    public interface MuxerFactory {
+        Muxer createMuxer();
+    }
+
+    /**
+     * a new FlvMuxer on the socket for every muxer
+     */
+    public static MuxerFactory forRtmpSocket(final BidirectRtmpSocket rtmpSocket, final int fps) {
+        return new MuxerFactory() {
+            @Override
+            public Muxer createMuxer() {
+                final FlvMuxer flvMuxer = new FlvMuxer(rtmpSocket);
+                flvMuxer.setFPS(fps);
+                return new Muxer() {
+                    @Override
+                    public int addTrack(MediaFormat mediaFormat) {
+                        return flvMuxer.addTrack(mediaFormat);
+                    }
+
+                    @Override
+                    public void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo bufferInfo) {
+                        flvMuxer.writeSampleData(track, data, bufferInfo);
+                    }
+
+                    @Override
+                    public void setEpoch(long epochInNs) {
+                        flvMuxer.setEpoch(epochInNs);
+                    }
+
+                    @Override
+                    public void close() {
+                        flvMuxer.setRtmpSocket(null);
+                    }
+                };
+            }
+        };
+    }
+
+    private final MuxerFactory mFactory;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    // formats set but not reached by their codec config frame yet, oldest first
+    private final ConcurrentLinkedQueue<MediaFormat> mPendingAudioFormats = new ConcurrentLinkedQueue<MediaFormat>();
+    private final ConcurrentLinkedQueue<MediaFormat> mPendingVideoFormats = new ConcurrentLinkedQueue<MediaFormat>();
+
+    // guarded by this; the track ids are only written with the muxer
+    private Muxer mMuxer;
+    private long mEpochInNs;
+    private boolean mIsClosed = false;
+    private MediaFormat mAudioFormat;
+    private MediaFormat mVideoFormat;
+    private volatile int mAudioTrack = -1;
+    private volatile int mVideoTrack = -1;
+
+    public FlvMuxerSink(MuxerFactory factory, long epochInNs) {
+        mFactory = factory;
+        mEpochInNs = epochInNs;
+        mMuxer = factory.createMuxer();
+        mMuxer.setEpoch(epochInNs);
+    }
+
+    /**
+     * a track known already; only before the sink goes to a writer
+     *
+     * @return track id
+     */
+    public synchronized int addTrack(MediaFormat mediaFormat, boolean isAudio) {
+        int trackId = mMuxer.addTrack(mediaFormat);
+        if (isAudio) {
+            mAudioFormat = mediaFormat;
+            mAudioTrack = trackId;
+        } else {
+            mVideoFormat = mediaFormat;
+            mVideoTrack = trackId;
+        }
+        return trackId;
+    }
+
+    /**
+     * encoder output thread, right before the codec config frame of the format is offered
+     */
+    public void setFormat(MediaFormat mediaFormat, boolean isAudio) {
+        (isAudio ? mPendingAudioFormats : mPendingVideoFormats).add(mediaFormat);
+    }
+
+    public synchronized void setEpoch(long epochInNs) {
+        mEpochInNs = epochInNs;
+        mMuxer.setEpoch(epochInNs);
+    }
+
+    public synchronized void close() {
+        mIsClosed = true;
+        mMuxer.close();
+    }
+
+    @Override
+    public void writeFrame(EncodedFrame frame) {
+        if (frame.isCodecConfig()) {
+            MediaFormat mediaFormat = (frame.isAudio() ? mPendingAudioFormats : mPendingVideoFormats).poll();
+            // a replayed config has been applied already
+            if (mediaFormat != null) {
+                applyFormat(mediaFormat, frame.isAudio());
+            }
+            return;
+        }
+        int track = frame.isAudio() ? mAudioTrack : mVideoTrack;
+        if (track < 0) {
+            return;
+        }
+        Muxer muxer;
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+            muxer = mMuxer;
+        }
+        mBufferInfo.set(0, frame.size, frame.ptsUs,
+                frame.isKeyFrame() ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        frame.data.limit(frame.size);
+        frame.data.position(0);
+        muxer.writeSampleData(track, frame.data, mBufferInfo);
+    }
+
+    private synchronized void applyFormat(MediaFormat mediaFormat, boolean isAudio) {
+        if (mIsClosed) {
+            return;
+        }
+        if ((isAudio ? mAudioTrack : mVideoTrack) < 0) {
+            addTrack(mediaFormat, isAudio);
+            return;
+        }
+        if (isAudio) {
+            mAudioFormat = mediaFormat;
+        } else {
+            mVideoFormat = mediaFormat;
+        }
+        Muxer oldMuxer = mMuxer;
+        mMuxer = mFactory.createMuxer();
+        mMuxer.setEpoch(mEpochInNs);
+        mAudioTrack = mAudioFormat == null ? -1 : mMuxer.addTrack(mAudioFormat);
+        mVideoTrack = mVideoFormat == null ? -1 : mMuxer.addTrack(mVideoFormat);
+        oldMuxer.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.ztn.camera.push;
+
+import java.nio.ByteBuffer;
+
+/**
+ * recycles EncodedFrames with direct ByteBuffers for one track
+ * <p>
+ * acquire on the encoder output thread, release on the writer thread;
+ * once warmed up a frame costs no allocation
+ */
+public class FramePool {
+
+    private final SpscRing<EncodedFrame> mFreeFrames;
+    private final int mTrackType;
+    private final int mInitialCapacity;
+
+    private volatile long mAllocationCount = 0L;
+    private volatile long mAllocatedBytes = 0L;
+
+    /**
+     * @param maxFrames       frames kept for reuse
+     * @param initialCapacity bytes of a new frame buffer, grows on demand
+     */
+    public FramePool(int trackType, int maxFrames, int initialCapacity) {
+        mTrackType = trackType;
+        mFreeFrames = new SpscRing<EncodedFrame>(maxFrames);
+        mInitialCapacity = initialCapacity;
+    }
+
+    /**
+     * acquiring thread only
+     *
+     * @return frame holding a copy of size bytes of src from offset; src position and limit are kept
+     */
+    public EncodedFrame acquire(ByteBuffer src, int offset, int size, long ptsUs, int flags) {
+        return acquire(null, src, offset, size, ptsUs, flags);
+    }
+
+    /**
+     * acquiring thread only
+     *
+     * @param prefix copied in front of the frame from position to limit, e.g. an SEI nal unit; may be null
+     * @return frame holding prefix followed by size bytes of src from offset; positions and limits are kept
+     */
+    public EncodedFrame acquire(ByteBuffer prefix, ByteBuffer src, int offset, int size, long ptsUs, int flags) {
+        int prefixSize = prefix == null ? 0 : prefix.remaining();
+        int totalSize = prefixSize + size;
+        EncodedFrame frame = mFreeFrames.poll();
+        if (frame == null) {
+            frame = new EncodedFrame();
+            frame.trackType = mTrackType;
+            mAllocationCount++;
+        }
+        if (frame.data == null || frame.data.capacity() < totalSize) {
+            int capacity = Math.max(totalSize + (totalSize >> 2), mInitialCapacity);
+            frame.data = ByteBuffer.allocateDirect(capacity);
+            mAllocationCount++;
+            mAllocatedBytes += capacity;
+        }
+        int position = src.position();
+        int limit = src.limit();
+        ByteBuffer data = frame.data;
+        data.clear();
+        if (prefix != null) {
+            data.put(prefix.duplicate());
+        }
+        src.limit(offset + size);
+        src.position(offset);
+        data.put(src);
+        data.flip();
+        src.limit(limit);
+        src.position(position);
+
+        frame.flags = flags;
+        frame.ptsUs = ptsUs;
+        frame.size = totalSize;
+        return frame;
+    }
+
+    /**
+     * releasing thread only; frame is left to GC if the pool is full
+     */
+    public void release(EncodedFrame frame) {
+        mFreeFrames.offer(frame);
+    }
+
+    /**
+     * frames and buffers created since start; stays flat once warmed up
+     */
+    public long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    public long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+}
@@ -0,0 +1,14 @@
+package com.ztn.camera.push;
+
+import java.io.IOException;
+
+/**
+ * output of the live push path, e.g. flv over rtmp
+ * <p>
+ * called from one writer thread only, may block on network
+ */
+public interface FrameSink {
+
+    void writeFrame(EncodedFrame frame) throws IOException;
+
+}
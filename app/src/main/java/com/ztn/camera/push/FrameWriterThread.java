@@ -0,0 +1,417 @@
+package com.ztn.camera.push;
+
+import android.util.Log;
+
+import com.ztn.camera.stats.PipelineLatency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * the only thread that talks to the FrameSink (flv muxer / rtmp socket)
+ * <p>
+ * each encoder output thread copies its frames once into pooled direct buffers and hands them
+ * over through its own lock-free SpscRing, so the encoder drain loops never block on I/O.
+ * this thread moves frames from the rings into the EncodedFrameQueue, which drops by priority
+ * under congestion, and writes the head of the queue to the sink.
+ * <p>
+ * with a GopCache enabled, a new sink or a reconnected ConnectableSink first gets the codec
+ * config and the latest GOP, so viewers resume without waiting for the next IDR.
+ */
+public class FrameWriterThread extends Thread {
+    private static final String TAG = "FrameWriterThread";
+    private static final long PARK_TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static final int AUDIO_RING_CAPACITY = 512; // ~12s of aac frames at 44.1kHz
+    private static final int VIDEO_RING_CAPACITY = 256; // ~10s at 25fps
+    private static final int AUDIO_BUFFER_SIZE = 1024;
+    private static final int VIDEO_BUFFER_SIZE = 64 * 1024;
+
+    private final EncodedFrameQueue mQueue;
+    private volatile FrameSink mSink;
+    private volatile boolean mIsRunning = true;
+
+    private final SpscRing<EncodedFrame> mAudioRing = new SpscRing<EncodedFrame>(AUDIO_RING_CAPACITY);
+    private final SpscRing<EncodedFrame> mVideoRing = new SpscRing<EncodedFrame>(VIDEO_RING_CAPACITY);
+    private final FramePool mAudioPool;
+    private final FramePool mVideoPool;
+
+    // written by video producer only
+    private boolean mIsVideoWaitingForKeyFrame = false;
+
+    private GopCache mGopCache;
+    private volatile boolean mIsReplayRequested = false;
+    private final ReconnectBackoff mReconnectBackoff = new ReconnectBackoff();
+    private long mNextConnectTimeNs = 0L;
+    private ConnectableSink mConnectedSink;
+    private volatile long mDisconnectedTimeNs = 0L;
+    private volatile long mLastResumeTimeNs = -1L;
+    private volatile int mResumeCount = 0;
+    private volatile OnResumedListener mOnResumedListener;
+    private volatile PipelineLatency mPipelineLatency;
+
+    private final AtomicLong mRingDroppedFrames = new AtomicLong(0L);
+    private volatile long mSentFrames = 0L;
+    private volatile long mSentBytes = 0L;
+    private volatile long mStallTimeNs = 0L;
+    private volatile long mMaxStallNs = 0L;
+    private volatile long mFirstFrameSentTimeNs = -1L;
+
+    public FrameWriterThread(EncodedFrameQueue queue, FrameSink sink) {
+        super(TAG);
+        mQueue = queue;
+        mSink = sink;
+        // a frame lives either in the ring, in the queue, or in the writer's hand
+        mAudioPool = new FramePool(EncodedFrame.TRACK_AUDIO, AUDIO_RING_CAPACITY * 2, AUDIO_BUFFER_SIZE);
+        mVideoPool = new FramePool(EncodedFrame.TRACK_VIDEO, VIDEO_RING_CAPACITY * 2, VIDEO_BUFFER_SIZE);
+        mQueue.setOnFrameDroppedListener(new EncodedFrameQueue.OnFrameDroppedListener() {
+            @Override
+            public void onFrameDropped(EncodedFrame frame) {
+                recycle(frame);
+            }
+        });
+    }
+
+    /**
+     * frames are dropped while sink is null; a new sink starts with a replay of the GOP cache
+     */
+    public void setSink(FrameSink sink) {
+        mSink = sink;
+        if (sink != null) {
+            mIsReplayRequested = true;
+        }
+    }
+
+    /**
+     * keep the latest GOP for replay; call before start
+     *
+     * @param maxCachedBytes longer GOPs are not kept
+     */
+    public void enableGopCache(long maxCachedBytes) {
+        mGopCache = new GopCache(maxCachedBytes);
+        mGopCache.setOnFrameReleasedListener(new GopCache.OnFrameReleasedListener() {
+            @Override
+            public void onFrameReleased(EncodedFrame frame) {
+                recycle(frame);
+            }
+        });
+    }
+
+    public void setOnResumedListener(OnResumedListener listener) {
+        mOnResumedListener = listener;
+    }
+
+    /**
+     * record queue and send stages of every live frame
+     */
+    public void setPipelineLatency(PipelineLatency pipelineLatency) {
+        mPipelineLatency = pipelineLatency;
+    }
+
+    /**
+     * the sink lost its connection outside of writeFrame, e.g. rtmp session error;
+     * starts the time-to-resume clock
+     */
+    public void notifyDisconnected() {
+        if (mDisconnectedTimeNs == 0L) {
+            mDisconnectedTimeNs = System.nanoTime();
+        }
+    }
+
+    /**
+     * copy an encoded frame and hand it to the writer; never blocks.
+     * must be called from one audio thread and one video thread respectively.
+     *
+     * @return false if the frame was dropped because the writer is too far behind
+     */
+    public boolean offer(int trackType, ByteBuffer src, int offset, int size, long ptsUs, int flags) {
+        return offer(trackType, null, src, offset, size, ptsUs, flags);
+    }
+
+    /**
+     * same as {@link #offer(int, ByteBuffer, int, int, long, int)} with prefix copied in front of the frame
+     * from its position to limit, e.g. an SEI nal unit; prefix may be null
+     */
+    public boolean offer(int trackType, ByteBuffer prefix, ByteBuffer src, int offset, int size, long ptsUs,
+                         int flags) {
+        if (!mIsRunning) {
+            return false;
+        }
+        boolean isVideo = trackType == EncodedFrame.TRACK_VIDEO;
+        if (isVideo && mIsVideoWaitingForKeyFrame) {
+            // a new sps/pps must still reach the sink ahead of the key frame that uses it
+            if ((flags & (EncodedFrame.FLAG_KEY_FRAME | EncodedFrame.FLAG_CODEC_CONFIG)) == 0) {
+                mRingDroppedFrames.incrementAndGet();
+                return false;
+            }
+            if ((flags & EncodedFrame.FLAG_KEY_FRAME) != 0) {
+                mIsVideoWaitingForKeyFrame = false;
+            }
+        }
+        FramePool pool = isVideo ? mVideoPool : mAudioPool;
+        SpscRing<EncodedFrame> ring = isVideo ? mVideoRing : mAudioRing;
+        EncodedFrame frame = pool.acquire(prefix, src, offset, size, ptsUs, flags);
+        frame.offerTimeNs = System.nanoTime();
+        if (!ring.offer(frame)) {
+            // writer stuck for seconds; the frame object is garbage now
+            mRingDroppedFrames.incrementAndGet();
+            if (isVideo) {
+                mIsVideoWaitingForKeyFrame = true;
+                mQueue.requestKeyFrame();
+            }
+            return false;
+        }
+        LockSupport.unpark(this);
+        return true;
+    }
+
+    public void quit() {
+        mIsRunning = false;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (mIsRunning) {
+            drainRings();
+            EncodedFrame frame = mQueue.poll();
+            if (frame == null) {
+                LockSupport.parkNanos(this, PARK_TIMEOUT_NS);
+                continue;
+            }
+            boolean isRetained = mGopCache != null && mGopCache.add(frame);
+            FrameSink sink = mSink;
+            if (sink != null && ensureConnected(sink)) {
+                long startNs = System.nanoTime();
+                boolean isReplay = mIsReplayRequested;
+                try {
+                    if (isReplay) {
+                        mIsReplayRequested = false;
+                        replay(sink, frame, isRetained);
+                    } else {
+                        write(sink, frame);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "write frame failed. errorMsg=" + e.getMessage());
+                    onWriteFailed(sink);
+                } catch (Exception e) {
+                    Log.e(TAG, "write frame failed. errorMsg=" + e.getMessage());
+                }
+                long stallNs = System.nanoTime() - startNs;
+                mStallTimeNs += stallNs;
+                if (stallNs > mMaxStallNs) {
+                    mMaxStallNs = stallNs;
+                }
+                PipelineLatency pipelineLatency = mPipelineLatency;
+                if (pipelineLatency != null && !isReplay) {
+                    pipelineLatency.record(PipelineLatency.STAGE_QUEUE, (startNs - frame.offerTimeNs) / 1000);
+                    pipelineLatency.record(PipelineLatency.STAGE_SEND, stallNs / 1000);
+                }
+            }
+            if (!isRetained) {
+                recycle(frame);
+            }
+        }
+        if (mGopCache != null) {
+            mGopCache.clear();
+        }
+    }
+
+    private void write(FrameSink sink, EncodedFrame frame) throws IOException {
+        sink.writeFrame(frame);
+        mSentFrames++;
+        mSentBytes += frame.size;
+        if (mFirstFrameSentTimeNs < 0 && !frame.isCodecConfig()) {
+            mFirstFrameSentTimeNs = System.nanoTime();
+        }
+        if (mDisconnectedTimeNs != 0L && frame.isVideo() && frame.isKeyFrame()) {
+            onResumed();
+        }
+    }
+
+    /**
+     * the cache ends with frame if it was retained
+     */
+    private void replay(FrameSink sink, EncodedFrame frame, boolean isRetained) throws IOException {
+        boolean hasKeyFrame = mGopCache != null && mGopCache.hasKeyFrame();
+        if (mGopCache != null) {
+            int count = mGopCache.replay(sink);
+            mSentFrames += count;
+            mSentBytes += mGopCache.getCachedBytes();
+            if (mFirstFrameSentTimeNs < 0 && mGopCache.hasKeyFrame()) {
+                mFirstFrameSentTimeNs = System.nanoTime();
+            }
+            Log.i(TAG, "replayed " + count + " cached frames");
+        }
+        if (hasKeyFrame && mDisconnectedTimeNs != 0L) {
+            onResumed();
+        }
+        if (!isRetained) {
+            write(sink, frame);
+        }
+    }
+
+    /**
+     * @return false while a ConnectableSink is waiting for its next attempt
+     */
+    private boolean ensureConnected(FrameSink sink) {
+        if (!(sink instanceof ConnectableSink)) {
+            return true;
+        }
+        ConnectableSink connectableSink = (ConnectableSink) sink;
+        if (connectableSink.isConnected()) {
+            return true;
+        }
+        if (mConnectedSink == connectableSink) {
+            // closed by the peer since the last frame
+            onWriteFailed(sink);
+            return false;
+        }
+        long nowNs = System.nanoTime();
+        if (nowNs - mNextConnectTimeNs < 0) {
+            return false;
+        }
+        try {
+            connectableSink.connect();
+        } catch (IOException e) {
+            long delayMs = mReconnectBackoff.nextDelayMs();
+            Log.w(TAG, "connect failed, retry in " + delayMs + "ms. errorMsg=" + e.getMessage());
+            notifyDisconnected();
+            mNextConnectTimeNs = nowNs + TimeUnit.MILLISECONDS.toNanos(delayMs);
+            return false;
+        }
+        mReconnectBackoff.reset();
+        mConnectedSink = connectableSink;
+        mIsReplayRequested = true;
+        return true;
+    }
+
+    private void onWriteFailed(FrameSink sink) {
+        notifyDisconnected();
+        if (sink instanceof ConnectableSink) {
+            mConnectedSink = null;
+            ((ConnectableSink) sink).disconnect();
+            mNextConnectTimeNs = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(mReconnectBackoff.nextDelayMs());
+        }
+    }
+
+    private void onResumed() {
+        long resumeTimeNs = System.nanoTime() - mDisconnectedTimeNs;
+        mDisconnectedTimeNs = 0L;
+        mLastResumeTimeNs = resumeTimeNs;
+        mResumeCount++;
+        Log.i(TAG, "resumed in " + TimeUnit.NANOSECONDS.toMillis(resumeTimeNs) + "ms");
+        OnResumedListener listener = mOnResumedListener;
+        if (listener != null) {
+            listener.onResumed(TimeUnit.NANOSECONDS.toMillis(resumeTimeNs));
+        }
+    }
+
+    /**
+     * move everything out of the rings, interleaved by pts
+     */
+    private void drainRings() {
+        while (true) {
+            EncodedFrame audio = mAudioRing.peek();
+            EncodedFrame video = mVideoRing.peek();
+            if (audio == null && video == null) {
+                return;
+            }
+            EncodedFrame frame;
+            if (video == null || (audio != null && audio.ptsUs <= video.ptsUs)) {
+                frame = mAudioRing.poll();
+            } else {
+                frame = mVideoRing.poll();
+            }
+            mQueue.push(frame);
+        }
+    }
+
+    private void recycle(EncodedFrame frame) {
+        if (frame.isVideo()) {
+            mVideoPool.release(frame);
+        } else {
+            mAudioPool.release(frame);
+        }
+    }
+
+    /**
+     * bytes handed to the sink since start
+     */
+    public long getSentBytes() {
+        return mSentBytes;
+    }
+
+    public long getSentFrames() {
+        return mSentFrames;
+    }
+
+    /**
+     * System.nanoTime when the first media frame, not codec config, went into the sink; -1 if none yet
+     */
+    public long getFirstFrameSentTimeNs() {
+        return mFirstFrameSentTimeNs;
+    }
+
+    /**
+     * total time spent blocked in FrameSink.writeFrame
+     */
+    public long getStallTimeNs() {
+        return mStallTimeNs;
+    }
+
+    /**
+     * longest single FrameSink.writeFrame
+     */
+    public long getMaxStallNs() {
+        return mMaxStallNs;
+    }
+
+    /**
+     * frames lost because a ring was full
+     */
+    public long getRingDroppedFrames() {
+        return mRingDroppedFrames.get();
+    }
+
+    /**
+     * frame objects and buffers created by both pools; flat once warmed up
+     */
+    public long getAllocationCount() {
+        return mAudioPool.getAllocationCount() + mVideoPool.getAllocationCount();
+    }
+
+    public long getAllocatedBytes() {
+        return mAudioPool.getAllocatedBytes() + mVideoPool.getAllocatedBytes();
+    }
+
+    /**
+     * from losing the connection to a key frame written on the new one; -1 if never resumed
+     */
+    public long getLastResumeTimeMs() {
+        long resumeTimeNs = mLastResumeTimeNs;
+        return resumeTimeNs < 0 ? -1L : TimeUnit.NANOSECONDS.toMillis(resumeTimeNs);
+    }
+
+    public int getResumeCount() {
+        return mResumeCount;
+    }
+
+    /**
+     * connect attempts since the last successful connect
+     */
+    public int getReconnectAttempts() {
+        return mReconnectBackoff.getAttempts();
+    }
+
+    public interface OnResumedListener {
+        /**
+         * called on writer thread
+         */
+        void onResumed(long resumeTimeMs);
+    }
+}
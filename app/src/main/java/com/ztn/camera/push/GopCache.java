@@ -0,0 +1,132 @@
+package com.ztn.camera.push;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * keeps the codec config and every frame since the latest video key frame, so that a new
+ * connection can start with a decodable picture instead of waiting for the next IDR
+ * <p>
+ * frames are retained, not copied; they go back to their pool through
+ * {@link OnFrameReleasedListener} when the next GOP starts. writer thread only.
+ */
+public class GopCache {
+
+    private final List<EncodedFrame> mFrames = new ArrayList<EncodedFrame>();
+    private final long mMaxCachedBytes;
+    private long mCachedBytes = 0L;
+    private boolean mHasKeyFrame = false;
+    private EncodedFrame mAudioConfig;
+    private EncodedFrame mVideoConfig;
+    private OnFrameReleasedListener mOnFrameReleasedListener;
+
+    /**
+     * @param maxCachedBytes a GOP larger than this is not kept
+     */
+    public GopCache(long maxCachedBytes) {
+        mMaxCachedBytes = maxCachedBytes;
+    }
+
+    public void setOnFrameReleasedListener(OnFrameReleasedListener listener) {
+        mOnFrameReleasedListener = listener;
+    }
+
+    /**
+     * @return true if the cache now owns the frame; the caller must not recycle it then
+     */
+    public boolean add(EncodedFrame frame) {
+        if (frame.isCodecConfig()) {
+            if (frame.isVideo()) {
+                if (mVideoConfig != null) {
+                    // a new encoder, e.g. after a resolution switch; the cached gop does not decode with it
+                    clearFrames();
+                }
+                release(mVideoConfig);
+                mVideoConfig = frame;
+            } else {
+                release(mAudioConfig);
+                mAudioConfig = frame;
+            }
+            return true;
+        }
+        if (frame.isVideo() && frame.isKeyFrame()) {
+            clearFrames();
+            mHasKeyFrame = true;
+        } else if (!mHasKeyFrame) {
+            return false;
+        }
+        if (mCachedBytes + frame.size > mMaxCachedBytes) {
+            // gop too long to be worth a replay
+            clearFrames();
+            return false;
+        }
+        mFrames.add(frame);
+        mCachedBytes += frame.size;
+        return true;
+    }
+
+    /**
+     * write codec config and the cached GOP to sink, in order
+     *
+     * @return frames written
+     */
+    public int replay(FrameSink sink) throws IOException {
+        int count = 0;
+        if (mVideoConfig != null) {
+            sink.writeFrame(mVideoConfig);
+            count++;
+        }
+        if (mAudioConfig != null) {
+            sink.writeFrame(mAudioConfig);
+            count++;
+        }
+        for (int i = 0; i < mFrames.size(); i++) {
+            sink.writeFrame(mFrames.get(i));
+            count++;
+        }
+        return count;
+    }
+
+    public boolean hasKeyFrame() {
+        return mHasKeyFrame;
+    }
+
+    public int getCachedFrames() {
+        return mFrames.size();
+    }
+
+    public long getCachedBytes() {
+        return mCachedBytes;
+    }
+
+    /**
+     * release everything, including codec config
+     */
+    public void clear() {
+        clearFrames();
+        release(mAudioConfig);
+        release(mVideoConfig);
+        mAudioConfig = null;
+        mVideoConfig = null;
+    }
+
+    private void clearFrames() {
+        for (int i = 0; i < mFrames.size(); i++) {
+            release(mFrames.get(i));
+        }
+        mFrames.clear();
+        mCachedBytes = 0L;
+        mHasKeyFrame = false;
+    }
+
+    private void release(EncodedFrame frame) {
+        if (frame != null && mOnFrameReleasedListener != null) {
+            mOnFrameReleasedListener.onFrameReleased(frame);
+        }
+    }
+
+    public interface OnFrameReleasedListener {
+        void onFrameReleased(EncodedFrame frame);
+    }
+}
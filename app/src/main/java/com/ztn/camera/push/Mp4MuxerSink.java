@@ -0,0 +1,178 @@
+package com.ztn.camera.push;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameSink writing a local mp4 with MediaMuxer, fed with the same encoded frames as the live push
+ * <p>
+ * has its own pause state: writing starts and resumes at a video key frame. pts come from the
+ * recording's own {@link PtsNormalizer}, so the file starts at 0 and a pause leaves no gap.
+ */
+public class Mp4MuxerSink implements FrameSink {
+    private static final String TAG = "Mp4MuxerSink";
+
+    /**
+     * the MediaMuxer calls made by the sink
+     */
+    interface Muxer {
+        int addTrack(MediaFormat mediaFormat);
+
+        void start();
+
+        void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo bufferInfo);
+
+        void stop();
+
+        void release();
+    }
+
+    private final Muxer mMediaMuxer;
+    private final boolean mHasAudio;
+    private final boolean mHasVideo;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    private int mAudioTrack = -1;
+    private int mVideoTrack = -1;
+    private volatile boolean mIsStarted = false;
+    private boolean mIsReleased = false;
+
+    private volatile boolean mIsPaused = false;
+    private boolean mIsKeyFrameFound = false;
+    private long mWrittenFrames = 0L;
+
+    public Mp4MuxerSink(final MediaMuxer mediaMuxer, boolean hasAudio, boolean hasVideo) {
+        this(new Muxer() {
+            @Override
+            public int addTrack(MediaFormat mediaFormat) {
+                return mediaMuxer.addTrack(mediaFormat);
+            }
+
+            @Override
+            public void start() {
+                mediaMuxer.start();
+            }
+
+            @Override
+            public void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo bufferInfo) {
+                mediaMuxer.writeSampleData(track, data, bufferInfo);
+            }
+
+            @Override
+            public void stop() {
+                mediaMuxer.stop();
+            }
+
+            @Override
+            public void release() {
+                mediaMuxer.release();
+            }
+        }, hasAudio, hasVideo);
+    }
+
+    /**
+     * package private for tests, which write into their own muxer
+     */
+    Mp4MuxerSink(Muxer mediaMuxer, boolean hasAudio, boolean hasVideo) {
+        mMediaMuxer = mediaMuxer;
+        mHasAudio = hasAudio;
+        mHasVideo = hasVideo;
+    }
+
+    /**
+     * muxer starts once every expected track is added; encoder thread
+     */
+    public synchronized void addTrack(MediaFormat mediaFormat, boolean isAudio) {
+        if (mIsStarted || mIsReleased || (isAudio ? mAudioTrack : mVideoTrack) >= 0) {
+            return;
+        }
+        int trackId = mMediaMuxer.addTrack(mediaFormat);
+        if (isAudio) {
+            mAudioTrack = trackId;
+        } else {
+            mVideoTrack = trackId;
+        }
+        if ((!mHasAudio || mAudioTrack >= 0) && (!mHasVideo || mVideoTrack >= 0)) {
+            mMediaMuxer.start();
+            mIsStarted = true;
+        }
+    }
+
+    public void pause() {
+        mIsPaused = true;
+    }
+
+    /**
+     * caller should request a key frame
+     */
+    public void resume() {
+        mIsPaused = false;
+    }
+
+    public boolean isPaused() {
+        return mIsPaused;
+    }
+
+    public long getWrittenFrames() {
+        return mWrittenFrames;
+    }
+
+    /**
+     * writer thread
+     */
+    @Override
+    public void writeFrame(EncodedFrame frame) {
+        if (!mIsStarted || frame.isCodecConfig()) {
+            // csd is in the track format
+            return;
+        }
+        if (mIsPaused) {
+            mIsKeyFrameFound = false;
+            return;
+        }
+        if (mHasVideo && !mIsKeyFrameFound) {
+            if (!frame.isVideo() || !frame.isKeyFrame()) {
+                return;
+            }
+            mIsKeyFrameFound = true;
+        }
+        int track = frame.isVideo() ? mVideoTrack : mAudioTrack;
+        if (track < 0) {
+            return;
+        }
+        mBufferInfo.set(0, frame.size, frame.ptsUs, frame.isKeyFrame() ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        frame.data.limit(frame.size);
+        frame.data.position(0);
+        try {
+            mMediaMuxer.writeSampleData(track, frame.data, mBufferInfo);
+        } catch (Exception e) {
+            Log.e(TAG, "mediamuxer write sample failed. errorMsg=" + e.getMessage());
+            return;
+        }
+        mWrittenFrames++;
+    }
+
+    /**
+     * finish the file; writer thread must have quit
+     */
+    public synchronized void release() {
+        if (mIsReleased) {
+            return;
+        }
+        mIsReleased = true;
+        try {
+            if (mIsStarted) {
+                mMediaMuxer.stop();
+            }
+        } catch (Exception e) {
+            // nothing written yet
+            Log.e(TAG, "mediamuxer stop failed. errorMsg=" + e.getMessage());
+        }
+        mMediaMuxer.release();
+        mIsStarted = false;
+    }
+}
@@ -0,0 +1,158 @@
+package com.ztn.camera.push;
+
+import java.nio.ByteBuffer;
+
+/**
+ * classifies the nal units of one h.264 access unit where it lies, without copying
+ * <p>
+ * takes annex-b (encoder output) or 4 byte length prefixed (avcc) payloads and reads nal headers only.
+ * every slice of a picture has the same type, so scanning stops at the first one: the cost is the
+ * parameter sets and SEIs in front of it, not the size of the frame.
+ * <p>
+ * not thread safe, one instance per encoder output thread.
+ */
+public class NalUnitScanner {
+
+    public static final int NAL_SLICE = 1;
+    public static final int NAL_IDR = 5;
+    public static final int NAL_SEI = 6;
+    public static final int NAL_SPS = 7;
+    public static final int NAL_PPS = 8;
+    public static final int NAL_AUD = 9;
+
+    // bit (1 << nal_unit_type) for every type seen
+    private int mTypes;
+    private int mNalCount;
+    private int mSliceType;
+    private int mSliceRefIdc;
+
+    /**
+     * @return this, holding the result until the next scan
+     */
+    public NalUnitScanner scan(ByteBuffer buffer, int offset, int size) {
+        mTypes = 0;
+        mNalCount = 0;
+        mSliceType = -1;
+        mSliceRefIdc = -1;
+        int end = offset + size;
+        if (isAnnexB(buffer, offset, end)) {
+            int cursor = offset;
+            while (cursor >= 0) {
+                int header = cursor + startCodeLength(buffer, cursor);
+                if (header >= end || onNalHeader(buffer.get(header))) {
+                    break;
+                }
+                cursor = findStartCode(buffer, header + 1, end);
+            }
+        } else {
+            int cursor = offset;
+            while (cursor + 4 < end) {
+                int length = buffer.getInt(cursor);
+                if (length <= 0 || length > end - cursor - 4 || onNalHeader(buffer.get(cursor + 4))) {
+                    break;
+                }
+                cursor += 4 + length;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return true at the first slice
+     */
+    private boolean onNalHeader(byte header) {
+        int type = header & 0x1f;
+        mNalCount++;
+        mTypes |= 1 << type;
+        if (type >= NAL_SLICE && type <= NAL_IDR) {
+            mSliceType = type;
+            mSliceRefIdc = (header >> 5) & 0x3;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * nal units up to and including the first slice
+     */
+    public int getNalCount() {
+        return mNalCount;
+    }
+
+    public boolean contains(int nalType) {
+        return (mTypes & 1 << nalType) != 0;
+    }
+
+    public boolean hasSlice() {
+        return mSliceType > 0;
+    }
+
+    public boolean isIdr() {
+        return mSliceType == NAL_IDR;
+    }
+
+    /**
+     * nal_ref_idc of the slice is 0: no other frame refers to this one
+     */
+    public boolean isNonReference() {
+        return mSliceRefIdc == 0;
+    }
+
+    /**
+     * sps and/or pps without a picture, e.g. the codec config MediaCodec hands out before the first frame
+     */
+    public boolean isParameterSetsOnly() {
+        return !hasSlice() && (contains(NAL_SPS) || contains(NAL_PPS));
+    }
+
+    /**
+     * {@link EncodedFrame} flags for the scanned access unit; the codec's buffer flags decide
+     * only if no slice or parameter set was found
+     */
+    public int toFrameFlags(int bufferFlags) {
+        if (isParameterSetsOnly()) {
+            return EncodedFrame.FLAG_CODEC_CONFIG;
+        }
+        if (!hasSlice()) {
+            return bufferFlags & (EncodedFrame.FLAG_KEY_FRAME | EncodedFrame.FLAG_CODEC_CONFIG);
+        }
+        if (isIdr()) {
+            return EncodedFrame.FLAG_KEY_FRAME;
+        }
+        return isNonReference() ? EncodedFrame.FLAG_DISPOSABLE : 0;
+    }
+
+    /**
+     * @return true if the payload starts with a 00 00 01 or 00 00 00 01 start code
+     */
+    public static boolean isAnnexB(ByteBuffer buffer, int offset, int end) {
+        return end - offset >= 3 && buffer.get(offset) == 0 && buffer.get(offset + 1) == 0
+                && (buffer.get(offset + 2) == 1
+                || (end - offset >= 4 && buffer.get(offset + 2) == 0 && buffer.get(offset + 3) == 1));
+    }
+
+    /**
+     * @return index of the next 00 00 01 or 00 00 00 01 start code in [from, limit), or -1
+     */
+    public static int findStartCode(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i + 2 < limit; i++) {
+            if ((buffer.get(i + 2) & 0xff) > 1) {
+                i += 2;
+            } else if (buffer.get(i) == 0 && buffer.get(i + 1) == 0) {
+                if (buffer.get(i + 2) == 1) {
+                    return i;
+                } else if (i + 3 < limit && buffer.get(i + 2) == 0 && buffer.get(i + 3) == 1) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index of a start code found by {@link #findStartCode}
+     */
+    public static int startCodeLength(ByteBuffer buffer, int index) {
+        return buffer.get(index + 2) == 1 ? 3 : 4;
+    }
+}
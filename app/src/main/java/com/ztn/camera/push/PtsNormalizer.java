@@ -0,0 +1,229 @@
+package com.ztn.camera.push;
+
+/**
+ * one output timeline for the audio and video encoder output of a session
+ * <p>
+ * - pause gaps are cut out: a frame captured during a pause is dropped and the timeline continues
+ * where it was paused, both tracks shifted by the same amount
+ * - each track is kept strictly increasing
+ * - audio is slewed towards video when the mic clock drifts from the camera clock, at most
+ * {@link #MAX_SLEW_PPM} of elapsed time so there is never an audible jump
+ * <p>
+ * {@link #normalize} is called from one audio thread and one video thread, without locks or allocation;
+ * pause/resume from any other thread. all times are on the capture clock, i.e. the clock raw pts are
+ * stamped with (System.nanoTime() - epoch in this SDK).
+ */
+public class PtsNormalizer {
+
+    /**
+     * returned by {@link #normalize} for a frame that must not be written
+     */
+    public static final long DROP = Long.MIN_VALUE;
+
+    /**
+     * how fast the audio correction may change, relative to audio time
+     */
+    static final long MAX_SLEW_PPM = 1000;
+    /**
+     * drift below this is not corrected, it is jitter of the estimate
+     */
+    static final long DRIFT_DEAD_BAND_US = 5000;
+    /**
+     * samples per track before the drift baseline is taken
+     */
+    static final int WARMUP_FRAMES = 128;
+    /**
+     * rising estimates follow with 1/2^SHIFT per frame; falling ones at once since delay only adds up
+     */
+    private static final int DELAY_SMOOTHING_SHIFT = 6;
+    /**
+     * a frame this much later than usual is a stall, not a clock change
+     */
+    private static final long MAX_DELAY_SPIKE_US = 500000L;
+
+    // written under the instance lock, read with a sequence check
+    private volatile int mSequence = 0;
+    private volatile boolean mIsPaused = true;
+    private volatile long mPausedAtUs = 0L;
+    private volatile long mResumedAtUs = Long.MAX_VALUE;
+    private volatile long mPauseGapUs = 0L;
+
+    /**
+     * per track, indexed by trackType; each slot written by its own encoder thread only
+     */
+    private final long[] mLastPtsUs = new long[]{Long.MIN_VALUE, Long.MIN_VALUE};
+    private final long[] mDelayUs = new long[2];
+    private final int[] mDelaySamples = new int[2];
+    private volatile long mVideoDelayUs = 0L;
+    private volatile int mVideoDelaySamples = 0;
+
+    // audio thread only
+    private boolean mHasDriftBaseline = false;
+    private long mDriftBaselineUs = 0L;
+    private long mLastAudioRawPtsUs = Long.MIN_VALUE;
+    private volatile long mAudioCorrectionUs = 0L;
+    private volatile long mAudioDriftUs = 0L;
+
+    private final long[] mClampedFrames = new long[2];
+
+    /**
+     * starts paused; the first {@link #resume} begins the timeline at 0
+     */
+    public PtsNormalizer() {
+    }
+
+    public synchronized void pause(long nowUs) {
+        if (mIsPaused) {
+            return;
+        }
+        mSequence++;
+        mPausedAtUs = nowUs;
+        mIsPaused = true;
+        mSequence++;
+    }
+
+    public synchronized void resume(long nowUs) {
+        if (!mIsPaused) {
+            return;
+        }
+        mSequence++;
+        mPauseGapUs += Math.max(0L, nowUs - mPausedAtUs);
+        mResumedAtUs = nowUs;
+        mIsPaused = false;
+        mSequence++;
+    }
+
+    /**
+     * back to the initial paused state, e.g. for a new file; encoders must not be running
+     */
+    public synchronized void reset() {
+        mSequence++;
+        mIsPaused = true;
+        mPausedAtUs = 0L;
+        mResumedAtUs = Long.MAX_VALUE;
+        mPauseGapUs = 0L;
+        mSequence++;
+        mLastPtsUs[0] = Long.MIN_VALUE;
+        mLastPtsUs[1] = Long.MIN_VALUE;
+    }
+
+    public boolean isPaused() {
+        return mIsPaused;
+    }
+
+    /**
+     * @param trackType {@link EncodedFrame#TRACK_AUDIO} or {@link EncodedFrame#TRACK_VIDEO}, each from its
+     *                  own thread
+     * @param rawPtsUs  encoder output pts; not for codec config buffers
+     * @param nowUs     capture clock when the frame came out of the encoder, for drift estimation
+     * @return pts on the output timeline, or {@link #DROP}
+     */
+    public long normalize(int trackType, long rawPtsUs, long nowUs) {
+        updateDelay(trackType, rawPtsUs, nowUs);
+
+        boolean isPaused;
+        long resumedAtUs;
+        long pauseGapUs;
+        int sequence;
+        do {
+            sequence = mSequence;
+            isPaused = mIsPaused;
+            resumedAtUs = mResumedAtUs;
+            pauseGapUs = mPauseGapUs;
+        } while ((sequence & 1) != 0 || sequence != mSequence);
+
+        if (isPaused || rawPtsUs < resumedAtUs) {
+            // captured while paused
+            return DROP;
+        }
+        long ptsUs = rawPtsUs - pauseGapUs;
+        if (trackType == EncodedFrame.TRACK_AUDIO) {
+            ptsUs += mAudioCorrectionUs;
+        }
+        long lastPtsUs = mLastPtsUs[trackType];
+        if (ptsUs <= lastPtsUs) {
+            ptsUs = lastPtsUs + 1;
+            mClampedFrames[trackType]++;
+        }
+        mLastPtsUs[trackType] = ptsUs;
+        return ptsUs;
+    }
+
+    /**
+     * total time cut out by pauses
+     */
+    public long getPauseGapUs() {
+        return mPauseGapUs;
+    }
+
+    /**
+     * how far the mic clock fell behind (positive) the camera clock since start
+     */
+    public long getAudioDriftUs() {
+        return mAudioDriftUs;
+    }
+
+    /**
+     * currently added to audio pts
+     */
+    public long getAudioCorrectionUs() {
+        return mAudioCorrectionUs;
+    }
+
+    /**
+     * frames moved forward to keep a track increasing
+     */
+    public long getClampedFrames() {
+        return mClampedFrames[EncodedFrame.TRACK_AUDIO] + mClampedFrames[EncodedFrame.TRACK_VIDEO];
+    }
+
+    /**
+     * lower envelope of (arrival - pts) per track: the offset of that track's clock plus the
+     * smallest encoder delay
+     */
+    private void updateDelay(int trackType, long rawPtsUs, long nowUs) {
+        long delayUs = nowUs - rawPtsUs;
+        if (mDelaySamples[trackType] == 0 || delayUs < mDelayUs[trackType]) {
+            mDelayUs[trackType] = delayUs;
+        } else if (delayUs - mDelayUs[trackType] > MAX_DELAY_SPIKE_US) {
+            return;
+        } else {
+            mDelayUs[trackType] += (delayUs - mDelayUs[trackType]) >> DELAY_SMOOTHING_SHIFT;
+        }
+        if (mDelaySamples[trackType] < WARMUP_FRAMES) {
+            mDelaySamples[trackType]++;
+        }
+        if (trackType == EncodedFrame.TRACK_VIDEO) {
+            mVideoDelayUs = mDelayUs[trackType];
+            mVideoDelaySamples = mDelaySamples[trackType];
+        } else {
+            updateAudioCorrection(rawPtsUs);
+        }
+    }
+
+    /**
+     * audio thread
+     */
+    private void updateAudioCorrection(long rawPtsUs) {
+        long elapsedUs = mLastAudioRawPtsUs == Long.MIN_VALUE ? 0L : Math.max(0L, rawPtsUs - mLastAudioRawPtsUs);
+        mLastAudioRawPtsUs = rawPtsUs;
+        if (mDelaySamples[EncodedFrame.TRACK_AUDIO] < WARMUP_FRAMES || mVideoDelaySamples < WARMUP_FRAMES) {
+            return;
+        }
+        long relativeUs = mDelayUs[EncodedFrame.TRACK_AUDIO] - mVideoDelayUs;
+        if (!mHasDriftBaseline) {
+            // constant pipeline difference between the tracks is not drift
+            mDriftBaselineUs = relativeUs;
+            mHasDriftBaseline = true;
+        }
+        long driftUs = relativeUs - mDriftBaselineUs;
+        mAudioDriftUs = driftUs;
+        long errorUs = driftUs - mAudioCorrectionUs;
+        if (Math.abs(errorUs) <= DRIFT_DEAD_BAND_US) {
+            return;
+        }
+        long maxStepUs = Math.max(1L, elapsedUs * MAX_SLEW_PPM / 1000000L);
+        long stepUs = Math.max(-maxStepUs, Math.min(maxStepUs, errorUs));
+        mAudioCorrectionUs += stepUs;
+    }
+}
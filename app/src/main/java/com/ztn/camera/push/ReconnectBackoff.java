@@ -0,0 +1,57 @@
+package com.ztn.camera.push;
+
+import java.util.Random;
+
+/**
+ * exponential reconnect delay with jitter: initial * 2^attempt, capped at max,
+ * each delay randomized into [delay * (1 - jitter), delay]
+ */
+public class ReconnectBackoff {
+
+    public static final long DEFAULT_INITIAL_DELAY_MS = 500L;
+    public static final long DEFAULT_MAX_DELAY_MS = 16000L;
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private final long mInitialDelayMs;
+    private final long mMaxDelayMs;
+    private final double mJitter;
+    private final Random mRandom;
+    private int mAttempts = 0;
+
+    public ReconnectBackoff() {
+        this(DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_JITTER, new Random());
+    }
+
+    /**
+     * @param jitter 0 for fixed delays, up to 1
+     */
+    public ReconnectBackoff(long initialDelayMs, long maxDelayMs, double jitter, Random random) {
+        mInitialDelayMs = initialDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mJitter = jitter;
+        mRandom = random;
+    }
+
+    /**
+     * delay before the next attempt; counts as one attempt
+     */
+    public synchronized long nextDelayMs() {
+        long delayMs = mMaxDelayMs;
+        if (mAttempts < 31) {
+            delayMs = Math.min(mMaxDelayMs, mInitialDelayMs << mAttempts);
+        }
+        mAttempts++;
+        return delayMs - (long) (delayMs * mJitter * mRandom.nextDouble());
+    }
+
+    /**
+     * call when connected
+     */
+    public synchronized void reset() {
+        mAttempts = 0;
+    }
+
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+}
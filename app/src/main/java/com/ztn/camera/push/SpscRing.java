@@ -0,0 +1,86 @@
+package com.ztn.camera.push;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * lock-free bounded ring for exactly one producer thread and one consumer thread
+ *
+ * @param <E> element type
+ */
+public class SpscRing<E> {
+
+    private final Object[] mElements;
+    private final int mMask;
+    /**
+     * next index to poll, written by consumer only
+     */
+    private final AtomicLong mHead = new AtomicLong(0L);
+    /**
+     * next index to offer, written by producer only
+     */
+    private final AtomicLong mTail = new AtomicLong(0L);
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mElements = new Object[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * producer thread only
+     *
+     * @return false if full
+     */
+    public boolean offer(E element) {
+        long tail = mTail.get();
+        if (tail - mHead.get() >= mElements.length) {
+            return false;
+        }
+        mElements[(int) tail & mMask] = element;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * consumer thread only
+     *
+     * @return null if empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = mHead.get();
+        if (head >= mTail.get()) {
+            return null;
+        }
+        int index = (int) head & mMask;
+        E element = (E) mElements[index];
+        mElements[index] = null;
+        mHead.lazySet(head + 1);
+        return element;
+    }
+
+    /**
+     * consumer thread only
+     *
+     * @return null if empty
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long head = mHead.get();
+        if (head >= mTail.get()) {
+            return null;
+        }
+        return (E) mElements[(int) head & mMask];
+    }
+
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    public int capacity() {
+        return mElements.length;
+    }
+}
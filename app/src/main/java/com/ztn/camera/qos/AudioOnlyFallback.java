@@ -0,0 +1,131 @@
+package com.ztn.camera.qos;
+
+/**
+ * 带宽过低时切换为纯音频推流
+ * <p>
+ * fed with the same samples as {@link BitrateController}. once the video bitrate sits at its floor and
+ * the uplink measured under a congested queue still stays below the threshold, video is given up so the
+ * audio keeps flowing. with only audio on the wire the uplink can not be measured, so video is simply
+ * tried again after a delay; if it falls back again soon after, the next delay doubles.
+ * <p>
+ * session handler thread only.
+ */
+public class AudioOnlyFallback {
+
+    /**
+     * consecutive congested samples before video is given up
+     */
+    static final int ENTER_HOLD_SAMPLES = 3;
+    /**
+     * video that stays up this long resets the retry delay
+     */
+    static final long STABLE_VIDEO_MS = 30000L;
+    static final int MAX_RETRY_FACTOR = 8;
+
+    private final int mEnterBitrate;
+    private final int mMinVideoBitrate;
+    private final long mRetryDelayMs;
+
+    private boolean mIsAudioOnly = false;
+    private int mCongestedSamples = 0;
+    private int mRetryFactor = 1;
+    private long mEnteredAtMs = -1L;
+    private long mResumedAtMs = -1L;
+
+    private OnAudioOnlyChangedListener mListener;
+
+    /**
+     * @param enterBitrate    bps, uplink below this means not even the lowest video fits
+     * @param minVideoBitrate bps, video must have been stepped down to this first
+     * @param retryDelayMs    audio only for at least this long before video is tried again
+     */
+    public AudioOnlyFallback(int enterBitrate, int minVideoBitrate, long retryDelayMs) {
+        mEnterBitrate = enterBitrate;
+        mMinVideoBitrate = minVideoBitrate;
+        mRetryDelayMs = retryDelayMs;
+    }
+
+    public void setOnAudioOnlyChangedListener(OnAudioOnlyChangedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * feed one sample, once per check interval
+     *
+     * @param queuedBytes  bytes waiting to be sent
+     * @param uploadBps    measured upload throughput in bps, 0 if unknown
+     * @param videoBitrate current video bitrate in bps
+     * @return true while audio only
+     */
+    public boolean sample(long queuedBytes, int uploadBps, int videoBitrate, long nowMs) {
+        long queueDelayMs;
+        if (uploadBps > 0) {
+            queueDelayMs = queuedBytes * 8 * 1000 / uploadBps;
+        } else {
+            queueDelayMs = queuedBytes > 0 ? Long.MAX_VALUE : 0;
+        }
+        if (mIsAudioOnly) {
+            if (nowMs - mEnteredAtMs >= mRetryDelayMs * mRetryFactor
+                    && queueDelayMs < BitrateController.CLEAR_QUEUE_DELAY_MS) {
+                mIsAudioOnly = false;
+                mResumedAtMs = nowMs;
+                if (mListener != null) {
+                    mListener.onAudioOnlyChanged(false);
+                }
+            }
+            return mIsAudioOnly;
+        }
+
+        if (mResumedAtMs >= 0 && nowMs - mResumedAtMs >= STABLE_VIDEO_MS) {
+            mResumedAtMs = -1L;
+            mRetryFactor = 1;
+        }
+        if (videoBitrate <= mMinVideoBitrate && uploadBps < mEnterBitrate
+                && queueDelayMs > BitrateController.CONGESTED_QUEUE_DELAY_MS) {
+            if (++mCongestedSamples >= ENTER_HOLD_SAMPLES) {
+                mCongestedSamples = 0;
+                if (mResumedAtMs >= 0) {
+                    // the last try did not hold, wait longer this time
+                    mRetryFactor = Math.min(MAX_RETRY_FACTOR, mRetryFactor * 2);
+                }
+                mIsAudioOnly = true;
+                mEnteredAtMs = nowMs;
+                if (mListener != null) {
+                    mListener.onAudioOnlyChanged(true);
+                }
+            }
+        } else {
+            mCongestedSamples = 0;
+        }
+        return mIsAudioOnly;
+    }
+
+    public boolean isAudioOnly() {
+        return mIsAudioOnly;
+    }
+
+    /**
+     * how long the current or next audio only period lasts at least
+     */
+    public long getRetryDelayMs() {
+        return mRetryDelayMs * mRetryFactor;
+    }
+
+    /**
+     * back to video without notifying, e.g. on stop
+     */
+    public void reset() {
+        mIsAudioOnly = false;
+        mCongestedSamples = 0;
+        mRetryFactor = 1;
+        mEnteredAtMs = -1L;
+        mResumedAtMs = -1L;
+    }
+
+    public interface OnAudioOnlyChangedListener {
+        /**
+         * @param isAudioOnly true when video is given up, false when it should come back with an IDR
+         */
+        void onAudioOnlyChanged(boolean isAudioOnly);
+    }
+}
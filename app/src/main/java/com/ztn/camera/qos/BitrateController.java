@@ -0,0 +1,151 @@
+package com.ztn.camera.qos;
+
+/**
+ * 动态码率控制
+ * <p>
+ * closed-loop controller fed once per check interval with the outbound send-queue depth and the
+ * measured upload throughput; steps the video bitrate between min and max.
+ * <p>
+ * decrease is multiplicative and fast, increase is additive and slow; both need the condition to
+ * hold for several consecutive samples, and the number of samples grows with qosSensitivity
+ */
+public class BitrateController {
+
+    /**
+     * queued data that takes longer than this to drain means the uplink can not keep up
+     */
+    static final int CONGESTED_QUEUE_DELAY_MS = 800;
+    /**
+     * queued data that drains faster than this means the uplink has headroom
+     */
+    static final int CLEAR_QUEUE_DELAY_MS = 200;
+
+    static final float DECREASE_FACTOR = 0.75f;
+    static final float THROUGHPUT_MARGIN = 0.9f;
+    static final int INCREASE_STEPS = 10;
+
+    private final int mMinBitrate;
+    private final int mMaxBitrate;
+    private final int mStepUpBitrate;
+    private final int mDownHoldSamples;
+    private final int mUpHoldSamples;
+
+    private int mCurrentBitrate;
+    private long mLastQueuedBytes = 0L;
+    private int mCongestedSamples = 0;
+    private int mClearSamples = 0;
+
+    private OnBitrateChangedListener mListener;
+
+    /**
+     * @param initBitrate  bps
+     * @param minBitrate   bps
+     * @param maxBitrate   bps
+     * @param sensitivity  LiveConfig.getQosSensitivity(), [5, 10]; larger value reacts slower
+     */
+    public BitrateController(int initBitrate, int minBitrate, int maxBitrate, int sensitivity) {
+        if (minBitrate > maxBitrate) {
+            int tmp = minBitrate;
+            minBitrate = maxBitrate;
+            maxBitrate = tmp;
+        }
+        sensitivity = Math.max(1, sensitivity);
+        mMinBitrate = minBitrate;
+        mMaxBitrate = maxBitrate;
+        mStepUpBitrate = Math.max(1, (maxBitrate - minBitrate) / INCREASE_STEPS);
+        mDownHoldSamples = Math.max(1, sensitivity / 5);
+        mUpHoldSamples = sensitivity;
+        mCurrentBitrate = clamp(initBitrate);
+    }
+
+    public void setOnBitrateChangedListener(OnBitrateChangedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * feed one sample, should be called once per check interval
+     *
+     * @param queuedBytes bytes waiting to be sent
+     * @param uploadBps   measured upload throughput in bps, 0 if unknown
+     * @return video bitrate that should be used now
+     */
+    public int sample(long queuedBytes, int uploadBps) {
+        long queueDelayMs;
+        if (uploadBps > 0) {
+            queueDelayMs = queuedBytes * 8 * 1000 / uploadBps;
+        } else {
+            queueDelayMs = queuedBytes > 0 ? Long.MAX_VALUE : 0;
+        }
+        boolean isQueueGrowing = queuedBytes > mLastQueuedBytes;
+        mLastQueuedBytes = queuedBytes;
+
+        if (queueDelayMs > CONGESTED_QUEUE_DELAY_MS) {
+            mClearSamples = 0;
+            if (++mCongestedSamples >= mDownHoldSamples) {
+                mCongestedSamples = 0;
+                int target = (int) (mCurrentBitrate * DECREASE_FACTOR);
+                if (uploadBps > 0) {
+                    target = Math.min(target, (int) (uploadBps * THROUGHPUT_MARGIN));
+                }
+                updateBitrate(target);
+            }
+        } else if (queueDelayMs < CLEAR_QUEUE_DELAY_MS && !isQueueGrowing) {
+            mCongestedSamples = 0;
+            if (++mClearSamples >= mUpHoldSamples) {
+                mClearSamples = 0;
+                updateBitrate(mCurrentBitrate + mStepUpBitrate);
+            }
+        } else {
+            // between the two thresholds: hold
+            mCongestedSamples = 0;
+            mClearSamples = 0;
+        }
+        return mCurrentBitrate;
+    }
+
+    /**
+     * forget history, e.g. after reconnect or resume
+     */
+    public void reset(int bitrate) {
+        mCurrentBitrate = clamp(bitrate);
+        mLastQueuedBytes = 0L;
+        mCongestedSamples = 0;
+        mClearSamples = 0;
+    }
+
+    public int getCurrentBitrate() {
+        return mCurrentBitrate;
+    }
+
+    public int getMinBitrate() {
+        return mMinBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return mMaxBitrate;
+    }
+
+    private void updateBitrate(int target) {
+        target = clamp(target);
+        if (target == mCurrentBitrate) {
+            return;
+        }
+        boolean isIncreased = target > mCurrentBitrate;
+        mCurrentBitrate = target;
+        if (mListener != null) {
+            mListener.onBitrateChanged(target, isIncreased);
+        }
+    }
+
+    private int clamp(int bitrate) {
+        return Math.max(mMinBitrate, Math.min(mMaxBitrate, bitrate));
+    }
+
+    public interface OnBitrateChangedListener {
+        /**
+         * @param bitrate     new video bitrate in bps
+         * @param isIncreased true if bitrate goes up
+         */
+        void onBitrateChanged(int bitrate, boolean isIncreased);
+    }
+}
@@ -0,0 +1,118 @@
+package com.ztn.camera.qos;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 编码器输出卡死检测
+ * <p>
+ * MediaCodec may stop producing output without reporting an error, e.g. after a thermal event or when
+ * its input surface is lost. the encoder output threads stamp every frame; a periodic check compares
+ * that with the input still going in. a track that got input but no output for longer than the
+ * threshold is reported stalled, again every threshold while it stays stalled, and recovered with the
+ * time since it was first reported once output comes back.
+ * <p>
+ * {@link #onEncodedFrame} from the encoder output threads, everything else from one thread.
+ */
+public class EncoderWatchdog {
+
+    private static final int TRACK_COUNT = 2;
+
+    private final long mStallThresholdMs;
+    private final AtomicLongArray mLastOutputMs = new AtomicLongArray(TRACK_COUNT);
+
+    // checking thread only, indexed by trackType
+    private final boolean[] mIsWatching = new boolean[TRACK_COUNT];
+    private final long[] mLastSeenOutputMs = new long[TRACK_COUNT];
+    private final long[] mInputAtLastOutput = new long[TRACK_COUNT];
+    private final long[] mStalledAtMs = new long[TRACK_COUNT];
+    private final long[] mLastReportMs = new long[TRACK_COUNT];
+
+    private OnEncoderStallListener mListener;
+
+    /**
+     * @param stallThresholdMs input without output for this long is a stall
+     */
+    public EncoderWatchdog(long stallThresholdMs) {
+        mStallThresholdMs = stallThresholdMs;
+    }
+
+    public void setOnEncoderStallListener(OnEncoderStallListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * watch a track from now on, e.g. once its encoder is started
+     */
+    public void start(int trackType, long nowMs) {
+        mLastOutputMs.set(trackType, nowMs);
+        mLastSeenOutputMs[trackType] = -1L;
+        mStalledAtMs[trackType] = -1L;
+        mIsWatching[trackType] = true;
+    }
+
+    public void stop(int trackType) {
+        mIsWatching[trackType] = false;
+    }
+
+    /**
+     * encoder output thread
+     */
+    public void onEncodedFrame(int trackType, long nowMs) {
+        mLastOutputMs.set(trackType, nowMs);
+    }
+
+    /**
+     * once per check interval and track
+     *
+     * @param inputCount frames fed to the track's encoder so far; without new input no output is expected
+     */
+    public void check(int trackType, long inputCount, long nowMs) {
+        if (!mIsWatching[trackType]) {
+            return;
+        }
+        long lastOutputMs = mLastOutputMs.get(trackType);
+        if (lastOutputMs != mLastSeenOutputMs[trackType]) {
+            mLastSeenOutputMs[trackType] = lastOutputMs;
+            mInputAtLastOutput[trackType] = inputCount;
+            long stalledAtMs = mStalledAtMs[trackType];
+            if (stalledAtMs >= 0) {
+                mStalledAtMs[trackType] = -1L;
+                if (mListener != null) {
+                    mListener.onEncoderRecovered(trackType, Math.max(0L, lastOutputMs - stalledAtMs));
+                }
+            }
+            return;
+        }
+        if (inputCount <= mInputAtLastOutput[trackType] || nowMs - lastOutputMs <= mStallThresholdMs) {
+            return;
+        }
+        if (mStalledAtMs[trackType] < 0) {
+            mStalledAtMs[trackType] = nowMs;
+        } else if (nowMs - mLastReportMs[trackType] <= mStallThresholdMs) {
+            // the last recovery attempt still has time
+            return;
+        }
+        mLastReportMs[trackType] = nowMs;
+        if (mListener != null) {
+            mListener.onEncoderStalled(trackType, nowMs - lastOutputMs);
+        }
+    }
+
+    public boolean isStalled(int trackType) {
+        return mStalledAtMs[trackType] >= 0;
+    }
+
+    public interface OnEncoderStallListener {
+        /**
+         * the encoder of trackType should be rebuilt
+         *
+         * @param stalledMs time since its last output
+         */
+        void onEncoderStalled(int trackType, long stalledMs);
+
+        /**
+         * @param recoveryMs from the stall being reported to the first output after it
+         */
+        void onEncoderRecovered(int trackType, long recoveryMs);
+    }
+}
@@ -0,0 +1,98 @@
+package com.ztn.camera.qos;
+
+/**
+ * 拥塞时降低帧率
+ * <p>
+ * follows the bitrate chosen by {@link BitrateController}: when bits per pixel at the current frame rate
+ * fall below {@link #MIN_BITS_PER_PIXEL}, each frame turns to mush, so step down a ladder of frame rates
+ * (e.g. 25 -> 15 -> 10) and spend the bits on fewer, sharper frames. steps back up as the bitrate
+ * recovers, with some headroom so it does not flap around a threshold.
+ */
+public class FrameRateController {
+
+    /**
+     * below this h.264 at camera content is visibly blocky
+     */
+    static final float MIN_BITS_PER_PIXEL = 0.035f;
+    /**
+     * a higher step must have this much more than the minimum before going back up
+     */
+    static final float STEP_UP_HEADROOM = 1.25f;
+    static final float[] LADDER = {1.0f, 0.6f, 0.4f};
+
+    private final int[] mFpsSteps;
+    private volatile long mPixelsPerFrame;
+    private int mStep = 0;
+
+    private OnFrameRateChangedListener mListener;
+
+    /**
+     * @param maxFps configured frame rate, the top of the ladder
+     */
+    public FrameRateController(int maxFps, int width, int height) {
+        mFpsSteps = new int[LADDER.length];
+        for (int i = 0; i < LADDER.length; i++) {
+            mFpsSteps[i] = Math.max(1, Math.round(maxFps * LADDER[i]));
+        }
+        mPixelsPerFrame = Math.max(1L, (long) width * height);
+    }
+
+    public void setOnFrameRateChangedListener(OnFrameRateChangedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * call whenever the video bitrate changes
+     *
+     * @param bitrate bps
+     * @return frame rate that should be encoded now
+     */
+    public int onBitrateChanged(int bitrate) {
+        int step = mStep;
+        while (step < mFpsSteps.length - 1 && bitsPerPixel(bitrate, mFpsSteps[step]) < MIN_BITS_PER_PIXEL) {
+            step++;
+        }
+        while (step > 0 && step == mStep
+                && bitsPerPixel(bitrate, mFpsSteps[step - 1]) >= MIN_BITS_PER_PIXEL * STEP_UP_HEADROOM) {
+            step--;
+        }
+        if (step != mStep) {
+            boolean isIncreased = step < mStep;
+            mStep = step;
+            if (mListener != null) {
+                mListener.onFrameRateChanged(mFpsSteps[step], isIncreased);
+            }
+        }
+        return mFpsSteps[mStep];
+    }
+
+    /**
+     * encode size changed; applies from the next bitrate change
+     */
+    public void setFrameSize(int width, int height) {
+        mPixelsPerFrame = Math.max(1L, (long) width * height);
+    }
+
+    /**
+     * back to the top of the ladder, e.g. after a restart
+     */
+    public void reset() {
+        mStep = 0;
+    }
+
+    public int getCurrentFps() {
+        return mFpsSteps[mStep];
+    }
+
+    private float bitsPerPixel(int bitrate, int fps) {
+        return (float) bitrate / (mPixelsPerFrame * fps);
+    }
+
+    public interface OnFrameRateChangedListener {
+        /**
+         * @param fps         frame rate to encode
+         * @param isIncreased true if frame rate goes up
+         */
+        void onFrameRateChanged(int fps, boolean isIncreased);
+    }
+}
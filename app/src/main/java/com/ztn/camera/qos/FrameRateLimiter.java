@@ -0,0 +1,87 @@
+package com.ztn.camera.qos;
+
+/**
+ * 编码帧率限制
+ * <p>
+ * decides which captured frames go to the encoder when encoding below the capture frame rate. the
+ * filter only tells us about frames it submitted, so after each one this says how long to keep
+ * submission off; the first frame after that goes in. due times advance by exactly one target interval,
+ * so the pick lands on the capture frame nearest to each due time and the average rate is the target.
+ * <p>
+ * encoders count the gop in frames at the configured rate, so while limited a key frame is asked for
+ * every gop length in seconds instead.
+ * <p>
+ * filter thread only, except {@link #setTargetFps}.
+ */
+public class FrameRateLimiter {
+
+    private final int mCaptureFps;
+    private final long mGopLengthUs;
+    private volatile int mTargetFps;
+
+    private long mNextDueUs = -1L;
+    private long mLastKeyFramePtsUs = -1L;
+
+    /**
+     * @param captureFps         rate frames arrive at, also the highest target
+     * @param gopLengthInSeconds 0 to not force key frames
+     */
+    public FrameRateLimiter(int captureFps, int gopLengthInSeconds) {
+        mCaptureFps = Math.max(1, captureFps);
+        mGopLengthUs = gopLengthInSeconds * 1000000L;
+        mTargetFps = mCaptureFps;
+    }
+
+    public void setTargetFps(int fps) {
+        mTargetFps = Math.max(1, Math.min(mCaptureFps, fps));
+    }
+
+    public int getTargetFps() {
+        return mTargetFps;
+    }
+
+    public boolean isLimiting() {
+        return mTargetFps < mCaptureFps;
+    }
+
+    /**
+     * a frame was submitted to the encoder
+     *
+     * @param ptsUs its capture pts
+     * @param nowUs capture clock now
+     * @return us to keep submission off from now, 0 to submit the next frame as well
+     */
+    public long onFrameSubmitted(long ptsUs, long nowUs) {
+        int targetFps = mTargetFps;
+        if (targetFps >= mCaptureFps) {
+            mNextDueUs = -1L;
+            return 0L;
+        }
+        long intervalUs = 1000000L / targetFps;
+        if (mNextDueUs < 0 || ptsUs - mNextDueUs > intervalUs || mNextDueUs - ptsUs > intervalUs) {
+            // first limited frame, or capture stalled: restart the schedule here
+            mNextDueUs = ptsUs + intervalUs;
+        } else {
+            mNextDueUs += intervalUs;
+        }
+        // open half a capture interval early so the frame nearest the due time is taken
+        long openAtUs = mNextDueUs - 500000L / mCaptureFps;
+        return Math.max(0L, openAtUs - nowUs);
+    }
+
+    /**
+     * @return true if a key frame should be requested for the next submitted frame
+     */
+    public boolean isKeyFrameDue(long ptsUs) {
+        if (mGopLengthUs <= 0 || !isLimiting()) {
+            mLastKeyFramePtsUs = -1L;
+            return false;
+        }
+        // on entering the limited rate the encoder's last key frame is unknown, start a gop right away
+        if (mLastKeyFramePtsUs < 0 || ptsUs - mLastKeyFramePtsUs >= mGopLengthUs) {
+            mLastKeyFramePtsUs = ptsUs;
+            return true;
+        }
+        return false;
+    }
+}
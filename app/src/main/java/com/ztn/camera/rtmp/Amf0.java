@@ -0,0 +1,161 @@
+package com.ztn.camera.rtmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * minimal AMF0 encoding for rtmp command messages
+ */
+public class Amf0 {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int TYPE_NUMBER = 0x00;
+    static final int TYPE_BOOLEAN = 0x01;
+    static final int TYPE_STRING = 0x02;
+    static final int TYPE_OBJECT = 0x03;
+    static final int TYPE_NULL = 0x05;
+    static final int TYPE_UNDEFINED = 0x06;
+    static final int TYPE_ECMA_ARRAY = 0x08;
+    static final int TYPE_OBJECT_END = 0x09;
+    static final int TYPE_STRICT_ARRAY = 0x0A;
+    static final int TYPE_DATE = 0x0B;
+    static final int TYPE_LONG_STRING = 0x0C;
+
+    private Amf0() {
+    }
+
+    public static void writeNumber(ByteBuffer out, double value) {
+        out.put((byte) TYPE_NUMBER);
+        out.putDouble(value);
+    }
+
+    public static void writeBoolean(ByteBuffer out, boolean value) {
+        out.put((byte) TYPE_BOOLEAN);
+        out.put((byte) (value ? 1 : 0));
+    }
+
+    public static void writeString(ByteBuffer out, String value) {
+        out.put((byte) TYPE_STRING);
+        writeUtf8(out, value);
+    }
+
+    public static void writeNull(ByteBuffer out) {
+        out.put((byte) TYPE_NULL);
+    }
+
+    /**
+     * values may be String, Number, Boolean or null
+     */
+    public static void writeObject(ByteBuffer out, Map<String, Object> object) {
+        out.put((byte) TYPE_OBJECT);
+        writeProperties(out, object);
+    }
+
+    public static void writeEcmaArray(ByteBuffer out, Map<String, Object> array) {
+        out.put((byte) TYPE_ECMA_ARRAY);
+        out.putInt(array.size());
+        writeProperties(out, array);
+    }
+
+    private static void writeProperties(ByteBuffer out, Map<String, Object> properties) {
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            writeUtf8(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+        out.put((byte) 0).put((byte) 0).put((byte) TYPE_OBJECT_END);
+    }
+
+    public static void writeValue(ByteBuffer out, Object value) {
+        if (value == null) {
+            writeNull(out);
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Number) {
+            writeNumber(out, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            writeBoolean(out, (Boolean) value);
+        } else {
+            throw new IllegalArgumentException("unsupported amf0 value " + value.getClass());
+        }
+    }
+
+    private static void writeUtf8(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    /**
+     * @return Double, Boolean, String, Map, List or null
+     */
+    public static Object readValue(ByteBuffer in) throws IOException {
+        int type = in.get() & 0xff;
+        switch (type) {
+            case TYPE_NUMBER:
+                return in.getDouble();
+            case TYPE_BOOLEAN:
+                return in.get() != 0;
+            case TYPE_STRING:
+                return readUtf8(in, in.getShort() & 0xffff);
+            case TYPE_LONG_STRING:
+                return readUtf8(in, in.getInt());
+            case TYPE_OBJECT:
+                return readProperties(in);
+            case TYPE_ECMA_ARRAY:
+                in.getInt(); // count is not reliable
+                return readProperties(in);
+            case TYPE_STRICT_ARRAY: {
+                int count = in.getInt();
+                List<Object> list = new ArrayList<Object>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case TYPE_DATE: {
+                double time = in.getDouble();
+                in.getShort(); // time zone
+                return time;
+            }
+            case TYPE_NULL:
+            case TYPE_UNDEFINED:
+                return null;
+            default:
+                throw new IOException("unsupported amf0 type " + type);
+        }
+    }
+
+    /**
+     * read all values till the end of buffer
+     */
+    public static List<Object> readAll(ByteBuffer in) throws IOException {
+        List<Object> values = new ArrayList<Object>();
+        while (in.hasRemaining()) {
+            values.add(readValue(in));
+        }
+        return values;
+    }
+
+    private static Map<String, Object> readProperties(ByteBuffer in) throws IOException {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        while (true) {
+            String key = readUtf8(in, in.getShort() & 0xffff);
+            if (key.length() == 0 && (in.get(in.position()) & 0xff) == TYPE_OBJECT_END) {
+                in.get();
+                return properties;
+            }
+            properties.put(key, readValue(in));
+        }
+    }
+
+    private static String readUtf8(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
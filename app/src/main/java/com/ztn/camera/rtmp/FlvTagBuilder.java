@@ -0,0 +1,188 @@
+package com.ztn.camera.rtmp;
+
+import com.ztn.camera.push.NalUnitScanner;
+
+import java.nio.ByteBuffer;
+
+import static com.ztn.camera.push.NalUnitScanner.findStartCode;
+import static com.ztn.camera.push.NalUnitScanner.startCodeLength;
+
+/**
+ * builds flv tag headers (video: AVC, audio: AAC) into reusable buffers
+ * and rewrites h264 annex-b payload into length prefixed nal units
+ * <p>
+ * not thread safe, use one instance per writer thread
+ */
+public class FlvTagBuilder {
+
+    public static final int FRAME_TYPE_KEY = 1;
+    public static final int FRAME_TYPE_INTER = 2;
+    private static final int CODEC_ID_AVC = 7;
+    private static final int AVC_SEQUENCE_HEADER = 0;
+    private static final int AVC_NALU = 1;
+    // AAC, 44kHz, 16bit, stereo; fixed by flv spec for aac
+    private static final int AUDIO_TAG_AAC = 0xAF;
+    private static final int AAC_SEQUENCE_HEADER = 0;
+    private static final int AAC_RAW = 1;
+
+    private final ByteBuffer mVideoHeader = ByteBuffer.allocateDirect(5);
+    private final ByteBuffer mAudioHeader = ByteBuffer.allocateDirect(2);
+    private ByteBuffer mScratch = ByteBuffer.allocateDirect(64 * 1024);
+    // buffer last rewritten in place by toAvcc
+    private ByteBuffer mRewritten;
+
+    public ByteBuffer videoHeader(boolean isKeyFrame) {
+        return videoHeader(isKeyFrame ? FRAME_TYPE_KEY : FRAME_TYPE_INTER, AVC_NALU);
+    }
+
+    public ByteBuffer videoSequenceHeader() {
+        return videoHeader(FRAME_TYPE_KEY, AVC_SEQUENCE_HEADER);
+    }
+
+    public ByteBuffer audioHeader() {
+        return audioHeader(AAC_RAW);
+    }
+
+    public ByteBuffer audioSequenceHeader() {
+        return audioHeader(AAC_SEQUENCE_HEADER);
+    }
+
+    private ByteBuffer videoHeader(int frameType, int packetType) {
+        mVideoHeader.clear();
+        mVideoHeader.put((byte) (frameType << 4 | CODEC_ID_AVC));
+        mVideoHeader.put((byte) packetType);
+        // composition time, encoder output has no b frames
+        mVideoHeader.put((byte) 0).put((byte) 0).put((byte) 0);
+        mVideoHeader.flip();
+        return mVideoHeader;
+    }
+
+    private ByteBuffer audioHeader(int packetType) {
+        mAudioHeader.clear();
+        mAudioHeader.put((byte) AUDIO_TAG_AAC).put((byte) packetType);
+        mAudioHeader.flip();
+        return mAudioHeader;
+    }
+
+    /**
+     * build AVCDecoderConfigurationRecord from annex-b sps and pps (csd-0 and csd-1 of MediaCodec,
+     * or both in one buffer)
+     *
+     * @return null if no sps or pps is found
+     */
+    public static ByteBuffer avcDecoderConfigurationRecord(ByteBuffer annexB) {
+        ByteBuffer sps = null;
+        ByteBuffer pps = null;
+        int position = annexB.position();
+        int limit = annexB.limit();
+        int start = findStartCode(annexB, position, limit);
+        while (start >= 0) {
+            int nalStart = start + startCodeLength(annexB, start);
+            int next = findStartCode(annexB, nalStart, limit);
+            int nalEnd = next < 0 ? limit : next;
+            if (nalEnd > nalStart) {
+                int nalType = annexB.get(nalStart) & 0x1f;
+                ByteBuffer nal = annexB.duplicate();
+                nal.limit(nalEnd);
+                nal.position(nalStart);
+                if (nalType == NalUnitScanner.NAL_SPS && sps == null) {
+                    sps = nal.slice();
+                } else if (nalType == NalUnitScanner.NAL_PPS && pps == null) {
+                    pps = nal.slice();
+                }
+            }
+            start = next;
+        }
+        if (sps == null || pps == null || sps.remaining() < 4) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(11 + sps.remaining() + pps.remaining());
+        record.put((byte) 1);
+        record.put(sps.get(1)); // profile
+        record.put(sps.get(2)); // compatibility
+        record.put(sps.get(3)); // level
+        record.put((byte) 0xFF); // 4 bytes nal length
+        record.put((byte) 0xE1); // 1 sps
+        record.putShort((short) sps.remaining());
+        record.put(sps);
+        record.put((byte) 1); // 1 pps
+        record.putShort((short) pps.remaining());
+        record.put(pps);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * rewrite annex-b nal units into 4 bytes length prefixed ones.
+     * in place when every start code is 4 bytes long, otherwise into a reused scratch buffer.
+     * payload without start code is returned as is. undo with {@link #restoreAnnexB(ByteBuffer)}.
+     *
+     * @return buffer holding the avcc payload from position to limit
+     */
+    public ByteBuffer toAvcc(ByteBuffer annexB) {
+        int position = annexB.position();
+        int limit = annexB.limit();
+        int start = findStartCode(annexB, position, limit);
+        if (start != position) {
+            return annexB;
+        }
+        boolean isInPlace = true;
+        int nalCount = 0;
+        int cursor = start;
+        while (cursor >= 0) {
+            if (startCodeLength(annexB, cursor) != 4) {
+                isInPlace = false;
+            }
+            nalCount++;
+            cursor = findStartCode(annexB, cursor + 3, limit);
+        }
+        if (isInPlace) {
+            cursor = start;
+            while (cursor >= 0) {
+                int next = findStartCode(annexB, cursor + 4, limit);
+                int nalEnd = next < 0 ? limit : next;
+                annexB.putInt(cursor, nalEnd - cursor - 4);
+                cursor = next;
+            }
+            mRewritten = annexB;
+            return annexB;
+        }
+
+        int maxSize = limit - position + nalCount;
+        if (mScratch.capacity() < maxSize) {
+            mScratch = ByteBuffer.allocateDirect(maxSize + maxSize / 4);
+        }
+        mScratch.clear();
+        ByteBuffer source = annexB.duplicate();
+        cursor = start;
+        while (cursor >= 0) {
+            int nalStart = cursor + startCodeLength(annexB, cursor);
+            int next = findStartCode(annexB, nalStart, limit);
+            int nalEnd = next < 0 ? limit : next;
+            mScratch.putInt(nalEnd - nalStart);
+            source.limit(nalEnd);
+            source.position(nalStart);
+            mScratch.put(source);
+            cursor = next;
+        }
+        mScratch.flip();
+        return mScratch;
+    }
+
+    /**
+     * put the start codes back if buffer was rewritten in place by the last toAvcc
+     */
+    public void restoreAnnexB(ByteBuffer buffer) {
+        if (mRewritten != buffer) {
+            return;
+        }
+        mRewritten = null;
+        int cursor = buffer.position();
+        int limit = buffer.limit();
+        while (cursor + 4 <= limit) {
+            int length = buffer.getInt(cursor);
+            buffer.putInt(cursor, 1);
+            cursor += 4 + length;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.ztn.camera.rtmp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * reassembles rtmp messages from incoming chunks; used on the control path only
+ */
+public class RtmpChunkReader {
+
+    private static final long EXTENDED_TIMESTAMP = 0xFFFFFFL;
+
+    private final ReadableByteChannel mChannel;
+    private int mChunkSize = RtmpChunkWriter.DEFAULT_CHUNK_SIZE;
+    private final Map<Integer, ChunkStream> mChunkStreams = new HashMap<Integer, ChunkStream>();
+    private final ByteBuffer mScratch = ByteBuffer.allocate(16);
+    private long mBytesRead = 0L;
+
+    private static class ChunkStream {
+        long timestamp;
+        long timestampDelta;
+        boolean isExtendedTimestamp;
+        int length;
+        int type;
+        int streamId;
+        ByteBuffer payload;
+    }
+
+    public RtmpChunkReader(ReadableByteChannel channel) {
+        mChannel = channel;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * blocks until one whole message is read; TYPE_SET_CHUNK_SIZE is applied here as well
+     */
+    public RtmpMessage readMessage() throws IOException {
+        while (true) {
+            int basic = readByte();
+            int fmt = basic >> 6;
+            int chunkStreamId = basic & 0x3f;
+            if (chunkStreamId == 0) {
+                chunkStreamId = 64 + readByte();
+            } else if (chunkStreamId == 1) {
+                chunkStreamId = 64 + readByte() + (readByte() << 8);
+            }
+            ChunkStream stream = mChunkStreams.get(chunkStreamId);
+            if (stream == null) {
+                if (fmt != 0) {
+                    throw new IOException("first chunk of csid " + chunkStreamId + " is fmt " + fmt);
+                }
+                stream = new ChunkStream();
+                mChunkStreams.put(chunkStreamId, stream);
+            }
+            boolean isNewMessage = stream.payload == null;
+            if (fmt <= 2) {
+                long timestamp = readUInt(3);
+                if (fmt <= 1) {
+                    stream.length = (int) readUInt(3);
+                    stream.type = readByte();
+                }
+                if (fmt == 0) {
+                    int id = readByte() | readByte() << 8 | readByte() << 16 | readByte() << 24;
+                    stream.streamId = id;
+                }
+                stream.isExtendedTimestamp = timestamp == EXTENDED_TIMESTAMP;
+                if (stream.isExtendedTimestamp) {
+                    timestamp = readUInt(4);
+                }
+                if (fmt == 0) {
+                    stream.timestamp = timestamp;
+                    stream.timestampDelta = 0;
+                } else {
+                    stream.timestampDelta = timestamp;
+                    stream.timestamp += timestamp;
+                }
+            } else {
+                if (stream.isExtendedTimestamp) {
+                    readUInt(4);
+                }
+                if (isNewMessage) {
+                    stream.timestamp += stream.timestampDelta;
+                }
+            }
+            if (isNewMessage) {
+                stream.payload = ByteBuffer.allocate(stream.length);
+            }
+            int size = Math.min(mChunkSize, stream.payload.remaining());
+            readFully(stream.payload, size);
+            if (!stream.payload.hasRemaining()) {
+                ByteBuffer payload = stream.payload;
+                payload.flip();
+                stream.payload = null;
+                RtmpMessage message = new RtmpMessage(chunkStreamId, stream.type, stream.streamId,
+                        stream.timestamp, payload);
+                if (message.type == RtmpMessage.TYPE_SET_CHUNK_SIZE) {
+                    mChunkSize = payload.getInt(0) & 0x7fffffff;
+                }
+                return message;
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        mScratch.clear();
+        readFully(mScratch, 1);
+        return mScratch.get(0) & 0xff;
+    }
+
+    private long readUInt(int bytes) throws IOException {
+        mScratch.clear();
+        readFully(mScratch, bytes);
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = value << 8 | (mScratch.get(i) & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * read exactly size bytes into buffer from its position
+     */
+    void readFully(ByteBuffer buffer, int size) throws IOException {
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + size);
+        try {
+            while (buffer.hasRemaining()) {
+                int read = mChannel.read(buffer);
+                if (read < 0) {
+                    throw new EOFException("rtmp connection closed by peer");
+                }
+                mBytesRead += read;
+            }
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.ztn.camera.rtmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * splits rtmp messages into chunks and writes them with gathering writes:
+ * chunk headers come from one reusable buffer, payload buffers are written as they are
+ * <p>
+ * thread safe, media and control messages may come from different threads
+ */
+public class RtmpChunkWriter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 128;
+    private static final int MAX_HEADER_SIZE = 1 + 11 + 4;
+    private static final long EXTENDED_TIMESTAMP = 0xFFFFFFL;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final GatheringByteChannel mChannel;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+
+    private final ByteBuffer mHeader = ByteBuffer.allocateDirect(MAX_HEADER_SIZE);
+    private final ByteBuffer[] mFirstChunk = new ByteBuffer[3];
+    private final ByteBuffer[] mNextChunk = new ByteBuffer[2];
+
+    private volatile long mBytesWritten = 0L;
+
+    public RtmpChunkWriter(GatheringByteChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * only changes local state; send TYPE_SET_CHUNK_SIZE first
+     */
+    public synchronized void setChunkSize(int chunkSize) {
+        mChunkSize = chunkSize;
+    }
+
+    public synchronized int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * @param prefix bytes in front of body, e.g. flv tag header; may be null. must fit in one chunk
+     * @param body   may be null; position and limit are restored when done
+     */
+    public synchronized void writeMessage(int chunkStreamId, int type, int streamId, long timestamp,
+                                          ByteBuffer prefix, ByteBuffer body) throws IOException {
+        if (prefix == null) {
+            prefix = EMPTY;
+        }
+        if (body == null) {
+            body = EMPTY;
+        }
+        int length = prefix.remaining() + body.remaining();
+        int bodyPosition = body.position();
+        int bodyLimit = body.limit();
+        boolean isExtendedTimestamp = timestamp >= EXTENDED_TIMESTAMP;
+        try {
+            // first chunk: type 0 header
+            mHeader.clear();
+            mHeader.put((byte) (chunkStreamId & 0x3f));
+            putUInt24(mHeader, isExtendedTimestamp ? EXTENDED_TIMESTAMP : timestamp);
+            putUInt24(mHeader, length);
+            mHeader.put((byte) type);
+            // message stream id is little endian
+            mHeader.put((byte) streamId).put((byte) (streamId >> 8))
+                    .put((byte) (streamId >> 16)).put((byte) (streamId >> 24));
+            if (isExtendedTimestamp) {
+                mHeader.putInt((int) timestamp);
+            }
+            mHeader.flip();
+
+            int bodyInChunk = Math.min(mChunkSize - prefix.remaining(), body.remaining());
+            body.limit(body.position() + bodyInChunk);
+            mFirstChunk[0] = mHeader;
+            mFirstChunk[1] = prefix;
+            mFirstChunk[2] = body;
+            writeFully(mFirstChunk);
+            body.limit(bodyLimit);
+
+            // following chunks: type 3 header
+            while (body.hasRemaining()) {
+                mHeader.clear();
+                mHeader.put((byte) (0xC0 | (chunkStreamId & 0x3f)));
+                if (isExtendedTimestamp) {
+                    mHeader.putInt((int) timestamp);
+                }
+                mHeader.flip();
+                bodyInChunk = Math.min(mChunkSize, body.remaining());
+                body.limit(body.position() + bodyInChunk);
+                mNextChunk[0] = mHeader;
+                mNextChunk[1] = body;
+                writeFully(mNextChunk);
+                body.limit(bodyLimit);
+            }
+        } finally {
+            body.limit(bodyLimit);
+            body.position(bodyPosition);
+            mFirstChunk[1] = null;
+            mFirstChunk[2] = null;
+            mNextChunk[1] = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer[] buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining() || hasRemaining(buffers)) {
+            long written = mChannel.write(buffers);
+            if (written < 0) {
+                throw new IOException("channel closed");
+            }
+            mBytesWritten += written;
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void putUInt24(ByteBuffer out, long value) {
+        out.put((byte) (value >> 16)).put((byte) (value >> 8)).put((byte) value);
+    }
+}
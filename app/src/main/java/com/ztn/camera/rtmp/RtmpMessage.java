@@ -0,0 +1,38 @@
+package com.ztn.camera.rtmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * one reassembled rtmp message
+ */
+public class RtmpMessage {
+
+    public static final int TYPE_SET_CHUNK_SIZE = 1;
+    public static final int TYPE_ABORT = 2;
+    public static final int TYPE_ACKNOWLEDGEMENT = 3;
+    public static final int TYPE_USER_CONTROL = 4;
+    public static final int TYPE_WINDOW_ACK_SIZE = 5;
+    public static final int TYPE_SET_PEER_BANDWIDTH = 6;
+    public static final int TYPE_AUDIO = 8;
+    public static final int TYPE_VIDEO = 9;
+    public static final int TYPE_DATA_AMF0 = 18;
+    public static final int TYPE_COMMAND_AMF0 = 20;
+
+    public static final int USER_CONTROL_STREAM_BEGIN = 0;
+    public static final int USER_CONTROL_PING_REQUEST = 6;
+    public static final int USER_CONTROL_PING_RESPONSE = 7;
+
+    public final int chunkStreamId;
+    public final int type;
+    public final int streamId;
+    public final long timestamp;
+    public final ByteBuffer payload;
+
+    public RtmpMessage(int chunkStreamId, int type, int streamId, long timestamp, ByteBuffer payload) {
+        this.chunkStreamId = chunkStreamId;
+        this.type = type;
+        this.streamId = streamId;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+}
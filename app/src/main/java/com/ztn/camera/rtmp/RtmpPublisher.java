@@ -0,0 +1,510 @@
+package com.ztn.camera.rtmp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * minimal rtmp publish client: handshake, connect, createStream, publish,
+ * then audio/video messages over a blocking SocketChannel
+ * <p>
+ * media is sent from the caller thread, a daemon thread reads control messages
+ * (ping, acknowledgement window, chunk size) from the server
+ */
+public class RtmpPublisher {
+    private static final String TAG = "RtmpPublisher";
+
+    public static final int DEFAULT_PORT = 1935;
+    public static final int CHUNK_SIZE = 65536;
+    private static final int HANDSHAKE_SIZE = 1536;
+    private static final int DEFAULT_TIMEOUT_MS = 5000;
+    /**
+     * the server acknowledges every this many bytes it received; granularity of the ack lag
+     */
+    public static final int ACK_WINDOW_SIZE = 256 * 1024;
+    /**
+     * acks while probing; small so that a short probe on a slow uplink still gets a few
+     */
+    static final int PROBE_ACK_WINDOW_SIZE = 8 * 1024;
+    /**
+     * unacknowledged probe bytes; keeps a probe write from blocking past its deadline,
+     * and limits what can be measured to this much per round trip
+     */
+    static final int PROBE_MAX_IN_FLIGHT_BYTES = 256 * 1024;
+    private static final int PROBE_MESSAGE_SIZE = 8 * 1024;
+    private static final String PROBE_DATA_NAME = "onBandwidthProbe";
+
+    private static final int CSID_CONTROL = 2;
+    private static final int CSID_COMMAND = 3;
+    private static final int CSID_AUDIO = 4;
+    private static final int CSID_VIDEO = 6;
+
+    private final String mUrl;
+    private String mHost;
+    private int mPort;
+    private String mApp;
+    private String mStreamName;
+    private String mTcUrl;
+    private int mTimeoutMs = DEFAULT_TIMEOUT_MS;
+
+    private SocketChannel mChannel;
+    private RtmpChunkWriter mWriter;
+    private RtmpChunkReader mReader;
+    private Thread mReaderThread;
+    private volatile boolean mIsConnected = false;
+    private int mStreamId = 0;
+    private int mTransactionId = 0;
+
+    private final ByteBuffer mCommand = ByteBuffer.allocate(4096);
+    private final ByteBuffer mControl = ByteBuffer.allocate(16);
+    private long mWindowAckSize = 2500000L;
+    private long mLastAckBytes = 0L;
+    private volatile long mServerAckedBytes = -1L;
+    private volatile long mServerAckedAtNs = 0L;
+    private final Object mAckLock = new Object();
+
+    public RtmpPublisher(String url) {
+        mUrl = url;
+    }
+
+    public void setTimeout(int timeoutMs) {
+        mTimeoutMs = timeoutMs;
+    }
+
+    public boolean isConnected() {
+        return mIsConnected;
+    }
+
+    public long getBytesWritten() {
+        RtmpChunkWriter writer = mWriter;
+        return writer == null ? 0L : writer.getBytesWritten();
+    }
+
+    /**
+     * bytes written but not yet acknowledged by the server, i.e. still in socket buffers or on the wire;
+     * -1 until the server acknowledged once. accurate to {@link #ACK_WINDOW_SIZE}
+     */
+    public long getAckLagBytes() {
+        long ackedBytes = mServerAckedBytes;
+        if (ackedBytes < 0) {
+            return -1L;
+        }
+        return Math.max(0L, getBytesWritten() - ackedBytes);
+    }
+
+    /**
+     * blocks until NetStream.Publish.Start or failure
+     */
+    public void connect() throws IOException {
+        parseUrl();
+        try {
+            mChannel = SocketChannel.open();
+            mChannel.socket().setTcpNoDelay(true);
+            mChannel.socket().setSoTimeout(mTimeoutMs);
+            mChannel.socket().connect(new InetSocketAddress(mHost, mPort), mTimeoutMs);
+            // reads go through the socket stream so that SO_TIMEOUT applies
+            mReader = new RtmpChunkReader(Channels.newChannel(mChannel.socket().getInputStream()));
+            mWriter = new RtmpChunkWriter(mChannel);
+
+            handshake();
+
+            mControl.clear();
+            mControl.putInt(CHUNK_SIZE).flip();
+            mWriter.writeMessage(CSID_CONTROL, RtmpMessage.TYPE_SET_CHUNK_SIZE, 0, 0, null, mControl);
+            mWriter.setChunkSize(CHUNK_SIZE);
+            writeWindowAckSize(ACK_WINDOW_SIZE);
+
+            sendConnect();
+            waitForResult("connect");
+            sendCommand("releaseStream", 0, mStreamName);
+            sendCommand("FCPublish", 0, mStreamName);
+            sendCommand("createStream", 0, null);
+            List<Object> result = waitForResult("createStream");
+            if (result.size() > 3 && result.get(3) instanceof Double) {
+                mStreamId = ((Double) result.get(3)).intValue();
+            }
+            sendPublish();
+            waitForStatus("NetStream.Publish.Start");
+
+            mChannel.socket().setSoTimeout(0);
+            mIsConnected = true;
+            startReaderThread();
+            Log.i(TAG, "publishing " + mUrl + " on stream " + mStreamId);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * measure the uplink: send padding for at most maxDurationMs and time the server's acknowledgements.
+     * the padding is a data message on the net connection, not on the published stream, so viewers never
+     * see it. call after connect and before the first frame.
+     *
+     * @param maxBitrate bps; stops early once this much is shown to get through
+     * @return uplink in bps, -1 if the server did not acknowledge within maxDurationMs
+     */
+    public int probeUplink(long maxDurationMs, int maxBitrate) throws IOException {
+        checkConnected();
+        writeWindowAckSize(PROBE_ACK_WINDOW_SIZE);
+        try {
+            return sendProbe(maxDurationMs, maxBitrate);
+        } finally {
+            if (mIsConnected) {
+                writeWindowAckSize(ACK_WINDOW_SIZE);
+            }
+        }
+    }
+
+    private int sendProbe(long maxDurationMs, int maxBitrate) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(32);
+        Amf0.writeString(header, PROBE_DATA_NAME);
+        header.put((byte) 2).putShort((short) PROBE_MESSAGE_SIZE);
+        header.flip();
+        ByteBuffer padding = ByteBuffer.allocate(PROBE_MESSAGE_SIZE);
+
+        long startNs = System.nanoTime();
+        long deadlineNs = startNs + maxDurationMs * 1000000L;
+        long startBytes = getBytesWritten();
+        long maxBytes = Math.max(PROBE_MESSAGE_SIZE, (long) maxBitrate / 8 * maxDurationMs / 1000);
+        long firstAckedBytes = -1L;
+        long firstAckNs = 0L;
+        long lastAckedBytes = -1L;
+        long lastAckNs = 0L;
+        while (true) {
+            checkConnected();
+            long ackedBytes = mServerAckedBytes;
+            long ackedAtNs = mServerAckedAtNs;
+            if (ackedBytes > startBytes && ackedBytes != lastAckedBytes) {
+                if (firstAckedBytes < 0) {
+                    firstAckedBytes = ackedBytes;
+                    firstAckNs = ackedAtNs;
+                }
+                lastAckedBytes = ackedBytes;
+                lastAckNs = ackedAtNs;
+            }
+            long nowNs = System.nanoTime();
+            long writtenBytes = getBytesWritten();
+            boolean isAllSent = writtenBytes - startBytes >= maxBytes;
+            if (nowNs >= deadlineNs || (isAllSent && lastAckedBytes + PROBE_ACK_WINDOW_SIZE > writtenBytes)) {
+                break;
+            }
+            if (!isAllSent && writtenBytes - Math.max(ackedBytes, startBytes) < PROBE_MAX_IN_FLIGHT_BYTES) {
+                header.rewind();
+                mWriter.writeMessage(CSID_COMMAND, RtmpMessage.TYPE_DATA_AMF0, 0, 0, header, padding);
+            } else {
+                synchronized (mAckLock) {
+                    if (mServerAckedBytes == ackedBytes) {
+                        try {
+                            mAckLock.wait(Math.max(1L, (deadlineNs - nowNs) / 1000000L));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (lastAckedBytes < 0) {
+            return -1;
+        }
+        if (lastAckedBytes > firstAckedBytes && lastAckNs > firstAckNs) {
+            // between acks: no handshake or round trip in it
+            return (int) Math.min(Integer.MAX_VALUE,
+                    (lastAckedBytes - firstAckedBytes) * 8 * 1000000000L / (lastAckNs - firstAckNs));
+        }
+        // a single ack: includes one round trip, so an underestimate
+        return (int) Math.min(Integer.MAX_VALUE,
+                (lastAckedBytes - startBytes) * 8 * 1000000000L / Math.max(1L, lastAckNs - startNs));
+    }
+
+    private void writeWindowAckSize(int windowAckSize) throws IOException {
+        synchronized (mControl) {
+            mControl.clear();
+            mControl.putInt(windowAckSize).flip();
+            mWriter.writeMessage(CSID_CONTROL, RtmpMessage.TYPE_WINDOW_ACK_SIZE, 0, 0, null, mControl);
+        }
+    }
+
+    /**
+     * @param header flv video tag header, see {@link FlvTagBuilder}
+     */
+    public void writeVideo(long timestampMs, ByteBuffer header, ByteBuffer payload) throws IOException {
+        checkConnected();
+        mWriter.writeMessage(CSID_VIDEO, RtmpMessage.TYPE_VIDEO, mStreamId, timestampMs, header, payload);
+    }
+
+    /**
+     * @param header flv audio tag header, see {@link FlvTagBuilder}
+     */
+    public void writeAudio(long timestampMs, ByteBuffer header, ByteBuffer payload) throws IOException {
+        checkConnected();
+        mWriter.writeMessage(CSID_AUDIO, RtmpMessage.TYPE_AUDIO, mStreamId, timestampMs, header, payload);
+    }
+
+    public void close() {
+        boolean wasConnected = mIsConnected;
+        mIsConnected = false;
+        if (wasConnected) {
+            try {
+                sendCommand("FCUnpublish", 0, mStreamName);
+                sendCommand("deleteStream", 0, (double) mStreamId);
+            } catch (IOException e) {
+                Log.d(TAG, "unpublish failed: " + e.getMessage());
+            }
+        }
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.d(TAG, "close failed: " + e.getMessage());
+            }
+            mChannel = null;
+        }
+        Thread readerThread = mReaderThread;
+        mReaderThread = null;
+        if (readerThread != null && readerThread != Thread.currentThread()) {
+            try {
+                readerThread.join(mTimeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkConnected() throws IOException {
+        if (!mIsConnected) {
+            throw new IOException("rtmp not connected");
+        }
+    }
+
+    private void parseUrl() throws IOException {
+        URI uri;
+        try {
+            uri = new URI(mUrl);
+        } catch (Exception e) {
+            throw new IOException("bad rtmp url " + mUrl);
+        }
+        if (!"rtmp".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null || uri.getPath() == null) {
+            throw new IOException("bad rtmp url " + mUrl);
+        }
+        mHost = uri.getHost();
+        mPort = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+        String path = uri.getRawPath();
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int split = path.indexOf('/');
+        if (split <= 0 || split == path.length() - 1) {
+            throw new IOException("rtmp url has no app or stream name: " + mUrl);
+        }
+        mApp = path.substring(0, split);
+        mStreamName = path.substring(split + 1);
+        if (uri.getRawQuery() != null) {
+            mStreamName += "?" + uri.getRawQuery();
+        }
+        mTcUrl = "rtmp://" + mHost + ":" + mPort + "/" + mApp;
+    }
+
+    private void handshake() throws IOException {
+        ByteBuffer c0c1 = ByteBuffer.allocate(1 + HANDSHAKE_SIZE);
+        c0c1.put((byte) 3);
+        c0c1.putInt(0).putInt(0);
+        byte[] random = new byte[HANDSHAKE_SIZE - 8];
+        new Random().nextBytes(random);
+        c0c1.put(random);
+        c0c1.flip();
+        while (c0c1.hasRemaining()) {
+            mChannel.write(c0c1);
+        }
+
+        ByteBuffer s0s1 = ByteBuffer.allocate(1 + HANDSHAKE_SIZE);
+        mReader.readFully(s0s1, s0s1.capacity());
+        if (s0s1.get(0) != 3) {
+            throw new IOException("unsupported rtmp version " + s0s1.get(0));
+        }
+        // C2 echoes S1
+        s0s1.position(1);
+        while (s0s1.hasRemaining()) {
+            mChannel.write(s0s1);
+        }
+        ByteBuffer s2 = ByteBuffer.allocate(HANDSHAKE_SIZE);
+        mReader.readFully(s2, s2.capacity());
+    }
+
+    private void sendConnect() throws IOException {
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put("app", mApp);
+        params.put("type", "nonprivate");
+        params.put("flashVer", "FMLE/3.0 (compatible; FMSc/1.0)");
+        params.put("tcUrl", mTcUrl);
+        synchronized (mCommand) {
+            mCommand.clear();
+            Amf0.writeString(mCommand, "connect");
+            Amf0.writeNumber(mCommand, ++mTransactionId);
+            Amf0.writeObject(mCommand, params);
+            mCommand.flip();
+            mWriter.writeMessage(CSID_COMMAND, RtmpMessage.TYPE_COMMAND_AMF0, 0, 0, null, mCommand);
+        }
+    }
+
+    private void sendPublish() throws IOException {
+        synchronized (mCommand) {
+            mCommand.clear();
+            Amf0.writeString(mCommand, "publish");
+            Amf0.writeNumber(mCommand, ++mTransactionId);
+            Amf0.writeNull(mCommand);
+            Amf0.writeString(mCommand, mStreamName);
+            Amf0.writeString(mCommand, "live");
+            mCommand.flip();
+            mWriter.writeMessage(CSID_COMMAND, RtmpMessage.TYPE_COMMAND_AMF0, mStreamId, 0, null, mCommand);
+        }
+    }
+
+    /**
+     * command with a null command object and at most one argument
+     */
+    private void sendCommand(String name, int streamId, Object argument) throws IOException {
+        synchronized (mCommand) {
+            mCommand.clear();
+            Amf0.writeString(mCommand, name);
+            Amf0.writeNumber(mCommand, ++mTransactionId);
+            Amf0.writeNull(mCommand);
+            if (argument != null) {
+                Amf0.writeValue(mCommand, argument);
+            }
+            mCommand.flip();
+            mWriter.writeMessage(CSID_COMMAND, RtmpMessage.TYPE_COMMAND_AMF0, streamId, 0, null, mCommand);
+        }
+    }
+
+    private List<Object> waitForResult(String command) throws IOException {
+        while (true) {
+            RtmpMessage message = mReader.readMessage();
+            if (!handleControlMessage(message) && message.type == RtmpMessage.TYPE_COMMAND_AMF0) {
+                List<Object> values = Amf0.readAll(message.payload);
+                Object name = values.isEmpty() ? null : values.get(0);
+                if ("_result".equals(name)) {
+                    return values;
+                } else if ("_error".equals(name)) {
+                    throw new IOException(command + " rejected: " + values);
+                }
+            }
+        }
+    }
+
+    private void waitForStatus(String code) throws IOException {
+        while (true) {
+            RtmpMessage message = mReader.readMessage();
+            if (!handleControlMessage(message) && message.type == RtmpMessage.TYPE_COMMAND_AMF0) {
+                List<Object> values = Amf0.readAll(message.payload);
+                if (values.size() > 3 && "onStatus".equals(values.get(0)) && values.get(3) instanceof Map) {
+                    Object statusCode = ((Map) values.get(3)).get("code");
+                    if (code.equals(statusCode)) {
+                        return;
+                    }
+                    Object level = ((Map) values.get(3)).get("level");
+                    if ("error".equals(level)) {
+                        throw new IOException("publish failed: " + statusCode);
+                    }
+                } else if (values.size() > 0 && "_error".equals(values.get(0))) {
+                    throw new IOException("publish rejected: " + values);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if message is consumed
+     */
+    private boolean handleControlMessage(RtmpMessage message) throws IOException {
+        switch (message.type) {
+            case RtmpMessage.TYPE_SET_CHUNK_SIZE:
+                return true;
+            case RtmpMessage.TYPE_WINDOW_ACK_SIZE:
+                mWindowAckSize = message.payload.getInt(0) & 0xffffffffL;
+                return true;
+            case RtmpMessage.TYPE_USER_CONTROL:
+                if (message.payload.remaining() >= 6
+                        && message.payload.getShort(0) == RtmpMessage.USER_CONTROL_PING_REQUEST) {
+                    synchronized (mControl) {
+                        mControl.clear();
+                        mControl.putShort((short) RtmpMessage.USER_CONTROL_PING_RESPONSE);
+                        mControl.putInt(message.payload.getInt(2));
+                        mControl.flip();
+                        mWriter.writeMessage(CSID_CONTROL, RtmpMessage.TYPE_USER_CONTROL, 0, 0, null, mControl);
+                    }
+                }
+                return true;
+            case RtmpMessage.TYPE_ACKNOWLEDGEMENT:
+                if (message.payload.remaining() >= 4) {
+                    // sequence number is the 32 bit wrapped count of bytes the server received
+                    long writtenBytes = getBytesWritten();
+                    long sequence = message.payload.getInt(0) & 0xffffffffL;
+                    long unackedBytes = (writtenBytes - sequence) & 0xffffffffL;
+                    if (unackedBytes >= 0x80000000L) {
+                        // ahead of our count: some servers count the handshake as well
+                        unackedBytes = 0L;
+                    }
+                    synchronized (mAckLock) {
+                        mServerAckedAtNs = System.nanoTime();
+                        mServerAckedBytes = writtenBytes - unackedBytes;
+                        mAckLock.notifyAll();
+                    }
+                }
+                return true;
+            case RtmpMessage.TYPE_SET_PEER_BANDWIDTH:
+            case RtmpMessage.TYPE_ABORT:
+                return true;
+            default:
+                sendAcknowledgementIfNeeded();
+                return false;
+        }
+    }
+
+    private void sendAcknowledgementIfNeeded() throws IOException {
+        long bytesRead = mReader.getBytesRead();
+        if (bytesRead - mLastAckBytes < mWindowAckSize / 2) {
+            return;
+        }
+        mLastAckBytes = bytesRead;
+        synchronized (mControl) {
+            mControl.clear();
+            mControl.putInt((int) bytesRead).flip();
+            mWriter.writeMessage(CSID_CONTROL, RtmpMessage.TYPE_ACKNOWLEDGEMENT, 0, 0, null, mControl);
+        }
+    }
+
+    private void startReaderThread() {
+        mReaderThread = new Thread("RtmpPublisherReader") {
+            @Override
+            public void run() {
+                try {
+                    while (mIsConnected) {
+                        RtmpMessage message = mReader.readMessage();
+                        if (!handleControlMessage(message) && message.type == RtmpMessage.TYPE_COMMAND_AMF0) {
+                            List<Object> values = Amf0.readAll(message.payload);
+                            Log.d(TAG, "server command " + values);
+                        }
+                    }
+                } catch (IOException e) {
+                    if (mIsConnected) {
+                        Log.w(TAG, "rtmp connection lost: " + e.getMessage());
+                        mIsConnected = false;
+                    }
+                }
+            }
+        };
+        mReaderThread.setDaemon(true);
+        mReaderThread.start();
+    }
+}
@@ -0,0 +1,212 @@
+package com.ztn.camera.rtmp;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import com.ztn.camera.push.ConnectableSink;
+import com.ztn.camera.push.EncodedFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * FrameSink that publishes to an rtmp server with the in-tree {@link RtmpPublisher}
+ * <p>
+ * sps/pps and aac config arrive as codec-config frames and are resent after every connect;
+ * video after a connect or a change of sps/pps starts from a key frame. FrameWriterThread connects and reconnects it.
+ */
+public class RtmpSink implements ConnectableSink {
+    private static final String TAG = "RtmpSink";
+
+    private final String mUrl;
+    private final FlvTagBuilder mTagBuilder = new FlvTagBuilder();
+    private volatile RtmpPublisher mPublisher;
+
+    private ByteBuffer mVideoConfig;
+    private ByteBuffer mAudioConfig;
+    private boolean mIsVideoConfigSent = false;
+    private boolean mIsAudioConfigSent = false;
+    private boolean mIsKeyFrameSent = false;
+    private long mFirstPtsUs = -1L;
+
+    private long mProbeDurationMs;
+    private int mProbeMaxBitrate;
+    private volatile OnUplinkProbedListener mOnUplinkProbedListener;
+
+    public RtmpSink(String url) {
+        mUrl = url;
+    }
+
+    @Override
+    public boolean isConnected() {
+        RtmpPublisher publisher = mPublisher;
+        return publisher != null && publisher.isConnected();
+    }
+
+    public long getBytesWritten() {
+        RtmpPublisher publisher = mPublisher;
+        return publisher == null ? 0L : publisher.getBytesWritten();
+    }
+
+    /**
+     * see {@link RtmpPublisher#getAckLagBytes()}; -1 if unknown or not connected
+     */
+    public long getAckLagBytes() {
+        RtmpPublisher publisher = mPublisher;
+        return publisher == null ? -1L : publisher.getAckLagBytes();
+    }
+
+    /**
+     * probe the uplink once, on the next connect and before the first frame;
+     * see {@link RtmpPublisher#probeUplink}. the listener is called on the connecting thread,
+     * with -1 if the connect or the probe failed
+     */
+    public void setUplinkProbe(long maxDurationMs, int maxBitrate, OnUplinkProbedListener listener) {
+        mProbeDurationMs = maxDurationMs;
+        mProbeMaxBitrate = maxBitrate;
+        mOnUplinkProbedListener = listener;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        disconnect();
+        RtmpPublisher publisher = new RtmpPublisher(mUrl);
+        OnUplinkProbedListener probeListener = mOnUplinkProbedListener;
+        mOnUplinkProbedListener = null;
+        int uplinkBps = -1;
+        try {
+            publisher.connect();
+            if (probeListener != null) {
+                uplinkBps = publisher.probeUplink(mProbeDurationMs, mProbeMaxBitrate);
+                Log.i(TAG, "uplink probe: " + uplinkBps + "bps");
+            }
+        } catch (IOException e) {
+            publisher.close();
+            throw e;
+        } finally {
+            if (probeListener != null) {
+                probeListener.onUplinkProbed(uplinkBps);
+            }
+        }
+        mPublisher = publisher;
+        mIsVideoConfigSent = false;
+        mIsAudioConfigSent = false;
+        mIsKeyFrameSent = false;
+    }
+
+    @Override
+    public void disconnect() {
+        RtmpPublisher publisher = mPublisher;
+        mPublisher = null;
+        if (publisher != null) {
+            publisher.close();
+        }
+    }
+
+    /**
+     * called on writer thread
+     */
+    @Override
+    public void writeFrame(EncodedFrame frame) throws IOException {
+        if (frame.isCodecConfig()) {
+            updateCodecConfig(frame);
+            return;
+        }
+        RtmpPublisher publisher = mPublisher;
+        if (publisher == null || !publisher.isConnected()) {
+            throw new IOException("rtmp not connected");
+        }
+        if (mFirstPtsUs < 0) {
+            mFirstPtsUs = frame.ptsUs;
+        }
+        long timestampMs = Math.max(0L, (frame.ptsUs - mFirstPtsUs) / 1000);
+        try {
+            frame.data.limit(frame.size);
+            frame.data.position(0);
+            if (frame.isVideo()) {
+                if (!mIsKeyFrameSent && !frame.isKeyFrame()) {
+                    return;
+                }
+                if (!mIsVideoConfigSent && mVideoConfig != null) {
+                    publisher.writeVideo(timestampMs, mTagBuilder.videoSequenceHeader(), mVideoConfig);
+                    mIsVideoConfigSent = true;
+                }
+                try {
+                    publisher.writeVideo(timestampMs, mTagBuilder.videoHeader(frame.isKeyFrame()),
+                            mTagBuilder.toAvcc(frame.data));
+                } finally {
+                    // frame may be written again, e.g. replayed from GopCache
+                    mTagBuilder.restoreAnnexB(frame.data);
+                }
+                mIsKeyFrameSent = true;
+            } else {
+                if (!mIsAudioConfigSent && mAudioConfig != null) {
+                    publisher.writeAudio(timestampMs, mTagBuilder.audioSequenceHeader(), mAudioConfig);
+                    mIsAudioConfigSent = true;
+                }
+                publisher.writeAudio(timestampMs, mTagBuilder.audioHeader(), frame.data);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "rtmp write failed: " + e.getMessage());
+            disconnect();
+            throw e;
+        }
+    }
+
+    public void close() {
+        disconnect();
+    }
+
+    private void updateCodecConfig(EncodedFrame frame) {
+        ByteBuffer data = frame.data.duplicate();
+        data.limit(frame.size);
+        data.position(0);
+        if (frame.isVideo()) {
+            ByteBuffer record = FlvTagBuilder.avcDecoderConfigurationRecord(data);
+            if (record == null) {
+                Log.w(TAG, "no sps/pps in video codec config");
+                return;
+            }
+            if (mIsVideoConfigSent && !record.equals(mVideoConfig)) {
+                // new sps/pps mid-stream, e.g. a resolution switch: the header goes out with the next IDR
+                mIsKeyFrameSent = false;
+            }
+            mVideoConfig = record;
+            mIsVideoConfigSent = false;
+        } else {
+            ByteBuffer config = ByteBuffer.allocate(frame.size);
+            config.put(data).flip();
+            mAudioConfig = config;
+            mIsAudioConfigSent = false;
+        }
+    }
+
+    /**
+     * codec config from encoder output format: csd-0 (+ csd-1 for h264), to be sent
+     * as a frame with {@link EncodedFrame#FLAG_CODEC_CONFIG}
+     *
+     * @return null if the format has no csd
+     */
+    public static ByteBuffer getCodecConfig(MediaFormat mediaFormat) {
+        ByteBuffer csd0 = mediaFormat.getByteBuffer("csd-0");
+        if (csd0 == null) {
+            return null;
+        }
+        ByteBuffer csd1 = mediaFormat.getByteBuffer("csd-1");
+        int size = csd0.remaining() + (csd1 == null ? 0 : csd1.remaining());
+        ByteBuffer config = ByteBuffer.allocate(size);
+        config.put(csd0.duplicate());
+        if (csd1 != null) {
+            config.put(csd1.duplicate());
+        }
+        config.flip();
+        return config;
+    }
+
+    public interface OnUplinkProbedListener {
+        /**
+         * @param uplinkBps measured uplink, -1 if unknown
+         */
+        void onUplinkProbed(int uplinkBps);
+    }
+}
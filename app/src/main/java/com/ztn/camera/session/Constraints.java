@@ -15,11 +15,26 @@ public class Constraints {
 
     public static final int MSG_FAILED_ARG1_REASON_CAMERA = 15;
     public static final int MSG_FAILED_ARG1_REASON_AUDIO_MIC = 16;
+    // the encoder is rebuilt by the session; desc tells the track and how long
+    public static final int MSG_FAILED_ARG1_REASON_ENCODER_STALLED = 17;
+    public static final int MSG_FAILED_ARG1_REASON_ENCODER_RECOVERED = 18;
 
     public static final int MSG_SUCCESS = 2;
 
     public static final int MSG_BGM_FINISHED = 3;
 
+    public static final int MSG_QOS_CHECK = 5;
+
+    public static final int MSG_RECONNECT = 6;
+
+    public static final int MSG_STATS = 7;
+
+    public static final int MSG_UPLINK_PROBED = 8;
+
+    public static final int MSG_ENCODER_RESTARTED = 9;
+
+    public static final int MSG_ENCODER_RESTART_TIMEOUT = 10;
+
     // use 4N to represent action command
     public static final int MSG_TO_START = 41;
     public static final int MSG_TO_PAUSE = 42;
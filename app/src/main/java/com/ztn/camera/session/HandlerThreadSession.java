@@ -46,6 +46,10 @@ public abstract class HandlerThreadSession {
         mOwnThreadHandler.sendMessage(msg);
     }
 
+    protected void sendMessageToHandlerThreadDelayed(Message msg, long delayMillis) {
+        mOwnThreadHandler.sendMessageDelayed(msg, delayMillis);
+    }
+
     // handler created
     class MyHandler extends Handler {
 
@@ -16,9 +16,20 @@ import com.baidu.cloud.gpuimage.basefilters.GPUImageFilter;
 import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.audio.PcmMixer;
+import com.ztn.camera.capture.AudioCaptureSource;
+import com.ztn.camera.capture.VideoCaptureSource;
 import com.ztn.camera.config.LiveConfig;
+import com.ztn.camera.listener.ScreenShotListener;
+import com.ztn.camera.listener.SessionInfoListener;
+import com.ztn.camera.listener.SessionStatsListener;
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.NalUnitScanner;
+import com.ztn.camera.push.PtsNormalizer;
 import com.ztn.camera.session.track.AudioCaptureSession;
 import com.ztn.camera.session.track.VideoCaptureSession;
+import com.ztn.camera.stats.LiveStats;
+import com.ztn.camera.stats.LiveStatsCollector;
 
 import java.io.File;
 import java.nio.ByteBuffer;
@@ -41,8 +52,6 @@ public class LiveCaptureSession extends HandlerThreadSession {
     VideoCaptureSession mVideoCaptureSession;
 
     long epochTimeInNs = 0L;
-    private int mAudioFrameDurationInUs;
-    private int mVideoFrameDurationInUs;
 
     private volatile boolean mIsEncodeVideo = false;
     private volatile boolean mIsEncodeAudio = false;
@@ -50,6 +59,10 @@ public class LiveCaptureSession extends HandlerThreadSession {
     private volatile boolean mIsStopped = true;
     private MediaMuxer mMediaMuxer;
 
+    private static final int STATS_INTERVAL_MS = 2000;
+    private final LiveStatsCollector mStatsCollector = new LiveStatsCollector();
+    private volatile SessionInfoListener mSessionInfoListener;
+
     public LiveCaptureSession(Context context, LiveConfig liveConfig) {
 
         mIsEncodeVideo = liveConfig.isVideoEnabled();
@@ -65,6 +78,7 @@ public class LiveCaptureSession extends HandlerThreadSession {
         mAudioCaptureSession = new AudioCaptureSession(context, liveConfig.getAudioSampleRate(), 2,
                 liveConfig.getAudioBitrate(), MediaRecorder.AudioSource.MIC, mIsEncodeAudio);
         mAudioCaptureSession.setEpochTimeInNs(epochTimeInNs);
+        mAudioCaptureSession.setPcmMixerEnabled(liveConfig.isPcmMixerEnabled());
 
         // set audio gain
         mAudioCaptureSession.setRecordTrackGain(liveConfig.getMicGain());
@@ -72,9 +86,15 @@ public class LiveCaptureSession extends HandlerThreadSession {
 
         mVideoCaptureSession.setInnerErrorListener(innerErrorListener);
         mAudioCaptureSession.setInnerErrorListener(innerErrorListener);
+    }
 
-        mVideoFrameDurationInUs = 1000000 / liveConfig.getVideoFPS();
-        mAudioFrameDurationInUs = 1000000 * 1024 / liveConfig.getAudioSampleRate();
+    /**
+     * 设置信息回调；传入SessionStatsListener时还会收到周期性统计快照
+     *
+     * @param listener
+     */
+    public void setSessionInfoListener(SessionInfoListener listener) {
+        mSessionInfoListener = listener;
     }
 
     public void setFaceDetector(FaceDetector faceDetector) {
@@ -91,6 +111,22 @@ public class LiveCaptureSession extends HandlerThreadSession {
         mVideoCaptureSession.setSurfaceHolder(surfaceHolder);
     }
 
+    /**
+     * 替换摄像头和麦克风采集源，如SyntheticVideoSource和SyntheticAudioSource，用于无设备的测试和压测；
+     * 须在setupDevice和setSurfaceHolder之前调用，传null的保持默认
+     *
+     * @param videoSource
+     * @param audioSource
+     */
+    public void setCaptureSources(VideoCaptureSource videoSource, AudioCaptureSource audioSource) {
+        if (videoSource != null) {
+            mVideoCaptureSession.setCaptureSource(videoSource);
+        }
+        if (audioSource != null) {
+            mAudioCaptureSession.setCaptureSource(audioSource);
+        }
+    }
+
     String mLocalMp4Path;
 
     public void configMp4Muxer(String localMp4Path) {
@@ -150,6 +186,7 @@ public class LiveCaptureSession extends HandlerThreadSession {
                 innerErrorListener.onFinish(false, 0, "Start encoder failed!");
                 throw new RuntimeException("Start encoder failed! Please check your configuration!");
             }
+            startStats();
 
         } catch (Exception e) {
             Log.d(TAG, Log.getStackTraceString(e));
@@ -175,7 +212,7 @@ public class LiveCaptureSession extends HandlerThreadSession {
      * this function will not resumeBGM encoder(encoder should be started)
      */
     public void resume() {
-        if (!isPaused) {
+        if (!mPtsNormalizer.isPaused()) {
             // not paused before, so resumeBGM is invalid
             return;
         }
@@ -184,7 +221,7 @@ public class LiveCaptureSession extends HandlerThreadSession {
             mVideoCaptureSession.requestKeyFrame();
         }
         mAudioCaptureSession.resumeBGM();
-        isPaused = false;
+        mPtsNormalizer.resume(getCaptureClockUs());
     }
 
     /**
@@ -196,13 +233,14 @@ public class LiveCaptureSession extends HandlerThreadSession {
                 return;
             }
             mIsStopped = true;
+            stopStats();
             isKeyFrameFound = false;
             resetMuxerTracks();
-            latestVideoPtsInUs = 0L;
-            latestAudioPtsInUs = 0L;
 
             mVideoCaptureSession.stopEncoder();
             mAudioCaptureSession.stopEncoder();
+            // next file starts at 0 again
+            mPtsNormalizer.reset();
 
             mAudioCaptureSession.setOnEncodedFrameUpdateListener(null);
             mVideoCaptureSession.setOnEncodedFrameUpdateListener(null);
@@ -243,26 +281,59 @@ public class LiveCaptureSession extends HandlerThreadSession {
         if ((!mIsEncodeAudio || mMp4AudioTrack != -1)
                 && (!mIsEncodeVideo || mMp4VideoTrack != -1)) {
             mMediaMuxer.start();
-            isPaused = false;
+            mPtsNormalizer.resume(getCaptureClockUs());
         }
     }
 
+    private void startStats() {
+        mStatsCollector.reset();
+        // baseline
+        sampleStats();
+        removeMessages(Constraints.MSG_STATS);
+        sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_STATS), STATS_INTERVAL_MS);
+    }
+
+    private void stopStats() {
+        removeMessages(Constraints.MSG_STATS);
+    }
+
+    /**
+     * run in handler thread, once per STATS_INTERVAL_MS; nothing is queued for sending here
+     */
+    private void sampleStats() {
+        LiveStats stats = mStatsCollector.sample(System.nanoTime() / 1000000,
+                mVideoCaptureSession.getCapturedFrames(), 0L, 0L, 0L, -1L);
+        SessionInfoListener listener = mSessionInfoListener;
+        if (stats != null && listener instanceof SessionStatsListener) {
+            ((SessionStatsListener) listener).onStats(stats);
+        }
+    }
+
+    /**
+     * 最近一次的统计快照，开始录制后第一个统计周期结束前为null
+     */
+    public LiveStats getLatestStats() {
+        return mStatsCollector.getLatestStats();
+    }
+
     private void resetMuxerTracks() {
-        isPaused = true;
+        mPtsNormalizer.pause(getCaptureClockUs());
         isKeyFrameFound = false;
+    }
 
-        needAdjustAudioPts = true;
-        needAdjustVideoPts = true;
+    /**
+     * the clock capture devices stamp pts with
+     */
+    private long getCaptureClockUs() {
+        return (System.nanoTime() - epochTimeInNs) / 1000;
     }
 
     private volatile boolean isKeyFrameFound = false;
-    private volatile boolean isPaused = true;
-    private volatile long audioPtsGapInUs = 0L;
-    private volatile long videoPtsGapInUs = 0L;
-    private volatile boolean needAdjustAudioPts = true;
-    private volatile boolean needAdjustVideoPts = true;
-    private volatile long latestVideoPtsInUs = 0L;
-    private volatile long latestAudioPtsInUs = 0L;
+    // video encoder thread only
+    private final NalUnitScanner mVideoNalScanner = new NalUnitScanner();
+    // the encoder's BufferInfo is left as it came
+    private final MediaCodec.BufferInfo mMp4VideoBufferInfo = new MediaCodec.BufferInfo();
+    private final PtsNormalizer mPtsNormalizer = new PtsNormalizer();
 
     private volatile int mMp4VideoTrack = -1;
     private volatile int mMp4AudioTrack = -1;
@@ -274,35 +345,38 @@ public class LiveCaptureSession extends HandlerThreadSession {
         public void onEncodedFrameUpdate(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
 //            Log.d(TAG, "onEncodedVideoFrameUpdate bufferInfo.pts = [" + bufferInfo.presentationTimeUs + ";size=" + bufferInfo.size);
 
-            if (mMediaMuxer != null && mMp4VideoTrack >= 0 && !isPaused) {
+            if (mMediaMuxer != null && mMp4VideoTrack >= 0) {
+                long pts = bufferInfo.presentationTimeUs;
+                int flags = mVideoNalScanner.scan(bufferData, bufferInfo.offset, bufferInfo.size)
+                        .toFrameFlags(bufferInfo.flags);
+                if ((flags & EncodedFrame.FLAG_CODEC_CONFIG) != 0) {
+                    // sps,pps; we already have this in output format
+                    return;
+                }
+                boolean isKeyFrame = (flags & EncodedFrame.FLAG_KEY_FRAME) != 0;
+                long nowUs = getCaptureClockUs();
+                mStatsCollector.onEncodedFrame(EncodedFrame.TRACK_VIDEO, bufferInfo.size, nowUs - pts);
+                long ptsInUs = mPtsNormalizer.normalize(EncodedFrame.TRACK_VIDEO, pts, nowUs);
+                if (ptsInUs == PtsNormalizer.DROP) {
+                    // paused
+                    mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
+                    return;
+                }
                 if (mIsEncodeVideo && !isKeyFrameFound) {
-                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 1) {
+                    if (isKeyFrame) {
                         isKeyFrameFound = true;
                     } else {
                         // need to wait for key frame(IDR)
                         Log.w(TAG, "onEncodedFrameUpdate: video frame dropped as I-frame not ready.");
+                        mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_NO_KEY_FRAME);
                         return;
                     }
                 }
                 try {
-                    long pts = bufferInfo.presentationTimeUs;
-
-                    if (pts == 0 && bufferInfo.size < 100) {
-                        // pts is 0 and is sps,pps; we already have this in output format
-                        return;
-                    }
-                    if (needAdjustVideoPts) {
-                        latestVideoPtsInUs += mVideoFrameDurationInUs;
-                        latestAudioPtsInUs += mAudioFrameDurationInUs;
-                        videoPtsGapInUs = pts - latestVideoPtsInUs;
-                        audioPtsGapInUs = pts - latestAudioPtsInUs;
-                        needAdjustAudioPts = false;
-                        needAdjustVideoPts = false;
-                    }
-
-                    bufferInfo.presentationTimeUs = pts - videoPtsGapInUs;
-                    latestVideoPtsInUs = bufferInfo.presentationTimeUs;
-                    mMediaMuxer.writeSampleData(mMp4VideoTrack, bufferData, bufferInfo);
+                    // sync samples are the IDRs, whatever the codec flagged
+                    int sampleFlags = isKeyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                    mMp4VideoBufferInfo.set(bufferInfo.offset, bufferInfo.size, ptsInUs, sampleFlags);
+                    mMediaMuxer.writeSampleData(mMp4VideoTrack, bufferData, mMp4VideoBufferInfo);
                 } catch (Exception e) {
                     Log.e(TAG, "mediamuxer write video sample failed. errorMsg=" + e.getMessage());
                 }
@@ -316,10 +390,11 @@ public class LiveCaptureSession extends HandlerThreadSession {
         public void onEncodedFrameUpdate(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
 //            Log.d(TAG, "onEncodedAudioFrameUpdate pts=" + bufferInfo.presentationTimeUs + ";size=" + bufferInfo.size);
 
-            if (mMediaMuxer != null && mMp4AudioTrack >= 0 && !isPaused) {
+            if (mMediaMuxer != null && mMp4AudioTrack >= 0) {
                 if (mIsEncodeVideo && !isKeyFrameFound) {
                     // need to wait for video key frame
                     Log.w(TAG, "onEncodedFrameUpdate: audio frame dropped as I-frame not ready.");
+                    mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_NO_KEY_FRAME);
                     return;
                 }
                 try {
@@ -329,18 +404,15 @@ public class LiveCaptureSession extends HandlerThreadSession {
                         // pts is 0 and is audio-config info; we already have this in output format
                         return;
                     }
-                    if (needAdjustAudioPts) {
-                        Log.d(TAG, "onEncodedFrameUpdate: Adjusting audioPts");
-                        latestVideoPtsInUs += mVideoFrameDurationInUs;
-                        latestAudioPtsInUs += mAudioFrameDurationInUs;
-                        videoPtsGapInUs = pts - latestVideoPtsInUs;
-                        audioPtsGapInUs = pts - latestAudioPtsInUs;
-                        needAdjustAudioPts = false;
-                        needAdjustVideoPts = false;
+                    long nowUs = getCaptureClockUs();
+                    mStatsCollector.onEncodedFrame(EncodedFrame.TRACK_AUDIO, bufferInfo.size, nowUs - pts);
+                    long ptsInUs = mPtsNormalizer.normalize(EncodedFrame.TRACK_AUDIO, pts, nowUs);
+                    if (ptsInUs == PtsNormalizer.DROP) {
+                        // paused
+                        mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
+                        return;
                     }
-
-                    bufferInfo.presentationTimeUs = pts - audioPtsGapInUs;
-                    latestAudioPtsInUs = bufferInfo.presentationTimeUs;
+                    bufferInfo.presentationTimeUs = ptsInUs;
                     mMediaMuxer.writeSampleData(mMp4AudioTrack, bufferData, bufferInfo);
                 } catch (Exception e) {
                     Log.e(TAG, "mediamuxer write audio sample failed.");
@@ -368,6 +440,24 @@ public class LiveCaptureSession extends HandlerThreadSession {
         return mVideoCaptureSession != null ? mVideoCaptureSession.getScreenShot() : null;
     }
 
+    /**
+     * 异步截图：在后台线程读出当前画面，按需缩小后压缩写入文件，不阻塞调用线程，适合直播中截取封面
+     *
+     * @param file     目标文件
+     * @param maxEdge  图片长边上限（像素），0表示保持原尺寸
+     * @param format   压缩格式，JPEG、PNG或WEBP
+     * @param quality  压缩质量0-100，PNG忽略
+     * @param listener 结果回调，在截图线程中回调
+     */
+    public void takeScreenShot(File file, int maxEdge, Bitmap.CompressFormat format, int quality,
+                               ScreenShotListener listener) {
+        if (mVideoCaptureSession != null) {
+            mVideoCaptureSession.takeScreenShot(file, maxEdge, format, quality, listener);
+        } else if (listener != null) {
+            listener.onScreenShotFailed(file);
+        }
+    }
+
     /**
      * 设置滤镜列表
      *
@@ -402,6 +492,16 @@ public class LiveCaptureSession extends HandlerThreadSession {
         mAudioCaptureSession.setBGMTrackGain(gain);
     }
 
+    /**
+     * 获取混音器，用于添加音效、连麦等音轨：addTrack返回音轨号，之后在同一线程中持续write该音轨的PCM
+     * （与采集相同的采样率和声道数，16位），音轨从指定的混音帧位置开始混入。背景音乐占用其中一路
+     *
+     * @return 混音器；LiveConfig未开启PcmMixer时为null
+     */
+    public PcmMixer getAudioMixer() {
+        return mAudioCaptureSession.getPcmMixer();
+    }
+
     public void toggleFlash(boolean flag) {
         mVideoCaptureSession.toggleFlash(flag);
     }
@@ -449,6 +549,12 @@ public class LiveCaptureSession extends HandlerThreadSession {
                     mCaptureErrorListener.onError(msg.arg1, msg.obj != null ? (String) (msg.obj) : "");
                 }
                 break;
+            case Constraints.MSG_STATS:
+                sampleStats();
+                if (!mIsStopped) {
+                    sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_STATS), STATS_INTERVAL_MS);
+                }
+                break;
             default:
                 break;
         }
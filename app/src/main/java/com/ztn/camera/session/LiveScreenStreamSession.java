@@ -16,12 +16,23 @@ import com.baidu.cloud.gpuimage.basefilters.GPUImageFilter;
 import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
-import com.baidu.cloud.mediaprocess.muxer.FlvMuxer;
 import com.ztn.camera.config.LiveConfig;
+import com.ztn.camera.listener.ScreenShotListener;
+import com.ztn.camera.listener.SessionInfoListener;
+import com.ztn.camera.listener.SessionStatsListener;
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.NalUnitScanner;
+import com.ztn.camera.push.PtsNormalizer;
+import com.ztn.camera.qos.BitrateController;
 import com.ztn.camera.session.track.AudioCaptureSession;
 import com.ztn.camera.session.track.ScreenCaptureSession;
+import com.ztn.camera.stats.LiveStats;
+import com.ztn.camera.stats.LiveStatsCollector;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import androidx.annotation.RequiresApi;
@@ -43,22 +54,43 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
     private ScreenCaptureSession mScreenCaptureSession;
 
     private long epochTimeInNs = 0L;
-    private int mAudioFrameDurationInUs;
-    private int mVideoFrameDurationInUs;
 
     private volatile boolean mIsEncodeVideo = false;
     private volatile boolean mIsEncodeAudio = false;
 
     private Context mContext;
-    private FlvMuxer mFlvMuxer;
-    private BDRtmpSessionBasic mRtmpSession;
+    /**
+     * every push url gets its own sink, send queue, writer thread and reconnect state,
+     * all fed by the same encoders
+     */
+    private volatile PushDestination[] mDestinations = new PushDestination[0];
 
     private OnSessionEventListener mEventListener;
+    private long mFlvMuxerEpochInNs;
+    private volatile MediaFormat mAudioFormat;
+    private volatile MediaFormat mVideoFormat;
+    private long mGopCacheBytes;
 
     private volatile boolean mIsStopped = true;
     private int mVideoFps = 0;
 
-    private String mRtmpServerUrl;
+    private static final int QOS_CHECK_INTERVAL_MS = 1000;
+    // per-destination stats are logged every this many checks
+    private static final int STATS_LOG_INTERVAL = 10;
+    private static final int STATS_INTERVAL_MS = 2000;
+    private final LiveStatsCollector mStatsCollector = new LiveStatsCollector();
+    private int mQosChecks = 0;
+    private BitrateController mBitrateController;
+    private volatile SessionInfoListener mSessionInfoListener;
+
+    /**
+     * encoded frames wait in each destination's queue for its writer thread; bounded to this much latency
+     * at current bitrate
+     */
+    private static final int MAX_SEND_QUEUE_LATENCY_MS = 1000;
+    private int mAudioBitrate;
+    private long mMaxQueuedBytes;
+
 
     public LiveScreenStreamSession(Context context, LiveConfig liveConfig) {
 
@@ -75,6 +107,7 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
                 liveConfig.getGopLengthInSeconds(),
                 mIsEncodeVideo);
         mScreenCaptureSession.setEpochTimeInNs(epochTimeInNs);
+        mScreenCaptureSession.setLowLatencyEncoderEnabled(liveConfig.isLowLatencyEncoderEnabled());
 
         mAudioCaptureSession = new AudioCaptureSession(context, liveConfig.getAudioSampleRate(), 2,
                 liveConfig.getAudioBitrate(), MediaRecorder.AudioSource.DEFAULT, mIsEncodeAudio);
@@ -88,12 +121,36 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
         mAudioCaptureSession.setInnerErrorListener(innerErrorListener);
 
         mVideoFps = liveConfig.getVideoFPS();
-        mVideoFrameDurationInUs = 1000000 / liveConfig.getVideoFPS();
-        mAudioFrameDurationInUs = 1000000 * 1024 / liveConfig.getAudioSampleRate();
+
+        mAudioBitrate = liveConfig.getAudioBitrate();
+        mFlvMuxerEpochInNs = epochTimeInNs;
+        // room for two GOPs at max bitrate
+        mGopCacheBytes = 2L * (Math.max(liveConfig.getMaxVideoBitrate(), liveConfig.getInitVideoBitrate())
+                + mAudioBitrate) / 8 * Math.max(1, liveConfig.getGopLengthInSeconds());
+        mMaxQueuedBytes = getSendQueueCapacity(liveConfig.getInitVideoBitrate());
+
+        if (liveConfig.isQosEnabled() && mIsEncodeVideo) {
+            mBitrateController = new BitrateController(liveConfig.getInitVideoBitrate(),
+                    liveConfig.getMinVideoBitrate(), liveConfig.getMaxVideoBitrate(),
+                    liveConfig.getQosSensitivity());
+            mBitrateController.setOnBitrateChangedListener(mOnBitrateChangedListener);
+        }
     }
 
     public void setRtmpEventListener(OnSessionEventListener listener) {
         mEventListener = listener;
+        for (PushDestination destination : mDestinations) {
+            destination.setEventListener(listener);
+        }
+    }
+
+    /**
+     * 设置信息回调，如动态码率调整；传入SessionStatsListener时还会收到周期性统计快照
+     *
+     * @param listener
+     */
+    public void setSessionInfoListener(SessionInfoListener listener) {
+        mSessionInfoListener = listener;
     }
 
     public void setupDevice() {
@@ -103,31 +160,78 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
     }
 
     public void configRtmpSession(String pushUrl, BDRtmpSessionBasic.UserRole role) {
-        mRtmpServerUrl = pushUrl;
-        mRtmpSession = new BDRtmpSessionBasic(role);
-        mRtmpSession.setStreamingURL(mRtmpServerUrl);
-        mRtmpSession.setUserId(mRtmpServerUrl.substring(mRtmpServerUrl.lastIndexOf('/') + 1));
-        mRtmpSession.setEventListener(this.mEventListener);
-        mRtmpSession.createStream();
+        configRtmpSessions(Collections.singletonList(pushUrl), role);
+    }
+
+    /**
+     * 同时推流到多个地址，共用一路采集和编码；每个地址有独立的发送队列和重连状态，
+     * 某一路网络慢不会影响其它路
+     *
+     * @param pushUrls 推流地址列表
+     * @param role     连麦角色
+     */
+    public void configRtmpSessions(List<String> pushUrls, BDRtmpSessionBasic.UserRole role) {
+        setDestinations(pushUrls, role);
+    }
 
-        mFlvMuxer = new FlvMuxer(mRtmpSession.getRtmpSocket());
-        mFlvMuxer.setFPS(mVideoFps);
-        resetEpoch(epochTimeInNs);
+    /**
+     * 使用内置的FLV/RTMP推流实现代替configRtmpSession，不支持连麦
+     *
+     * @param pushUrl rtmp://host[:port]/app/stream
+     */
+    public void configRtmpPublisher(String pushUrl) {
+        configRtmpPublishers(Collections.singletonList(pushUrl));
     }
 
-    public void destroyRtmpSession() {
-        if (mFlvMuxer != null) {
-            mFlvMuxer.setRtmpSocket(null);
+    /**
+     * 使用内置的FLV/RTMP推流实现同时推流到多个地址
+     *
+     * @param pushUrls rtmp://host[:port]/app/stream
+     */
+    public void configRtmpPublishers(List<String> pushUrls) {
+        setDestinations(pushUrls, null);
+    }
+
+    private void setDestinations(List<String> pushUrls, BDRtmpSessionBasic.UserRole role) {
+        destroyRtmpSession();
+        PushDestination[] destinations = new PushDestination[pushUrls.size()];
+        for (int i = 0; i < destinations.length; i++) {
+            PushDestination destination = new PushDestination(pushUrls.get(i), role, mMaxQueuedBytes,
+                    mGopCacheBytes, mVideoFps, mFlvMuxerEpochInNs, mDestinationCallback);
+            destination.setEventListener(mEventListener);
+            destination.connect();
+            if (!mIsStopped) {
+                destination.start();
+                if (mAudioFormat != null) {
+                    destination.offerFormat(mAudioFormat, true);
+                }
+                if (mVideoFormat != null) {
+                    destination.offerFormat(mVideoFormat, false);
+                }
+            }
+            destinations[i] = destination;
         }
-        mFlvMuxer = null;
-        if (mRtmpSession != null) {
-            mRtmpSession.destroyStream();
+        mDestinations = destinations;
+        if (!mIsStopped && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // new destinations start from a key frame
+            mScreenCaptureSession.requestKeyFrame();
         }
-        mRtmpSession = null;
     }
 
-    public void startMediaProjection(int resultCode, Intent resultData) {
-        mScreenCaptureSession.startMediaProjection(resultCode, resultData);
+    public void destroyRtmpSession() {
+        PushDestination[] destinations = mDestinations;
+        mDestinations = new PushDestination[0];
+        for (PushDestination destination : destinations) {
+            destination.stop();
+            destination.release();
+        }
+    }
+
+    /**
+     * 推流目的地列表，可查询每一路的发送统计
+     */
+    public List<PushDestination> getPushDestinations() {
+        return Collections.unmodifiableList(Arrays.asList(mDestinations));
     }
 
     public void configBackgroundMusic(boolean enableBGM, String bgmPath, boolean isLooping) {
@@ -157,6 +261,10 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
             }
             mIsStopped = false;
 
+            for (PushDestination destination : mDestinations) {
+                destination.start();
+            }
+
             mAudioCaptureSession.setMediaFormatChangedListener(mAudioMediaFormatChangeListener);
             mScreenCaptureSession.setMediaFormatChangedListener(mVideoMediaFormatChangeListener);
 
@@ -167,6 +275,8 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
                 innerErrorListener.onFinish(false, 0, "Start encoder failed!");
                 throw new RuntimeException("Start encoder failed! Please check your configuration!");
             }
+            startQosCheck();
+            startStats();
 
         } catch (Exception e) {
             Log.d(TAG, Log.getStackTraceString(e));
@@ -192,7 +302,7 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
      * this function will not resumeBGM encoder(encoder should be started)
      */
     public void resumeStreaming() {
-        if (!isPaused) {
+        if (!mPtsNormalizer.isPaused()) {
             // not paused before, so resumeBGM is invalid
             return;
         }
@@ -201,7 +311,7 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
             mScreenCaptureSession.requestKeyFrame();
         }
         mAudioCaptureSession.resumeBGM();
-        isPaused = false;
+        resumePts();
     }
 
     /**
@@ -213,6 +323,8 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
                 return;
             }
             mIsStopped = true;
+            stopQosCheck();
+            stopStats();
             resetMuxerTracks();
 
             mScreenCaptureSession.stopEncoder();
@@ -220,6 +332,11 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
 
             mAudioCaptureSession.setOnEncodedFrameUpdateListener(null);
             mScreenCaptureSession.setOnEncodedFrameUpdateListener(null);
+
+            removeMessages(Constraints.MSG_RECONNECT);
+            for (PushDestination destination : mDestinations) {
+                destination.stop();
+            }
             mMp4VideoTrack = -1;
             mMp4AudioTrack = -1;
         } catch (Exception e) {
@@ -231,18 +348,24 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
     private MediaFormatChangedListener mAudioMediaFormatChangeListener = new MediaFormatChangedListener() {
         @Override
         public void onMediaFormatChanged(MediaFormat mediaFormat) {
-            int audioTrackId = mFlvMuxer.addTrack(mediaFormat);
-            Log.d(TAG, "audioTrackId = " + audioTrackId);
-            startMuxerIfTracksUpdated(audioTrackId, true);
+            mAudioFormat = mediaFormat;
+            for (PushDestination destination : mDestinations) {
+                destination.offerFormat(mediaFormat, true);
+            }
+            Log.d(TAG, "audio format = " + mediaFormat);
+            startMuxerIfTracksUpdated(EncodedFrame.TRACK_AUDIO, true);
         }
     };
 
     private MediaFormatChangedListener mVideoMediaFormatChangeListener = new MediaFormatChangedListener() {
         @Override
         public void onMediaFormatChanged(MediaFormat mediaFormat) {
-            int videoTrackId = mFlvMuxer.addTrack(mediaFormat);
-            Log.d(TAG, "videoTrackId = " + videoTrackId);
-            startMuxerIfTracksUpdated(videoTrackId, false);
+            mVideoFormat = mediaFormat;
+            for (PushDestination destination : mDestinations) {
+                destination.offerFormat(mediaFormat, false);
+            }
+            Log.d(TAG, "video format = " + mediaFormat);
+            startMuxerIfTracksUpdated(EncodedFrame.TRACK_VIDEO, false);
         }
     };
 
@@ -255,32 +378,188 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
         }
         if ((!mIsEncodeAudio || mMp4AudioTrack != -1)
                 && (!mIsEncodeVideo || mMp4VideoTrack != -1)) {
-            isPaused = false;
+            resumePts();
+        }
+    }
+
+    private void startQosCheck() {
+        mQosChecks = 0;
+        for (PushDestination destination : mDestinations) {
+            destination.sampleUploadBps(QOS_CHECK_INTERVAL_MS);
         }
+        removeMessages(Constraints.MSG_QOS_CHECK);
+        sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_QOS_CHECK), QOS_CHECK_INTERVAL_MS);
+    }
+
+    private void stopQosCheck() {
+        removeMessages(Constraints.MSG_QOS_CHECK);
     }
 
+    private void startStats() {
+        mStatsCollector.reset();
+        // baseline
+        sampleStats();
+        removeMessages(Constraints.MSG_STATS);
+        sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_STATS), STATS_INTERVAL_MS);
+    }
+
+    private void stopStats() {
+        removeMessages(Constraints.MSG_STATS);
+    }
+
+    /**
+     * run in handler thread, once per STATS_INTERVAL_MS
+     */
+    private void sampleStats() {
+        long congestionDropped = 0L;
+        long overflowDropped = 0L;
+        long queuedBytes = 0L;
+        long ackLagBytes = -1L;
+        for (PushDestination destination : mDestinations) {
+            congestionDropped += destination.getCongestionDroppedFrames();
+            overflowDropped += destination.getOverflowDroppedFrames();
+            queuedBytes = Math.max(queuedBytes, destination.getQueuedBytes());
+            ackLagBytes = Math.max(ackLagBytes, destination.getAckLagBytes());
+        }
+        LiveStats stats = mStatsCollector.sample(System.nanoTime() / 1000000, mScreenCaptureSession.getCapturedFrames(),
+                congestionDropped, overflowDropped, queuedBytes, ackLagBytes);
+        SessionInfoListener listener = mSessionInfoListener;
+        if (stats != null && listener instanceof SessionStatsListener) {
+            ((SessionStatsListener) listener).onStats(stats);
+        }
+    }
+
+    /**
+     * 最近一次的统计快照，开始推流后第一个统计周期结束前为null
+     */
+    public LiveStats getLatestStats() {
+        return mStatsCollector.getLatestStats();
+    }
+
+    /**
+     * run in handler thread, once per QOS_CHECK_INTERVAL_MS;
+     * bitrate follows the most congested connected destination
+     */
+    private void checkQos() {
+        PushDestination[] destinations = mDestinations;
+        long worstQueuedBytes = -1L;
+        int worstUploadBps = 0;
+        for (PushDestination destination : destinations) {
+            int uploadBps = destination.sampleUploadBps(QOS_CHECK_INTERVAL_MS);
+            if (destination.isWaitingForConnection()) {
+                continue;
+            }
+            long queuedBytes = destination.getQueuedBytes();
+            // compare queue delays: queued / upload
+            if (worstQueuedBytes < 0 || queuedBytes * Math.max(worstUploadBps, 1)
+                    > worstQueuedBytes * Math.max(uploadBps, 1)) {
+                worstQueuedBytes = queuedBytes;
+                worstUploadBps = uploadBps;
+            }
+        }
+        if (++mQosChecks % STATS_LOG_INTERVAL == 0) {
+            for (PushDestination destination : destinations) {
+                Log.i(TAG, "push stats " + destination);
+            }
+        }
+        if (mBitrateController == null || worstQueuedBytes < 0 || mPtsNormalizer.isPaused()) {
+            return;
+        }
+        mBitrateController.sample(worstQueuedBytes, worstUploadBps);
+    }
+
+    private long getSendQueueCapacity(int videoBitrate) {
+        return (long) (videoBitrate + mAudioBitrate) / 8 * MAX_SEND_QUEUE_LATENCY_MS / 1000;
+    }
+
+    private BitrateController.OnBitrateChangedListener mOnBitrateChangedListener
+            = new BitrateController.OnBitrateChangedListener() {
+        @Override
+        public void onBitrateChanged(int bitrate, boolean isIncreased) {
+            Log.i(TAG, "qos: video bitrate changed to " + bitrate);
+            mMaxQueuedBytes = getSendQueueCapacity(bitrate);
+            for (PushDestination destination : mDestinations) {
+                destination.setMaxQueuedBytes(mMaxQueuedBytes);
+            }
+            mScreenCaptureSession.changeBitrate(bitrate / 1000);
+            SessionInfoListener listener = mSessionInfoListener;
+            if (listener != null) {
+                listener.onInfo(isIncreased ? SessionInfoListener.INFO_QOS_BITRATE_INCREASED
+                        : SessionInfoListener.INFO_QOS_BITRATE_DECREASED, bitrate);
+            }
+        }
+    };
+
     private void resetEpoch(long epochInNs) {
-        if (mFlvMuxer != null) {
-            mFlvMuxer.setEpoch(epochInNs);
+        mFlvMuxerEpochInNs = epochInNs;
+        for (PushDestination destination : mDestinations) {
+            destination.setEpoch(epochInNs);
         }
     }
 
+    /**
+     * time from the last disconnect to viewers getting a key frame again, worst of all destinations;
+     * -1 if never reconnected
+     */
+    public long getLastResumeTimeMs() {
+        long resumeTimeMs = -1L;
+        for (PushDestination destination : mDestinations) {
+            resumeTimeMs = Math.max(resumeTimeMs, destination.getLastResumeTimeMs());
+        }
+        return resumeTimeMs;
+    }
+
+    private PushDestination.Callback mDestinationCallback = new PushDestination.Callback() {
+        @Override
+        public void onKeyFrameRequired() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                mScreenCaptureSession.requestKeyFrame();
+            }
+        }
+
+        @Override
+        public void scheduleReconnect(PushDestination destination, long delayMs) {
+            Message message = obtainMessage(Constraints.MSG_RECONNECT);
+            message.obj = destination;
+            sendMessageToHandlerThreadDelayed(message, delayMs);
+        }
+
+        @Override
+        public void onResumed(PushDestination destination, long resumeTimeMs) {
+            SessionInfoListener listener = mSessionInfoListener;
+            if (listener != null) {
+                listener.onInfo(SessionInfoListener.INFO_STREAM_RESUMED, (int) resumeTimeMs);
+            }
+        }
+
+        @Override
+        public void onUplinkProbed(PushDestination destination, int uplinkBps) {
+            // screen destinations are not probed
+        }
+    };
+
     private void resetMuxerTracks() {
-        isPaused = true;
+        mPtsNormalizer.pause(getCaptureClockUs());
         isKeyFrameFound = false;
+    }
 
-        needAdjustAudioPts = true;
-        needAdjustVideoPts = true;
+    private void resumePts() {
+        mPtsNormalizer.resume(getCaptureClockUs());
+        // flv timestamps count from the muxer epoch, move it past the cut out pauses
+        resetEpoch(epochTimeInNs + 1000 * mPtsNormalizer.getPauseGapUs());
+    }
+
+    /**
+     * the clock capture devices stamp pts with
+     */
+    private long getCaptureClockUs() {
+        return (System.nanoTime() - epochTimeInNs) / 1000;
     }
 
     private volatile boolean isKeyFrameFound = false;
-    private volatile boolean isPaused = true;
-    private volatile long audioPtsGapInUs = 0L;
-    private volatile long videoPtsGapInUs = 0L;
-    private volatile boolean needAdjustAudioPts = true;
-    private volatile boolean needAdjustVideoPts = true;
-    private volatile long latestVideoPtsInUs = 0L;
-    private volatile long latestAudioPtsInUs = 0L;
+    // video encoder thread only
+    private final NalUnitScanner mVideoNalScanner = new NalUnitScanner();
+    private final PtsNormalizer mPtsNormalizer = new PtsNormalizer();
 
     private volatile int mMp4VideoTrack = -1;
     private volatile int mMp4AudioTrack = -1;
@@ -290,38 +569,40 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
 
         @Override
         public void onEncodedFrameUpdate(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
-            if (mFlvMuxer != null && mMp4VideoTrack >= 0 && !isPaused) {
+            long pts = bufferInfo.presentationTimeUs;
+            int flags = mVideoNalScanner.scan(bufferData, bufferInfo.offset, bufferInfo.size)
+                    .toFrameFlags(bufferInfo.flags);
+            if ((flags & EncodedFrame.FLAG_CODEC_CONFIG) != 0) {
+                // sps,pps; we already have this in output format
+                return;
+            }
+            long nowUs = getCaptureClockUs();
+            mStatsCollector.onEncodedFrame(EncodedFrame.TRACK_VIDEO, bufferInfo.size, nowUs - pts);
+            if (mDestinations.length > 0 && mMp4VideoTrack >= 0) {
+                long ptsInUs = mPtsNormalizer.normalize(EncodedFrame.TRACK_VIDEO, pts, nowUs);
+                if (ptsInUs == PtsNormalizer.DROP) {
+                    // paused
+                    mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
+                    return;
+                }
                 if (mIsEncodeVideo && !isKeyFrameFound) {
-                    if (bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
+                    if ((flags & EncodedFrame.FLAG_KEY_FRAME) != 0) {
                         isKeyFrameFound = true;
                     } else {
                         // need to wait for key frame(IDR)
                         Log.w(TAG, "onEncodedFrameUpdate: video frame dropped as I-frame not ready.");
+                        mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_NO_KEY_FRAME);
                         return;
                     }
                 }
                 try {
-                    long pts = bufferInfo.presentationTimeUs;
-
-                    if (pts == 0 && bufferInfo.size < 100) {
-                        // pts is 0 and is sps,pps; we already have this in output format
-                        return;
-                    }
-                    if (needAdjustVideoPts) {
-                        latestVideoPtsInUs += mVideoFrameDurationInUs;
-                        latestAudioPtsInUs += mAudioFrameDurationInUs;
-                        videoPtsGapInUs = pts - latestVideoPtsInUs;
-                        audioPtsGapInUs = pts - latestAudioPtsInUs;
-                        needAdjustAudioPts = false;
-                        needAdjustVideoPts = false;
-                        resetEpoch(epochTimeInNs + 1000 * videoPtsGapInUs);
+                    bufferInfo.presentationTimeUs = ptsInUs;
+                    for (PushDestination destination : mDestinations) {
+                        destination.offer(EncodedFrame.TRACK_VIDEO, bufferData,
+                                bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, flags);
                     }
-
-                    bufferInfo.presentationTimeUs = pts - videoPtsGapInUs;
-                    latestVideoPtsInUs = bufferInfo.presentationTimeUs;
-                    mFlvMuxer.writeSampleData(mMp4VideoTrack, bufferData, bufferInfo);
                 } catch (Exception e) {
-                    Log.e(TAG, "mediamuxer write video sample failed. errorMsg=" + e.getMessage());
+                    Log.e(TAG, "queue video sample failed. errorMsg=" + e.getMessage());
                     e.printStackTrace();
                 }
             }
@@ -332,33 +613,33 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
 
         @Override
         public void onEncodedFrameUpdate(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
-            if (mFlvMuxer != null && mMp4AudioTrack >= 0 && !isPaused) {
+            long pts = bufferInfo.presentationTimeUs;
+            if (pts == 0 && bufferInfo.size < 10) {
+                // pts is 0 and is audio-config info; we already have this in output format
+                return;
+            }
+            long nowUs = getCaptureClockUs();
+            mStatsCollector.onEncodedFrame(EncodedFrame.TRACK_AUDIO, bufferInfo.size, nowUs - pts);
+            if (mDestinations.length > 0 && mMp4AudioTrack >= 0) {
                 if (mIsEncodeVideo && !isKeyFrameFound) {
                     // need to wait for video key frame
+                    mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_NO_KEY_FRAME);
                     return;
                 }
                 try {
-                    long pts = bufferInfo.presentationTimeUs;
-
-                    if (pts == 0 && bufferInfo.size < 10) {
-                        // pts is 0 and is audio-config info; we already have this in output format
+                    long ptsInUs = mPtsNormalizer.normalize(EncodedFrame.TRACK_AUDIO, pts, nowUs);
+                    if (ptsInUs == PtsNormalizer.DROP) {
+                        // paused
+                        mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
                         return;
                     }
-                    if (needAdjustAudioPts) {
-                        latestVideoPtsInUs += mVideoFrameDurationInUs;
-                        latestAudioPtsInUs += mAudioFrameDurationInUs;
-                        videoPtsGapInUs = pts - latestVideoPtsInUs;
-                        audioPtsGapInUs = pts - latestAudioPtsInUs;
-                        needAdjustAudioPts = false;
-                        needAdjustVideoPts = false;
-                        resetEpoch(epochTimeInNs + 1000 * videoPtsGapInUs);
+                    bufferInfo.presentationTimeUs = ptsInUs;
+                    for (PushDestination destination : mDestinations) {
+                        destination.offer(EncodedFrame.TRACK_AUDIO, bufferData,
+                                bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
                     }
-
-                    bufferInfo.presentationTimeUs = pts - audioPtsGapInUs;
-                    latestAudioPtsInUs = bufferInfo.presentationTimeUs;
-                    mFlvMuxer.writeSampleData(mMp4AudioTrack, bufferData, bufferInfo);
                 } catch (Exception e) {
-                    Log.e(TAG, "mediamuxer write audio sample failed.");
+                    Log.e(TAG, "queue audio sample failed.");
                     e.printStackTrace();
                 }
             }
@@ -385,6 +666,24 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
         return null;
     }
 
+    /**
+     * 异步截图：在后台线程读出当前画面，按需缩小后压缩写入文件，不阻塞调用线程，适合直播中截取封面
+     *
+     * @param file     目标文件
+     * @param maxEdge  图片长边上限（像素），0表示保持原尺寸
+     * @param format   压缩格式，JPEG、PNG或WEBP
+     * @param quality  压缩质量0-100，PNG忽略
+     * @param listener 结果回调，在截图线程中回调
+     */
+    public void takeScreenShot(File file, int maxEdge, Bitmap.CompressFormat format, int quality,
+                               ScreenShotListener listener) {
+        if (mScreenCaptureSession != null) {
+            mScreenCaptureSession.takeScreenShot(file, maxEdge, format, quality, listener);
+        } else if (listener != null) {
+            listener.onScreenShotFailed(file);
+        }
+    }
+
     /**
      * 设置滤镜列表
      *
@@ -429,6 +728,25 @@ public class LiveScreenStreamSession extends HandlerThreadSession {
                     mCaptureErrorListener.onError(msg.arg1, msg.obj != null ? (String) (msg.obj) : "");
                 }
                 break;
+            case Constraints.MSG_RECONNECT:
+                PushDestination destination = (PushDestination) msg.obj;
+                if (!mIsStopped && Arrays.asList(mDestinations).contains(destination)) {
+                    destination.reconnect();
+                }
+                break;
+            case Constraints.MSG_STATS:
+                sampleStats();
+                if (!mIsStopped) {
+                    sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_STATS), STATS_INTERVAL_MS);
+                }
+                break;
+            case Constraints.MSG_QOS_CHECK:
+                checkQos();
+                if (!mIsStopped) {
+                    sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_QOS_CHECK),
+                            QOS_CHECK_INTERVAL_MS);
+                }
+                break;
             default:
                 break;
         }
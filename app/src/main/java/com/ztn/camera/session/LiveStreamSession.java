@@ -4,6 +4,7 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.media.MediaMuxer;
 import android.media.MediaRecorder;
 import android.os.Build;
 import android.os.Message;
@@ -17,13 +18,36 @@ import com.baidu.cloud.gpuimage.basefilters.GPUImageFilter;
 import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
-import com.baidu.cloud.mediaprocess.muxer.FlvMuxer;
+import com.ztn.camera.audio.PcmMixer;
+import com.ztn.camera.capture.AudioCaptureSource;
+import com.ztn.camera.capture.VideoCaptureSource;
 import com.ztn.camera.config.LiveConfig;
+import com.ztn.camera.listener.ScreenShotListener;
+import com.ztn.camera.listener.SessionInfoListener;
+import com.ztn.camera.listener.SessionStatsListener;
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.EncodedFrameQueue;
+import com.ztn.camera.push.FrameWriterThread;
+import com.ztn.camera.push.Mp4MuxerSink;
+import com.ztn.camera.push.NalUnitScanner;
+import com.ztn.camera.push.PtsNormalizer;
+import com.ztn.camera.qos.AudioOnlyFallback;
+import com.ztn.camera.qos.BitrateController;
+import com.ztn.camera.qos.EncoderWatchdog;
+import com.ztn.camera.qos.FrameRateController;
 import com.ztn.camera.session.track.AudioCaptureSession;
 import com.ztn.camera.session.track.VideoCaptureSession;
+import com.ztn.camera.stats.LiveStats;
+import com.ztn.camera.stats.LiveStatsCollector;
+import com.ztn.camera.stats.PipelineLatency;
+import com.ztn.camera.stats.SeiTimestamp;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 直播推流Session
@@ -42,22 +66,79 @@ public class LiveStreamSession extends HandlerThreadSession {
     VideoCaptureSession mVideoCaptureSession;
 
     long epochTimeInNs = 0L;
-    private int mAudioFrameDurationInUs;
-    private int mVideoFrameDurationInUs;
 
     private volatile boolean mIsEncodeVideo = false;
     private volatile boolean mIsEncodeAudio = false;
 
     private Context mContext;
-    private FlvMuxer mFlvMuxer;
-    private BDRtmpSessionBasic mRtmpSession;
+    /**
+     * every push url gets its own sink, send queue, writer thread and reconnect state,
+     * all fed by the same encoders
+     */
+    private volatile PushDestination[] mDestinations = new PushDestination[0];
 
     private OnSessionEventListener mEventListener;
+    private long mFlvMuxerEpochInNs;
+    private volatile MediaFormat mAudioFormat;
+    private volatile MediaFormat mVideoFormat;
+    private long mGopCacheBytes;
 
     private volatile boolean mIsStopped = true;
+    /**
+     * false while only prepared: encoders and connections run, frames are dropped as paused
+     */
+    private volatile boolean mIsLive = false;
+    private long mGoLiveTimeNs = -1L;
+    // handler thread
+    private boolean mIsFirstPacketReported = false;
     private int mVideoFps = 0;
 
-    String mRtmpServerUrl;
+    private static final int QOS_CHECK_INTERVAL_MS = 1000;
+    private static final int ENCODER_RESTART_TIMEOUT_MS = 5000;
+    // per-destination stats are logged every this many checks
+    private static final int STATS_LOG_INTERVAL = 10;
+    private static final int STATS_INTERVAL_MS = 2000;
+    private final LiveStatsCollector mStatsCollector = new LiveStatsCollector();
+    private int mQosChecks = 0;
+    private BitrateController mBitrateController;
+    private FrameRateController mFrameRateController;
+    private AudioOnlyFallback mAudioOnlyFallback;
+    private EncoderWatchdog mEncoderWatchdog;
+    // handler thread only; a wedged codec may block its stop or release for seconds
+    private Thread mEncoderRestartThread;
+    // video encoder thread only
+    private SeiTimestamp mSeiTimestamp;
+    private int mWorstUploadBps = 0;
+    private volatile SessionInfoListener mSessionInfoListener;
+
+    /**
+     * encoded frames wait in each destination's queue for its writer thread; bounded to this much latency
+     * at current bitrate
+     */
+    private static final int MAX_SEND_QUEUE_LATENCY_MS = 1000;
+    private int mAudioBitrate;
+    private long mMaxQueuedBytes;
+
+    /**
+     * the first in-tree destination probes its uplink before sending; the initial bitrate is this share of it
+     */
+    private static final float PROBE_BITRATE_FACTOR = 0.7f;
+    private final int mProbeDurationMs;
+    private final int mInitVideoBitrate;
+    private final int mMinVideoBitrate;
+    private final int mMaxVideoBitrate;
+
+    /**
+     * local recording tee: same encoded frames, own writer thread, own timeline and pause state
+     */
+    private volatile Mp4MuxerSink mRecordSink;
+    private volatile FrameWriterThread mRecordWriter;
+    private volatile PtsNormalizer mRecordPtsNormalizer;
+    // disk is not the bottleneck; only drop if the writer is stuck for seconds
+    private static final long MAX_RECORD_QUEUE_BYTES = 16L * 1024 * 1024;
+
+    private final PipelineLatency mPipelineLatency = new PipelineLatency();
+
 
     public LiveStreamSession(Context context, LiveConfig liveConfig) {
 
@@ -72,10 +153,15 @@ public class LiveStreamSession extends HandlerThreadSession {
                 liveConfig.getCameraId(), mIsEncodeVideo,
                 liveConfig.getCameraOrientation(), liveConfig.getOutputOrientation());
         mVideoCaptureSession.setEpochTimeInNs(epochTimeInNs);
+        mVideoCaptureSession.setLowLatencyEncoderEnabled(liveConfig.isLowLatencyEncoderEnabled());
 
         mAudioCaptureSession = new AudioCaptureSession(context, liveConfig.getAudioSampleRate(), 2,
                 liveConfig.getAudioBitrate(), MediaRecorder.AudioSource.VOICE_COMMUNICATION, mIsEncodeAudio);
         mAudioCaptureSession.setEpochTimeInNs(epochTimeInNs);
+        mAudioCaptureSession.setPcmMixerEnabled(liveConfig.isPcmMixerEnabled());
+
+        mVideoCaptureSession.setPipelineLatency(mPipelineLatency);
+        mAudioCaptureSession.setPipelineLatency(mPipelineLatency);
 
         // set audio gain
         mAudioCaptureSession.setRecordTrackGain(liveConfig.getMicGain());
@@ -85,8 +171,45 @@ public class LiveStreamSession extends HandlerThreadSession {
         mAudioCaptureSession.setInnerErrorListener(innerErrorListener);
 
         mVideoFps = liveConfig.getVideoFPS();
-        mVideoFrameDurationInUs = 1000000 / liveConfig.getVideoFPS();
-        mAudioFrameDurationInUs = 1000000 * 1024 / liveConfig.getAudioSampleRate();
+
+        mAudioBitrate = liveConfig.getAudioBitrate();
+        mProbeDurationMs = liveConfig.getBandwidthProbeDurationMs();
+        mInitVideoBitrate = liveConfig.getInitVideoBitrate();
+        mMinVideoBitrate = Math.min(liveConfig.getMinVideoBitrate(), liveConfig.getMaxVideoBitrate());
+        mMaxVideoBitrate = Math.max(liveConfig.getMinVideoBitrate(), liveConfig.getMaxVideoBitrate());
+        mFlvMuxerEpochInNs = epochTimeInNs;
+        // room for two GOPs at max bitrate
+        mGopCacheBytes = 2L * (Math.max(liveConfig.getMaxVideoBitrate(), liveConfig.getInitVideoBitrate())
+                + mAudioBitrate) / 8 * Math.max(1, liveConfig.getGopLengthInSeconds());
+        mMaxQueuedBytes = getSendQueueCapacity(liveConfig.getInitVideoBitrate());
+
+        if (liveConfig.isSeiTimestampEnabled()) {
+            mSeiTimestamp = new SeiTimestamp();
+        }
+
+        if (liveConfig.getEncoderStallTimeoutMs() > 0) {
+            mEncoderWatchdog = new EncoderWatchdog(liveConfig.getEncoderStallTimeoutMs());
+            mEncoderWatchdog.setOnEncoderStallListener(mOnEncoderStallListener);
+        }
+
+        if (liveConfig.isQosEnabled() && mIsEncodeVideo) {
+            mBitrateController = new BitrateController(liveConfig.getInitVideoBitrate(),
+                    liveConfig.getMinVideoBitrate(), liveConfig.getMaxVideoBitrate(),
+                    liveConfig.getQosSensitivity());
+            mBitrateController.setOnBitrateChangedListener(mOnBitrateChangedListener);
+            if (liveConfig.isFrameRateAdaptationEnabled()) {
+                mFrameRateController = new FrameRateController(liveConfig.getVideoFPS(),
+                        liveConfig.getVideoWidth(), liveConfig.getVideoHeight());
+                mFrameRateController.setOnFrameRateChangedListener(mOnFrameRateChangedListener);
+                mVideoCaptureSession.setEncodeFps(
+                        mFrameRateController.onBitrateChanged(mBitrateController.getCurrentBitrate()));
+            }
+            if (liveConfig.isAudioOnlyFallbackEnabled()) {
+                mAudioOnlyFallback = new AudioOnlyFallback(liveConfig.getAudioOnlyThresholdBitrate(),
+                        mBitrateController.getMinBitrate(), liveConfig.getAudioOnlyRetryInSeconds() * 1000L);
+                mAudioOnlyFallback.setOnAudioOnlyChangedListener(mOnAudioOnlyChangedListener);
+            }
+        }
     }
 
     public void setFaceDetector(FaceDetector faceDetector) {
@@ -95,6 +218,18 @@ public class LiveStreamSession extends HandlerThreadSession {
 
     public void setRtmpEventListener(OnSessionEventListener listener) {
         mEventListener = listener;
+        for (PushDestination destination : mDestinations) {
+            destination.setEventListener(listener);
+        }
+    }
+
+    /**
+     * 设置信息回调，如动态码率调整；传入SessionStatsListener时还会收到周期性统计快照
+     *
+     * @param listener
+     */
+    public void setSessionInfoListener(SessionInfoListener listener) {
+        mSessionInfoListener = listener;
     }
 
     public void setupDevice() {
@@ -107,28 +242,100 @@ public class LiveStreamSession extends HandlerThreadSession {
         mVideoCaptureSession.setSurfaceHolder(surfaceHolder);
     }
 
+    /**
+     * 替换摄像头和麦克风采集源，如SyntheticVideoSource和SyntheticAudioSource，用于无设备的测试和压测；
+     * 须在setupDevice和setSurfaceHolder之前调用，传null的保持默认
+     *
+     * @param videoSource
+     * @param audioSource
+     */
+    public void setCaptureSources(VideoCaptureSource videoSource, AudioCaptureSource audioSource) {
+        if (videoSource != null) {
+            mVideoCaptureSession.setCaptureSource(videoSource);
+        }
+        if (audioSource != null) {
+            mAudioCaptureSession.setCaptureSource(audioSource);
+        }
+    }
+
     public void configRtmpSession(String pushUrl, BDRtmpSessionBasic.UserRole role) {
-        mRtmpServerUrl = pushUrl;
-        mRtmpSession = new BDRtmpSessionBasic(role);
-        mRtmpSession.setStreamingURL(mRtmpServerUrl);
-        mRtmpSession.setUserId(mRtmpServerUrl.substring(mRtmpServerUrl.lastIndexOf('/') + 1));
-        mRtmpSession.setEventListener(this.mEventListener);
-        mRtmpSession.createStream();
+        configRtmpSessions(Collections.singletonList(pushUrl), role);
+    }
 
-        mFlvMuxer = new FlvMuxer(mRtmpSession.getRtmpSocket());
-        mFlvMuxer.setFPS(mVideoFps);
-        resetEpoch(epochTimeInNs);
+    /**
+     * 同时推流到多个地址，共用一路采集和编码；每个地址有独立的发送队列和重连状态，
+     * 某一路网络慢不会影响其它路
+     *
+     * @param pushUrls 推流地址列表
+     * @param role     连麦角色
+     */
+    public void configRtmpSessions(List<String> pushUrls, BDRtmpSessionBasic.UserRole role) {
+        setDestinations(pushUrls, role);
     }
 
-    public void destroyRtmpSession() {
-        if (mFlvMuxer != null) {
-            mFlvMuxer.setRtmpSocket(null);
+    /**
+     * 使用内置的FLV/RTMP推流实现代替configRtmpSession，不支持连麦
+     *
+     * @param pushUrl rtmp://host[:port]/app/stream
+     */
+    public void configRtmpPublisher(String pushUrl) {
+        configRtmpPublishers(Collections.singletonList(pushUrl));
+    }
+
+    /**
+     * 使用内置的FLV/RTMP推流实现同时推流到多个地址
+     *
+     * @param pushUrls rtmp://host[:port]/app/stream
+     */
+    public void configRtmpPublishers(List<String> pushUrls) {
+        setDestinations(pushUrls, null);
+    }
+
+    private void setDestinations(List<String> pushUrls, BDRtmpSessionBasic.UserRole role) {
+        destroyRtmpSession();
+        PushDestination[] destinations = new PushDestination[pushUrls.size()];
+        for (int i = 0; i < destinations.length; i++) {
+            PushDestination destination = new PushDestination(pushUrls.get(i), role, mMaxQueuedBytes,
+                    mGopCacheBytes, mVideoFps, mFlvMuxerEpochInNs, mDestinationCallback);
+            destination.setEventListener(mEventListener);
+            destination.setPipelineLatency(mPipelineLatency);
+            if (i == 0 && role == null && mProbeDurationMs > 0 && mIsStopped) {
+                // one probe is enough, all destinations share the uplink
+                destination.setUplinkProbe(mProbeDurationMs, mMaxVideoBitrate + mAudioBitrate);
+            }
+            destination.connect();
+            if (!mIsStopped) {
+                destination.start();
+                if (mAudioFormat != null) {
+                    destination.offerFormat(mAudioFormat, true);
+                }
+                if (mVideoFormat != null) {
+                    destination.offerFormat(mVideoFormat, false);
+                }
+            }
+            destinations[i] = destination;
         }
-        mFlvMuxer = null;
-        if (mRtmpSession != null) {
-            mRtmpSession.destroyStream();
+        mDestinations = destinations;
+        if (!mIsStopped && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // new destinations start from a key frame
+            mVideoCaptureSession.requestKeyFrame();
         }
-        mRtmpSession = null;
+    }
+
+    public void destroyRtmpSession() {
+        PushDestination[] destinations = mDestinations;
+        mDestinations = new PushDestination[0];
+        for (PushDestination destination : destinations) {
+            destination.stop();
+            destination.release();
+        }
+    }
+
+    /**
+     * 推流目的地列表，可查询每一路的发送统计
+     */
+    public List<PushDestination> getPushDestinations() {
+        return Collections.unmodifiableList(Arrays.asList(mDestinations));
     }
 
     public void configBackgroundMusic(boolean enableBGM, String bgmPath, boolean isLooping) {
@@ -150,17 +357,30 @@ public class LiveStreamSession extends HandlerThreadSession {
     }
 
     /**
-     * start encoder and save/push
-     * sync mode
+     * 预热：在预览界面提前启动编码器并建立推流连接，此时编码输出不会推出去。
+     * 之后调用startStreaming只需打开推流并请求关键帧，开播无需再等待编码器和握手。
+     * 需在配置推流地址之后调用，不开播时调用stopStreaming释放编码器
+     *
+     * @return 编码器启动失败时返回false
      */
-    public void startStreaming() {
+    public boolean prepareStreaming() {
+        if (!mIsStopped) {
+            return true;
+        }
         try {
             if (!mIsEncodeVideo && !mIsEncodeAudio) {
                 Log.e(TAG, "not encode video and audio, LiveCaptureSession start failed!");
                 innerErrorListener.onFinish(false, 0, "start failed;errorMsg=no video&audio enabled");
-                return;
+                return false;
             }
             mIsStopped = false;
+            mIsLive = false;
+            mPipelineLatency.reset();
+
+            // writer threads connect in the background while the encoders start
+            for (PushDestination destination : mDestinations) {
+                destination.start();
+            }
 
             mAudioCaptureSession.setMediaFormatChangedListener(mAudioMediaFormatChangeListener);
             mVideoCaptureSession.setMediaFormatChangedListener(mVideoMediaFormatChangeListener);
@@ -172,12 +392,37 @@ public class LiveStreamSession extends HandlerThreadSession {
                 innerErrorListener.onFinish(false, 0, "Start encoder failed!");
                 throw new RuntimeException("Start encoder failed! Please check your configuration!");
             }
-
+            return true;
         } catch (Exception e) {
             Log.d(TAG, Log.getStackTraceString(e));
             innerErrorListener.onFinish(false, 0, "start session failed; errorMsg=" + e.getMessage());
+            return false;
         }
+    }
 
+    /**
+     * start encoder and save/push
+     * sync mode
+     * <p>
+     * after {@link #prepareStreaming()} this only opens the pts gate and asks for a key frame
+     */
+    public void startStreaming() {
+        if (mIsLive || !prepareStreaming()) {
+            return;
+        }
+        mGoLiveTimeNs = System.nanoTime();
+        mIsFirstPacketReported = false;
+        mIsLive = true;
+        // until now frames were dropped as paused; if a format is still missing its callback opens the gate
+        if (isTracksReady()) {
+            resumePts();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mVideoCaptureSession.requestKeyFrame();
+        }
+        startQosCheck();
+        startStats();
+        startEncoderWatchdog();
     }
 
     /**
@@ -197,7 +442,7 @@ public class LiveStreamSession extends HandlerThreadSession {
      * this function will not resumeBGM encoder(encoder should be started)
      */
     public void resumeStreaming() {
-        if (!isPaused) {
+        if (!mIsLive || !mPtsNormalizer.isPaused()) {
             // not paused before, so resumeBGM is invalid
             return;
         }
@@ -206,7 +451,7 @@ public class LiveStreamSession extends HandlerThreadSession {
             mVideoCaptureSession.requestKeyFrame();
         }
         mAudioCaptureSession.resumeBGM();
-        isPaused = false;
+        resumePts();
     }
 
     /**
@@ -218,15 +463,32 @@ public class LiveStreamSession extends HandlerThreadSession {
                 return;
             }
             mIsStopped = true;
+            mIsLive = false;
+            stopQosCheck();
+            stopEncoderWatchdog();
+            stopStats();
             resetMuxerTracks();
 
             mVideoCaptureSession.stopEncoder();
             mAudioCaptureSession.stopEncoder();
+            if (mAudioOnlyFallback != null) {
+                mAudioOnlyFallback.reset();
+            }
+            mIsAudioOnly = false;
+            mIsVideoResumePending = false;
+            mPlaceholderPtsUs = -1L;
 
             mAudioCaptureSession.setOnEncodedFrameUpdateListener(null);
             mVideoCaptureSession.setOnEncodedFrameUpdateListener(null);
+            stopRecording();
+
+            removeMessages(Constraints.MSG_RECONNECT);
+            for (PushDestination destination : mDestinations) {
+                destination.stop();
+            }
             mMp4VideoTrack = -1;
             mMp4AudioTrack = -1;
+            Log.i(TAG, mPipelineLatency.dump());
         } catch (Exception e) {
             Log.d(TAG, Log.getStackTraceString(e));
             innerErrorListener.onFinish(false, 0, "stop failed;errorMsg=" + e.getMessage());
@@ -234,33 +496,184 @@ public class LiveStreamSession extends HandlerThreadSession {
 
     }
 
+    /**
+     * 推流中切换输出分辨率，推流连接保持不断，只重建视频编码器，观众端从下一个IDR起看到新分辨率。
+     * 本地录制时不能切换，mp4的视频轨道不能中途改变分辨率
+     *
+     * @return false if recording, or the new encoder could not be started
+     */
+    public boolean changeResolution(int width, int height) {
+        if (isRecording()) {
+            Log.w(TAG, "can not change resolution while recording");
+            return false;
+        }
+        if (mFrameRateController != null) {
+            mFrameRateController.setFrameSize(width, height);
+        }
+        // the new encoder reports its sps/pps through mVideoMediaFormatChangeListener before its first IDR;
+        // every destination gets them in band, behind the last frame of the old encoder
+        if (!mVideoCaptureSession.changeResolution(width, height)) {
+            innerErrorListener.onFinish(false, Constraints.MSG_FAILED_ARG1_REASON_ENCODER,
+                    "change resolution failed");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * record the live encode into a local mp4 while streaming, without a second encoder.
+     * call after startStreaming; stopped by stopStreaming at the latest
+     *
+     * @return false if the muxer could not be created
+     */
+    public boolean startRecording(String localMp4Path) {
+        if (mIsStopped || mRecordSink != null) {
+            return false;
+        }
+        File file = new File(localMp4Path);
+        if (file.exists()) {
+            file.delete();
+        }
+        MediaMuxer mediaMuxer;
+        try {
+            mediaMuxer = new MediaMuxer(localMp4Path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        } catch (Exception e) {
+            Log.e(TAG, "create mediamuxer failed. errorMsg=" + e.getMessage());
+            return false;
+        }
+        Mp4MuxerSink recordSink = new Mp4MuxerSink(mediaMuxer, mIsEncodeAudio, mIsEncodeVideo);
+        if (mAudioFormat != null) {
+            recordSink.addTrack(mAudioFormat, true);
+        }
+        if (mVideoFormat != null) {
+            recordSink.addTrack(mVideoFormat, false);
+        }
+        EncodedFrameQueue recordQueue = new EncodedFrameQueue(MAX_RECORD_QUEUE_BYTES);
+        recordQueue.setOnKeyFrameRequiredListener(new EncodedFrameQueue.OnKeyFrameRequiredListener() {
+            @Override
+            public void onKeyFrameRequired() {
+                mDestinationCallback.onKeyFrameRequired();
+            }
+        });
+        FrameWriterThread recordWriter = new FrameWriterThread(recordQueue, recordSink);
+        recordWriter.start();
+        PtsNormalizer recordPtsNormalizer = new PtsNormalizer();
+        recordPtsNormalizer.resume(getCaptureClockUs());
+        mRecordPtsNormalizer = recordPtsNormalizer;
+        mRecordSink = recordSink;
+        mRecordWriter = recordWriter;
+        // the file starts at a key frame
+        mDestinationCallback.onKeyFrameRequired();
+        return true;
+    }
+
+    /**
+     * pause the local file only, the live push goes on
+     */
+    public void pauseRecording() {
+        Mp4MuxerSink recordSink = mRecordSink;
+        PtsNormalizer recordPtsNormalizer = mRecordPtsNormalizer;
+        if (recordSink != null && recordPtsNormalizer != null) {
+            recordPtsNormalizer.pause(getCaptureClockUs());
+            recordSink.pause();
+        }
+    }
+
+    public void resumeRecording() {
+        Mp4MuxerSink recordSink = mRecordSink;
+        PtsNormalizer recordPtsNormalizer = mRecordPtsNormalizer;
+        if (recordSink != null && recordPtsNormalizer != null && recordSink.isPaused()) {
+            recordPtsNormalizer.resume(getCaptureClockUs());
+            recordSink.resume();
+            mDestinationCallback.onKeyFrameRequired();
+        }
+    }
+
+    public boolean isRecording() {
+        return mRecordSink != null;
+    }
+
+    /**
+     * finish the local mp4
+     */
+    public void stopRecording() {
+        Mp4MuxerSink recordSink = mRecordSink;
+        FrameWriterThread recordWriter = mRecordWriter;
+        mRecordSink = null;
+        mRecordWriter = null;
+        mRecordPtsNormalizer = null;
+        if (recordWriter != null) {
+            recordWriter.quit();
+            try {
+                recordWriter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (recordSink != null) {
+            recordSink.release();
+        }
+    }
+
+    /**
+     * 连麦使用第一个推流地址的session
+     */
     public void startCallWith(String url, String uid) {
-        if (mRtmpSession != null) {
-            mRtmpSession.startConversation(url, uid);
+        BDRtmpSessionBasic rtmpSession = getFirstRtmpSession();
+        if (rtmpSession != null) {
+            rtmpSession.startConversation(url, uid);
         }
     }
 
     public void stopCallWith(String url, String uid) {
-        if (mRtmpSession != null) {
-            mRtmpSession.stopConversation(url, uid);
+        BDRtmpSessionBasic rtmpSession = getFirstRtmpSession();
+        if (rtmpSession != null) {
+            rtmpSession.stopConversation(url, uid);
         }
     }
 
+    private BDRtmpSessionBasic getFirstRtmpSession() {
+        PushDestination[] destinations = mDestinations;
+        return destinations.length > 0 ? destinations[0].getRtmpSession() : null;
+    }
+
     private MediaFormatChangedListener mAudioMediaFormatChangeListener = new MediaFormatChangedListener() {
         @Override
         public void onMediaFormatChanged(MediaFormat mediaFormat) {
-            int audioTrackId = mFlvMuxer.addTrack(mediaFormat);
-            Log.d(TAG, "audioTrackId = " + audioTrackId);
-            startMuxerIfTracksUpdated(audioTrackId, true);
+            mAudioFormat = mediaFormat;
+            for (PushDestination destination : mDestinations) {
+                destination.offerFormat(mediaFormat, true);
+            }
+            Mp4MuxerSink recordSink = mRecordSink;
+            if (recordSink != null) {
+                recordSink.addTrack(mediaFormat, true);
+            }
+            Log.d(TAG, "audio format = " + mediaFormat);
+            if (mMp4AudioTrack == -1) {
+                // not again after the encoder was rebuilt, that would end a pause
+                startMuxerIfTracksUpdated(EncodedFrame.TRACK_AUDIO, true);
+            }
         }
     };
 
     private MediaFormatChangedListener mVideoMediaFormatChangeListener = new MediaFormatChangedListener() {
         @Override
         public void onMediaFormatChanged(MediaFormat mediaFormat) {
-            int videoTrackId = mFlvMuxer.addTrack(mediaFormat);
-            Log.d(TAG, "videoTrackId = " + videoTrackId);
-            startMuxerIfTracksUpdated(videoTrackId, false);
+            mVideoFormat = mediaFormat;
+            // a placeholder from the previous encoder would not decode with the new sps/pps
+            mLastKeyFrame = null;
+            for (PushDestination destination : mDestinations) {
+                destination.offerFormat(mediaFormat, false);
+            }
+            Mp4MuxerSink recordSink = mRecordSink;
+            if (recordSink != null) {
+                recordSink.addTrack(mediaFormat, false);
+            }
+            Log.d(TAG, "video format = " + mediaFormat);
+            if (mMp4VideoTrack == -1) {
+                // not again after a resolution switch, that would end a pause
+                startMuxerIfTracksUpdated(EncodedFrame.TRACK_VIDEO, false);
+            }
         }
     };
 
@@ -271,34 +684,460 @@ public class LiveStreamSession extends HandlerThreadSession {
         } else {
             mMp4VideoTrack = trackId;
         }
-        if ((!mIsEncodeAudio || mMp4AudioTrack != -1)
-                && (!mIsEncodeVideo || mMp4VideoTrack != -1)) {
-            isPaused = false;
+        // prepared but not live yet: startStreaming opens the gate
+        if (mIsLive && isTracksReady()) {
+            resumePts();
+        }
+    }
+
+    private boolean isTracksReady() {
+        return (!mIsEncodeAudio || mMp4AudioTrack != -1)
+                && (!mIsEncodeVideo || mMp4VideoTrack != -1);
+    }
+
+    private void startQosCheck() {
+        mQosChecks = 0;
+        for (PushDestination destination : mDestinations) {
+            destination.sampleUploadBps(QOS_CHECK_INTERVAL_MS);
         }
+        removeMessages(Constraints.MSG_QOS_CHECK);
+        sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_QOS_CHECK), QOS_CHECK_INTERVAL_MS);
+    }
+
+    private void stopQosCheck() {
+        removeMessages(Constraints.MSG_QOS_CHECK);
+    }
+
+    private void startStats() {
+        mStatsCollector.reset();
+        // baseline
+        sampleStats();
+        removeMessages(Constraints.MSG_STATS);
+        sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_STATS), STATS_INTERVAL_MS);
+    }
+
+    private void stopStats() {
+        removeMessages(Constraints.MSG_STATS);
+    }
+
+    /**
+     * run in handler thread, once per STATS_INTERVAL_MS
+     */
+    private void sampleStats() {
+        long congestionDropped = 0L;
+        long overflowDropped = 0L;
+        long queuedBytes = 0L;
+        long ackLagBytes = -1L;
+        for (PushDestination destination : mDestinations) {
+            congestionDropped += destination.getCongestionDroppedFrames();
+            overflowDropped += destination.getOverflowDroppedFrames();
+            queuedBytes = Math.max(queuedBytes, destination.getQueuedBytes());
+            ackLagBytes = Math.max(ackLagBytes, destination.getAckLagBytes());
+        }
+        LiveStats stats = mStatsCollector.sample(System.nanoTime() / 1000000, mVideoCaptureSession.getCapturedFrames(),
+                congestionDropped, overflowDropped, queuedBytes, ackLagBytes);
+        SessionInfoListener listener = mSessionInfoListener;
+        if (stats != null && listener instanceof SessionStatsListener) {
+            ((SessionStatsListener) listener).onStats(stats);
+        }
+    }
+
+    /**
+     * 最近一次的统计快照，开始推流后第一个统计周期结束前为null
+     */
+    public LiveStats getLatestStats() {
+        return mStatsCollector.getLatestStats();
+    }
+
+    /**
+     * run in handler thread, once per QOS_CHECK_INTERVAL_MS;
+     * bitrate follows the most congested connected destination
+     */
+    private void checkQos() {
+        PushDestination[] destinations = mDestinations;
+        long worstQueuedBytes = -1L;
+        int worstUploadBps = 0;
+        for (PushDestination destination : destinations) {
+            int uploadBps = destination.sampleUploadBps(QOS_CHECK_INTERVAL_MS);
+            if (destination.isWaitingForConnection() || destination.isProbing()) {
+                continue;
+            }
+            long queuedBytes = destination.getQueuedBytes();
+            // compare queue delays: queued / upload
+            if (worstQueuedBytes < 0 || queuedBytes * Math.max(worstUploadBps, 1)
+                    > worstQueuedBytes * Math.max(uploadBps, 1)) {
+                worstQueuedBytes = queuedBytes;
+                worstUploadBps = uploadBps;
+            }
+        }
+        if (!mIsFirstPacketReported) {
+            reportFirstPacket();
+        }
+        if (++mQosChecks % STATS_LOG_INTERVAL == 0) {
+            for (PushDestination destination : destinations) {
+                Log.i(TAG, "push stats " + destination);
+            }
+        }
+        if (mBitrateController == null || worstQueuedBytes < 0 || mPtsNormalizer.isPaused()) {
+            return;
+        }
+        mWorstUploadBps = worstUploadBps;
+        if (mAudioOnlyFallback != null && mAudioOnlyFallback.sample(worstQueuedBytes, worstUploadBps,
+                mBitrateController.getCurrentBitrate(), System.nanoTime() / 1000000)) {
+            // the queues only hold audio now, nothing for the bitrate to follow
+            return;
+        }
+        mBitrateController.sample(worstQueuedBytes, worstUploadBps);
+    }
+
+    private void reportFirstPacket() {
+        long timeToFirstPacketMs = getTimeToFirstPacketMs();
+        if (timeToFirstPacketMs < 0) {
+            return;
+        }
+        mIsFirstPacketReported = true;
+        Log.i(TAG, "first packet sent " + timeToFirstPacketMs + "ms after startStreaming");
+        SessionInfoListener listener = mSessionInfoListener;
+        if (listener != null) {
+            listener.onInfo(SessionInfoListener.INFO_FIRST_PACKET_SENT, (int) timeToFirstPacketMs);
+        }
+    }
+
+    /**
+     * 开播耗时：从调用startStreaming到第一个音视频帧写入推流连接（取最快的推流地址），尚未发出时为-1
+     */
+    public long getTimeToFirstPacketMs() {
+        long goLiveTimeNs = mGoLiveTimeNs;
+        if (!mIsLive || goLiveTimeNs < 0) {
+            return -1L;
+        }
+        long timeToFirstPacketNs = -1L;
+        for (PushDestination destination : mDestinations) {
+            long sentTimeNs = destination.getFirstFrameSentTimeNs();
+            if (sentTimeNs >= 0 && (timeToFirstPacketNs < 0 || sentTimeNs - goLiveTimeNs < timeToFirstPacketNs)) {
+                timeToFirstPacketNs = sentTimeNs - goLiveTimeNs;
+            }
+        }
+        return timeToFirstPacketNs < 0 ? -1L : TimeUnit.NANOSECONDS.toMillis(timeToFirstPacketNs);
+    }
+
+    private void startEncoderWatchdog() {
+        if (mEncoderWatchdog == null) {
+            return;
+        }
+        long nowMs = getCaptureClockUs() / 1000;
+        if (mIsEncodeAudio) {
+            mEncoderWatchdog.start(EncodedFrame.TRACK_AUDIO, nowMs);
+        }
+        if (mIsEncodeVideo) {
+            mEncoderWatchdog.start(EncodedFrame.TRACK_VIDEO, nowMs);
+        }
+    }
+
+    private void stopEncoderWatchdog() {
+        if (mEncoderWatchdog != null) {
+            mEncoderWatchdog.stop(EncodedFrame.TRACK_AUDIO);
+            mEncoderWatchdog.stop(EncodedFrame.TRACK_VIDEO);
+        }
+    }
+
+    /**
+     * run in handler thread, once per QOS_CHECK_INTERVAL_MS
+     */
+    private void checkEncoders() {
+        if (mEncoderWatchdog == null || mIsStopped) {
+            return;
+        }
+        long nowMs = getCaptureClockUs() / 1000;
+        mEncoderWatchdog.check(EncodedFrame.TRACK_AUDIO, mAudioCaptureSession.getEncoderInputFrames(), nowMs);
+        mEncoderWatchdog.check(EncodedFrame.TRACK_VIDEO, mVideoCaptureSession.getCapturedFrames(), nowMs);
+    }
+
+    private long getSendQueueCapacity(int videoBitrate) {
+        return (long) (videoBitrate + mAudioBitrate) / 8 * MAX_SEND_QUEUE_LATENCY_MS / 1000;
+    }
+
+    private BitrateController.OnBitrateChangedListener mOnBitrateChangedListener
+            = new BitrateController.OnBitrateChangedListener() {
+        @Override
+        public void onBitrateChanged(int bitrate, boolean isIncreased) {
+            Log.i(TAG, "qos: video bitrate changed to " + bitrate);
+            mMaxQueuedBytes = getSendQueueCapacity(bitrate);
+            for (PushDestination destination : mDestinations) {
+                destination.setMaxQueuedBytes(mMaxQueuedBytes);
+            }
+            mVideoCaptureSession.changeBitrate(bitrate / 1000);
+            SessionInfoListener listener = mSessionInfoListener;
+            if (listener != null) {
+                listener.onInfo(isIncreased ? SessionInfoListener.INFO_QOS_BITRATE_INCREASED
+                        : SessionInfoListener.INFO_QOS_BITRATE_DECREASED, bitrate);
+            }
+            if (mFrameRateController != null) {
+                mFrameRateController.onBitrateChanged(bitrate);
+            }
+        }
+    };
+
+    private FrameRateController.OnFrameRateChangedListener mOnFrameRateChangedListener
+            = new FrameRateController.OnFrameRateChangedListener() {
+        @Override
+        public void onFrameRateChanged(int fps, boolean isIncreased) {
+            Log.i(TAG, "qos: video frame rate changed to " + fps);
+            mVideoCaptureSession.setEncodeFps(fps);
+            SessionInfoListener listener = mSessionInfoListener;
+            if (listener != null) {
+                listener.onInfo(isIncreased ? SessionInfoListener.INFO_QOS_FRAME_RATE_INCREASED
+                        : SessionInfoListener.INFO_QOS_FRAME_RATE_DECREASED, fps);
+            }
+        }
+    };
+
+    private AudioOnlyFallback.OnAudioOnlyChangedListener mOnAudioOnlyChangedListener
+            = new AudioOnlyFallback.OnAudioOnlyChangedListener() {
+        @Override
+        public void onAudioOnlyChanged(boolean isAudioOnly) {
+            SessionInfoListener listener = mSessionInfoListener;
+            if (isAudioOnly) {
+                Log.i(TAG, "qos: uplink " + mWorstUploadBps + "bps, audio only for at least "
+                        + mAudioOnlyFallback.getRetryDelayMs() + "ms");
+                mIsVideoResumePending = false;
+                mIsAudioOnly = true;
+                if (listener != null) {
+                    listener.onInfo(SessionInfoListener.INFO_QOS_AUDIO_ONLY_STARTED, mWorstUploadBps);
+                }
+            } else {
+                Log.i(TAG, "qos: trying video again");
+                // the video listener leaves audio only at the next key frame
+                mIsVideoResumePending = true;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    mVideoCaptureSession.requestKeyFrame();
+                }
+                if (listener != null) {
+                    listener.onInfo(SessionInfoListener.INFO_QOS_AUDIO_ONLY_STOPPED, 0);
+                }
+            }
+        }
+    };
+
+    private EncoderWatchdog.OnEncoderStallListener mOnEncoderStallListener
+            = new EncoderWatchdog.OnEncoderStallListener() {
+        @Override
+        public void onEncoderStalled(int trackType, long stalledMs) {
+            String track = trackType == EncodedFrame.TRACK_VIDEO ? "video" : "audio";
+            Log.w(TAG, track + " encoder gave no output for " + stalledMs + "ms, rebuilding it");
+            if (mEncoderRestartThread != null) {
+                Log.w(TAG, "encoder restart still running, " + track + " encoder waits for it");
+                return;
+            }
+            innerErrorListener.onFinish(false, Constraints.MSG_FAILED_ARG1_REASON_ENCODER_STALLED,
+                    track + " encoder stalled for " + stalledMs + "ms, restarting");
+            mEncoderRestartThread = new EncoderRestartThread(trackType);
+            mEncoderRestartThread.start();
+            Message message = obtainMessage(Constraints.MSG_ENCODER_RESTART_TIMEOUT);
+            message.arg1 = trackType;
+            message.obj = mEncoderRestartThread;
+            sendMessageToHandlerThreadDelayed(message, ENCODER_RESTART_TIMEOUT_MS);
+        }
+
+        @Override
+        public void onEncoderRecovered(int trackType, long recoveryMs) {
+            String track = trackType == EncodedFrame.TRACK_VIDEO ? "video" : "audio";
+            Log.i(TAG, track + " encoder recovered in " + recoveryMs + "ms");
+            innerErrorListener.onFinish(false, Constraints.MSG_FAILED_ARG1_REASON_ENCODER_RECOVERED,
+                    track + " encoder recovered in " + recoveryMs + "ms");
+        }
+    };
+
+    /**
+     * stops and releases the stalled encoder off the handler thread, then posts the result back to it
+     */
+    private class EncoderRestartThread extends Thread {
+        private final int mTrackType;
+
+        EncoderRestartThread(int trackType) {
+            super("EncoderRestart");
+            mTrackType = trackType;
+        }
+
+        @Override
+        public void run() {
+            // the new encoder re-sends its codec config through the format listener
+            boolean isRestarted;
+            if (mTrackType == EncodedFrame.TRACK_VIDEO) {
+                isRestarted = mVideoCaptureSession.restartEncoder();
+                if (isRestarted && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    mVideoCaptureSession.requestKeyFrame();
+                }
+            } else {
+                isRestarted = mAudioCaptureSession.restartEncoder();
+            }
+            Message message = obtainMessage(Constraints.MSG_ENCODER_RESTARTED);
+            message.arg1 = mTrackType;
+            message.arg2 = isRestarted ? 1 : 0;
+            message.obj = this;
+            sendMessageToHandlerThread(message);
+        }
+    }
+
+    /**
+     * run in handler thread
+     */
+    private void onEncoderRestarted(Thread restartThread, int trackType, boolean isRestarted) {
+        if (restartThread != mEncoderRestartThread) {
+            return;
+        }
+        mEncoderRestartThread = null;
+        String track = trackType == EncodedFrame.TRACK_VIDEO ? "video" : "audio";
+        if (isRestarted) {
+            Log.i(TAG, track + " encoder restarted");
+        } else if (!mIsStopped) {
+            innerErrorListener.onFinish(false, Constraints.MSG_FAILED_ARG1_REASON_ENCODER,
+                    "restart " + track + " encoder failed");
+        }
+    }
+
+    /**
+     * run in handler thread; the restart keeps running and later stalls wait for it
+     */
+    private void onEncoderRestartTimeout(Thread restartThread, int trackType) {
+        if (restartThread != mEncoderRestartThread || mIsStopped) {
+            return;
+        }
+        String track = trackType == EncodedFrame.TRACK_VIDEO ? "video" : "audio";
+        Log.e(TAG, "restart " + track + " encoder took over " + ENCODER_RESTART_TIMEOUT_MS + "ms");
+        innerErrorListener.onFinish(false, Constraints.MSG_FAILED_ARG1_REASON_ENCODER,
+                "restart " + track + " encoder timed out");
     }
 
     private void resetEpoch(long epochInNs) {
-        if (mFlvMuxer != null) {
-            mFlvMuxer.setEpoch(epochInNs);
+        mFlvMuxerEpochInNs = epochInNs;
+        for (PushDestination destination : mDestinations) {
+            destination.setEpoch(epochInNs);
+        }
+    }
+
+    /**
+     * per stage latency from capture to socket; percentiles can be read while streaming
+     */
+    public PipelineLatency getPipelineLatency() {
+        return mPipelineLatency;
+    }
+
+    /**
+     * time from the last disconnect to viewers getting a key frame again, worst of all destinations;
+     * -1 if never reconnected
+     */
+    public long getLastResumeTimeMs() {
+        long resumeTimeMs = -1L;
+        for (PushDestination destination : mDestinations) {
+            resumeTimeMs = Math.max(resumeTimeMs, destination.getLastResumeTimeMs());
+        }
+        return resumeTimeMs;
+    }
+
+    private PushDestination.Callback mDestinationCallback = new PushDestination.Callback() {
+        @Override
+        public void onKeyFrameRequired() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                mVideoCaptureSession.requestKeyFrame();
+            }
+        }
+
+        @Override
+        public void scheduleReconnect(PushDestination destination, long delayMs) {
+            Message message = obtainMessage(Constraints.MSG_RECONNECT);
+            message.obj = destination;
+            sendMessageToHandlerThreadDelayed(message, delayMs);
+        }
+
+        @Override
+        public void onResumed(PushDestination destination, long resumeTimeMs) {
+            SessionInfoListener listener = mSessionInfoListener;
+            if (listener != null) {
+                listener.onInfo(SessionInfoListener.INFO_STREAM_RESUMED, (int) resumeTimeMs);
+            }
+        }
+
+        @Override
+        public void onUplinkProbed(PushDestination destination, int uplinkBps) {
+            Message message = obtainMessage(Constraints.MSG_UPLINK_PROBED);
+            message.arg1 = uplinkBps;
+            sendMessageToHandlerThread(message);
+        }
+    };
+
+    /**
+     * run in handler thread: pick the initial bitrate from the probed uplink. frames queued during the probe
+     * go out as they are, a key frame starts the new bitrate
+     */
+    private void applyUplinkProbe(int uplinkBps) {
+        if (mIsStopped) {
+            return;
+        }
+        if (uplinkBps <= 0) {
+            Log.w(TAG, "uplink probe failed, keep initial bitrate " + mInitVideoBitrate);
+            return;
+        }
+        int bitrate = (int) (uplinkBps * PROBE_BITRATE_FACTOR) - mAudioBitrate;
+        bitrate = Math.max(mMinVideoBitrate, Math.min(mMaxVideoBitrate, bitrate));
+        Log.i(TAG, "uplink " + uplinkBps + "bps, initial video bitrate " + bitrate);
+        if (mBitrateController != null) {
+            mBitrateController.reset(bitrate);
+        }
+        mMaxQueuedBytes = getSendQueueCapacity(bitrate);
+        for (PushDestination destination : mDestinations) {
+            destination.setMaxQueuedBytes(mMaxQueuedBytes);
+        }
+        mVideoCaptureSession.changeBitrate(bitrate / 1000);
+        if (mFrameRateController != null) {
+            mFrameRateController.onBitrateChanged(bitrate);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mVideoCaptureSession.requestKeyFrame();
+        }
+        SessionInfoListener listener = mSessionInfoListener;
+        if (listener != null && bitrate != mInitVideoBitrate) {
+            listener.onInfo(bitrate > mInitVideoBitrate ? SessionInfoListener.INFO_QOS_BITRATE_INCREASED
+                    : SessionInfoListener.INFO_QOS_BITRATE_DECREASED, bitrate);
         }
     }
 
     private void resetMuxerTracks() {
-        isPaused = true;
+        mPtsNormalizer.pause(getCaptureClockUs());
         isKeyFrameFound = false;
+    }
+
+    private void resumePts() {
+        mPtsNormalizer.resume(getCaptureClockUs());
+        // flv timestamps count from the muxer epoch, move it past the cut out pauses
+        resetEpoch(epochTimeInNs + 1000 * mPtsNormalizer.getPauseGapUs());
+    }
 
-        needAdjustAudioPts = true;
-        needAdjustVideoPts = true;
+    /**
+     * the clock capture devices stamp pts with
+     */
+    private long getCaptureClockUs() {
+        return (System.nanoTime() - epochTimeInNs) / 1000;
     }
 
     private volatile boolean isKeyFrameFound = false;
-    private volatile boolean isPaused = true;
-    private volatile long audioPtsGapInUs = 0L;
-    private volatile long videoPtsGapInUs = 0L;
-    private volatile boolean needAdjustAudioPts = true;
-    private volatile boolean needAdjustVideoPts = true;
-    private volatile long latestVideoPtsInUs = 0L;
-    private volatile long latestAudioPtsInUs = 0L;
+    // video encoder thread only
+    private final NalUnitScanner mVideoNalScanner = new NalUnitScanner();
+    private final PtsNormalizer mPtsNormalizer = new PtsNormalizer();
+
+    /**
+     * video is held back from destinations, audio goes on; preview, encoder and recording are untouched
+     */
+    private volatile boolean mIsAudioOnly = false;
+    private volatile boolean mIsVideoResumePending = false;
+    /**
+     * audio only: the last key frame is sent again this often, so players keep a clean picture and
+     * a video timeline
+     */
+    private static final long PLACEHOLDER_INTERVAL_US = 10000000L;
+    // video encoder thread, or the session with encoders stopped
+    private volatile ByteBuffer mLastKeyFrame;
+    private long mPlaceholderPtsUs = -1L;
 
     private volatile int mMp4VideoTrack = -1;
     private volatile int mMp4AudioTrack = -1;
@@ -309,78 +1148,161 @@ public class LiveStreamSession extends HandlerThreadSession {
         @Override
         public void onEncodedFrameUpdate(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
             // Log.d(TAG, "onEncodedVideoFrameUpdate bufferInfo.pts=" + bufferInfo.presentationTimeUs);
+            long pts = bufferInfo.presentationTimeUs;
+            int flags = mVideoNalScanner.scan(bufferData, bufferInfo.offset, bufferInfo.size)
+                    .toFrameFlags(bufferInfo.flags);
+            if ((flags & EncodedFrame.FLAG_CODEC_CONFIG) != 0) {
+                // sps,pps; we already have this in output format
+                return;
+            }
+            boolean isKeyFrame = (flags & EncodedFrame.FLAG_KEY_FRAME) != 0;
+            long nowUs = getCaptureClockUs();
+            mPipelineLatency.markEncoderOutput(EncodedFrame.TRACK_VIDEO, pts, nowUs);
+            mStatsCollector.onEncodedFrame(EncodedFrame.TRACK_VIDEO, bufferInfo.size, nowUs - pts);
+            if (mEncoderWatchdog != null) {
+                mEncoderWatchdog.onEncodedFrame(EncodedFrame.TRACK_VIDEO, nowUs / 1000);
+            }
+            FrameWriterThread recordWriter = mRecordWriter;
+            PtsNormalizer recordPtsNormalizer = mRecordPtsNormalizer;
+            if (recordWriter != null && recordPtsNormalizer != null) {
+                // the recording keeps its own timeline
+                long recordPtsInUs = recordPtsNormalizer.normalize(EncodedFrame.TRACK_VIDEO, pts, nowUs);
+                if (recordPtsInUs != PtsNormalizer.DROP) {
+                    recordWriter.offer(EncodedFrame.TRACK_VIDEO, bufferData, bufferInfo.offset, bufferInfo.size,
+                            recordPtsInUs, flags);
+                }
+            }
 
-            if (mFlvMuxer != null && mMp4VideoTrack >= 0 && !isPaused) {
+            if (mDestinations.length > 0 && mMp4VideoTrack >= 0) {
+                long ptsInUs = mPtsNormalizer.normalize(EncodedFrame.TRACK_VIDEO, pts, nowUs);
+                if (ptsInUs == PtsNormalizer.DROP) {
+                    // paused
+                    mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
+                    return;
+                }
                 if (mIsEncodeVideo && !isKeyFrameFound) {
-                    if (bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
+                    if (isKeyFrame) {
                         isKeyFrameFound = true;
                     } else {
                         // need to wait for key frame(IDR)
                         Log.w(TAG, "onEncodedFrameUpdate: video frame dropped as I-frame not ready.");
+                        mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_NO_KEY_FRAME);
                         return;
                     }
                 }
-                try {
-                    long pts = bufferInfo.presentationTimeUs;
-
-                    if (pts == 0 && bufferInfo.size < 100) {
-                        // pts is 0 and is sps,pps; we already have this in output format
+                if (mIsAudioOnly) {
+                    if (mIsVideoResumePending && isKeyFrame) {
+                        mIsVideoResumePending = false;
+                        mIsAudioOnly = false;
+                        mPlaceholderPtsUs = -1L;
+                    } else {
+                        if (isKeyFrame) {
+                            saveKeyFrame(bufferData, bufferInfo);
+                        }
+                        sendPlaceholder(ptsInUs);
                         return;
                     }
-                    if (needAdjustVideoPts) {
-                        latestVideoPtsInUs += mVideoFrameDurationInUs;
-                        latestAudioPtsInUs += mAudioFrameDurationInUs;
-                        videoPtsGapInUs = pts - latestVideoPtsInUs;
-                        audioPtsGapInUs = pts - latestAudioPtsInUs;
-                        needAdjustAudioPts = false;
-                        needAdjustVideoPts = false;
-                        resetEpoch(epochTimeInNs + 1000 * videoPtsGapInUs);
+                }
+                if (isKeyFrame && mAudioOnlyFallback != null) {
+                    saveKeyFrame(bufferData, bufferInfo);
+                }
+                try {
+                    bufferInfo.presentationTimeUs = ptsInUs;
+                    ByteBuffer sei = null;
+                    if (mSeiTimestamp != null) {
+                        // pts is on the capture clock, nowUs - pts is how long ago the frame was captured
+                        sei = mSeiTimestamp.build(System.currentTimeMillis() - (nowUs - pts) / 1000);
+                    }
+                    for (PushDestination destination : mDestinations) {
+                        destination.offer(EncodedFrame.TRACK_VIDEO, sei, bufferData,
+                                bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, flags);
                     }
-
-                    bufferInfo.presentationTimeUs = pts - videoPtsGapInUs;
-                    latestVideoPtsInUs = bufferInfo.presentationTimeUs;
-                    mFlvMuxer.writeSampleData(mMp4VideoTrack, bufferData, bufferInfo);
                 } catch (Exception e) {
-                    Log.e(TAG, "mediamuxer write video sample failed. errorMsg=" + e.getMessage());
+                    Log.e(TAG, "queue video sample failed. errorMsg=" + e.getMessage());
                     e.printStackTrace();
                 }
             }
         }
     };
 
+    /**
+     * video encoder thread
+     */
+    private void saveKeyFrame(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
+        ByteBuffer keyFrame = mLastKeyFrame;
+        if (keyFrame == null || keyFrame.capacity() < bufferInfo.size) {
+            keyFrame = ByteBuffer.allocateDirect(bufferInfo.size + bufferInfo.size / 4);
+            mLastKeyFrame = keyFrame;
+        }
+        ByteBuffer src = bufferData.duplicate();
+        src.limit(bufferInfo.offset + bufferInfo.size);
+        src.position(bufferInfo.offset);
+        keyFrame.clear();
+        keyFrame.put(src);
+        keyFrame.flip();
+    }
+
+    /**
+     * video encoder thread, audio only: resend the last key frame on entering and then every interval
+     */
+    private void sendPlaceholder(long ptsInUs) {
+        ByteBuffer keyFrame = mLastKeyFrame;
+        if (keyFrame == null || (mPlaceholderPtsUs >= 0 && ptsInUs - mPlaceholderPtsUs < PLACEHOLDER_INTERVAL_US)) {
+            return;
+        }
+        mPlaceholderPtsUs = ptsInUs;
+        for (PushDestination destination : mDestinations) {
+            destination.offer(EncodedFrame.TRACK_VIDEO, keyFrame, 0, keyFrame.limit(), ptsInUs,
+                    EncodedFrame.FLAG_KEY_FRAME);
+        }
+    }
+
     private OnEncodedFrameUpdateListener mOnEncodedAudioFrameUpdateListener = new OnEncodedFrameUpdateListener() {
 
         @Override
         public void onEncodedFrameUpdate(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
             // Log.d(TAG, "onEncodedAudioFrameUpdate pts=" + bufferInfo.presentationTimeUs);
+            long pts = bufferInfo.presentationTimeUs;
+            if (pts == 0 && bufferInfo.size < 10) {
+                // pts is 0 and is audio-config info; we already have this in output format
+                return;
+            }
+            long nowUs = getCaptureClockUs();
+            mPipelineLatency.markEncoderOutput(EncodedFrame.TRACK_AUDIO, pts, nowUs);
+            mStatsCollector.onEncodedFrame(EncodedFrame.TRACK_AUDIO, bufferInfo.size, nowUs - pts);
+            if (mEncoderWatchdog != null) {
+                mEncoderWatchdog.onEncodedFrame(EncodedFrame.TRACK_AUDIO, nowUs / 1000);
+            }
+            FrameWriterThread recordWriter = mRecordWriter;
+            PtsNormalizer recordPtsNormalizer = mRecordPtsNormalizer;
+            if (recordWriter != null && recordPtsNormalizer != null) {
+                long recordPtsInUs = recordPtsNormalizer.normalize(EncodedFrame.TRACK_AUDIO, pts, nowUs);
+                if (recordPtsInUs != PtsNormalizer.DROP) {
+                    recordWriter.offer(EncodedFrame.TRACK_AUDIO, bufferData, bufferInfo.offset, bufferInfo.size,
+                            recordPtsInUs, bufferInfo.flags);
+                }
+            }
 
-            if (mFlvMuxer != null && mMp4AudioTrack >= 0 && !isPaused) {
+            if (mDestinations.length > 0 && mMp4AudioTrack >= 0) {
                 if (mIsEncodeVideo && !isKeyFrameFound) {
                     // need to wait for video key frame
+                    mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_NO_KEY_FRAME);
                     return;
                 }
                 try {
-                    long pts = bufferInfo.presentationTimeUs;
-
-                    if (pts == 0 && bufferInfo.size < 10) {
-                        // pts is 0 and is audio-config info; we already have this in output format
+                    long ptsInUs = mPtsNormalizer.normalize(EncodedFrame.TRACK_AUDIO, pts, nowUs);
+                    if (ptsInUs == PtsNormalizer.DROP) {
+                        // paused
+                        mStatsCollector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
                         return;
                     }
-                    if (needAdjustAudioPts) {
-                        latestVideoPtsInUs += mVideoFrameDurationInUs;
-                        latestAudioPtsInUs += mAudioFrameDurationInUs;
-                        videoPtsGapInUs = pts - latestVideoPtsInUs;
-                        audioPtsGapInUs = pts - latestAudioPtsInUs;
-                        needAdjustAudioPts = false;
-                        needAdjustVideoPts = false;
-                        resetEpoch(epochTimeInNs + 1000 * videoPtsGapInUs);
+                    bufferInfo.presentationTimeUs = ptsInUs;
+                    for (PushDestination destination : mDestinations) {
+                        destination.offer(EncodedFrame.TRACK_AUDIO, bufferData,
+                                bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
                     }
-
-                    bufferInfo.presentationTimeUs = pts - audioPtsGapInUs;
-                    latestAudioPtsInUs = bufferInfo.presentationTimeUs;
-                    mFlvMuxer.writeSampleData(mMp4AudioTrack, bufferData, bufferInfo);
                 } catch (Exception e) {
-                    Log.e(TAG, "mediamuxer write audio sample failed.");
+                    Log.e(TAG, "queue audio sample failed.");
                     e.printStackTrace();
                 }
             }
@@ -407,6 +1329,24 @@ public class LiveStreamSession extends HandlerThreadSession {
         return null;
     }
 
+    /**
+     * 异步截图：在后台线程读出当前画面，按需缩小后压缩写入文件，不阻塞调用线程，适合直播中截取封面
+     *
+     * @param file     目标文件
+     * @param maxEdge  图片长边上限（像素），0表示保持原尺寸
+     * @param format   压缩格式，JPEG、PNG或WEBP
+     * @param quality  压缩质量0-100，PNG忽略
+     * @param listener 结果回调，在截图线程中回调
+     */
+    public void takeScreenShot(File file, int maxEdge, Bitmap.CompressFormat format, int quality,
+                               ScreenShotListener listener) {
+        if (mVideoCaptureSession != null) {
+            mVideoCaptureSession.takeScreenShot(file, maxEdge, format, quality, listener);
+        } else if (listener != null) {
+            listener.onScreenShotFailed(file);
+        }
+    }
+
     /**
      * 设置滤镜列表
      *
@@ -442,6 +1382,16 @@ public class LiveStreamSession extends HandlerThreadSession {
         mAudioCaptureSession.setBGMTrackGain(gain);
     }
 
+    /**
+     * 获取混音器，用于添加音效、连麦等音轨：addTrack返回音轨号，之后在同一线程中持续write该音轨的PCM
+     * （与采集相同的采样率和声道数，16位），音轨从指定的混音帧位置开始混入。背景音乐占用其中一路
+     *
+     * @return 混音器；LiveConfig未开启PcmMixer时为null
+     */
+    public PcmMixer getAudioMixer() {
+        return mAudioCaptureSession.getPcmMixer();
+    }
+
     public void toggleFlash(boolean flag) {
         mVideoCaptureSession.toggleFlash(flag);
     }
@@ -489,6 +1439,35 @@ public class LiveStreamSession extends HandlerThreadSession {
                     mCaptureErrorListener.onError(msg.arg1, msg.obj != null ? (String) (msg.obj) : "");
                 }
                 break;
+            case Constraints.MSG_RECONNECT:
+                PushDestination destination = (PushDestination) msg.obj;
+                if (!mIsStopped && Arrays.asList(mDestinations).contains(destination)) {
+                    destination.reconnect();
+                }
+                break;
+            case Constraints.MSG_STATS:
+                sampleStats();
+                if (!mIsStopped) {
+                    sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_STATS), STATS_INTERVAL_MS);
+                }
+                break;
+            case Constraints.MSG_ENCODER_RESTARTED:
+                onEncoderRestarted((Thread) msg.obj, msg.arg1, msg.arg2 != 0);
+                break;
+            case Constraints.MSG_ENCODER_RESTART_TIMEOUT:
+                onEncoderRestartTimeout((Thread) msg.obj, msg.arg1);
+                break;
+            case Constraints.MSG_UPLINK_PROBED:
+                applyUplinkProbe(msg.arg1);
+                break;
+            case Constraints.MSG_QOS_CHECK:
+                checkQos();
+                checkEncoders();
+                if (!mIsStopped) {
+                    sendMessageToHandlerThreadDelayed(obtainMessage(Constraints.MSG_QOS_CHECK),
+                            QOS_CHECK_INTERVAL_MS);
+                }
+                break;
             default:
                 break;
         }
@@ -16,6 +16,7 @@ import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
 import com.ztn.camera.config.ProcessConfig;
 import com.ztn.camera.listener.ProcessStateListener;
+import com.ztn.camera.push.NalUnitScanner;
 import com.ztn.camera.session.track.AudioConcatSession;
 import com.ztn.camera.session.track.VideoConcatSession;
 
@@ -489,6 +490,8 @@ public class MediaConcatSession extends HandlerThreadSession {
     }
 
     private volatile long latestVideoPts = 0L;
+    // video encoder thread only
+    private final NalUnitScanner mVideoNalScanner = new NalUnitScanner();
     private volatile long latestAudioPts = 0L;
 
     private volatile int mMp4VideoTrack = -1;
@@ -508,11 +511,10 @@ public class MediaConcatSession extends HandlerThreadSession {
 //                    Log.d(TAG, "mediamuxer write video sample size=" + bufferInfo.size + ";pts=" + bufferInfo.presentationTimeUs);
                     long pts = bufferInfo.presentationTimeUs;
 
-                    if (pts == 0) { // first encode: audio config or sps, pts is 0
-                        if (bufferInfo.size < 100) {
-                            // pts is 0 and is sps,pps; we already have this in output format
-                            return;
-                        }
+                    if (mVideoNalScanner.scan(bufferData, bufferInfo.offset, bufferInfo.size)
+                            .isParameterSetsOnly()) {
+                        // sps,pps; we already have this in output format
+                        return;
                     }
                     if (pts < latestVideoPts) {
                         bufferInfo.presentationTimeUs = latestVideoPts + 1;
@@ -11,6 +11,7 @@ import com.baidu.cloud.mediaprocess.device.MediaDecoderDevice;
 import com.baidu.cloud.mediaprocess.listener.OnDeviceFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnDeviceVideoSizeChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.audio.PcmCache;
 import com.ztn.camera.listener.PreviewStateListener;
 import com.ztn.camera.session.track.AudioPreviewSession;
 import com.ztn.camera.session.track.VideoPreviewSession;
@@ -57,6 +58,7 @@ public class MediaPreviewSession extends HandlerThreadSession {
         mAudioPreviewSession = new AudioPreviewSession();
 
         mAudioPreviewSession.setOnPreviewOverListener(audioPreviewOverListener);
+        mAudioPreviewSession.setPcmCache(PcmCache.getInstance(context));
 
         mIsDecodeVideo = true;
         mIsDecodeAudio = true;
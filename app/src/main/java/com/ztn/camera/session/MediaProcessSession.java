@@ -14,6 +14,7 @@ import com.baidu.cloud.gpuimage.basefilters.GPUImageFilter;
 import com.baidu.cloud.mediaprocess.device.MediaDecoderDevice;
 import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.audio.PcmCache;
 import com.ztn.camera.config.ProcessConfig;
 import com.ztn.camera.listener.ProcessStateListener;
 import com.ztn.camera.session.track.AudioProcessSession;
@@ -76,6 +77,7 @@ public class MediaProcessSession {
 
         mVideoProcessSession.setOnEncodedOverListener(videoEncodedOverListener);
         mAudioProcessSession.setOnEncodedOverListener(audioEncodedOverListener);
+        mAudioProcessSession.setPcmCache(PcmCache.getInstance(context));
 
         mIsDecodeVideo = config.isVideoEnabled(); // use setVideoAudioEnabled to set value
         mIsDecodeAudio = config.isAudioEnabled(); // use setVideoAudioEnabled to set value
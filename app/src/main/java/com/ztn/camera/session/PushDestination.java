@@ -0,0 +1,509 @@
+package com.ztn.camera.session;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import com.baidu.cloud.bdrtmpsession.BDRtmpSessionBasic;
+import com.baidu.cloud.bdrtmpsession.OnSessionEventListener;
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.EncodedFrameQueue;
+import com.ztn.camera.push.FlvMuxerSink;
+import com.ztn.camera.push.FrameSink;
+import com.ztn.camera.push.FrameWriterThread;
+import com.ztn.camera.push.ReconnectBackoff;
+import com.ztn.camera.rtmp.RtmpSink;
+import com.ztn.camera.stats.PipelineLatency;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 推流目的地
+ * <p>
+ * one push url with its own sink, send queue, writer thread and reconnect state.
+ * every destination of a session is fed by the same encoders and copies frames into its own
+ * rings, so a slow destination drops its own frames and never stalls the others.
+ * <p>
+ * with a UserRole the sink is BDRtmpSessionBasic + FlvMuxer, which is re-created with backoff after
+ * an error and re-attached with a GOP replay once connected; without one it is the in-tree RtmpSink,
+ * which the writer thread reconnects itself.
+ */
+public class PushDestination {
+    private static final String TAG = "PushDestination";
+    // a writer still inside the sink by then is cut off by closing its connection
+    private static final long WRITER_JOIN_TIMEOUT_MS = 2000L;
+
+    interface Callback {
+        void onKeyFrameRequired();
+
+        /**
+         * call {@link #reconnect()} on the session handler thread after delayMs
+         */
+        void scheduleReconnect(PushDestination destination, long delayMs);
+
+        void onResumed(PushDestination destination, long resumeTimeMs);
+
+        /**
+         * writer thread
+         *
+         * @param uplinkBps -1 if unknown
+         */
+        void onUplinkProbed(PushDestination destination, int uplinkBps);
+    }
+
+    private final String mUrl;
+    private final BDRtmpSessionBasic.UserRole mRole;
+    private final Callback mCallback;
+    private final int mVideoFps;
+    private final long mGopCacheBytes;
+    private volatile OnSessionEventListener mEventListener;
+    private PipelineLatency mPipelineLatency;
+
+    private BDRtmpSessionBasic mRtmpSession;
+    private volatile FlvMuxerSink mFlvMuxerSink;
+    private RtmpSink mRtmpSink;
+    private volatile FrameSink mFrameSink;
+    private long mEpochInNs;
+    private volatile MediaFormat mAudioFormat;
+    private volatile MediaFormat mVideoFormat;
+
+    private final EncodedFrameQueue mSendQueue;
+    private volatile FrameWriterThread mFrameWriter;
+    private final ReconnectBackoff mReconnectBackoff = new ReconnectBackoff();
+    private volatile boolean mIsWaitingForConnection = false;
+    private volatile boolean mIsReleased = false;
+    private long mLastSentBytes = 0L;
+    private long mProbeDurationMs = 0L;
+    private int mProbeMaxBitrate;
+    private volatile boolean mIsProbing = false;
+
+    // totals of writer threads already stopped
+    private long mSentBytes = 0L;
+    private long mSentFrames = 0L;
+    private long mDroppedFrames = 0L;
+    private int mResumeCount = 0;
+    private long mLastResumeTimeMs = -1L;
+
+    /**
+     * @param role null to publish with the in-tree RtmpSink
+     */
+    PushDestination(String url, BDRtmpSessionBasic.UserRole role, long maxQueuedBytes, long gopCacheBytes,
+                    int videoFps, long epochInNs, Callback callback) {
+        mUrl = url;
+        mRole = role;
+        mGopCacheBytes = gopCacheBytes;
+        mVideoFps = videoFps;
+        mEpochInNs = epochInNs;
+        mCallback = callback;
+        mSendQueue = new EncodedFrameQueue(maxQueuedBytes);
+        mSendQueue.setOnKeyFrameRequiredListener(new EncodedFrameQueue.OnKeyFrameRequiredListener() {
+            @Override
+            public void onKeyFrameRequired() {
+                mCallback.onKeyFrameRequired();
+            }
+        });
+    }
+
+    void setEventListener(OnSessionEventListener listener) {
+        mEventListener = listener;
+    }
+
+    /**
+     * applied on next start
+     */
+    void setPipelineLatency(PipelineLatency pipelineLatency) {
+        mPipelineLatency = pipelineLatency;
+    }
+
+    /**
+     * probe the uplink before the first frame of the first connection; in-tree RtmpSink only.
+     * apply before connect
+     */
+    void setUplinkProbe(long maxDurationMs, int maxBitrate) {
+        mProbeDurationMs = maxDurationMs;
+        mProbeMaxBitrate = maxBitrate;
+    }
+
+    /**
+     * until the probe result went to {@link Callback#onUplinkProbed}; the send queue only fills meanwhile
+     */
+    boolean isProbing() {
+        return mIsProbing;
+    }
+
+    /**
+     * create the connection; attached to a running writer once connected
+     */
+    void connect() {
+        mIsReleased = false;
+        if (mRole == null) {
+            mRtmpSink = new RtmpSink(mUrl);
+            if (mProbeDurationMs > 0) {
+                // reconnects do not probe again, qos takes over from there
+                mIsProbing = true;
+                mRtmpSink.setUplinkProbe(mProbeDurationMs, mProbeMaxBitrate, new RtmpSink.OnUplinkProbedListener() {
+                    @Override
+                    public void onUplinkProbed(int uplinkBps) {
+                        mIsProbing = false;
+                        mCallback.onUplinkProbed(PushDestination.this, uplinkBps);
+                    }
+                });
+                mProbeDurationMs = 0L;
+            }
+            setFrameSink(mRtmpSink);
+            return;
+        }
+        mRtmpSession = new BDRtmpSessionBasic(mRole);
+        mRtmpSession.setStreamingURL(mUrl);
+        mRtmpSession.setUserId(mUrl.substring(mUrl.lastIndexOf('/') + 1));
+        mRtmpSession.setEventListener(mInnerSessionEventListener);
+        mRtmpSession.createStream();
+
+        mFlvMuxerSink = new FlvMuxerSink(FlvMuxerSink.forRtmpSocket(mRtmpSession.getRtmpSocket(), mVideoFps),
+                mEpochInNs);
+        // re-configured while streaming: tracks are known already
+        if (mAudioFormat != null) {
+            mFlvMuxerSink.addTrack(mAudioFormat, true);
+        }
+        if (mVideoFormat != null) {
+            mFlvMuxerSink.addTrack(mVideoFormat, false);
+        }
+        mFrameSink = mFlvMuxerSink;
+        FrameWriterThread frameWriter = mFrameWriter;
+        if (frameWriter != null) {
+            // attached with a GOP replay once connected
+            frameWriter.setSink(null);
+            mIsWaitingForConnection = true;
+        }
+    }
+
+    void release() {
+        mIsReleased = true;
+        mIsProbing = false;
+        mIsWaitingForConnection = false;
+        disconnect();
+    }
+
+    /**
+     * run in session handler thread
+     */
+    void reconnect() {
+        if (mIsReleased || mFrameWriter == null) {
+            return;
+        }
+        Log.i(TAG, "reconnecting " + mUrl + ", attempt " + mReconnectBackoff.getAttempts());
+        disconnect();
+        connect();
+    }
+
+    private void disconnect() {
+        setFrameSink(null);
+        if (mFlvMuxerSink != null) {
+            mFlvMuxerSink.close();
+        }
+        mFlvMuxerSink = null;
+        if (mRtmpSink != null) {
+            mRtmpSink.close();
+        }
+        mRtmpSink = null;
+        if (mRtmpSession != null) {
+            mRtmpSession.destroyStream();
+        }
+        mRtmpSession = null;
+    }
+
+    /**
+     * package private for tests, which push into their own sink
+     */
+    void setFrameSink(FrameSink sink) {
+        mFrameSink = sink;
+        FrameWriterThread frameWriter = mFrameWriter;
+        if (frameWriter != null) {
+            frameWriter.setSink(sink);
+        }
+    }
+
+    void start() {
+        mSendQueue.clear();
+        mLastSentBytes = 0L;
+        FrameWriterThread frameWriter = new FrameWriterThread(mSendQueue, mIsWaitingForConnection ? null : mFrameSink);
+        frameWriter.enableGopCache(mGopCacheBytes);
+        frameWriter.setPipelineLatency(mPipelineLatency);
+        frameWriter.setOnResumedListener(new FrameWriterThread.OnResumedListener() {
+            @Override
+            public void onResumed(long resumeTimeMs) {
+                mCallback.onResumed(PushDestination.this, resumeTimeMs);
+            }
+        });
+        frameWriter.start();
+        mFrameWriter = frameWriter;
+    }
+
+    void stop() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        mFrameWriter = null;
+        if (frameWriter != null) {
+            frameWriter.quit();
+            // sinks are not thread safe and the queue and pools are shared with the next writer
+            if (!join(frameWriter) && !mIsReleased) {
+                Log.w(TAG, "writer of " + mUrl + " did not stop, reconnecting");
+                disconnect();
+                join(frameWriter);
+                connect();
+            }
+            mSentBytes += frameWriter.getSentBytes();
+            mSentFrames += frameWriter.getSentFrames();
+            mDroppedFrames += frameWriter.getRingDroppedFrames();
+            mResumeCount += frameWriter.getResumeCount();
+            if (frameWriter.getLastResumeTimeMs() >= 0) {
+                mLastResumeTimeMs = frameWriter.getLastResumeTimeMs();
+            }
+        }
+        mSendQueue.clear();
+    }
+
+    /**
+     * @return false if the thread is still running after {@link #WRITER_JOIN_TIMEOUT_MS}
+     */
+    private static boolean join(Thread thread) {
+        try {
+            thread.join(WRITER_JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    /**
+     * encoder output thread; see {@link FrameWriterThread#offer}
+     */
+    void offer(int trackType, ByteBuffer src, int offset, int size, long ptsUs, int flags) {
+        offer(trackType, null, src, offset, size, ptsUs, flags);
+    }
+
+    /**
+     * encoder output thread; prefix goes in front of the frame, may be null
+     */
+    void offer(int trackType, ByteBuffer prefix, ByteBuffer src, int offset, int size, long ptsUs, int flags) {
+        FrameWriterThread frameWriter = mFrameWriter;
+        if (frameWriter != null) {
+            frameWriter.offer(trackType, prefix, src, offset, size, ptsUs, flags);
+        }
+    }
+
+    /**
+     * sps/pps and aac config go in band; FlvMuxer takes the track format when that frame reaches it
+     */
+    void offerFormat(MediaFormat mediaFormat, boolean isAudio) {
+        if (isAudio) {
+            mAudioFormat = mediaFormat;
+        } else {
+            mVideoFormat = mediaFormat;
+        }
+        ByteBuffer config = RtmpSink.getCodecConfig(mediaFormat);
+        if (config != null) {
+            FlvMuxerSink flvMuxerSink = mFlvMuxerSink;
+            if (flvMuxerSink != null) {
+                flvMuxerSink.setFormat(mediaFormat, isAudio);
+            }
+            offer(isAudio ? EncodedFrame.TRACK_AUDIO : EncodedFrame.TRACK_VIDEO, config, 0, config.remaining(),
+                    0L, EncodedFrame.FLAG_CODEC_CONFIG);
+        }
+    }
+
+    void setEpoch(long epochInNs) {
+        mEpochInNs = epochInNs;
+        FlvMuxerSink flvMuxerSink = mFlvMuxerSink;
+        if (flvMuxerSink != null) {
+            flvMuxerSink.setEpoch(epochInNs);
+        }
+    }
+
+    void setMaxQueuedBytes(long maxQueuedBytes) {
+        mSendQueue.setMaxQueuedBytes(maxQueuedBytes);
+    }
+
+    /**
+     * run in session handler thread, once per interval
+     *
+     * @return bps handed to the sink since the last call
+     */
+    int sampleUploadBps(int intervalMs) {
+        FrameWriterThread frameWriter = mFrameWriter;
+        if (frameWriter == null) {
+            return 0;
+        }
+        long sentBytes = frameWriter.getSentBytes();
+        int uploadBps = (int) ((sentBytes - mLastSentBytes) * 8 * 1000 / intervalMs);
+        mLastSentBytes = sentBytes;
+        return uploadBps;
+    }
+
+    BDRtmpSessionBasic getRtmpSession() {
+        return mRtmpSession;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * true while the sink is detached after an error, frames only go to the GOP cache
+     */
+    public boolean isWaitingForConnection() {
+        if (mIsWaitingForConnection) {
+            return true;
+        }
+        RtmpSink rtmpSink = mRtmpSink;
+        return rtmpSink != null && mFrameWriter != null && !rtmpSink.isConnected();
+    }
+
+    public long getQueuedBytes() {
+        return mSendQueue.getQueuedBytes();
+    }
+
+    public long getSentBytes() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        return mSentBytes + (frameWriter == null ? 0L : frameWriter.getSentBytes());
+    }
+
+    public long getSentFrames() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        return mSentFrames + (frameWriter == null ? 0L : frameWriter.getSentFrames());
+    }
+
+    /**
+     * frames dropped by priority under congestion or because the writer fell seconds behind
+     */
+    public long getDroppedFrames() {
+        return getCongestionDroppedFrames() + getOverflowDroppedFrames();
+    }
+
+    /**
+     * dropped by the send queue to keep its latency bound
+     */
+    public long getCongestionDroppedFrames() {
+        return mSendQueue.getDroppedDisposableFrames() + mSendQueue.getDroppedGopFrames();
+    }
+
+    /**
+     * dropped because the writer fell seconds behind and its ring was full
+     */
+    public long getOverflowDroppedFrames() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        return mDroppedFrames + (frameWriter == null ? 0L : frameWriter.getRingDroppedFrames());
+    }
+
+    /**
+     * bytes sent but not acknowledged by the server; -1 when the sink does not report it
+     */
+    public long getAckLagBytes() {
+        RtmpSink rtmpSink = mRtmpSink;
+        return rtmpSink == null ? -1L : rtmpSink.getAckLagBytes();
+    }
+
+    public int getResumeCount() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        return mResumeCount + (frameWriter == null ? 0 : frameWriter.getResumeCount());
+    }
+
+    /**
+     * -1 if never reconnected
+     */
+    public long getLastResumeTimeMs() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        if (frameWriter != null && frameWriter.getLastResumeTimeMs() >= 0) {
+            return frameWriter.getLastResumeTimeMs();
+        }
+        return mLastResumeTimeMs;
+    }
+
+    /**
+     * System.nanoTime of the first media frame sent by the current writer thread; -1 if none yet
+     */
+    public long getFirstFrameSentTimeNs() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        return frameWriter == null ? -1L : frameWriter.getFirstFrameSentTimeNs();
+    }
+
+    /**
+     * longest single write into the sink
+     */
+    public long getMaxStallMs() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        return frameWriter == null ? 0L : TimeUnit.NANOSECONDS.toMillis(frameWriter.getMaxStallNs());
+    }
+
+    @Override
+    public String toString() {
+        return mUrl + ": sent " + getSentFrames() + " frames/" + getSentBytes() + " bytes, queued "
+                + getQueuedBytes() + " bytes, dropped " + getDroppedFrames() + ", max stall "
+                + getMaxStallMs() + "ms, resumed " + getResumeCount() + " times"
+                + (isWaitingForConnection() ? ", reconnecting" : "");
+    }
+
+    private void scheduleReconnect() {
+        FrameWriterThread frameWriter = mFrameWriter;
+        if (frameWriter != null) {
+            frameWriter.setSink(null);
+            frameWriter.notifyDisconnected();
+        }
+        mIsWaitingForConnection = true;
+        long delayMs = mReconnectBackoff.nextDelayMs();
+        Log.w(TAG, "rtmp session error on " + mUrl + ", reconnect in " + delayMs + "ms");
+        mCallback.scheduleReconnect(this, delayMs);
+    }
+
+    private OnSessionEventListener mInnerSessionEventListener = new OnSessionEventListener() {
+        @Override
+        public void onSessionConnected() {
+            mReconnectBackoff.reset();
+            FrameWriterThread frameWriter = mFrameWriter;
+            if (mIsWaitingForConnection && frameWriter != null) {
+                mIsWaitingForConnection = false;
+                frameWriter.setSink(mFrameSink);
+            }
+            if (mEventListener != null) {
+                mEventListener.onSessionConnected();
+            }
+        }
+
+        @Override
+        public void onError(int errorCode) {
+            if (!mIsReleased && mFrameWriter != null) {
+                scheduleReconnect();
+            }
+            if (mEventListener != null) {
+                mEventListener.onError(errorCode);
+            }
+        }
+
+        @Override
+        public void onConversationRequest(String url, String userId) {
+            if (mEventListener != null) {
+                mEventListener.onConversationRequest(url, userId);
+            }
+        }
+
+        @Override
+        public void onConversationStarted(String userId) {
+            if (mEventListener != null) {
+                mEventListener.onConversationStarted(userId);
+            }
+        }
+
+        @Override
+        public void onConversationFailed(String userId, OnSessionEventListener.FailureReason failureReason) {
+            if (mEventListener != null) {
+                mEventListener.onConversationFailed(userId, failureReason);
+            }
+        }
+
+        @Override
+        public void onConversationEnded(String userId) {
+            if (mEventListener != null) {
+                mEventListener.onConversationEnded(userId);
+            }
+        }
+    };
+}
@@ -1,13 +1,14 @@
 package com.ztn.camera.session.track;
 
 import android.content.Context;
+import android.media.AudioFormat;
 import android.media.AudioManager;
+import android.media.AudioTrack;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.os.Message;
 import android.util.Log;
 
-import com.baidu.cloud.mediaprocess.device.AudioRecorderDevice;
 import com.baidu.cloud.mediaprocess.device.MediaDecoderDevice;
 import com.baidu.cloud.mediaprocess.encoder.AudioMediaEncoder;
 import com.baidu.cloud.mediaprocess.filter.AudioFilter;
@@ -16,8 +17,17 @@ import com.baidu.cloud.mediaprocess.listener.OnDeviceFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFilteredFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.audio.CachedBgm;
+import com.ztn.camera.audio.LoopingPcmReader;
+import com.ztn.camera.audio.PcmCache;
+import com.ztn.camera.audio.PcmMixer;
+import com.ztn.camera.capture.AudioCaptureSource;
+import com.ztn.camera.capture.MicrophoneSource;
+import com.ztn.camera.push.EncodedFrame;
 import com.ztn.camera.session.Constraints;
 import com.ztn.camera.session.HandlerThreadSession;
+import com.ztn.camera.stats.PipelineLatency;
+
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 
@@ -31,19 +41,40 @@ import static com.ztn.camera.session.Constraints.MSG_BGM_FINISHED;
 
 public class AudioCaptureSession extends HandlerThreadSession {
     private static final String TAG = "AudioCaptureSession";
+    // bgm decodes ahead of the mix by about as much, 3s at 44.1k
+    private static final int BGM_BUFFER_FRAMES = 1 << 17;
 
     private int mSampleRateHz;
     private int mChannelCount = 2; // always two
     private int mBitrate; // used by encoder
 
-    private AudioRecorderDevice mAudioRecorderDevice;
+    private AudioCaptureSource mCaptureSource;
+    private boolean mIsAudioEnabled;
     private MediaDecoderDevice mBGMusicDevice;
     private int mBGMFilterTrack = -1;
+    // null while bgm is off or not cacheable
+    private volatile CachedBgm mCachedBGM;
+    private final MediaCodec.BufferInfo mBGMFilterInfo = new MediaCodec.BufferInfo();
     private volatile AudioFilter mAudioFilter;
+    // mixes on the mic thread instead of the filter; null uses the filter
+    private volatile PcmMixer mPcmMixer;
+    private volatile AudioTrack mMonitorTrack;
+    // read by setBGMTrackGain on the caller's thread
+    private volatile int mBGMMixerTrack = -1;
+    // mic thread
+    private byte[] mMixBuffer = new byte[0];
+    private byte[] mMonitorBuffer = new byte[0];
+    private float mRecordTrackGain = 1.0f;
+    private float mBGMTrackGain = 1.0f;
     private volatile AudioMediaEncoder mAudioEncoder;
+    // written on the filter thread only
+    private volatile long mEncoderInputFrames = 0L;
 
     private WeakReference<Context> contextWeakRef;
 
+    private volatile long mEpochTimeInNs = 0L;
+    private volatile PipelineLatency mPipelineLatency;
+
     public AudioCaptureSession(Context context, int sampleRateHz, int channelCount, int bitrate,
                                int audioSource, boolean isAudioEnabled) {
 
@@ -53,24 +84,75 @@ public class AudioCaptureSession extends HandlerThreadSession {
         mChannelCount = channelCount;
         mBitrate = bitrate;
 
-        mAudioRecorderDevice = new AudioRecorderDevice(mSampleRateHz, audioSource);
-        mAudioRecorderDevice.setOnDeviceFrameUpdateListener(mOnDeviceFrameUpdateListener);
-        mAudioRecorderDevice.setNeedFixCaptureSize(true); // size is limited to 4096
-        mAudioRecorderDevice.setAudioEnabled(isAudioEnabled);
+        mIsAudioEnabled = isAudioEnabled;
+        setCaptureSource(new MicrophoneSource(mSampleRateHz, audioSource));
         mAudioFilter = new AudioFilter();
 
     }
 
+    /**
+     * 替换采集源，默认为麦克风；须在startAudioDevice之前调用。
+     * 采集源须输出与本会话采样率和声道数一致的16位PCM
+     *
+     * @param captureSource
+     */
+    public void setCaptureSource(AudioCaptureSource captureSource) {
+        captureSource.setOnDeviceFrameUpdateListener(mOnDeviceFrameUpdateListener);
+        captureSource.setEpochTimeInNs(mEpochTimeInNs);
+        captureSource.setEnabled(mIsAudioEnabled);
+        mCaptureSource = captureSource;
+    }
+
     public void setRecordTrackGain(float mainGain) {
+        mRecordTrackGain = mainGain;
         if (mAudioFilter != null) {
             mAudioFilter.setMasterTrackGain(mainGain);
         }
+        PcmMixer pcmMixer = mPcmMixer;
+        if (pcmMixer != null) {
+            pcmMixer.setMasterGain(mainGain);
+        }
     }
 
     public void setBGMTrackGain(float subGain) {
+        mBGMTrackGain = subGain;
         if (mAudioFilter != null) {
             mAudioFilter.setSubTrackGain(subGain);
         }
+        PcmMixer pcmMixer = mPcmMixer;
+        if (pcmMixer != null) {
+            pcmMixer.setTrackGain(mBGMMixerTrack, subGain);
+        }
+    }
+
+    /**
+     * 使用PcmMixer混音：在采集线程中直接混合麦克风、背景音乐及其他音轨，复用缓冲区，不再经过AudioFilter；
+     * 须在startEncoder之前调用，编码期间调用无效
+     *
+     * @param isEnabled
+     * @return false if ignored because the encoder is running
+     */
+    public synchronized boolean setPcmMixerEnabled(boolean isEnabled) {
+        if (mAudioEncoder != null) {
+            // the mic thread, monitor track and stopEncoder all follow the mode the encoder started in
+            Log.w(TAG, "setPcmMixerEnabled ignored while encoding");
+            return false;
+        }
+        if (isEnabled && mPcmMixer == null) {
+            PcmMixer pcmMixer = new PcmMixer(mChannelCount);
+            pcmMixer.setMasterGain(mRecordTrackGain);
+            mPcmMixer = pcmMixer;
+        } else if (!isEnabled) {
+            mPcmMixer = null;
+        }
+        return true;
+    }
+
+    /**
+     * @return 混音器，可添加音效、连麦等音轨；未开启PcmMixer时为null
+     */
+    public PcmMixer getPcmMixer() {
+        return mPcmMixer;
     }
 
 
@@ -93,6 +175,29 @@ public class AudioCaptureSession extends HandlerThreadSession {
             mBGMusicDevice.release();
             mBGMusicDevice = null;
         }
+        PcmMixer pcmMixer = mPcmMixer;
+        if (pcmMixer != null) {
+            if (mBGMMixerTrack < 0) {
+                mBGMMixerTrack = pcmMixer.addTrack(pcmMixer.getFramePosition(), BGM_BUFFER_FRAMES);
+                pcmMixer.setTrackGain(mBGMMixerTrack, mBGMTrackGain);
+            }
+        } else if (mBGMFilterTrack < 0) {
+            mBGMFilterTrack = mAudioFilter.addSubTrack();
+        }
+        // decoded once, then looped from the cache
+        CachedBgm cachedBGM = mCachedBGM;
+        Context context = contextWeakRef.get();
+        if (cachedBGM == null && context != null) {
+            cachedBGM = new CachedBgm(PcmCache.getInstance(context), mBGMFilePath, mClipStartPositionInUSec,
+                    mClipDurationInUSec, mSampleRateHz, mChannelCount * 2);
+            mCachedBGM = cachedBGM;
+        }
+        if (cachedBGM != null) {
+            if (cachedBGM.startPlaying(mIsBGMLooping)) {
+                return;
+            }
+            cachedBGM.startCaching();
+        }
         try {
             mBGMusicDevice = new MediaDecoderDevice(mBGMFilePath);
             mBGMusicDevice.setup();
@@ -101,9 +206,6 @@ public class AudioCaptureSession extends HandlerThreadSession {
             mBGMusicDevice.setExtractAudioEnabled(true);
             mBGMusicDevice.setExtractVideoEnabled(false);
             mBGMusicDevice.setOnAudioDeviceFrameUpdateListener(mOnBGMusicDeviceUpdateListener);
-            if (mBGMFilterTrack < 0) {
-                mBGMFilterTrack = mAudioFilter.addSubTrack();
-            }
 
             mBGMusicDevice.startDecoder();
         } catch (Exception e) {
@@ -117,7 +219,8 @@ public class AudioCaptureSession extends HandlerThreadSession {
      * @param isMute true for mute, false not mute
      */
     public void setMuteAudio(boolean isMute) {
-        mAudioRecorderDevice.setAudioEnabled(!isMute);
+        mIsAudioEnabled = !isMute;
+        mCaptureSource.setEnabled(!isMute);
     }
 
     private long mClipStartPositionInUSec = -1;
@@ -132,17 +235,29 @@ public class AudioCaptureSession extends HandlerThreadSession {
      * invoke by stopAudioDevice
      */
     private void stopBGMDevice() {
+        // before the decoder, whose stop must not complete a cache entry
+        CachedBgm cachedBGM = mCachedBGM;
+        mCachedBGM = null;
+        if (cachedBGM != null) {
+            cachedBGM.close();
+        }
         if (mBGMusicDevice != null) {
             mBGMusicDevice.stopDecoder();
             mBGMusicDevice.release();
             mBGMusicDevice = null;
-            mBGMFilterTrack = -1;
         }
+        mBGMFilterTrack = -1;
+        PcmMixer pcmMixer = mPcmMixer;
+        if (pcmMixer != null && mBGMMixerTrack >= 0) {
+            pcmMixer.removeTrack(mBGMMixerTrack);
+        }
+        mBGMMixerTrack = -1;
     }
 
     public void setEpochTimeInNs(long epochTimeInNs) {
-        if (mAudioRecorderDevice != null) {
-            mAudioRecorderDevice.setEpochTimeInNs(epochTimeInNs);
+        mEpochTimeInNs = epochTimeInNs;
+        if (mCaptureSource != null) {
+            mCaptureSource.setEpochTimeInNs(epochTimeInNs);
         }
     }
 
@@ -153,6 +268,10 @@ public class AudioCaptureSession extends HandlerThreadSession {
         if (mBGMusicDevice != null) {
             mBGMusicDevice.pause();
         }
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM != null) {
+            cachedBGM.setPaused(true);
+        }
     }
 
     /**
@@ -162,13 +281,17 @@ public class AudioCaptureSession extends HandlerThreadSession {
         if (mBGMusicDevice != null) {
             mBGMusicDevice.resume();
         }
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM != null) {
+            cachedBGM.setPaused(false);
+        }
     }
 
     public void startAudioDevice() {
         mIsStopped = false;
         super.setupHandler();
 
-        boolean isOpenSuccess = mAudioRecorderDevice.openAudioRecorder();
+        boolean isOpenSuccess = mCaptureSource.open();
         if (!isOpenSuccess) {
             if (mInnerErrorListener != null) {
                 mInnerErrorListener.onFinish(false, Constraints.MSG_FAILED_ARG1_REASON_AUDIO_MIC, "Mic open failed");
@@ -190,7 +313,7 @@ public class AudioCaptureSession extends HandlerThreadSession {
         }
         mIsStopped = true;
 
-        mAudioRecorderDevice.closeAudioRecorder();
+        mCaptureSource.close();
         super.destroyHandler();
     }
 
@@ -201,7 +324,7 @@ public class AudioCaptureSession extends HandlerThreadSession {
     }
 
 
-    public boolean startEncoder() {
+    public synchronized boolean startEncoder() {
 
         try {
             boolean isUseWiredOn = false;
@@ -209,7 +332,9 @@ public class AudioCaptureSession extends HandlerThreadSession {
                 AudioManager audioManager = (AudioManager) contextWeakRef.get().getSystemService(Context.AUDIO_SERVICE);
                 isUseWiredOn = audioManager.isWiredHeadsetOn();
             }
-            if (isUseWiredOn) {
+            if (mPcmMixer != null) {
+                startMonitorTrack(isUseWiredOn);
+            } else if (isUseWiredOn) {
                 Log.d(TAG, "isUseWiredOn true");
                 // use Music because PreviewSession also use STREAM_MUSIC
                 mAudioFilter.setup(false);
@@ -218,25 +343,22 @@ public class AudioCaptureSession extends HandlerThreadSession {
                 // Tricky: use STREAM_VOICE_CALL to avoid bgm recap when capturing
                 // STREAM_VOICE_CALL is not loud, so mic will not record in
                 mAudioFilter.setup(false, AudioManager.STREAM_VOICE_CALL,
-                        mAudioRecorderDevice.getRecorderAudioSessionId());
+                        mCaptureSource.getAudioSessionId());
             }
 
             if (mEnableBGM) {
                 startBGMDevice();
             }
+            if (mPcmMixer != null) {
+                createEncoder();
+                return true;
+            }
             // incase master track too long
             // most time, master track size is 1, about 50ms later
             mAudioFilter.clearMasterTrackQueue(); // not needed since startDevice just now.
 
-            mAudioEncoder = new AudioMediaEncoder(MediaFormat.MIMETYPE_AUDIO_AAC);
-            mAudioEncoder.setOnProcessOverListener(mEncoderStatusListener);
-            mAudioEncoder.setupEncoder(mSampleRateHz, mChannelCount, mBitrate / 1000);
-            mAudioEncoder.setMediaFormatChangedListener(mMediaFormatChangedListener);
-            // assume startFlv first, then startEncoder
-            mAudioEncoder.setOnEncodedFrameUpdateListener(mOnEncodedFrameUpdateListener);
+            createEncoder();
             mAudioFilter.setOnFilteredFrameUpdateListener(mOnFilteredFrameUpdateListener);
-
-            mAudioEncoder.start();
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -245,12 +367,98 @@ public class AudioCaptureSession extends HandlerThreadSession {
 
     }
 
-    public void stopEncoder() {
+    /**
+     * plays the sub tracks locally, as the filter does; same stream choice against mic recapture
+     */
+    private void startMonitorTrack(boolean isUseWiredOn) {
+        int channelConfig = mChannelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferSize = AudioTrack.getMinBufferSize(mSampleRateHz, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        int audioSessionId = mCaptureSource.getAudioSessionId();
+        AudioTrack monitorTrack;
+        if (isUseWiredOn || audioSessionId < 0) {
+            monitorTrack = new AudioTrack(isUseWiredOn ? AudioManager.STREAM_MUSIC : AudioManager.STREAM_VOICE_CALL,
+                    mSampleRateHz, channelConfig, AudioFormat.ENCODING_PCM_16BIT, minBufferSize,
+                    AudioTrack.MODE_STREAM);
+        } else {
+            monitorTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL, mSampleRateHz, channelConfig,
+                    AudioFormat.ENCODING_PCM_16BIT, minBufferSize, AudioTrack.MODE_STREAM, audioSessionId);
+        }
+        monitorTrack.play();
+        mMonitorTrack = monitorTrack;
+    }
+
+    private void stopMonitorTrack() {
+        AudioTrack monitorTrack = mMonitorTrack;
+        mMonitorTrack = null;
+        if (monitorTrack != null) {
+            try {
+                monitorTrack.stop();
+            } catch (IllegalStateException e) {
+                Log.d(TAG, "stop monitor track failed: " + e.getMessage());
+            }
+            monitorTrack.release();
+        }
+    }
+
+    private void createEncoder() throws Exception {
+        AudioMediaEncoder audioEncoder = new AudioMediaEncoder(MediaFormat.MIMETYPE_AUDIO_AAC);
+        audioEncoder.setOnProcessOverListener(mEncoderStatusListener);
+        audioEncoder.setupEncoder(mSampleRateHz, mChannelCount, mBitrate / 1000);
+        audioEncoder.setMediaFormatChangedListener(mMediaFormatChangedListener);
+        // assume startFlv first, then startEncoder
+        audioEncoder.setOnEncodedFrameUpdateListener(mOnEncodedFrameUpdateListener);
+        audioEncoder.start();
+        mAudioEncoder = audioEncoder;
+    }
+
+    /**
+     * rebuild only the encoder, e.g. after it stopped producing output; recording, filter and bgm go on.
+     * the new audio config comes through MediaFormatChangedListener
+     *
+     * @return false if not encoding or the new encoder could not be started
+     */
+    public synchronized boolean restartEncoder() {
+        AudioMediaEncoder audioEncoder = mAudioEncoder;
+        if (audioEncoder == null) {
+            return false;
+        }
+        Log.i(TAG, "restart audio encoder");
+        // filtered frames are dropped until the new encoder is in place
+        mAudioEncoder = null;
+        try {
+            audioEncoder.stop();
+            audioEncoder.release();
+        } catch (Exception e) {
+            // a wedged codec may refuse to stop, the new one must start anyway
+            Log.e(TAG, "stop stalled audio encoder failed. errorMsg=" + e.getMessage());
+        }
+        try {
+            createEncoder();
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    /**
+     * frames handed to the encoder since creation
+     */
+    public long getEncoderInputFrames() {
+        return mEncoderInputFrames;
+    }
+
+    public synchronized void stopEncoder() {
 
 //        mAudioFilter.resetBuffer(); // clear old data
-        mAudioFilter.release();
-        stopBGMDevice();
-        mAudioFilter.setOnFilteredFrameUpdateListener(null);
+        if (mPcmMixer != null) {
+            stopMonitorTrack();
+            stopBGMDevice();
+        } else {
+            mAudioFilter.release();
+            stopBGMDevice();
+            mAudioFilter.setOnFilteredFrameUpdateListener(null);
+        }
         if (mAudioEncoder != null) {
             Log.i(TAG, "stop audio encoder");
             mAudioEncoder.stop();
@@ -279,7 +487,17 @@ public class AudioCaptureSession extends HandlerThreadSession {
     private OnDeviceFrameUpdateListener mOnBGMusicDeviceUpdateListener = new OnDeviceFrameUpdateListener() {
         @Override
         public int onDeviceFrameUpdateSoon(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
-            if (mBGMFilterTrack >= 0) {
+            CachedBgm cachedBGM = mCachedBGM;
+            if (cachedBGM != null && bufferData != null && bufferInfo.size > 0) {
+                cachedBGM.onDecoded(bufferData, bufferInfo.size);
+            }
+            PcmMixer pcmMixer = mPcmMixer;
+            if (pcmMixer != null) {
+                if (bufferData != null && bufferInfo.size > 0) {
+                    // a full ring drops the rest, the filter does the same
+                    pcmMixer.write(mBGMMixerTrack, bufferData, bufferData.position(), bufferInfo.size);
+                }
+            } else if (mBGMFilterTrack >= 0) {
                 if (bufferData != null && bufferInfo.size > 0) {
                     mAudioFilter.pushDataForSubTrack(bufferData, bufferInfo, mBGMFilterTrack);
                 } else {
@@ -291,33 +509,114 @@ public class AudioCaptureSession extends HandlerThreadSession {
         }
     };
 
+    /**
+     * record device, filter and encoder input stages; the session marks encoder output
+     */
+    public void setPipelineLatency(PipelineLatency pipelineLatency) {
+        mPipelineLatency = pipelineLatency;
+    }
+
     private OnDeviceFrameUpdateListener mOnDeviceFrameUpdateListener = new OnDeviceFrameUpdateListener() {
 
         @Override
         public int onDeviceFrameUpdateSoon(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
             if (bufferData != null && bufferInfo.size > 0) {
-                mAudioFilter.pushDataForMasterTrack(bufferData, bufferInfo);
+                PipelineLatency pipelineLatency = mPipelineLatency;
+                if (pipelineLatency != null) {
+                    pipelineLatency.record(PipelineLatency.STAGE_AUDIO_DEVICE,
+                            (System.nanoTime() - mEpochTimeInNs) / 1000 - bufferInfo.presentationTimeUs);
+                }
+                PcmMixer pcmMixer = mPcmMixer;
+                CachedBgm cachedBGM = mCachedBGM;
+                if (pcmMixer != null) {
+                    if (cachedBGM != null) {
+                        cachedBGM.feed(bufferInfo.size, mBGMMixerSink);
+                    }
+                    mix(pcmMixer, bufferData, bufferInfo);
+                } else {
+                    if (cachedBGM != null) {
+                        cachedBGM.feed(bufferInfo.size, mBGMFilterSink);
+                    }
+                    mAudioFilter.pushDataForMasterTrack(bufferData, bufferInfo);
+                }
             }
             return 0;
         }
     };
 
+    // mic thread, cached bgm along with each mic frame
+    private LoopingPcmReader.Sink mBGMMixerSink = new LoopingPcmReader.Sink() {
+        @Override
+        public void write(ByteBuffer pcm, int offset, int size) {
+            PcmMixer pcmMixer = mPcmMixer;
+            if (pcmMixer != null) {
+                pcmMixer.write(mBGMMixerTrack, pcm, offset, size);
+            }
+        }
+    };
+
+    private LoopingPcmReader.Sink mBGMFilterSink = new LoopingPcmReader.Sink() {
+        @Override
+        public void write(ByteBuffer pcm, int offset, int size) {
+            if (mBGMFilterTrack >= 0) {
+                mBGMFilterInfo.size = size;
+                mAudioFilter.pushDataForSubTrack(pcm, mBGMFilterInfo, mBGMFilterTrack);
+            }
+        }
+    };
+
     private OnFilteredFrameUpdateListener mOnFilteredFrameUpdateListener = new OnFilteredFrameUpdateListener() {
 
         @Override
         public void onFilteredFrameUpdate(byte[] data, MediaCodec.BufferInfo bufferInfo) {
-            if (mAudioEncoder != null) {
-                mAudioEncoder.push(data, bufferInfo.size, bufferInfo.presentationTimeUs);
-            }
+            pushToEncoder(data, bufferInfo.size, bufferInfo.presentationTimeUs);
         }
     };
 
+    /**
+     * mic thread: mix into the reused buffers, play the sub tracks, encode the mix
+     */
+    private void mix(PcmMixer pcmMixer, ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
+        int size = bufferInfo.size;
+        if (mMixBuffer.length < size) {
+            mMixBuffer = new byte[size];
+            mMonitorBuffer = new byte[size];
+        }
+        AudioTrack monitorTrack = mMonitorTrack;
+        pcmMixer.mix(bufferData, bufferData.position(), size, mMixBuffer,
+                monitorTrack != null ? mMonitorBuffer : null);
+        if (monitorTrack != null) {
+            monitorTrack.write(mMonitorBuffer, 0, size);
+        }
+        pushToEncoder(mMixBuffer, size, bufferInfo.presentationTimeUs);
+    }
+
+    /**
+     * the encoder copies data before returning
+     */
+    private void pushToEncoder(byte[] data, int size, long presentationTimeUs) {
+        AudioMediaEncoder audioEncoder = mAudioEncoder;
+        if (audioEncoder != null) {
+            PipelineLatency pipelineLatency = mPipelineLatency;
+            if (pipelineLatency != null) {
+                pipelineLatency.markEncoderInput(EncodedFrame.TRACK_AUDIO, presentationTimeUs,
+                        (System.nanoTime() - mEpochTimeInNs) / 1000);
+            }
+            audioEncoder.push(data, size, presentationTimeUs);
+            mEncoderInputFrames++;
+        }
+    }
+
     private MediaDecoderDevice.OnDecodeStateChangeListener mBGMDecodeStateListener
             = new MediaDecoderDevice.OnDecodeStateChangeListener() {
 
         @Override
         public void onFinish(boolean isSuccess) {
             Log.d(TAG, "BGM is over; isSuccess=" + isSuccess);
+            CachedBgm cachedBGM = mCachedBGM;
+            if (cachedBGM != null) {
+                cachedBGM.onDecodeFinished(isSuccess);
+            }
             if (!mIsStopped) {
                 Message msg = new Message();
                 msg.what = MSG_BGM_FINISHED;
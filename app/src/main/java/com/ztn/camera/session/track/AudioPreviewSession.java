@@ -8,6 +8,9 @@ import com.baidu.cloud.mediaprocess.device.MediaDecoderDevice;
 import com.baidu.cloud.mediaprocess.filter.AudioFilter;
 import com.baidu.cloud.mediaprocess.listener.OnDeviceFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.audio.CachedBgm;
+import com.ztn.camera.audio.LoopingPcmReader;
+import com.ztn.camera.audio.PcmCache;
 import com.ztn.camera.session.HandlerThreadSession;
 import java.nio.ByteBuffer;
 
@@ -22,8 +25,15 @@ import static com.ztn.camera.session.Constraints.MSG_BGM_FINISHED;
 public class AudioPreviewSession extends HandlerThreadSession {
     private static final String TAG = "AudioPreviewSession";
 
+    // the filter plays at this rate
+    private static final int PREVIEW_SAMPLE_RATE = 44100;
+
     private MediaDecoderDevice mBGMusicDevice;
     private int mBGMFilterTrack = -1;
+    private PcmCache mPcmCache;
+    // null while bgm is off or not cached
+    private volatile CachedBgm mCachedBGM;
+    private final MediaCodec.BufferInfo mBGMFilterInfo = new MediaCodec.BufferInfo();
     private AudioFilter mAudioFilter;
 
     public AudioPreviewSession() {
@@ -55,6 +65,13 @@ public class AudioPreviewSession extends HandlerThreadSession {
         mIsBGMLooping = isLooping;
     }
 
+    /**
+     * bgm is decoded once into the cache and played from there afterwards; null to always decode
+     */
+    public void setPcmCache(PcmCache pcmCache) {
+        mPcmCache = pcmCache;
+    }
+
     private long mClipStartPositionInUSec = -1;
     private long mClipDurationInUSec = -1;
 
@@ -84,6 +101,22 @@ public class AudioPreviewSession extends HandlerThreadSession {
             mBGMusicDevice.release();
             mBGMusicDevice = null;
         }
+        if (mBGMFilterTrack < 0) { // default is -1
+            mBGMFilterTrack = mAudioFilter.addSubTrack();
+        }
+        // decoded once, then looped from the cache
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM == null && mPcmCache != null) {
+            cachedBGM = new CachedBgm(mPcmCache, mBGMFilePath, mClipStartPositionInUSec, mClipDurationInUSec,
+                    PREVIEW_SAMPLE_RATE, 4);
+            mCachedBGM = cachedBGM;
+        }
+        if (cachedBGM != null) {
+            if (cachedBGM.startPlaying(mIsBGMLooping)) {
+                return;
+            }
+            cachedBGM.startCaching();
+        }
         try {
             mBGMusicDevice = new MediaDecoderDevice(mBGMFilePath);
             mBGMusicDevice.setup();
@@ -92,9 +125,6 @@ public class AudioPreviewSession extends HandlerThreadSession {
             mBGMusicDevice.setExtractAudioEnabled(true);
             mBGMusicDevice.setExtractVideoEnabled(false);
             mBGMusicDevice.setOnAudioDeviceFrameUpdateListener(mOnBGMusicDeviceUpdateListener);
-            if (mBGMFilterTrack < 0) { // default is -1
-                mBGMFilterTrack = mAudioFilter.addSubTrack();
-            }
             mBGMusicDevice.startDecoder();
         } catch (Exception e) {
             Log.d(TAG, Log.getStackTraceString(e));
@@ -106,12 +136,18 @@ public class AudioPreviewSession extends HandlerThreadSession {
      * invoke by stopAudioDevice
      */
     private void stopBGMDevice() {
+        // before the decoder, whose stop must not complete a cache entry
+        CachedBgm cachedBGM = mCachedBGM;
+        mCachedBGM = null;
+        if (cachedBGM != null) {
+            cachedBGM.close();
+        }
         if (mBGMusicDevice != null) {
             mBGMusicDevice.stopDecoder();
             mBGMusicDevice.release();
             mBGMusicDevice = null;
-            mBGMFilterTrack = -1;
         }
+        mBGMFilterTrack = -1;
     }
 
     /**
@@ -122,6 +158,10 @@ public class AudioPreviewSession extends HandlerThreadSession {
         if (mBGMusicDevice != null) {
             mBGMusicDevice.pause();
         }
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM != null) {
+            cachedBGM.setPaused(true);
+        }
     }
 
     /**
@@ -132,6 +172,10 @@ public class AudioPreviewSession extends HandlerThreadSession {
         if (mBGMusicDevice != null) {
             mBGMusicDevice.resume();
         }
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM != null) {
+            cachedBGM.setPaused(false);
+        }
     }
 
     public boolean startPreview() {
@@ -163,6 +207,10 @@ public class AudioPreviewSession extends HandlerThreadSession {
     private OnDeviceFrameUpdateListener mOnBGMusicDeviceUpdateListener = new OnDeviceFrameUpdateListener() {
         @Override
         public int onDeviceFrameUpdateSoon(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
+            CachedBgm cachedBGM = mCachedBGM;
+            if (cachedBGM != null && bufferData != null && bufferInfo.size > 0) {
+                cachedBGM.onDecoded(bufferData, bufferInfo.size);
+            }
             if (mBGMFilterTrack >= 0) {
                 if (bufferData != null && bufferInfo.size > 0) {
                     mAudioFilter.pushDataForSubTrack(bufferData, bufferInfo, mBGMFilterTrack);
@@ -188,6 +236,7 @@ public class AudioPreviewSession extends HandlerThreadSession {
                         mPreviewOverListener.onFinish(true, 0, null);
                     }
                 } else {
+                    feedCachedBGM(bufferData, bufferInfo);
                     mAudioFilter.pushDataForMasterTrack(bufferData, bufferInfo);
                 }
             }
@@ -195,6 +244,26 @@ public class AudioPreviewSession extends HandlerThreadSession {
         }
     };
 
+    /**
+     * as much cached bgm as the master track brings, ahead of it
+     */
+    private void feedCachedBGM(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM != null && bufferData != null && bufferInfo.size > 0) {
+            cachedBGM.feed(bufferInfo.size, mBGMFilterSink);
+        }
+    }
+
+    private LoopingPcmReader.Sink mBGMFilterSink = new LoopingPcmReader.Sink() {
+        @Override
+        public void write(ByteBuffer pcm, int offset, int size) {
+            if (mBGMFilterTrack >= 0) {
+                mBGMFilterInfo.size = size;
+                mAudioFilter.pushDataForSubTrack(pcm, mBGMFilterInfo, mBGMFilterTrack);
+            }
+        }
+    };
+
     public OnDeviceFrameUpdateListener getOnAudioFrameUpdateListener() {
         return mDeviceFrameUpdateListener;
     }
@@ -206,6 +275,10 @@ public class AudioPreviewSession extends HandlerThreadSession {
         @Override
         public void onFinish(boolean isSuccess) {
             Log.d(TAG, "BGM is over; isSuccess=" + isSuccess);
+            CachedBgm cachedBGM = mCachedBGM;
+            if (cachedBGM != null) {
+                cachedBGM.onDecodeFinished(isSuccess);
+            }
             if (!mIsStopped) {
                 Message msg = new Message();
                 msg.what = MSG_BGM_FINISHED;
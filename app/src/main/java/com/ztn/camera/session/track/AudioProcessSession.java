@@ -14,6 +14,9 @@ import com.baidu.cloud.mediaprocess.listener.OnDeviceFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFilteredFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.audio.CachedBgm;
+import com.ztn.camera.audio.LoopingPcmReader;
+import com.ztn.camera.audio.PcmCache;
 import com.ztn.camera.session.Constraints;
 import com.ztn.camera.session.HandlerThreadSession;
 
@@ -35,6 +38,10 @@ public class AudioProcessSession  extends HandlerThreadSession {
 
     private MediaDecoderDevice mBGMusicDevice;
     private int mBGMFilterTrack = -1;
+    private PcmCache mPcmCache;
+    // null while bgm is off or not cached
+    private volatile CachedBgm mCachedBGM;
+    private final MediaCodec.BufferInfo mBGMFilterInfo = new MediaCodec.BufferInfo();
     private AudioFilter mAudioFilter;
     private volatile AudioMediaEncoder mAudioEncoder;
 
@@ -76,6 +83,13 @@ public class AudioProcessSession  extends HandlerThreadSession {
         mIsBGMLooping = isLooping;
     }
 
+    /**
+     * bgm is decoded once into the cache and played from there afterwards; null to always decode
+     */
+    public void setPcmCache(PcmCache pcmCache) {
+        mPcmCache = pcmCache;
+    }
+
     /**
      * invoke by startAudioDevice
      */
@@ -85,6 +99,23 @@ public class AudioProcessSession  extends HandlerThreadSession {
             mBGMusicDevice.release();
             mBGMusicDevice = null;
         }
+        // when looping bgm, mBGMFilterTrack should not been reset
+        if (mBGMFilterTrack < 0) {
+            mBGMFilterTrack = mAudioFilter.addSubTrack();
+        }
+        // decoded once, then looped from the cache
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM == null && mPcmCache != null) {
+            cachedBGM = new CachedBgm(mPcmCache, mBGMFilePath, mClipStartPositionInUSec, mClipDurationInUSec,
+                    mSampleRateHz, mChannelCount * 2);
+            mCachedBGM = cachedBGM;
+        }
+        if (cachedBGM != null) {
+            if (cachedBGM.startPlaying(mIsBGMLooping)) {
+                return;
+            }
+            cachedBGM.startCaching();
+        }
         try {
             mBGMusicDevice = new MediaDecoderDevice(mBGMFilePath);
             mBGMusicDevice.setup();
@@ -94,12 +125,6 @@ public class AudioProcessSession  extends HandlerThreadSession {
             mBGMusicDevice.setExtractAudioEnabled(true);
             mBGMusicDevice.setExtractVideoEnabled(false);
             mBGMusicDevice.setOnAudioDeviceFrameUpdateListener(mOnBGMusicDeviceUpdateListener);
-
-            // when looping bgm, mBGMFilterTrack should not been reset
-            if (mBGMFilterTrack < 0) {
-                mBGMFilterTrack = mAudioFilter.addSubTrack();
-            }
-
             mBGMusicDevice.startDecoder();
         } catch (Exception e) {
             Log.d(TAG, Log.getStackTraceString(e));
@@ -131,12 +156,18 @@ public class AudioProcessSession  extends HandlerThreadSession {
      * invoke by stopAudioDevice
      */
     private void stopBGMDevice() {
+        // before the decoder, whose stop must not complete a cache entry
+        CachedBgm cachedBGM = mCachedBGM;
+        mCachedBGM = null;
+        if (cachedBGM != null) {
+            cachedBGM.close();
+        }
         if (mBGMusicDevice != null) {
             mBGMusicDevice.stopDecoder();
             mBGMusicDevice.release();
             mBGMusicDevice = null;
-            mBGMFilterTrack = -1;
         }
+        mBGMFilterTrack = -1;
     }
 
     private void startAudioDevice() {
@@ -225,6 +256,10 @@ public class AudioProcessSession  extends HandlerThreadSession {
         public int onDeviceFrameUpdateSoon(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
 //            Log.d(TAG, "bgm onDeviceFrameUpdateSoon pts=" + bufferInfo.presentationTimeUs + ";size="
 //                    + bufferInfo.size);
+            CachedBgm cachedBGM = mCachedBGM;
+            if (cachedBGM != null && bufferData != null && bufferInfo.size > 0) {
+                cachedBGM.onDecoded(bufferData, bufferInfo.size);
+            }
             if (mBGMFilterTrack >= 0) {
                 if (bufferData != null && bufferInfo.size > 0) {
                     mAudioFilter.pushDataForSubTrack(bufferData, bufferInfo, mBGMFilterTrack);
@@ -242,13 +277,33 @@ public class AudioProcessSession  extends HandlerThreadSession {
         @Override
         public int onDeviceFrameUpdateSoon(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
             if (mAudioFilter != null) {
-
+                feedCachedBGM(bufferData, bufferInfo);
                 mAudioFilter.pushDataForMasterTrack(bufferData, bufferInfo);
             }
             return 0;
         }
     };
 
+    /**
+     * as much cached bgm as the master track brings, ahead of it
+     */
+    private void feedCachedBGM(ByteBuffer bufferData, MediaCodec.BufferInfo bufferInfo) {
+        CachedBgm cachedBGM = mCachedBGM;
+        if (cachedBGM != null && bufferData != null && bufferInfo.size > 0) {
+            cachedBGM.feed(bufferInfo.size, mBGMFilterSink);
+        }
+    }
+
+    private LoopingPcmReader.Sink mBGMFilterSink = new LoopingPcmReader.Sink() {
+        @Override
+        public void write(ByteBuffer pcm, int offset, int size) {
+            if (mBGMFilterTrack >= 0) {
+                mBGMFilterInfo.size = size;
+                mAudioFilter.pushDataForSubTrack(pcm, mBGMFilterInfo, mBGMFilterTrack);
+            }
+        }
+    };
+
     public OnDeviceFrameUpdateListener getOnAudioFrameUpdateListener() {
         return mDeviceFrameUpdateListener;
     }
@@ -313,6 +368,10 @@ public class AudioProcessSession  extends HandlerThreadSession {
         @Override
         public void onFinish(boolean isSuccess) {
             Log.d(TAG, "BGM is over; isSuccess=" + isSuccess);
+            CachedBgm cachedBGM = mCachedBGM;
+            if (cachedBGM != null) {
+                cachedBGM.onDecodeFinished(isSuccess);
+            }
             if (!mIsStopped) {
                 Message msg = new Message();
                 msg.what = MSG_BGM_FINISHED;
@@ -19,14 +19,19 @@ import android.view.Surface;
 import android.view.WindowManager;
 
 import com.baidu.cloud.gpuimage.basefilters.GPUImageFilter;
-import com.baidu.cloud.mediaprocess.encoder.VideoMediaEncoder;
 import com.baidu.cloud.mediaprocess.filter.VideoFilter;
 import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFilteredFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.encoder.DefaultVideoEncoder;
+import com.ztn.camera.encoder.LowLatencyVideoEncoder;
+import com.ztn.camera.encoder.VideoEncoder;
+import com.ztn.camera.listener.ScreenShotListener;
 import com.ztn.camera.session.Constraints;
+import com.ztn.camera.snapshot.ScreenShotter;
 
+import java.io.File;
 import java.util.List;
 
 import androidx.annotation.RequiresApi;
@@ -42,7 +47,9 @@ public class ScreenCaptureSession {
     private static final String VCODEC = MediaFormat.MIMETYPE_VIDEO_AVC;
 
     private VideoFilter mVideoFilter;
-    private VideoMediaEncoder mVideoEncoder;
+    private ScreenShotter mScreenShotter;
+    private VideoEncoder mVideoEncoder;
+    private volatile boolean mIsLowLatencyEncoder = false;
 
     private MediaProjection mMediaProjection;
     private VirtualDisplay mVirtualDisplay;
@@ -133,6 +140,7 @@ public class ScreenCaptureSession {
 
         @Override
         public void onFilteredFrameUpdate(byte[] data, MediaCodec.BufferInfo info) {
+            mCapturedFrames++;
             // hardware
             if (mVideoEncoder != null) {
                 mVideoEncoder.frameAvailableSoon();
@@ -142,10 +150,27 @@ public class ScreenCaptureSession {
 
     OnEncodedFrameUpdateListener mOnEncodedFrameUpdateListener;
 
+    // written on the filter thread only
+    private volatile long mCapturedFrames = 0L;
+
+    /**
+     * frames that came through the filter towards the encoder since creation
+     */
+    public long getCapturedFrames() {
+        return mCapturedFrames;
+    }
+
     public void setOnEncodedFrameUpdateListener(OnEncodedFrameUpdateListener listener) {
         mOnEncodedFrameUpdateListener = listener;
     }
 
+    /**
+     * use {@link LowLatencyVideoEncoder} instead of the vendored encoder, from the next startEncoder
+     */
+    public void setLowLatencyEncoderEnabled(boolean isEnabled) {
+        mIsLowLatencyEncoder = isEnabled;
+    }
+
     /**
      * setup when start push!
      *
@@ -153,7 +178,7 @@ public class ScreenCaptureSession {
      */
     public boolean startEncoder() {
         try {
-            mVideoEncoder = new VideoMediaEncoder(VCODEC);
+            mVideoEncoder = mIsLowLatencyEncoder ? new LowLatencyVideoEncoder(VCODEC) : new DefaultVideoEncoder(VCODEC);
             mVideoEncoder.setOnProcessOverListener(mEncoderStatusListener);
             mVideoEncoder.setMediaFormatChangedListener(mMediaFormatChangedListener);
             if (mIsOrientationPortrait) {
@@ -238,6 +263,12 @@ public class ScreenCaptureSession {
             mVideoFilter.setPreviewSurface(null);
             mVideoFilter.release();
         }
+        synchronized (this) {
+            if (mScreenShotter != null) {
+                mScreenShotter.release();
+                mScreenShotter = null;
+            }
+        }
         if (mVirtualDisplay != null) {
             mVirtualDisplay.release();
             mVirtualDisplay = null;
@@ -253,6 +284,7 @@ public class ScreenCaptureSession {
      * @param bitrateInKbps
      */
     public void changeBitrate(int bitrateInKbps) {
+        mBitrate = bitrateInKbps * 1000; // keep it if encoder is re-created
         if (mVideoEncoder != null) {
             mVideoEncoder.changeBitrate(bitrateInKbps);
         }
@@ -265,6 +297,32 @@ public class ScreenCaptureSession {
         return null;
     }
 
+    /**
+     * 异步截图：在后台线程读出当前画面，按需缩小后压缩写入文件，不阻塞调用线程
+     *
+     * @param file     目标文件
+     * @param maxEdge  图片长边上限（像素），0表示保持原尺寸
+     * @param format   压缩格式，JPEG、PNG或WEBP
+     * @param quality  压缩质量0-100，PNG忽略
+     * @param listener 结果回调，在截图线程中回调
+     */
+    public void takeScreenShot(File file, int maxEdge, Bitmap.CompressFormat format, int quality,
+                               ScreenShotListener listener) {
+        ScreenShotter screenShotter;
+        synchronized (this) {
+            if (mScreenShotter == null) {
+                mScreenShotter = new ScreenShotter(new ScreenShotter.Source() {
+                    @Override
+                    public Bitmap getScreenShot() {
+                        return ScreenCaptureSession.this.getScreenShot();
+                    }
+                });
+            }
+            screenShotter = mScreenShotter;
+        }
+        screenShotter.takeScreenShot(file, maxEdge, format, quality, listener);
+    }
+
     /**
      * 设置滤镜列表
      *
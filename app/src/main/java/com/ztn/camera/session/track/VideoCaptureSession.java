@@ -4,20 +4,32 @@ import android.graphics.Bitmap;
 import android.hardware.Camera;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
 import com.baidu.cloud.gesturedetector.FaceDetector;
 import com.baidu.cloud.gpuimage.basefilters.GPUImageFilter;
-import com.baidu.cloud.mediaprocess.device.CameraCaptureDevice;
-import com.baidu.cloud.mediaprocess.encoder.VideoMediaEncoder;
 import com.baidu.cloud.mediaprocess.filter.VideoFilter;
 import com.baidu.cloud.mediaprocess.listener.MediaFormatChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFilteredFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.capture.CameraCaptureSource;
+import com.ztn.camera.capture.VideoCaptureSource;
+import com.ztn.camera.encoder.DefaultVideoEncoder;
+import com.ztn.camera.encoder.LowLatencyVideoEncoder;
+import com.ztn.camera.encoder.VideoEncoder;
+import com.ztn.camera.listener.ScreenShotListener;
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.qos.FrameRateLimiter;
 import com.ztn.camera.session.Constraints;
+import com.ztn.camera.snapshot.ScreenShotter;
+import com.ztn.camera.stats.PipelineLatency;
 
+import java.io.File;
 import java.util.List;
 
 /**
@@ -31,12 +43,18 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
     private static final String VCODEC = MediaFormat.MIMETYPE_VIDEO_AVC;
 
     private VideoFilter mVideoFilter;
-    private CameraCaptureDevice mCameraCaptureDevice;
+    private ScreenShotter mScreenShotter;
+    private VideoCaptureSource mCaptureSource;
     private int mCameraRotation;
-    private VideoMediaEncoder mVideoEncoder;
+    private VideoEncoder mVideoEncoder;
+    private volatile boolean mIsLowLatencyEncoder = false;
 
     private int mTargetWidth;
     private int mTargetHeight;
+    // encode size can be switched while streaming, the camera keeps the target size
+    private volatile int mEncodeWidth;
+    private volatile int mEncodeHeight;
+    private final int mOutputOrientation;
     private int mBitrate;
     private int mFps;
     private int mGopLengthInSeconds;
@@ -46,6 +64,14 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
     private int previewWidth = -1;
     private int previewHeight = -1;
 
+    private volatile long mEpochTimeInNs = 0L;
+    private volatile PipelineLatency mPipelineLatency;
+
+    private final boolean mIsVideoEnabled;
+    private final FrameRateLimiter mFrameRateLimiter;
+    // created on the filter thread, which has a looper
+    private volatile Handler mFilterHandler;
+
 //    private boolean mIsEnergySaving = false;
 
     public VideoCaptureSession(int targetWidth, int targetHeight,
@@ -54,24 +80,39 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
         // get portrait inner
         mTargetWidth = targetWidth;
         mTargetHeight = targetHeight;
+        mEncodeWidth = targetWidth;
+        mEncodeHeight = targetHeight;
+        mOutputOrientation = outputOrientation;
         mCameraRotation = cameraRotation;
         mDefaultCameraId = defaultCameraId;
 //        mIsEnergySaving = isEnergySaving;
         mBitrate = bitrate;
         mFps = fps;
         mGopLengthInSeconds = gopInSeconds;
+        mIsVideoEnabled = isVideoEnabled;
+        mFrameRateLimiter = new FrameRateLimiter(fps, gopInSeconds);
 
         mVideoFilter = new VideoFilter();
         mVideoFilter.setEncodingEnabled(isVideoEnabled);
         mVideoFilter.setup();
 
-        mCameraCaptureDevice = new CameraCaptureDevice(mTargetWidth, mTargetHeight, mFps,
+        mCaptureSource = new CameraCaptureSource(mTargetWidth, mTargetHeight, mFps,
                 mDefaultCameraId, cameraRotation);
 
         mVideoFilter.setEncodeSize(mTargetWidth, mTargetHeight, outputOrientation);
     }
 
+    /**
+     * 替换采集源，默认为摄像头；须在预览开始之前调用
+     *
+     * @param captureSource
+     */
+    public void setCaptureSource(VideoCaptureSource captureSource) {
+        mCaptureSource = captureSource;
+    }
+
     public void setEpochTimeInNs(long epochTimeInNs) {
+        mEpochTimeInNs = epochTimeInNs;
         if (mVideoFilter != null) {
             mVideoFilter.setEpochTimeInNs(epochTimeInNs);
         }
@@ -82,15 +123,86 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
 
         @Override
         public void onFilteredFrameUpdate(byte[] data, MediaCodec.BufferInfo info) {
+            mCapturedFrames++;
+            long nowUs = (System.nanoTime() - mEpochTimeInNs) / 1000;
+            PipelineLatency pipelineLatency = mPipelineLatency;
+            if (pipelineLatency != null && info != null) {
+                pipelineLatency.markEncoderInput(EncodedFrame.TRACK_VIDEO, info.presentationTimeUs, nowUs);
+            }
             // hardware
             if (mVideoEncoder != null) {
                 mVideoEncoder.frameAvailableSoon();
+                if (info != null) {
+                    limitFrameRate(info.presentationTimeUs, nowUs);
+                }
             }
         }
     };
 
+    private final Runnable mResumeEncodingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mIsVideoEnabled) {
+                mVideoFilter.setEncodingEnabled(true);
+            }
+        }
+    };
+
+    /**
+     * filter thread, after a frame went to the encoder: turn submission off until the next frame
+     * is due, the pts of the frames that do go in are untouched
+     */
+    private void limitFrameRate(long ptsUs, long nowUs) {
+        if (mFrameRateLimiter.isKeyFrameDue(ptsUs) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            requestKeyFrame();
+        }
+        long skipUs = mFrameRateLimiter.onFrameSubmitted(ptsUs, nowUs);
+        if (skipUs <= 0) {
+            return;
+        }
+        if (mFilterHandler == null) {
+            Looper looper = Looper.myLooper();
+            if (looper == null) {
+                return;
+            }
+            mFilterHandler = new Handler(looper);
+        }
+        mVideoFilter.setEncodingEnabled(false);
+        mFilterHandler.postDelayed(mResumeEncodingRunnable, skipUs / 1000);
+    }
+
+    /**
+     * 设置编码帧率，不高于采集帧率；低于采集帧率时跳过部分采集帧，时间戳和按秒计的GOP长度不变
+     *
+     * @param fps
+     */
+    public void setEncodeFps(int fps) {
+        mFrameRateLimiter.setTargetFps(fps);
+    }
+
+    public int getEncodeFps() {
+        return mFrameRateLimiter.getTargetFps();
+    }
+
     OnEncodedFrameUpdateListener mOnEncodedFrameUpdateListener;
 
+    // written on the filter thread only
+    private volatile long mCapturedFrames = 0L;
+
+    /**
+     * frames that came through the filter towards the encoder since creation
+     */
+    public long getCapturedFrames() {
+        return mCapturedFrames;
+    }
+
+    /**
+     * record the filter stage and encoder input; the session marks encoder output
+     */
+    public void setPipelineLatency(PipelineLatency pipelineLatency) {
+        mPipelineLatency = pipelineLatency;
+    }
+
     public void setOnEncodedFrameUpdateListener(OnEncodedFrameUpdateListener listener) {
         mOnEncodedFrameUpdateListener = listener;
     }
@@ -99,17 +211,24 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
         mVideoFilter.setFaceDetector(faceDetector);
     }
 
+    /**
+     * use {@link LowLatencyVideoEncoder} instead of the vendored encoder, from the next startEncoder
+     */
+    public void setLowLatencyEncoderEnabled(boolean isEnabled) {
+        mIsLowLatencyEncoder = isEnabled;
+    }
+
     /**
      * setup when start push!
      *
      * @return
      */
-    public boolean startEncoder() {
+    public synchronized boolean startEncoder() {
         try {
-            mVideoEncoder = new VideoMediaEncoder(VCODEC);
+            mVideoEncoder = mIsLowLatencyEncoder ? new LowLatencyVideoEncoder(VCODEC) : new DefaultVideoEncoder(VCODEC);
             mVideoEncoder.setOnProcessOverListener(mEncoderStatusListener);
             mVideoEncoder.setMediaFormatChangedListener(mMediaFormatChangedListener);
-            mVideoEncoder.setupEncoder(mTargetWidth, mTargetHeight, mBitrate / 1000, mFps, mGopLengthInSeconds);
+            mVideoEncoder.setupEncoder(mEncodeWidth, mEncodeHeight, mBitrate / 1000, mFps, mGopLengthInSeconds);
 
             mVideoEncoder.setOnEncodedFrameUpdateListener(mOnEncodedFrameUpdateListener);
 
@@ -125,13 +244,70 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
         }
     }
 
+    /**
+     * 推流中切换编码分辨率，只重建视频编码器，预览和相机不受影响；
+     * 新编码器首帧为IDR，新的sps/pps在其之前通过MediaFormatChangedListener回调
+     *
+     * @return false if the new encoder could not be started
+     */
+    public synchronized boolean changeResolution(int width, int height) {
+        if (width == mEncodeWidth && height == mEncodeHeight) {
+            return true;
+        }
+        mEncodeWidth = width;
+        mEncodeHeight = height;
+        if (mVideoEncoder == null) {
+            // not encoding, takes effect with the next startEncoder
+            mVideoFilter.setEncodeSize(width, height, mOutputOrientation);
+            return true;
+        }
+        Log.i(TAG, "switch encode size to " + width + "x" + height);
+        stopEncoder();
+        mVideoFilter.setEncodeSize(width, height, mOutputOrientation);
+        return startEncoder();
+    }
+
+    /**
+     * rebuild the encoder with the current settings, e.g. after it stopped producing output;
+     * new sps/pps come through MediaFormatChangedListener before its first IDR
+     *
+     * @return false if not encoding or the new encoder could not be started
+     */
+    public synchronized boolean restartEncoder() {
+        if (mVideoEncoder == null) {
+            return false;
+        }
+        Log.i(TAG, "restart video encoder");
+        try {
+            stopEncoder();
+        } catch (Exception e) {
+            // a wedged codec may refuse to stop, the new one must start anyway
+            Log.e(TAG, "stop stalled video encoder failed. errorMsg=" + e.getMessage());
+            mVideoEncoder = null;
+        }
+        return startEncoder();
+    }
+
+    public int getEncodeWidth() {
+        return mEncodeWidth;
+    }
+
+    public int getEncodeHeight() {
+        return mEncodeHeight;
+    }
+
     public boolean requestKeyFrame() {
         return mVideoEncoder == null ? false : mVideoEncoder.requestKeyFrame();
     }
 
-    public void stopEncoder() {
+    public synchronized void stopEncoder() {
         mVideoFilter.setEncodeSurface(null);
         mVideoFilter.setOnFilteredFrameUpdateListener(null); // may nullexception in VideoFilter
+        Handler filterHandler = mFilterHandler;
+        if (filterHandler != null) {
+            filterHandler.removeCallbacks(mResumeEncodingRunnable);
+        }
+        mVideoFilter.setEncodingEnabled(mIsVideoEnabled);
         if (mVideoEncoder != null) {
             Log.i(TAG, "stop video encoder");
             mVideoEncoder.stop();
@@ -177,7 +353,7 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         Log.d(TAG, "surfaceCreated");
-        if (!mCameraCaptureDevice.openCamera(mTargetWidth, mTargetHeight, mFps, mDefaultCameraId)) {
+        if (!mCaptureSource.open(mTargetWidth, mTargetHeight, mFps, mDefaultCameraId)) {
             if (mInnerErrorListener != null) {
                 mInnerErrorListener.onFinish(false, Constraints.MSG_FAILED_ARG1_REASON_CAMERA, "camera open failed");
             }
@@ -186,14 +362,13 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
 
         if (mVideoFilter != null) {
             mVideoFilter.setPreviewSurface(holder.getSurface());
-            Camera.Size cameraSize = mCameraCaptureDevice.getCameraSize();
             // set camera size
-            mVideoFilter.setInputSize(cameraSize.width, cameraSize.height);
+            mVideoFilter.setInputSize(mCaptureSource.getWidth(), mCaptureSource.getHeight());
             // reset when switch camera
             mVideoFilter.setOutputHorizonFlip(isFrontCameraEncodeMirror ? false :
-                    mCameraCaptureDevice.getCurrentCameraId() == Camera.CameraInfo.CAMERA_FACING_FRONT);
+                    mCaptureSource.getCurrentCameraId() == Camera.CameraInfo.CAMERA_FACING_FRONT);
 
-            mCameraCaptureDevice.startCameraPreview(mVideoFilter.getFilterInputSurfaceTexture());
+            mCaptureSource.startPreview(mVideoFilter.getFilterInputSurfaceTexture());
             mVideoFilter.resume();
         }
 
@@ -222,7 +397,7 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.d(TAG, "surfaceDestroyed");
-        mCameraCaptureDevice.closeCamera();
+        mCaptureSource.close();
         if (mVideoFilter != null) {
             mVideoFilter.setPreviewSurface(null);
             mVideoFilter.pause();
@@ -245,12 +420,18 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
      * close video device. can stop device manually, not rely on surfaceDestroyed
      */
     public void stopVideoDevice() {
-        mCameraCaptureDevice.closeCamera();
+        mCaptureSource.close();
         if (mVideoFilter != null) {
             // FIXME mVideoFilter not use surfaceholder actually
             mVideoFilter.setPreviewSurface(null);
             mVideoFilter.release();
         }
+        synchronized (this) {
+            if (mScreenShotter != null) {
+                mScreenShotter.release();
+                mScreenShotter = null;
+            }
+        }
     }
 
     /**
@@ -259,6 +440,7 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
      * @param bitrateInKbps
      */
     public void changeBitrate(int bitrateInKbps) {
+        mBitrate = bitrateInKbps * 1000; // keep it if encoder is re-created
         if (mVideoEncoder != null) {
             mVideoEncoder.changeBitrate(bitrateInKbps);
         }
@@ -271,6 +453,32 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
         return null;
     }
 
+    /**
+     * 异步截图：在后台线程读出当前画面，按需缩小后压缩写入文件，不阻塞调用线程
+     *
+     * @param file     目标文件
+     * @param maxEdge  图片长边上限（像素），0表示保持原尺寸
+     * @param format   压缩格式，JPEG、PNG或WEBP
+     * @param quality  压缩质量0-100，PNG忽略
+     * @param listener 结果回调，在截图线程中回调
+     */
+    public void takeScreenShot(File file, int maxEdge, Bitmap.CompressFormat format, int quality,
+                               ScreenShotListener listener) {
+        ScreenShotter screenShotter;
+        synchronized (this) {
+            if (mScreenShotter == null) {
+                mScreenShotter = new ScreenShotter(new ScreenShotter.Source() {
+                    @Override
+                    public Bitmap getScreenShot() {
+                        return VideoCaptureSession.this.getScreenShot();
+                    }
+                });
+            }
+            screenShotter = mScreenShotter;
+        }
+        screenShotter.takeScreenShot(file, maxEdge, format, quality, listener);
+    }
+
     /**
      * 设置滤镜列表
      *
@@ -281,11 +489,11 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
     }
 
     public void toggleFlash(boolean flag) {
-        mCameraCaptureDevice.toggleFlash(flag);
+        mCaptureSource.toggleFlash(flag);
     }
 
     public boolean canSwitchCamera() {
-        return mCameraCaptureDevice.canSwitchCamera();
+        return mCaptureSource.canSwitchCamera();
     }
 
     public void switchCamera(int cameraId) {
@@ -295,16 +503,15 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
         mDefaultCameraId = cameraId;
 
         mVideoFilter.pause();
-        mCameraCaptureDevice.switchCamera(cameraId);
+        mCaptureSource.switchCamera(cameraId);
 
         // reopen camera, must set new mirror and camera size
         mVideoFilter.setOutputHorizonFlip(isFrontCameraEncodeMirror ? false :
-                mCameraCaptureDevice.getCurrentCameraId() == Camera.CameraInfo.CAMERA_FACING_FRONT);
-        Camera.Size cameraSize = mCameraCaptureDevice.getCameraSize();
-        mVideoFilter.setInputSize(cameraSize.width, cameraSize.height);
+                mCaptureSource.getCurrentCameraId() == Camera.CameraInfo.CAMERA_FACING_FRONT);
+        mVideoFilter.setInputSize(mCaptureSource.getWidth(), mCaptureSource.getHeight());
         mVideoFilter.resume(); // re-create preview internals
 
-        mCameraCaptureDevice.startCameraPreview(mVideoFilter.getFilterInputSurfaceTexture());
+        mCaptureSource.startPreview(mVideoFilter.getFilterInputSurfaceTexture());
     }
 
     /**
@@ -315,7 +522,7 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
      */
     public void focusToPoint(int x, int y) {
         if (previewWidth != -1 && previewHeight != -1) {
-            mCameraCaptureDevice.focusToPoint(x, y, previewWidth, previewHeight);
+            mCaptureSource.focusToPoint(x, y, previewWidth, previewHeight);
         }
     }
 
@@ -323,7 +530,7 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
      * 获取相机最大的放大因子
      */
     public int getMaxZoomFactor() {
-        return mCameraCaptureDevice.getMaxZoomFactor();
+        return mCaptureSource.getMaxZoomFactor();
     }
 
     /**
@@ -332,6 +539,6 @@ public class VideoCaptureSession implements SurfaceHolder.Callback {
      * @param factor
      */
     public boolean setZoomFactor(int factor) {
-        return mCameraCaptureDevice.setZoomFactor(factor);
+        return mCaptureSource.setZoomFactor(factor);
     }
 }
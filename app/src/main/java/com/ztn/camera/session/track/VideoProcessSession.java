@@ -16,6 +16,7 @@ import com.baidu.cloud.mediaprocess.listener.OnDeviceVideoSizeChangedListener;
 import com.baidu.cloud.mediaprocess.listener.OnEncodedFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFilteredFrameUpdateListener;
 import com.baidu.cloud.mediaprocess.listener.OnFinishListener;
+import com.ztn.camera.push.NalUnitScanner;
 import com.ztn.camera.session.Constraints;
 
 import java.nio.ByteBuffer;
@@ -140,6 +141,8 @@ public class VideoProcessSession {
     }
 
     private volatile long lastPts = 0L;
+    // encoder thread only
+    private final NalUnitScanner mVideoNalScanner = new NalUnitScanner();
 
     private OnEncodedFrameUpdateListener mOnEncodedFrameUpdateListener = new OnEncodedFrameUpdateListener() {
 
@@ -150,11 +153,10 @@ public class VideoProcessSession {
 //                    Log.d(TAG, "mediamuxer write video sample size=" + bufferInfo.size + ";pts=" + bufferInfo.presentationTimeUs);
                     long pts = bufferInfo.presentationTimeUs;
 
-                    if (pts == 0) { // first encode: audio config or sps, pts is 0
-                        if (bufferInfo.size < 100) {
-                            // pts is 0 and is sps,pps; we already have this in output format
-                            return;
-                        }
+                    if (mVideoNalScanner.scan(bufferData, bufferInfo.offset, bufferInfo.size)
+                            .isParameterSetsOnly()) {
+                        // sps,pps; we already have this in output format
+                        return;
                     }
                     if (pts < lastPts) {
                         bufferInfo.presentationTimeUs = lastPts + 1;
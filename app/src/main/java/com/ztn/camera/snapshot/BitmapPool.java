@@ -0,0 +1,58 @@
+package com.ztn.camera.snapshot;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ * a few ARGB_8888 bitmaps kept for reuse by size
+ * <p>
+ * screenshots come in one or two sizes, so a bitmap is reused when the size matches exactly and the
+ * least recently released one is recycled when the pool is full. not thread safe.
+ */
+public class BitmapPool {
+
+    private final int mMaxCount;
+    private final ArrayList<Bitmap> mFree = new ArrayList<Bitmap>();
+    private int mAllocationCount = 0;
+
+    public BitmapPool(int maxCount) {
+        mMaxCount = Math.max(1, maxCount);
+    }
+
+    public Bitmap acquire(int width, int height) {
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mFree.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                mFree.remove(i);
+                return bitmap;
+            }
+        }
+        mAllocationCount++;
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (mFree.size() >= mMaxCount) {
+            mFree.remove(0).recycle();
+        }
+        mFree.add(bitmap);
+    }
+
+    /**
+     * bitmaps created since the pool was made; stays flat once the sizes in use are pooled
+     */
+    public int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    public void clear() {
+        for (Bitmap bitmap : mFree) {
+            bitmap.recycle();
+        }
+        mFree.clear();
+    }
+}
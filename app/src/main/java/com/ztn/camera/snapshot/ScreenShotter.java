@@ -0,0 +1,157 @@
+package com.ztn.camera.snapshot;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ztn.camera.listener.ScreenShotListener;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * screenshots off the caller's thread, into pooled bitmaps, compressed to a file
+ * <p>
+ * the filter reads a frame back into one bitmap of its own, overwritten by the next screenshot, and
+ * blocks the caller until then. here the wait, the copy (downscaled if asked) into a pooled bitmap and
+ * the compression all run on one background thread; requests are served in order.
+ */
+public class ScreenShotter {
+
+    private static final String TAG = "ScreenShotter";
+    private static final int POOL_SIZE = 2;
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * where frames come from, e.g. the video filter
+     */
+    public interface Source {
+        Bitmap getScreenShot();
+    }
+
+    private final Source mSource;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    // shot thread
+    private final BitmapPool mPool = new BitmapPool(POOL_SIZE);
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mDstRect = new Rect();
+
+    public ScreenShotter(Source source) {
+        mSource = source;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * @param maxEdge longer side of the picture, 0 to keep the frame size
+     * @param quality 0-100, ignored for png
+     */
+    public void takeScreenShot(final File file, final int maxEdge, final Bitmap.CompressFormat format,
+                               final int quality, final ScreenShotListener listener) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                shoot(file, maxEdge, format, quality, listener);
+            }
+        });
+    }
+
+    /**
+     * pending screenshots still run, then the pool is freed
+     */
+    public void release() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPool.clear();
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    private void shoot(File file, int maxEdge, Bitmap.CompressFormat format, int quality,
+                       ScreenShotListener listener) {
+        long startMs = SystemClock.elapsedRealtime();
+        Bitmap bitmap = null;
+        boolean isSuccess = false;
+        int width = 0;
+        int height = 0;
+        int waitMs = 0;
+        try {
+            Bitmap frame = mSource.getScreenShot();
+            long readMs = SystemClock.elapsedRealtime();
+            waitMs = (int) (readMs - startMs);
+            if (frame == null || frame.isRecycled()) {
+                return;
+            }
+            int size = fitSize(frame.getWidth(), frame.getHeight(), maxEdge);
+            width = size >>> 16;
+            height = size & 0xffff;
+            bitmap = mPool.acquire(width, height);
+            mCanvas.setBitmap(bitmap);
+            mDstRect.set(0, 0, width, height);
+            mCanvas.drawBitmap(frame, null, mDstRect, mPaint);
+            mCanvas.setBitmap(null);
+            isSuccess = compress(bitmap, file, format, quality);
+            if (isSuccess && listener != null) {
+                int encodeMs = (int) (SystemClock.elapsedRealtime() - readMs);
+                Log.d(TAG, width + "x" + height + " wait " + waitMs + "ms encode " + encodeMs
+                        + "ms, bitmaps allocated " + mPool.getAllocationCount());
+                listener.onScreenShot(file, width, height, waitMs, encodeMs);
+            }
+        } finally {
+            mPool.release(bitmap);
+            if (!isSuccess) {
+                Log.d(TAG, "screenshot failed after " + waitMs + "ms: " + file);
+                if (listener != null) {
+                    listener.onScreenShotFailed(file);
+                }
+            }
+        }
+    }
+
+    private static boolean compress(Bitmap bitmap, File file, Bitmap.CompressFormat format, int quality) {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file), FILE_BUFFER_SIZE);
+            return bitmap.compress(format, quality, out);
+        } catch (IOException e) {
+            Log.d(TAG, "write failed: " + e.getMessage());
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * scale width x height down so the longer side is at most maxEdge, keeping the aspect ratio
+     *
+     * @return width << 16 | height
+     */
+    static int fitSize(int width, int height, int maxEdge) {
+        int longEdge = Math.max(width, height);
+        if (maxEdge <= 0 || longEdge <= maxEdge) {
+            return width << 16 | height;
+        }
+        int scaledWidth = Math.max(1, (int) ((long) width * maxEdge / longEdge));
+        int scaledHeight = Math.max(1, (int) ((long) height * maxEdge / longEdge));
+        return scaledWidth << 16 | scaledHeight;
+    }
+}
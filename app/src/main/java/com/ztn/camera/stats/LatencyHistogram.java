@@ -0,0 +1,109 @@
+package com.ztn.camera.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * fixed-bucket latency histogram in the spirit of HdrHistogram: buckets are powers of two split into
+ * 16 linear sub-buckets, so any value is kept within 1/16 (~6%) of its true size
+ * <p>
+ * record is lock-free and does not allocate, safe from any number of threads. reads are not an atomic
+ * snapshot, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * values from 2^40 up (~12 days in us) share the last bucket
+     */
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong(0L);
+    private final AtomicLong mTotalValue = new AtomicLong(0L);
+    private final AtomicLong mMaxValue = new AtomicLong(0L);
+
+    /**
+     * @param value negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(bucketIndex(value));
+        mTotalCount.incrementAndGet();
+        mTotalValue.addAndGet(value);
+        long max = mMaxValue.get();
+        while (value > max && !mMaxValue.compareAndSet(max, value)) {
+            max = mMaxValue.get();
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMax() {
+        return mMaxValue.get();
+    }
+
+    public long getMean() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0L : mTotalValue.get() / count;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return highest value that falls into the same bucket as the value at this percentile, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += mCounts.get(i);
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        long target = Math.max(1L, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * total));
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), mMaxValue.get());
+            }
+        }
+        return mMaxValue.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0L);
+        }
+        mTotalCount.set(0L);
+        mTotalValue.set(0L);
+        mMaxValue.set(0L);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
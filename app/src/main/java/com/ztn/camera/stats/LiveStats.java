@@ -0,0 +1,163 @@
+package com.ztn.camera.stats;
+
+import java.util.Locale;
+
+/**
+ * 直播统计快照
+ * <p>
+ * immutable, one per stats interval, see {@link com.ztn.camera.listener.SessionStatsListener#onStats}.
+ * rates cover the last interval, dropped frames are totals since start.
+ */
+public final class LiveStats {
+
+    /**
+     * encoder output while paused
+     */
+    public static final int DROP_REASON_PAUSED = 0;
+    /**
+     * video before the first key frame, and audio with it
+     */
+    public static final int DROP_REASON_NO_KEY_FRAME = 1;
+    /**
+     * dropped by priority in a send queue to keep latency bound
+     */
+    public static final int DROP_REASON_CONGESTION = 2;
+    /**
+     * a writer fell seconds behind and its ring was full
+     */
+    public static final int DROP_REASON_OVERFLOW = 3;
+    public static final int DROP_REASON_COUNT = 4;
+
+    private final long mTimestampMs;
+    private final long mIntervalMs;
+    private final float mCaptureFps;
+    private final float mEncodedFps;
+    private final int mVideoBitrateBps;
+    private final int mAudioBitrateBps;
+    private final long[] mDroppedFrames;
+    private final long mSendQueueBytes;
+    private final long mAckLagBytes;
+    private final long mVideoEncoderLatencyUs;
+    private final long mAudioEncoderLatencyUs;
+    private final int mVideoFrameSizeStdDev;
+    private final int mMaxVideoFrameBytes;
+
+    LiveStats(long timestampMs, long intervalMs, float captureFps, float encodedFps, int videoBitrateBps,
+              int audioBitrateBps, long[] droppedFrames, long sendQueueBytes, long ackLagBytes,
+              long videoEncoderLatencyUs, long audioEncoderLatencyUs, int videoFrameSizeStdDev,
+              int maxVideoFrameBytes) {
+        mTimestampMs = timestampMs;
+        mIntervalMs = intervalMs;
+        mCaptureFps = captureFps;
+        mEncodedFps = encodedFps;
+        mVideoBitrateBps = videoBitrateBps;
+        mAudioBitrateBps = audioBitrateBps;
+        mDroppedFrames = droppedFrames.clone();
+        mSendQueueBytes = sendQueueBytes;
+        mAckLagBytes = ackLagBytes;
+        mVideoEncoderLatencyUs = videoEncoderLatencyUs;
+        mAudioEncoderLatencyUs = audioEncoderLatencyUs;
+        mVideoFrameSizeStdDev = videoFrameSizeStdDev;
+        mMaxVideoFrameBytes = maxVideoFrameBytes;
+    }
+
+    /**
+     * monotonic time of the sample, System.nanoTime() in ms
+     */
+    public long getTimestampMs() {
+        return mTimestampMs;
+    }
+
+    public long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /**
+     * frames from camera or screen into the encoder
+     */
+    public float getCaptureFps() {
+        return mCaptureFps;
+    }
+
+    /**
+     * video frames out of the encoder
+     */
+    public float getEncodedFps() {
+        return mEncodedFps;
+    }
+
+    public int getVideoBitrateBps() {
+        return mVideoBitrateBps;
+    }
+
+    public int getAudioBitrateBps() {
+        return mAudioBitrateBps;
+    }
+
+    /**
+     * @param reason one of DROP_REASON_*
+     */
+    public long getDroppedFrames(int reason) {
+        return mDroppedFrames[reason];
+    }
+
+    public long getTotalDroppedFrames() {
+        long total = 0L;
+        for (long dropped : mDroppedFrames) {
+            total += dropped;
+        }
+        return total;
+    }
+
+    /**
+     * deepest send queue of all destinations; 0 when not pushing
+     */
+    public long getSendQueueBytes() {
+        return mSendQueueBytes;
+    }
+
+    /**
+     * bytes sent but not yet acknowledged by the server, worst destination; -1 if unknown
+     */
+    public long getAckLagBytes() {
+        return mAckLagBytes;
+    }
+
+    /**
+     * median time from capture pts to encoder output over the interval; -1 without frames
+     */
+    public long getVideoEncoderLatencyUs() {
+        return mVideoEncoderLatencyUs;
+    }
+
+    public long getAudioEncoderLatencyUs() {
+        return mAudioEncoderLatencyUs;
+    }
+
+    /**
+     * standard deviation of encoded video frame sizes over the interval, in bytes; key frame bursts show here
+     */
+    public int getVideoFrameSizeStdDev() {
+        return mVideoFrameSizeStdDev;
+    }
+
+    /**
+     * largest encoded video frame of the interval, in bytes
+     */
+    public int getMaxVideoFrameBytes() {
+        return mMaxVideoFrameBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "capture %.1ffps, encoded %.1ffps, video %dkbps, audio %dkbps, "
+                        + "dropped %d/%d/%d/%d (paused/no key/congestion/overflow), queued %d bytes, "
+                        + "ack lag %d bytes, encoder latency video %.1fms audio %.1fms, "
+                        + "video frame size sd %d max %d bytes",
+                mCaptureFps, mEncodedFps, mVideoBitrateBps / 1000, mAudioBitrateBps / 1000,
+                mDroppedFrames[DROP_REASON_PAUSED], mDroppedFrames[DROP_REASON_NO_KEY_FRAME],
+                mDroppedFrames[DROP_REASON_CONGESTION], mDroppedFrames[DROP_REASON_OVERFLOW],
+                mSendQueueBytes, mAckLagBytes, mVideoEncoderLatencyUs / 1000.0, mAudioEncoderLatencyUs / 1000.0,
+                mVideoFrameSizeStdDev, mMaxVideoFrameBytes);
+    }
+}
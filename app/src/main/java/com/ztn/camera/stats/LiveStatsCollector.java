@@ -0,0 +1,171 @@
+package com.ztn.camera.stats;
+
+import com.ztn.camera.push.EncodedFrame;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * counters behind {@link LiveStats}
+ * <p>
+ * the encoder callbacks only increment: each counter sits in its own cache line of one AtomicLongArray,
+ * so the audio and video threads never share a line and sampling never takes a lock they wait on.
+ * {@link #sample} runs on one thread, e.g. the session handler thread, and turns totals into rates.
+ */
+public class LiveStatsCollector {
+
+    private static final int VIDEO_FRAMES = 0;
+    private static final int VIDEO_BYTES = 1;
+    private static final int AUDIO_FRAMES = 2;
+    private static final int AUDIO_BYTES = 3;
+    private static final int DROPPED_PAUSED = 4;
+    private static final int DROPPED_NO_KEY_FRAME = 5;
+    private static final int VIDEO_BYTES_SQUARED = 6;
+    private static final int COUNTER_COUNT = 7;
+    /**
+     * not a total: largest video frame since the last sample, swapped out by it
+     */
+    private static final int MAX_VIDEO_FRAME_BYTES = COUNTER_COUNT;
+    /**
+     * 16 longs, 128 bytes between counters
+     */
+    private static final int STRIDE = 16;
+
+    private final AtomicLongArray mCounters = new AtomicLongArray((COUNTER_COUNT + 1) * STRIDE);
+    /**
+     * capture pts to encoder output, per track; reset every sample
+     */
+    private final LatencyHistogram[] mEncoderLatency = {new LatencyHistogram(), new LatencyHistogram()};
+
+    // sampling thread only
+    private final long[] mLastCounters = new long[COUNTER_COUNT];
+    private long mLastCapturedFrames = 0L;
+    private long mLastSampleMs = -1L;
+    private volatile LiveStats mLatestStats;
+
+    /**
+     * encoder output thread
+     *
+     * @param latencyUs capture clock now minus the frame's capture pts
+     */
+    public void onEncodedFrame(int trackType, int size, long latencyUs) {
+        if (trackType == EncodedFrame.TRACK_VIDEO) {
+            increment(VIDEO_FRAMES, 1);
+            increment(VIDEO_BYTES, size);
+            increment(VIDEO_BYTES_SQUARED, (long) size * size);
+            long maxSize = mCounters.get(MAX_VIDEO_FRAME_BYTES * STRIDE);
+            // the sampler swaps the slot out concurrently
+            while (size > maxSize && !mCounters.compareAndSet(MAX_VIDEO_FRAME_BYTES * STRIDE, maxSize, size)) {
+                maxSize = mCounters.get(MAX_VIDEO_FRAME_BYTES * STRIDE);
+            }
+        } else {
+            increment(AUDIO_FRAMES, 1);
+            increment(AUDIO_BYTES, size);
+        }
+        mEncoderLatency[trackType].record(latencyUs);
+    }
+
+    /**
+     * a frame the session itself did not pass on
+     *
+     * @param reason {@link LiveStats#DROP_REASON_PAUSED} or {@link LiveStats#DROP_REASON_NO_KEY_FRAME}
+     */
+    public void onFrameDropped(int reason) {
+        increment(reason == LiveStats.DROP_REASON_PAUSED ? DROPPED_PAUSED : DROPPED_NO_KEY_FRAME, 1);
+    }
+
+    /**
+     * the first call only sets the baseline and returns null
+     *
+     * @param capturedFrames    total frames captured, from the capture session
+     * @param congestionDropped total frames dropped by send queues
+     * @param overflowDropped   total frames dropped by full writer rings
+     * @param sendQueueBytes    current depth of the deepest send queue
+     * @param ackLagBytes       worst unacknowledged bytes, -1 if unknown
+     */
+    public synchronized LiveStats sample(long nowMs, long capturedFrames, long congestionDropped,
+                                         long overflowDropped, long sendQueueBytes, long ackLagBytes) {
+        long[] counters = new long[COUNTER_COUNT];
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            counters[i] = mCounters.get(i * STRIDE);
+        }
+        long maxVideoFrameBytes = mCounters.getAndSet(MAX_VIDEO_FRAME_BYTES * STRIDE, 0L);
+        long videoLatencyUs = encoderLatencyUs(EncodedFrame.TRACK_VIDEO);
+        long audioLatencyUs = encoderLatencyUs(EncodedFrame.TRACK_AUDIO);
+        long lastSampleMs = mLastSampleMs;
+        long lastCapturedFrames = mLastCapturedFrames;
+        long[] lastCounters = mLastCounters.clone();
+        System.arraycopy(counters, 0, mLastCounters, 0, COUNTER_COUNT);
+        mLastCapturedFrames = capturedFrames;
+        mLastSampleMs = nowMs;
+        if (lastSampleMs < 0 || nowMs <= lastSampleMs) {
+            return null;
+        }
+
+        long intervalMs = nowMs - lastSampleMs;
+        long[] droppedFrames = new long[LiveStats.DROP_REASON_COUNT];
+        droppedFrames[LiveStats.DROP_REASON_PAUSED] = counters[DROPPED_PAUSED];
+        droppedFrames[LiveStats.DROP_REASON_NO_KEY_FRAME] = counters[DROPPED_NO_KEY_FRAME];
+        droppedFrames[LiveStats.DROP_REASON_CONGESTION] = congestionDropped;
+        droppedFrames[LiveStats.DROP_REASON_OVERFLOW] = overflowDropped;
+        LiveStats stats = new LiveStats(nowMs, intervalMs,
+                rate(capturedFrames - lastCapturedFrames, intervalMs),
+                rate(counters[VIDEO_FRAMES] - lastCounters[VIDEO_FRAMES], intervalMs),
+                (int) ((counters[VIDEO_BYTES] - lastCounters[VIDEO_BYTES]) * 8 * 1000 / intervalMs),
+                (int) ((counters[AUDIO_BYTES] - lastCounters[AUDIO_BYTES]) * 8 * 1000 / intervalMs),
+                droppedFrames, sendQueueBytes, ackLagBytes, videoLatencyUs, audioLatencyUs,
+                videoFrameSizeStdDev(counters, lastCounters), (int) maxVideoFrameBytes);
+        mLatestStats = stats;
+        return stats;
+    }
+
+    /**
+     * null before the second sample
+     */
+    public LiveStats getLatestStats() {
+        return mLatestStats;
+    }
+
+    /**
+     * new baseline, e.g. on start; callbacks may keep running
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            mCounters.set(i * STRIDE, 0L);
+            mLastCounters[i] = 0L;
+        }
+        mCounters.set(MAX_VIDEO_FRAME_BYTES * STRIDE, 0L);
+        mEncoderLatency[EncodedFrame.TRACK_AUDIO].reset();
+        mEncoderLatency[EncodedFrame.TRACK_VIDEO].reset();
+        mLastSampleMs = -1L;
+        mLatestStats = null;
+    }
+
+    private void increment(int counter, long delta) {
+        mCounters.addAndGet(counter * STRIDE, delta);
+    }
+
+    private long encoderLatencyUs(int trackType) {
+        LatencyHistogram histogram = mEncoderLatency[trackType];
+        if (histogram.getCount() == 0) {
+            return -1L;
+        }
+        long latencyUs = histogram.getValueAtPercentile(50);
+        // a record racing with this reset is lost, which is fine for a median
+        histogram.reset();
+        return latencyUs;
+    }
+
+    private static int videoFrameSizeStdDev(long[] counters, long[] lastCounters) {
+        long frames = counters[VIDEO_FRAMES] - lastCounters[VIDEO_FRAMES];
+        if (frames < 2) {
+            return 0;
+        }
+        double mean = (double) (counters[VIDEO_BYTES] - lastCounters[VIDEO_BYTES]) / frames;
+        double meanOfSquares = (double) (counters[VIDEO_BYTES_SQUARED] - lastCounters[VIDEO_BYTES_SQUARED]) / frames;
+        return (int) Math.sqrt(Math.max(0d, meanOfSquares - mean * mean));
+    }
+
+    private static float rate(long count, long intervalMs) {
+        return count * 1000f / intervalMs;
+    }
+}
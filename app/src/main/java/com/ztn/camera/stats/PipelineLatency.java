@@ -0,0 +1,164 @@
+package com.ztn.camera.stats;
+
+import com.ztn.camera.push.EncodedFrame;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * where the time goes between capture and the socket, one {@link LatencyHistogram} per stage, in us
+ * <p>
+ * capture-side stages are measured against the frame pts, which is stamped on the capture clock.
+ * encoder input and output are matched by pts in a small direct-mapped table, so nothing is allocated
+ * per frame; a frame whose slot was overwritten is simply not counted.
+ */
+public class PipelineLatency {
+
+    /**
+     * camera frame to filtered frame handed to the encoder surface (gpu filters, face detection)
+     */
+    public static final int STAGE_VIDEO_FILTER = 0;
+    /**
+     * filtered frame to encoded access unit
+     */
+    public static final int STAGE_VIDEO_ENCODE = 1;
+    /**
+     * mic capture to pcm delivered by the recorder device
+     */
+    public static final int STAGE_AUDIO_DEVICE = 2;
+    /**
+     * mic capture to mixed pcm handed to the encoder (bgm mix, gain)
+     */
+    public static final int STAGE_AUDIO_FILTER = 3;
+    /**
+     * pcm in to aac out
+     */
+    public static final int STAGE_AUDIO_ENCODE = 4;
+    /**
+     * encoder output to the writer thread picking the frame up (copy, ring, send queue)
+     */
+    public static final int STAGE_QUEUE = 5;
+    /**
+     * one frame through muxer and socket
+     */
+    public static final int STAGE_SEND = 6;
+    public static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "video filter", "video encode", "audio device", "audio filter", "audio encode", "queue", "send"
+    };
+
+    private static final int SLOT_BITS = 7;
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+    /**
+     * per track: pts and time each frame entered its encoder, indexed by track * SLOTS + slot
+     */
+    private final AtomicLongArray mInputPts = new AtomicLongArray(2 * SLOTS);
+    private final AtomicLongArray mInputTimeUs = new AtomicLongArray(2 * SLOTS);
+    private final AtomicLong mUnmatchedFrames = new AtomicLong(0L);
+
+    public PipelineLatency() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < 2 * SLOTS; i++) {
+            mInputPts.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    public void record(int stage, long latencyUs) {
+        mHistograms[stage].record(latencyUs);
+    }
+
+    /**
+     * a frame enters its encoder; records the capture-side stage before it
+     *
+     * @param trackType {@link EncodedFrame#TRACK_AUDIO} or {@link EncodedFrame#TRACK_VIDEO}
+     * @param ptsUs     capture pts
+     * @param nowUs     capture clock
+     */
+    public void markEncoderInput(int trackType, long ptsUs, long nowUs) {
+        record(trackType == EncodedFrame.TRACK_AUDIO ? STAGE_AUDIO_FILTER : STAGE_VIDEO_FILTER, nowUs - ptsUs);
+        int index = slot(trackType, ptsUs);
+        // time first: a reader that sees the pts sees its time
+        mInputTimeUs.lazySet(index, nowUs);
+        mInputPts.set(index, ptsUs);
+    }
+
+    /**
+     * an access unit leaves its encoder with the pts it went in with
+     */
+    public void markEncoderOutput(int trackType, long ptsUs, long nowUs) {
+        int index = slot(trackType, ptsUs);
+        if (mInputPts.get(index) != ptsUs) {
+            mUnmatchedFrames.incrementAndGet();
+            return;
+        }
+        long inputTimeUs = mInputTimeUs.get(index);
+        if (mInputPts.get(index) != ptsUs) {
+            // overwritten while reading
+            mUnmatchedFrames.incrementAndGet();
+            return;
+        }
+        record(trackType == EncodedFrame.TRACK_AUDIO ? STAGE_AUDIO_ENCODE : STAGE_VIDEO_ENCODE, nowUs - inputTimeUs);
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    /**
+     * @param percentile 0..100
+     */
+    public long getPercentileUs(int stage, double percentile) {
+        return mHistograms[stage].getValueAtPercentile(percentile);
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * encoder outputs whose input was not found, e.g. encoder changed the pts
+     */
+    public long getUnmatchedFrames() {
+        return mUnmatchedFrames.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mUnmatchedFrames.set(0L);
+    }
+
+    /**
+     * one line per stage with samples: count, mean, p50/p90/p99, max in ms
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder("pipeline latency (ms):");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            builder.append(String.format(Locale.US, "\n  %-12s n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                    STAGE_NAMES[i], histogram.getCount(), histogram.getMean() / 1000.0,
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0, histogram.getMax() / 1000.0));
+        }
+        long unmatched = mUnmatchedFrames.get();
+        if (unmatched > 0) {
+            builder.append("\n  unmatched encoder outputs: ").append(unmatched);
+        }
+        return builder.toString();
+    }
+
+    private static int slot(int trackType, long ptsUs) {
+        int hash = (int) ((ptsUs * 0x9E3779B97F4A7C15L) >>> (64 - SLOT_BITS));
+        return trackType * SLOTS + hash;
+    }
+}
@@ -0,0 +1,165 @@
+package com.ztn.camera.stats;
+
+import com.ztn.camera.push.NalUnitScanner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 端到端延迟测量：视频帧内携带采集时间的SEI
+ * <p>
+ * an h.264 user_data_unregistered SEI (payload type 5) with our uuid and the wall clock time in ms the
+ * frame was captured. the pusher puts it in front of each frame it sends; a receiver that can see the
+ * elementary stream parses it and compares with its own wall clock, which gives glass-to-glass latency
+ * per frame as far as the two clocks agree (ntp synced devices, or one device pushing and playing).
+ * <p>
+ * {@link #build} reuses one buffer, use one instance per thread; {@link #parse} is static.
+ */
+public class SeiTimestamp {
+
+    public static final long NOT_FOUND = -1L;
+
+    static final byte[] UUID = {
+            (byte) 0x7a, (byte) 0x74, (byte) 0x6e, (byte) 0x2d, (byte) 0x63, (byte) 0x61, (byte) 0x70, (byte) 0x74,
+            (byte) 0x75, (byte) 0x72, (byte) 0x65, (byte) 0x2d, (byte) 0x74, (byte) 0x73, (byte) 0x00, (byte) 0x01
+    };
+    private static final int PAYLOAD_USER_DATA_UNREGISTERED = 5;
+    private static final int PAYLOAD_SIZE = 16 + 8;
+    private static final int RBSP_TRAILING_BITS = 0x80;
+
+    // start code, nal header, payload type and size, payload with worst case escaping, trailing bits
+    private final ByteBuffer mNal = ByteBuffer.allocateDirect(4 + 1 + 2 + PAYLOAD_SIZE * 3 / 2 + 1);
+    private final byte[] mRbsp = new byte[2 + PAYLOAD_SIZE + 1];
+
+    /**
+     * @return annex-b SEI nal unit with start code, from position 0 to limit; valid until the next call
+     */
+    public ByteBuffer build(long captureTimeMs) {
+        byte[] rbsp = mRbsp;
+        int i = 0;
+        rbsp[i++] = PAYLOAD_USER_DATA_UNREGISTERED;
+        rbsp[i++] = PAYLOAD_SIZE;
+        System.arraycopy(UUID, 0, rbsp, i, UUID.length);
+        i += UUID.length;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            rbsp[i++] = (byte) (captureTimeMs >>> shift);
+        }
+        rbsp[i] = (byte) RBSP_TRAILING_BITS;
+
+        ByteBuffer nal = mNal;
+        nal.clear();
+        nal.putInt(1);
+        nal.put((byte) NalUnitScanner.NAL_SEI);
+        int zeros = 0;
+        for (byte b : rbsp) {
+            if (zeros >= 2 && (b & 0xff) <= 3) {
+                // emulation prevention
+                nal.put((byte) 3);
+                zeros = 0;
+            }
+            nal.put(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        nal.flip();
+        return nal;
+    }
+
+    /**
+     * find our SEI in an access unit, either annex-b or 4 byte length prefixed (flv, mp4)
+     *
+     * @return capture wall clock time in ms, or {@link #NOT_FOUND}
+     */
+    public static long parse(ByteBuffer buffer, int offset, int size) {
+        int end = offset + size;
+        if (NalUnitScanner.isAnnexB(buffer, offset, end)) {
+            int cursor = offset;
+            while (cursor >= 0) {
+                int nalStart = cursor + NalUnitScanner.startCodeLength(buffer, cursor);
+                int next = NalUnitScanner.findStartCode(buffer, nalStart, end);
+                long timeMs = parseNal(buffer, nalStart, next < 0 ? end : next);
+                if (timeMs != NOT_FOUND) {
+                    return timeMs;
+                }
+                cursor = next;
+            }
+        } else {
+            int cursor = offset;
+            while (cursor + 4 < end) {
+                int length = buffer.getInt(cursor);
+                int nalStart = cursor + 4;
+                if (length <= 0 || length > end - nalStart) {
+                    break;
+                }
+                long timeMs = parseNal(buffer, nalStart, nalStart + length);
+                if (timeMs != NOT_FOUND) {
+                    return timeMs;
+                }
+                cursor = nalStart + length;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static long parseNal(ByteBuffer buffer, int start, int end) {
+        if (start >= end || (buffer.get(start) & 0x1f) != NalUnitScanner.NAL_SEI) {
+            return NOT_FOUND;
+        }
+        // sei messages are short, unescape into a small array
+        byte[] rbsp = new byte[end - start - 1];
+        int length = 0;
+        int zeros = 0;
+        for (int i = start + 1; i < end; i++) {
+            byte b = buffer.get(i);
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            rbsp[length++] = b;
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+
+        int cursor = 0;
+        // each message: payload type and size as runs of 0xff plus a last byte, then the payload
+        while (cursor < length && (rbsp[cursor] & 0xff) != RBSP_TRAILING_BITS) {
+            int payloadType = 0;
+            while (cursor < length && (rbsp[cursor] & 0xff) == 0xff) {
+                payloadType += 0xff;
+                cursor++;
+            }
+            if (cursor >= length) {
+                break;
+            }
+            payloadType += rbsp[cursor++] & 0xff;
+            int payloadSize = 0;
+            while (cursor < length && (rbsp[cursor] & 0xff) == 0xff) {
+                payloadSize += 0xff;
+                cursor++;
+            }
+            if (cursor >= length) {
+                break;
+            }
+            payloadSize += rbsp[cursor++] & 0xff;
+            if (payloadSize > length - cursor) {
+                break;
+            }
+            if (payloadType == PAYLOAD_USER_DATA_UNREGISTERED && payloadSize >= PAYLOAD_SIZE
+                    && isOurUuid(rbsp, cursor)) {
+                long timeMs = 0L;
+                for (int i = cursor + UUID.length; i < cursor + PAYLOAD_SIZE; i++) {
+                    timeMs = timeMs << 8 | (rbsp[i] & 0xff);
+                }
+                return timeMs;
+            }
+            cursor += payloadSize;
+        }
+        return NOT_FOUND;
+    }
+
+    private static boolean isOurUuid(byte[] rbsp, int offset) {
+        for (int i = 0; i < UUID.length; i++) {
+            if (rbsp[offset + i] != UUID[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ztn.camera.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class LoopingPcmReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void wrapsWithoutAGap() throws Exception {
+        // 3 frames of 4 bytes and a partial frame that is never played
+        LoopingPcmReader reader = new LoopingPcmReader(pcmFile(14), 4, true);
+        assertEquals(12, reader.getLength());
+
+        Collector sink = new Collector();
+        assertEquals(8, reader.read(8, sink));
+        assertEquals(12, reader.read(12, sink));
+        assertEquals(3, sink.mWrites);
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 0, 1, 2, 3, 4, 5, 6, 7},
+                sink.mBytes.toByteArray());
+        assertEquals(8, reader.getPosition());
+        assertFalse(reader.isEnded());
+    }
+
+    @Test
+    public void endsWhenNotLooping() throws Exception {
+        LoopingPcmReader reader = new LoopingPcmReader(pcmFile(12), 4, false);
+        Collector sink = new Collector();
+        assertEquals(8, reader.read(8, sink));
+        assertEquals(4, reader.read(8, sink));
+        assertTrue(reader.isEnded());
+        assertEquals(0, reader.read(8, sink));
+    }
+
+    @Test
+    public void cachedBgmFeedsTheMusicItDecoded() throws Exception {
+        File music = folder.newFile("music.mp3");
+        PcmCache cache = new PcmCache(new File(folder.getRoot(), "pcm"), 1 << 20);
+        CachedBgm first = new CachedBgm(cache, music.getPath(), -1, -1, 44100, 4);
+        assertFalse(first.startPlaying(true));
+        first.startCaching();
+        first.onDecoded(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}), 8);
+        first.onDecodeFinished(true);
+
+        CachedBgm second = new CachedBgm(cache, music.getPath(), -1, -1, 44100, 4);
+        assertTrue(second.startPlaying(true));
+        Collector sink = new Collector();
+        assertEquals(12, second.feed(12, sink));
+        second.setPaused(true);
+        assertEquals(0, second.feed(4, sink));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4}, sink.mBytes.toByteArray());
+
+        // a decode stopped early leaves no entry behind
+        CachedBgm stopped = new CachedBgm(cache, music.getPath(), 0, 1000, 44100, 4);
+        stopped.startCaching();
+        stopped.onDecoded(ByteBuffer.wrap(new byte[8]), 8);
+        stopped.close();
+        stopped.onDecodeFinished(true);
+        assertFalse(stopped.startPlaying(true));
+    }
+
+    private File pcmFile(int size) throws Exception {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < size; i++) {
+            out.write(i);
+        }
+        out.close();
+        return file;
+    }
+
+    private static class Collector implements LoopingPcmReader.Sink {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        int mWrites = 0;
+
+        @Override
+        public void write(ByteBuffer pcm, int offset, int size) {
+            assertEquals(offset, pcm.position());
+            byte[] chunk = new byte[size];
+            pcm.get(chunk);
+            mBytes.write(chunk, 0, size);
+            mWrites++;
+        }
+    }
+}
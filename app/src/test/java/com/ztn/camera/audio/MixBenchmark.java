@@ -0,0 +1,170 @@
+package com.ztn.camera.audio;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * mixes mic frames with sub tracks through {@link PcmMixer} and through a copy of what AudioFilter does
+ * per frame, single threaded, and reports time and heap allocated per frame
+ * <p>
+ * AudioFilter itself needs an AudioTrack and its own thread, so the reference here repeats its per
+ * frame work: a fresh byte[] for every pushed sub track buffer and for every master frame, byte wise
+ * gain, hard clipping, a fresh byte[] handed to the encoder. run from the command line with:
+ * tracks seconds
+ */
+public class MixBenchmark {
+
+    public static final int SAMPLE_RATE = 44100;
+    public static final int CHANNELS = 2;
+    // what AudioRecorderDevice delivers
+    public static final int FRAME_BYTES = 4096;
+
+    private int mTracks = 2;
+    private int mDurationMs = 10000;
+
+    /**
+     * numbers of one run
+     */
+    public static class Result {
+        public int frames;
+        public long mixerNs;
+        public long mixerAllocatedBytes;
+        public long referenceNs;
+        public long referenceAllocatedBytes;
+        // keeps the work from being optimized away
+        public long checksum;
+
+        @Override
+        public String toString() {
+            return String.format("%d frames, mixer %.2f us/frame %d B/frame, AudioFilter path %.2f us/frame %d B/frame",
+                    frames, mixerNs / 1e3 / frames, mixerAllocatedBytes / frames,
+                    referenceNs / 1e3 / frames, referenceAllocatedBytes / frames);
+        }
+    }
+
+    public MixBenchmark setTracks(int tracks) {
+        mTracks = tracks;
+        return this;
+    }
+
+    public MixBenchmark setDurationMs(int durationMs) {
+        mDurationMs = durationMs;
+        return this;
+    }
+
+    public Result run() {
+        int frames = (int) ((long) mDurationMs * SAMPLE_RATE * CHANNELS * 2 / 1000 / FRAME_BYTES);
+        ByteBuffer master = noise(FRAME_BYTES, 1);
+        ByteBuffer[] subs = new ByteBuffer[mTracks];
+        for (int i = 0; i < mTracks; i++) {
+            subs[i] = noise(FRAME_BYTES, i + 2);
+        }
+        Result result = new Result();
+        result.frames = frames;
+
+        PcmMixer mixer = new PcmMixer(CHANNELS);
+        int[] tracks = new int[mTracks];
+        for (int i = 0; i < mTracks; i++) {
+            tracks[i] = mixer.addTrack(0, FRAME_BYTES);
+            mixer.setTrackGain(tracks[i], 0.5f);
+        }
+        byte[] out = new byte[FRAME_BYTES];
+        byte[] monitor = new byte[FRAME_BYTES];
+        // first block sizes the mixer's buffers
+        mixFrame(mixer, tracks, subs, master, out, monitor);
+        long allocated = allocatedBytes();
+        long startNs = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            mixFrame(mixer, tracks, subs, master, out, monitor);
+            result.checksum += out[i % FRAME_BYTES];
+        }
+        result.mixerNs = System.nanoTime() - startNs;
+        result.mixerAllocatedBytes = allocatedBytes() - allocated;
+
+        allocated = allocatedBytes();
+        startNs = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            byte[] mixed = referenceFrame(subs, master, 1.0f, 0.5f);
+            result.checksum += mixed[i % FRAME_BYTES];
+        }
+        result.referenceNs = System.nanoTime() - startNs;
+        result.referenceAllocatedBytes = allocatedBytes() - allocated;
+        return result;
+    }
+
+    private static void mixFrame(PcmMixer mixer, int[] tracks, ByteBuffer[] subs, ByteBuffer master,
+                                 byte[] out, byte[] monitor) {
+        for (int t = 0; t < tracks.length; t++) {
+            mixer.write(tracks[t], subs[t], 0, FRAME_BYTES);
+        }
+        mixer.mix(master, 0, FRAME_BYTES, out, monitor);
+    }
+
+    private static byte[] referenceFrame(ByteBuffer[] subs, ByteBuffer master, float masterGain, float subGain) {
+        byte[][] subFrames = new byte[subs.length][];
+        for (int t = 0; t < subs.length; t++) {
+            // pushDataForSubTrack copies into a new array, the ring copies again on read
+            byte[] pushed = new byte[FRAME_BYTES];
+            subs[t].duplicate().get(pushed);
+            subFrames[t] = new byte[FRAME_BYTES];
+            System.arraycopy(pushed, 0, subFrames[t], 0, FRAME_BYTES);
+        }
+        byte[] mixed = new byte[FRAME_BYTES];
+        master.duplicate().get(mixed);
+        byte[] monitor = new byte[FRAME_BYTES];
+        for (int i = 0; i < FRAME_BYTES; i += 2) {
+            int sub = 0;
+            for (byte[] subFrame : subFrames) {
+                sub += (short) (subFrame[i] & 0xff | (subFrame[i + 1] & 0xff) << 8);
+            }
+            int monitorSample = clip((int) (sub * subGain));
+            monitor[i] = (byte) monitorSample;
+            monitor[i + 1] = (byte) (monitorSample >> 8);
+            int sample = clip((int) ((short) (mixed[i] & 0xff | (mixed[i + 1] & 0xff) << 8) * masterGain
+                    + sub * subGain));
+            mixed[i] = (byte) sample;
+            mixed[i + 1] = (byte) (sample >> 8);
+        }
+        return mixed;
+    }
+
+    private static int clip(int sample) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0L;
+    }
+
+    /**
+     * about -18 dBFS, like speech or music with headroom; full scale noise would be clipping all the time
+     */
+    private static ByteBuffer noise(int size, int seed) {
+        Random random = new Random(seed);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size / 2; i++) {
+            int sample = (int) (random.nextGaussian() * 4000);
+            buffer.put((byte) sample).put((byte) (sample >> 8));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void main(String[] args) {
+        MixBenchmark benchmark = new MixBenchmark();
+        if (args.length > 0) {
+            benchmark.setTracks(Integer.parseInt(args[0]));
+        }
+        if (args.length > 1) {
+            benchmark.setDurationMs(Integer.parseInt(args[1]) * 1000);
+        }
+        // warm up, then measure
+        benchmark.run();
+        System.out.println(benchmark.run());
+    }
+}
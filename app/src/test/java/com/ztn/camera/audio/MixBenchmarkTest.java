@@ -0,0 +1,19 @@
+package com.ztn.camera.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MixBenchmarkTest {
+
+    @Test
+    public void mixerAllocatesNothingPerFrame() throws Exception {
+        MixBenchmark benchmark = new MixBenchmark().setTracks(3).setDurationMs(5000);
+        benchmark.run();
+        MixBenchmark.Result result = benchmark.run();
+
+        // a few bytes per frame at most, e.g. from the allocation counter itself
+        assertTrue(result.mixerAllocatedBytes / result.frames < 64);
+        assertTrue(result.referenceAllocatedBytes / result.frames > MixBenchmark.FRAME_BYTES * 3);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ztn.camera.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keyFollowsSourceAndClip() throws Exception {
+        File music = folder.newFile("music.mp3");
+        String path = music.getAbsolutePath();
+        String key = PcmCache.key(path, -1, -1, 44100);
+        assertNotNull(key);
+        assertEquals(key, PcmCache.key(path, -1, -1, 44100));
+        assertNotEquals(key, PcmCache.key(path, 0, 1000000, 44100));
+        assertNotEquals(key, PcmCache.key(path, -1, -1, 48000));
+
+        music.setLastModified(music.lastModified() - 10000);
+        assertNotEquals(key, PcmCache.key(path, -1, -1, 44100));
+        assertNull(PcmCache.key(new File(folder.getRoot(), "missing.mp3").getPath(), -1, -1, 44100));
+        assertNull(PcmCache.key("http://example.com/music.mp3", -1, -1, 44100));
+    }
+
+    @Test
+    public void entryAppearsOnCommitOnly() throws Exception {
+        PcmCache cache = new PcmCache(new File(folder.getRoot(), "pcm"), 1 << 20);
+        PcmCache.Writer writer = cache.openWriter("a");
+        ByteBuffer pcm = ByteBuffer.allocateDirect(16);
+        pcm.position(4);
+        writer.write(pcm, 8);
+        assertEquals(4, pcm.position());
+        assertNull(cache.get("a"));
+
+        File file = writer.commit();
+        assertEquals(file, cache.get("a"));
+        assertEquals(8, file.length());
+
+        PcmCache.Writer aborted = cache.openWriter("b");
+        aborted.write(pcm, 8);
+        aborted.abort();
+        assertNull(cache.get("b"));
+        assertEquals(8, cache.getSizeBytes());
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsed() throws Exception {
+        PcmCache cache = new PcmCache(new File(folder.getRoot(), "pcm"), 20);
+        ByteBuffer pcm = ByteBuffer.allocate(8);
+        long now = System.currentTimeMillis();
+        commit(cache, "old", pcm).setLastModified(now - 30000);
+        commit(cache, "used", pcm).setLastModified(now - 20000);
+        assertNotNull(cache.get("used"));
+
+        commit(cache, "new", pcm);
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("used"));
+        assertNotNull(cache.get("new"));
+        assertEquals(16, cache.getSizeBytes());
+    }
+
+    private static File commit(PcmCache cache, String key, ByteBuffer pcm) throws Exception {
+        PcmCache.Writer writer = cache.openWriter(key);
+        writer.write(pcm, pcm.remaining());
+        return writer.commit();
+    }
+}
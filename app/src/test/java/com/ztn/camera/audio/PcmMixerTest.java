@@ -0,0 +1,88 @@
+package com.ztn.camera.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmMixerTest {
+
+    @Test
+    public void tracksStartAtTheirFrame() throws Exception {
+        PcmMixer mixer = new PcmMixer(1);
+        int early = mixer.addTrack(0, 64);
+        int late = mixer.addTrack(5, 64);
+        mixer.setTrackGain(early, 0.5f);
+        assertTrue(mixer.write(early, pcm(1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000), 0, 16));
+        assertTrue(mixer.write(late, pcm(300, 300, 300, 300), 0, 8));
+
+        byte[] out = new byte[8];
+        byte[] monitor = new byte[8];
+        assertEquals(4, mixer.mix(pcm(10, 10, 10, 10), 0, 8, out, monitor));
+        assertArrayEquals(new short[]{510, 510, 510, 510}, samples(out));
+        assertArrayEquals(new short[]{500, 500, 500, 500}, samples(monitor));
+
+        // the late track joins at frame 5, in the middle of this block
+        mixer.mix(null, 0, 8, out, null);
+        assertArrayEquals(new short[]{500, 800, 800, 800}, samples(out));
+        assertEquals(8, mixer.getFramePosition());
+        assertEquals(0, mixer.getUnderrunFrames());
+
+        // the early track ran dry one block ago
+        mixer.mix(null, 0, 8, out, null);
+        assertArrayEquals(new short[]{300, 0, 0, 0}, samples(out));
+        assertEquals(7, mixer.getUnderrunFrames());
+    }
+
+    @Test
+    public void softClipsTheSum() throws Exception {
+        assertEquals(0.5f, PcmMixer.softClip(0.5f), 0f);
+        assertEquals(-0.8f, PcmMixer.softClip(-0.8f), 0f);
+        assertEquals(0.8667f, PcmMixer.softClip(0.9f), 0.0001f);
+        float loud = PcmMixer.softClip(3f);
+        assertTrue(loud > 0.95f && loud < 1f);
+        assertTrue(PcmMixer.softClip(1.2f) < PcmMixer.softClip(1.5f));
+
+        PcmMixer mixer = new PcmMixer(2);
+        int track = mixer.addTrack(0, 16);
+        mixer.write(track, pcm(30000, -30000), 0, 4);
+        byte[] out = new byte[4];
+        mixer.mix(pcm(30000, -30000), 0, 4, out, null);
+        short[] mixed = samples(out);
+        // no wrap-around, and not pinned to full scale either
+        assertTrue(mixed[0] > 30000 && mixed[0] < Short.MAX_VALUE);
+        assertTrue(mixed[1] < -30000 && mixed[1] > Short.MIN_VALUE);
+    }
+
+    @Test
+    public void ringKeepsOrderAndDropsWhatDoesNotFit() throws Exception {
+        PcmRing ring = new PcmRing(3);
+        assertEquals(4, ring.capacity());
+        assertEquals(4, ring.write(pcm(1, 2, 3, 4, 5), 0, 10));
+        byte[] read = new byte[8];
+        assertEquals(2, ring.read(read, 0, 2));
+        // wraps around
+        assertEquals(2, ring.write(pcm(6, 7), 0, 4));
+        assertEquals(4, ring.read(read, 0, 4));
+        assertArrayEquals(new short[]{3, 4, 6, 7}, samples(read));
+        assertEquals(0, ring.size());
+    }
+
+    static ByteBuffer pcm(int... samples) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(samples.length * 2);
+        for (int sample : samples) {
+            buffer.put((byte) sample).put((byte) (sample >> 8));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static short[] samples(byte[] pcm) {
+        short[] samples = new short[pcm.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (pcm[2 * i] & 0xff | pcm[2 * i + 1] << 8);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,43 @@
+package com.ztn.camera.capture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameClockTest {
+
+    @Test
+    public void jitterDoesNotAccumulate() throws Exception {
+        FrameClock clock = new FrameClock(30, 10000, 42L);
+        FrameClock same = new FrameClock(30, 10000, 42L);
+        clock.start(1000L);
+        same.start(1000L);
+
+        long lastDueNs = 0L;
+        boolean isJittered = false;
+        for (int i = 0; i < 3000; i++) {
+            long slotNs = clock.nextSlotNs();
+            assertEquals(1000L + Math.round(i * 1e9 / 30), slotNs);
+            long dueNs = clock.nextDueNs();
+            assertEquals(same.nextDueNs(), dueNs);
+            assertTrue(dueNs >= lastDueNs);
+            assertTrue(Math.abs(dueNs - slotNs) <= 10000000L);
+            isJittered |= dueNs != slotNs;
+            lastDueNs = dueNs;
+        }
+        assertTrue(isJittered);
+        assertEquals(3000L, clock.getFrameIndex());
+        // 100s later the next slot is exactly on time
+        assertEquals(1000L + 100000000000L, clock.nextSlotNs());
+    }
+
+    @Test
+    public void withoutJitterFramesAreDueInTheirSlots() throws Exception {
+        FrameClock clock = new FrameClock(44100.0 / 1024, 0, 1L);
+        clock.start(0L);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(clock.nextSlotNs(), clock.nextDueNs());
+        }
+        assertEquals(Math.round(100 * 1024 * 1e9 / 44100), clock.nextSlotNs());
+    }
+}
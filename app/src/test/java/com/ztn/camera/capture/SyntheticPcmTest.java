@@ -0,0 +1,52 @@
+package com.ztn.camera.capture;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SyntheticPcmTest {
+
+    @Test
+    public void toneIsContinuousAcrossBuffers() throws Exception {
+        SyntheticPcm pcm = new SyntheticPcm(SyntheticPcm.WAVEFORM_TONE, 48000, 2, 1000, 0.5, 0L);
+        ByteBuffer out = ByteBuffer.allocate(4800 * pcm.getBytesPerFrame());
+        // 0.1s in odd sized pieces
+        pcm.fill(out, 1001);
+        pcm.fill(out, 3799);
+        assertFalse(out.hasRemaining());
+
+        int risingCrossings = 0;
+        int peak = 0;
+        short last = 0;
+        for (int i = 0; i < 4800; i++) {
+            short left = (short) (out.get(i * 4) & 0xff | out.get(i * 4 + 1) << 8);
+            short right = (short) (out.get(i * 4 + 2) & 0xff | out.get(i * 4 + 3) << 8);
+            assertEquals(left, right);
+            if (last < 0 && left >= 0) {
+                risingCrossings++;
+            }
+            peak = Math.max(peak, Math.abs(left));
+            last = left;
+        }
+        // the first period starts at 0 without a crossing
+        assertEquals(99, risingCrossings);
+        assertEquals(Short.MAX_VALUE / 2, peak, 2);
+    }
+
+    @Test
+    public void noiseIsReproducible() throws Exception {
+        byte[] first = noise(7L);
+        assertArrayEquals(first, noise(7L));
+        assertFalse(Arrays.equals(first, noise(8L)));
+    }
+
+    private static byte[] noise(long seed) {
+        SyntheticPcm pcm = new SyntheticPcm(SyntheticPcm.WAVEFORM_NOISE, 44100, 1, 0, 1.0, seed);
+        ByteBuffer out = ByteBuffer.allocate(1024 * pcm.getBytesPerFrame());
+        pcm.fill(out, 1024);
+        return out.array();
+    }
+}
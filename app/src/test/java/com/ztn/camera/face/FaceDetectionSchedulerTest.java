@@ -0,0 +1,72 @@
+package com.ztn.camera.face;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceDetectionSchedulerTest {
+
+    private static final long FRAME_NS = 1000000000L / 30;
+
+    @Test
+    public void submitsEveryNthFrameWhenIdle() throws Exception {
+        FaceDetectionScheduler scheduler = new FaceDetectionScheduler(30, 2);
+        long nowNs = 0L;
+        int submitted = 0;
+        for (int i = 0; i < 20; i++) {
+            nowNs += FRAME_NS;
+            if (scheduler.onRenderFrame(nowNs)) {
+                submitted++;
+                scheduler.onDetected(nowNs + 5000000L, -1L);
+            }
+        }
+        assertEquals(10, submitted);
+
+        // nothing more while a detection is running, until it times out
+        assertFalse(scheduler.onRenderFrame(nowNs += FRAME_NS));
+        assertTrue(scheduler.onRenderFrame(nowNs += FRAME_NS));
+        assertFalse(scheduler.onRenderFrame(nowNs += FRAME_NS));
+        assertFalse(scheduler.onRenderFrame(nowNs += FRAME_NS));
+        assertTrue(scheduler.onRenderFrame(nowNs + FaceDetectionScheduler.DETECTION_TIMEOUT_NS));
+    }
+
+    @Test
+    public void intervalFollowsRenderTime() throws Exception {
+        FaceDetectionScheduler scheduler = new FaceDetectionScheduler(30, 1);
+        long nowNs = 0L;
+        // 20 fps against a 30 fps budget
+        for (int i = 0; i < FaceDetectionScheduler.WINDOW_FRAMES * 4 + 1; i++) {
+            nowNs += 50000000L;
+            if (scheduler.onRenderFrame(nowNs)) {
+                scheduler.onDetected(nowNs, -1L);
+            }
+        }
+        assertEquals(5, scheduler.getInterval());
+        assertEquals(20f, scheduler.getRenderFps(), 0.5f);
+
+        // back on time, shrinks one step per few windows
+        for (int i = 0; i < FaceDetectionScheduler.WINDOW_FRAMES * FaceDetectionScheduler.WINDOWS_TO_SHRINK * 2; i++) {
+            nowNs += FRAME_NS;
+            if (scheduler.onRenderFrame(nowNs)) {
+                scheduler.onDetected(nowNs, -1L);
+            }
+        }
+        assertEquals(3, scheduler.getInterval());
+    }
+
+    @Test
+    public void measuresDetectorCost() throws Exception {
+        FaceDetectionScheduler scheduler = new FaceDetectionScheduler(30, 1);
+        long nowNs = 0L;
+        long cpuMs = 1000L;
+        for (int i = 0; i < 10; i++) {
+            nowNs += FRAME_NS;
+            assertTrue(scheduler.onRenderFrame(nowNs));
+            cpuMs += 12;
+            scheduler.onDetected(nowNs + 20000000L, cpuMs);
+        }
+        assertEquals(20f, scheduler.getDetectionLatencyMs(), 0.01f);
+        assertEquals(12f, scheduler.getDetectionCpuMs(), 0.01f);
+        assertEquals(0.36f, scheduler.getDetectorLoad(), 0.01f);
+    }
+}
@@ -0,0 +1,49 @@
+package com.ztn.camera.face;
+
+import com.baidu.idl.facesdk.FaceInfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FacePredictorTest {
+
+    @Test
+    public void extrapolatesUpToOneDetectionInterval() throws Exception {
+        FacePredictor predictor = new FacePredictor();
+        assertNull(predictor.predict(0L));
+
+        predictor.onDetected(new FaceInfo[]{face(1, 100, 50, 10)}, 0L);
+        // one detection, holds still
+        FaceInfo[] faces = predictor.predict(50L);
+        assertEquals(100, faces[0].mCenter_x);
+        assertEquals(10, faces[0].landmarks[0]);
+
+        predictor.onDetected(new FaceInfo[]{face(1, 110, 50, 20)}, 100L);
+        faces = predictor.predict(150L);
+        assertEquals(115, faces[0].mCenter_x);
+        assertEquals(50, faces[0].mCenter_y);
+        assertEquals(25, faces[0].landmarks[0]);
+
+        // capped at one interval ahead
+        assertSame(faces[0], predictor.predict(1000L)[0]);
+        assertEquals(120, faces[0].mCenter_x);
+    }
+
+    @Test
+    public void newFacesHoldAndLostFacesClear() throws Exception {
+        FacePredictor predictor = new FacePredictor();
+        predictor.onDetected(new FaceInfo[]{face(1, 100, 50, 10)}, 0L);
+        predictor.onDetected(new FaceInfo[]{face(2, 300, 80, 30)}, 100L);
+        FaceInfo[] faces = predictor.predict(150L);
+        assertEquals(2, faces[0].face_id);
+        assertEquals(300, faces[0].mCenter_x);
+
+        predictor.onDetected(new FaceInfo[0], 200L);
+        assertNull(predictor.predict(250L));
+    }
+
+    private static FaceInfo face(int faceId, int centerX, int centerY, int landmark) {
+        return new FaceInfo(80, 0, centerY, centerX, 0.9f, faceId, new int[]{landmark, landmark});
+    }
+}
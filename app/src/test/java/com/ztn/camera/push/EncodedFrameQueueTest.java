@@ -0,0 +1,102 @@
+package com.ztn.camera.push;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class EncodedFrameQueueTest {
+
+    private static EncodedFrame frame(int trackType, int flags, long ptsUs, int size) {
+        return EncodedFrame.copyOf(trackType, ByteBuffer.allocate(size), 0, size, ptsUs, flags);
+    }
+
+    private static EncodedFrame audio(long ptsUs) {
+        return frame(EncodedFrame.TRACK_AUDIO, 0, ptsUs, 100);
+    }
+
+    private static EncodedFrame idr(long ptsUs) {
+        return frame(EncodedFrame.TRACK_VIDEO, EncodedFrame.FLAG_KEY_FRAME, ptsUs, 1000);
+    }
+
+    private static EncodedFrame p(long ptsUs, boolean isDisposable) {
+        return frame(EncodedFrame.TRACK_VIDEO, isDisposable ? EncodedFrame.FLAG_DISPOSABLE : 0, ptsUs, 500);
+    }
+
+    @Test
+    public void dropsNonReferenceFramesFirst() throws Exception {
+        EncodedFrameQueue queue = new EncodedFrameQueue(2500);
+        queue.push(idr(0));
+        queue.push(p(40, true));
+        queue.push(audio(45));
+        queue.push(p(80, false));
+        queue.push(p(120, true)); // 2600 bytes -> over limit
+
+        assertEquals(1, queue.getDroppedDisposableFrames());
+        assertEquals(0, queue.getDroppedGopFrames());
+        assertEquals(2100, queue.getQueuedBytes());
+        assertEquals(0, queue.take(0).ptsUs);
+        assertEquals(45, queue.take(0).ptsUs);
+    }
+
+    @Test
+    public void dropsOldestGopUpToNextIdr() throws Exception {
+        EncodedFrameQueue queue = new EncodedFrameQueue(3000);
+        queue.push(idr(0));
+        queue.push(p(40, false));
+        queue.push(audio(45));
+        queue.push(p(80, false));
+        queue.push(idr(120)); // 3100 bytes -> first GOP goes
+
+        assertEquals(3, queue.getDroppedGopFrames());
+        assertEquals(2, queue.getQueuedFrames());
+        assertEquals(45, queue.take(0).ptsUs);
+        assertEquals(120, queue.take(0).ptsUs);
+    }
+
+    @Test
+    public void waitsForNextIdrAfterDroppingCurrentGop() throws Exception {
+        final int[] requests = {0};
+        EncodedFrameQueue queue = new EncodedFrameQueue(1200);
+        queue.setOnKeyFrameRequiredListener(new EncodedFrameQueue.OnKeyFrameRequiredListener() {
+            @Override
+            public void onKeyFrameRequired() {
+                requests[0]++;
+            }
+        });
+        queue.push(p(0, false));
+        queue.push(audio(5));
+        queue.push(p(40, false));
+        queue.push(p(80, false)); // 1600 bytes, no IDR queued
+
+        assertEquals(1, requests[0]);
+        assertEquals(1, queue.getQueuedFrames());
+        assertFalse(queue.push(p(120, false)));
+        assertTrue(queue.push(audio(125)));
+        assertTrue(queue.push(idr(160)));
+        assertEquals(4, queue.getDroppedGopFrames());
+        assertEquals(1, requests[0]);
+    }
+
+    @Test
+    public void neverDropsAudio() throws Exception {
+        EncodedFrameQueue queue = new EncodedFrameQueue(500);
+        for (int i = 0; i < 20; i++) {
+            queue.push(audio(i * 23));
+        }
+        assertEquals(20, queue.getQueuedFrames());
+        assertEquals(2000, queue.getQueuedBytes());
+    }
+
+    @Test
+    public void detectsNonReferenceSlice() {
+        byte[] disposable = {0, 0, 0, 1, 0x01, (byte) 0x88};
+        byte[] reference = {0, 0, 0, 1, 0x41, (byte) 0x88};
+        byte[] withSei = {0, 0, 1, 0x06, 0x05, 0x01, 0x00, 0, 0, 1, 0x21, (byte) 0x88};
+        NalUnitScanner scanner = new NalUnitScanner();
+        assertTrue(scanner.scan(ByteBuffer.wrap(disposable), 0, disposable.length).isNonReference());
+        assertFalse(scanner.scan(ByteBuffer.wrap(reference), 0, reference.length).isNonReference());
+        assertFalse(scanner.scan(ByteBuffer.wrap(withSei), 0, withSei.length).isNonReference());
+    }
+}
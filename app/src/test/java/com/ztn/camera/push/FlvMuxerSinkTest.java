@@ -0,0 +1,115 @@
+package com.ztn.camera.push;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FlvMuxerSinkTest {
+
+    private final List<String> mEvents = new ArrayList<String>();
+    private final List<MediaFormat> mFormats = new ArrayList<MediaFormat>();
+
+    private final FlvMuxerSink.MuxerFactory mFactory = new FlvMuxerSink.MuxerFactory() {
+        private int mCount = 0;
+
+        @Override
+        public FlvMuxerSink.Muxer createMuxer() {
+            final int id = ++mCount;
+            mEvents.add("create " + id);
+            return new FlvMuxerSink.Muxer() {
+                private int mTracks = 0;
+
+                @Override
+                public int addTrack(MediaFormat mediaFormat) {
+                    mEvents.add(id + " add " + name(mediaFormat));
+                    return mTracks++;
+                }
+
+                @Override
+                public void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo bufferInfo) {
+                    mEvents.add(id + " write " + track + " " + data.getLong(data.position()));
+                }
+
+                @Override
+                public void setEpoch(long epochInNs) {
+                }
+
+                @Override
+                public void close() {
+                    mEvents.add("close " + id);
+                }
+            };
+        }
+    };
+
+    @Test
+    public void newSequenceHeaderGoesOutBeforeTheFirstNewIdr() throws Exception {
+        MediaFormat audio = format();
+        MediaFormat small = format();
+        MediaFormat large = format();
+        FlvMuxerSink sink = new FlvMuxerSink(mFactory, 0L);
+
+        // the first formats are added in order with their config frames
+        sink.setFormat(audio, true);
+        sink.setFormat(small, false);
+        sink.writeFrame(frame(EncodedFrame.TRACK_AUDIO, 0, EncodedFrame.FLAG_CODEC_CONFIG));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 100, EncodedFrame.FLAG_KEY_FRAME));
+
+        // the encoder switched size while old frames are still queued
+        sink.setFormat(large, false);
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 200, 0));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 300, EncodedFrame.FLAG_KEY_FRAME));
+        sink.writeFrame(frame(EncodedFrame.TRACK_AUDIO, 310, 0));
+
+        // a replayed config changes nothing
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG));
+        sink.close();
+
+        assertEquals(Arrays.asList(
+                "create 1", "1 add format 0", "1 add format 1", "1 write 1 100",
+                "1 write 1 200",
+                "create 2", "2 add format 0", "2 add format 2", "close 1", "2 write 1 300", "2 write 0 310",
+                "close 2"), mEvents);
+    }
+
+    @Test
+    public void closedSinkWritesNothing() throws Exception {
+        MediaFormat video = format();
+        FlvMuxerSink sink = new FlvMuxerSink(mFactory, 0L);
+        sink.addTrack(video, false);
+        sink.close();
+        sink.setFormat(format(), false);
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 100, EncodedFrame.FLAG_KEY_FRAME));
+        assertEquals(Arrays.asList("create 1", "1 add format 0", "close 1"), mEvents);
+    }
+
+    private MediaFormat format() {
+        MediaFormat mediaFormat = new MediaFormat();
+        mFormats.add(mediaFormat);
+        return mediaFormat;
+    }
+
+    private String name(MediaFormat mediaFormat) {
+        return "format " + mFormats.indexOf(mediaFormat);
+    }
+
+    /**
+     * the payload is the pts, BufferInfo.set is a no-op in local tests
+     */
+    private static EncodedFrame frame(int trackType, long ptsUs, int flags) {
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putLong(0, ptsUs);
+        return EncodedFrame.copyOf(trackType, payload, 0, 8, ptsUs, flags);
+    }
+}
@@ -0,0 +1,211 @@
+package com.ztn.camera.push;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameWriterThreadTest {
+
+    private static class CountingSink implements FrameSink {
+        final CountDownLatch mLatch;
+        final long mDelayMs;
+        volatile long mAudioFrames;
+        volatile long mVideoFrames;
+        volatile long mLastAudioPts = -1;
+        volatile long mLastVideoPts = -1;
+        volatile boolean mIsOutOfOrder;
+
+        CountingSink(int expectedFrames, long delayMs) {
+            mLatch = new CountDownLatch(expectedFrames);
+            mDelayMs = delayMs;
+        }
+
+        @Override
+        public void writeFrame(EncodedFrame frame) {
+            if (frame.data.getInt(0) != (int) frame.ptsUs) {
+                mIsOutOfOrder = true;
+            }
+            if (frame.isAudio()) {
+                mIsOutOfOrder |= frame.ptsUs <= mLastAudioPts;
+                mLastAudioPts = frame.ptsUs;
+                mAudioFrames++;
+            } else {
+                mIsOutOfOrder |= frame.ptsUs <= mLastVideoPts;
+                mLastVideoPts = frame.ptsUs;
+                mVideoFrames++;
+            }
+            if (mDelayMs > 0) {
+                try {
+                    Thread.sleep(mDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mLatch.countDown();
+        }
+    }
+
+    private static Thread producer(final FrameWriterThread writer, final int trackType,
+                                   final int frames, final int size, final long intervalUs) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer encoderBuffer = ByteBuffer.allocateDirect(size + 16);
+                for (int i = 0; i < frames; i++) {
+                    long ptsUs = i * intervalUs;
+                    encoderBuffer.clear();
+                    encoderBuffer.putInt(16, (int) ptsUs);
+                    int flags = trackType == EncodedFrame.TRACK_VIDEO && i % 50 == 0 ? EncodedFrame.FLAG_KEY_FRAME : 0;
+                    writer.offer(trackType, encoderBuffer, 16, size, ptsUs, flags);
+                    if (i % 32 == 0) {
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void deliversAllFramesInOrderWithoutPerFrameAllocation() throws Exception {
+        int audioFrames = 2000;
+        int videoFrames = 1000;
+        CountingSink sink = new CountingSink(audioFrames + videoFrames, 0);
+        FrameWriterThread writer = new FrameWriterThread(new EncodedFrameQueue(Long.MAX_VALUE), sink);
+        writer.start();
+
+        Thread audio = producer(writer, EncodedFrame.TRACK_AUDIO, audioFrames, 300, 23220);
+        Thread video = producer(writer, EncodedFrame.TRACK_VIDEO, videoFrames, 20000, 40000);
+        audio.start();
+        video.start();
+        audio.join();
+        video.join();
+
+        assertTrue(sink.mLatch.await(10, TimeUnit.SECONDS));
+        writer.quit();
+        writer.join();
+
+        assertFalse(sink.mIsOutOfOrder);
+        assertEquals(audioFrames, sink.mAudioFrames);
+        assertEquals(videoFrames, sink.mVideoFrames);
+        assertEquals(0, writer.getRingDroppedFrames());
+        assertEquals(audioFrames + videoFrames, writer.getSentFrames());
+        // pools recycle: objects are created only while the rings fill up the first time
+        assertTrue("allocations=" + writer.getAllocationCount(),
+                writer.getAllocationCount() < (audioFrames + videoFrames) / 4);
+    }
+
+    @Test
+    public void slowSinkIsMeasuredAndDoesNotBlockProducers() throws Exception {
+        CountingSink sink = new CountingSink(1, 20);
+        FrameWriterThread writer = new FrameWriterThread(new EncodedFrameQueue(Long.MAX_VALUE), sink);
+        writer.start();
+
+        ByteBuffer encoderBuffer = ByteBuffer.allocate(1024);
+        long startNs = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            encoderBuffer.putInt(0, i);
+            writer.offer(EncodedFrame.TRACK_AUDIO, encoderBuffer, 0, 1024, i, 0);
+        }
+        long offerMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+
+        assertTrue(sink.mLatch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        writer.quit();
+        writer.join();
+
+        assertTrue("offer took " + offerMs + "ms", offerMs < 100);
+        assertTrue(writer.getStallTimeNs() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(writer.getMaxStallNs() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void firstFrameTimeIgnoresCodecConfig() throws Exception {
+        CountingSink sink = new CountingSink(1, 0);
+        FrameWriterThread writer = new FrameWriterThread(new EncodedFrameQueue(Long.MAX_VALUE), sink);
+        writer.start();
+        try {
+            ByteBuffer encoderBuffer = ByteBuffer.allocate(64);
+            writer.offer(EncodedFrame.TRACK_VIDEO, encoderBuffer, 0, 64, 0L, EncodedFrame.FLAG_CODEC_CONFIG);
+            assertTrue(sink.mLatch.await(5, TimeUnit.SECONDS));
+            assertEquals(-1L, writer.getFirstFrameSentTimeNs());
+
+            long offerNs = System.nanoTime();
+            encoderBuffer.putInt(0, 40000);
+            writer.offer(EncodedFrame.TRACK_VIDEO, encoderBuffer, 0, 64, 40000L, EncodedFrame.FLAG_KEY_FRAME);
+            long deadlineNs = offerNs + TimeUnit.SECONDS.toNanos(5);
+            while (writer.getFirstFrameSentTimeNs() < 0 && System.nanoTime() - deadlineNs < 0) {
+                Thread.sleep(5);
+            }
+            assertTrue(writer.getFirstFrameSentTimeNs() - offerNs >= 0);
+        } finally {
+            writer.quit();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void codecConfigPassesTheKeyFrameGate() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final List<Integer> videoFlags = new ArrayList<Integer>();
+        FrameWriterThread writer = new FrameWriterThread(new EncodedFrameQueue(Long.MAX_VALUE), new FrameSink() {
+            @Override
+            public void writeFrame(EncodedFrame frame) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (videoFlags) {
+                    videoFlags.add(frame.flags);
+                }
+            }
+        });
+        writer.start();
+        try {
+            // the writer holds one frame in the sink, the ring fills up behind it
+            ByteBuffer encoderBuffer = ByteBuffer.allocate(64);
+            int accepted = 0;
+            while (writer.offer(EncodedFrame.TRACK_VIDEO, encoderBuffer, 0, 64, accepted,
+                    accepted == 0 ? EncodedFrame.FLAG_KEY_FRAME : 0)) {
+                accepted++;
+            }
+            assertEquals(1, writer.getRingDroppedFrames());
+            unblock.countDown();
+            long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (writer.getSentFrames() < accepted && System.nanoTime() - deadlineNs < 0) {
+                Thread.sleep(5);
+            }
+            assertEquals(accepted, writer.getSentFrames());
+
+            // the encoder changed format while the writer waits for a key frame
+            assertTrue(writer.offer(EncodedFrame.TRACK_VIDEO, encoderBuffer, 0, 64, 0L,
+                    EncodedFrame.FLAG_CODEC_CONFIG));
+            assertFalse(writer.offer(EncodedFrame.TRACK_VIDEO, encoderBuffer, 0, 64, 1000L, 0));
+            assertTrue(writer.offer(EncodedFrame.TRACK_VIDEO, encoderBuffer, 0, 64, 2000L,
+                    EncodedFrame.FLAG_KEY_FRAME));
+            assertTrue(writer.offer(EncodedFrame.TRACK_VIDEO, encoderBuffer, 0, 64, 3000L, 0));
+            while (writer.getSentFrames() < accepted + 3 && System.nanoTime() - deadlineNs < 0) {
+                Thread.sleep(5);
+            }
+            synchronized (videoFlags) {
+                assertEquals(Arrays.asList(EncodedFrame.FLAG_CODEC_CONFIG, EncodedFrame.FLAG_KEY_FRAME, 0),
+                        videoFlags.subList(accepted, videoFlags.size()));
+            }
+        } finally {
+            unblock.countDown();
+            writer.quit();
+            writer.join();
+        }
+    }
+}
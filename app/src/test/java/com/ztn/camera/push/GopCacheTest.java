@@ -0,0 +1,110 @@
+package com.ztn.camera.push;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GopCacheTest {
+
+    private static class RecordingSink implements FrameSink {
+        final List<EncodedFrame> mFrames = new ArrayList<EncodedFrame>();
+
+        @Override
+        public void writeFrame(EncodedFrame frame) {
+            mFrames.add(frame);
+        }
+    }
+
+    private static EncodedFrame frame(int trackType, long ptsUs, int flags) {
+        return EncodedFrame.copyOf(trackType, ByteBuffer.allocate(100), 0, 100, ptsUs, flags);
+    }
+
+    @Test
+    public void keepsConfigAndFramesSinceLatestKeyFrame() throws Exception {
+        final List<EncodedFrame> released = new ArrayList<EncodedFrame>();
+        GopCache cache = new GopCache(1 << 20);
+        cache.setOnFrameReleasedListener(new GopCache.OnFrameReleasedListener() {
+            @Override
+            public void onFrameReleased(EncodedFrame frame) {
+                released.add(frame);
+            }
+        });
+
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_AUDIO, 0, EncodedFrame.FLAG_CODEC_CONFIG)));
+        // nothing to decode from before the first key frame
+        assertFalse(cache.add(frame(EncodedFrame.TRACK_AUDIO, 10, 0)));
+        assertFalse(cache.add(frame(EncodedFrame.TRACK_VIDEO, 20, 0)));
+
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 40, EncodedFrame.FLAG_KEY_FRAME)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_AUDIO, 50, 0)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 80, 0)));
+        assertEquals(3, cache.getCachedFrames());
+
+        // next gop releases the previous one
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 120, EncodedFrame.FLAG_KEY_FRAME)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_AUDIO, 130, 0)));
+        assertEquals(3, released.size());
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(4, cache.replay(sink));
+        assertTrue(sink.mFrames.get(0).isCodecConfig() && sink.mFrames.get(0).isVideo());
+        assertTrue(sink.mFrames.get(1).isCodecConfig() && sink.mFrames.get(1).isAudio());
+        assertTrue(sink.mFrames.get(2).isKeyFrame());
+        assertEquals(120, sink.mFrames.get(2).ptsUs);
+        assertEquals(130, sink.mFrames.get(3).ptsUs);
+
+        cache.clear();
+        assertEquals(7, released.size());
+    }
+
+    @Test
+    public void dropsGopLargerThanLimit() {
+        GopCache cache = new GopCache(250);
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_KEY_FRAME)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 40, 0)));
+        assertFalse(cache.add(frame(EncodedFrame.TRACK_VIDEO, 80, 0)));
+        assertFalse(cache.hasKeyFrame());
+        assertEquals(0, cache.getCachedFrames());
+        assertFalse(cache.add(frame(EncodedFrame.TRACK_VIDEO, 120, 0)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 160, EncodedFrame.FLAG_KEY_FRAME)));
+    }
+
+    @Test
+    public void newVideoConfigDropsOldGop() throws Exception {
+        GopCache cache = new GopCache(1 << 20);
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_KEY_FRAME)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 40, 0)));
+
+        // sps/pps of a new encoder: the old frames do not decode with it
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG)));
+        assertFalse(cache.hasKeyFrame());
+        assertEquals(0, cache.getCachedFrames());
+        assertFalse(cache.add(frame(EncodedFrame.TRACK_VIDEO, 60, 0)));
+        assertTrue(cache.add(frame(EncodedFrame.TRACK_VIDEO, 80, EncodedFrame.FLAG_KEY_FRAME)));
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(2, cache.replay(sink));
+        assertEquals(80, sink.mFrames.get(1).ptsUs);
+    }
+
+    @Test
+    public void backoffGrowsWithJitterAndResets() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, 0.5, new Random(1));
+        long[] upper = {100, 200, 400, 800, 1000, 1000};
+        for (long max : upper) {
+            long delayMs = backoff.nextDelayMs();
+            assertTrue(delayMs + " > " + max, delayMs <= max);
+            assertTrue(delayMs + " < " + max / 2, delayMs >= max / 2);
+        }
+        assertEquals(6, backoff.getAttempts());
+        backoff.reset();
+        assertTrue(backoff.nextDelayMs() <= 100);
+    }
+}
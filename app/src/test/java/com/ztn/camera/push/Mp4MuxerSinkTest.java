@@ -0,0 +1,114 @@
+package com.ztn.camera.push;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class Mp4MuxerSinkTest {
+
+    private final List<String> mEvents = new ArrayList<String>();
+
+    private final Mp4MuxerSink.Muxer mMuxer = new Mp4MuxerSink.Muxer() {
+        private int mTracks = 0;
+
+        @Override
+        public int addTrack(MediaFormat mediaFormat) {
+            mEvents.add("add " + mTracks);
+            return mTracks++;
+        }
+
+        @Override
+        public void start() {
+            mEvents.add("start");
+        }
+
+        @Override
+        public void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo bufferInfo) {
+            mEvents.add("write " + track + " " + data.getLong(data.position()));
+        }
+
+        @Override
+        public void stop() {
+            mEvents.add("stop");
+        }
+
+        @Override
+        public void release() {
+            mEvents.add("release");
+        }
+    };
+
+    @Test
+    public void startsOnceEveryTrackIsAdded() throws Exception {
+        Mp4MuxerSink sink = new Mp4MuxerSink(mMuxer, true, true);
+
+        // frames before start are dropped, not queued
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_KEY_FRAME));
+        sink.addTrack(new MediaFormat(), true);
+        sink.writeFrame(frame(EncodedFrame.TRACK_AUDIO, 10, 0));
+        assertEquals(Arrays.asList("add 0"), mEvents);
+
+        sink.addTrack(new MediaFormat(), false);
+        // a format change after start keeps the tracks
+        sink.addTrack(new MediaFormat(), false);
+        assertEquals(Arrays.asList("add 0", "add 1", "start"), mEvents);
+
+        // writing starts at a video key frame
+        sink.writeFrame(frame(EncodedFrame.TRACK_AUDIO, 20, 0));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 0, EncodedFrame.FLAG_CODEC_CONFIG));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 100, EncodedFrame.FLAG_KEY_FRAME));
+        sink.writeFrame(frame(EncodedFrame.TRACK_AUDIO, 110, 0));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 140, 0));
+        assertEquals(3, sink.getWrittenFrames());
+
+        sink.release();
+        sink.release();
+        assertEquals(Arrays.asList("add 0", "add 1", "start",
+                "write 1 100", "write 0 110", "write 1 140",
+                "stop", "release"), mEvents);
+    }
+
+    @Test
+    public void resumesAtAKeyFrame() throws Exception {
+        Mp4MuxerSink sink = new Mp4MuxerSink(mMuxer, true, true);
+        sink.addTrack(new MediaFormat(), false);
+        sink.addTrack(new MediaFormat(), true);
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 100, EncodedFrame.FLAG_KEY_FRAME));
+
+        sink.pause();
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 140, 0));
+        sink.resume();
+        sink.writeFrame(frame(EncodedFrame.TRACK_AUDIO, 150, 0));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 180, 0));
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 220, EncodedFrame.FLAG_KEY_FRAME));
+        assertEquals(Arrays.asList("add 0", "add 1", "start", "write 0 100", "write 0 220"), mEvents);
+    }
+
+    @Test
+    public void releaseBeforeStartDoesNotStop() throws Exception {
+        Mp4MuxerSink sink = new Mp4MuxerSink(mMuxer, true, true);
+        sink.addTrack(new MediaFormat(), true);
+        sink.release();
+        sink.addTrack(new MediaFormat(), false);
+        sink.writeFrame(frame(EncodedFrame.TRACK_VIDEO, 100, EncodedFrame.FLAG_KEY_FRAME));
+        assertEquals(Arrays.asList("add 0", "release"), mEvents);
+        assertEquals(0, sink.getWrittenFrames());
+    }
+
+    /**
+     * the payload is the pts, BufferInfo.set is a no-op in local tests
+     */
+    private static EncodedFrame frame(int trackType, long ptsUs, int flags) {
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putLong(0, ptsUs);
+        return EncodedFrame.copyOf(trackType, payload, 0, 8, ptsUs, flags);
+    }
+}
@@ -0,0 +1,72 @@
+package com.ztn.camera.push;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class NalUnitScannerTest {
+
+    private static final byte[] SPS_PPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0x80, 0x1f, 0, 0, 0, 1, 0x68, (byte) 0xce};
+
+    @Test
+    public void classifiesAnnexBAccessUnits() throws Exception {
+        NalUnitScanner scanner = new NalUnitScanner();
+
+        assertEquals(EncodedFrame.FLAG_CODEC_CONFIG, flags(scanner, SPS_PPS, 0));
+        assertTrue(scanner.isParameterSetsOnly());
+
+        // some encoders repeat sps/pps in front of every IDR; that is a key frame, not a config
+        byte[] idr = {0, 0, 0, 1, 0x67, 0x42, 0, 0, 1, 0x68, (byte) 0xce, 0, 0, 1, 0x65, (byte) 0x88};
+        assertEquals(EncodedFrame.FLAG_KEY_FRAME, flags(scanner, idr,
+                EncodedFrame.FLAG_KEY_FRAME | EncodedFrame.FLAG_CODEC_CONFIG));
+        assertEquals(3, scanner.getNalCount());
+        assertTrue(scanner.contains(NalUnitScanner.NAL_SPS));
+        assertTrue(scanner.contains(NalUnitScanner.NAL_PPS));
+
+        byte[] reference = {0, 0, 0, 1, 0x41, (byte) 0x9a};
+        assertEquals(0, flags(scanner, reference, 0));
+        byte[] disposable = {0, 0, 1, 0x06, 0x05, 0x01, 0x00, 0, 0, 1, 0x01, (byte) 0x9e};
+        assertEquals(EncodedFrame.FLAG_DISPOSABLE, flags(scanner, disposable, 0));
+        assertTrue(scanner.contains(NalUnitScanner.NAL_SEI));
+    }
+
+    @Test
+    public void stopsAtTheFirstSlice() throws Exception {
+        NalUnitScanner scanner = new NalUnitScanner();
+        // nothing after the first slice header is read
+        byte[] frame = {0, 0, 0, 1, 0x41, (byte) 0x9a, 0, 0, 1, 0x67, 0x42};
+        scanner.scan(ByteBuffer.wrap(frame), 0, frame.length);
+        assertEquals(1, scanner.getNalCount());
+        assertFalse(scanner.contains(NalUnitScanner.NAL_SPS));
+    }
+
+    @Test
+    public void readsAvccInPlace() throws Exception {
+        NalUnitScanner scanner = new NalUnitScanner();
+        ByteBuffer avcc = ByteBuffer.allocateDirect(32);
+        avcc.put(new byte[]{9, 9});
+        avcc.putInt(2).put((byte) 0x09).put((byte) 0xf0);
+        avcc.putInt(3).put((byte) 0x65).put((byte) 0x88).put((byte) 0x84);
+        int size = avcc.position() - 2;
+        avcc.position(1);
+
+        scanner.scan(avcc, 2, size);
+        assertTrue(scanner.isIdr());
+        assertTrue(scanner.contains(NalUnitScanner.NAL_AUD));
+        assertEquals(1, avcc.position());
+    }
+
+    @Test
+    public void fallsBackToCodecFlags() throws Exception {
+        NalUnitScanner scanner = new NalUnitScanner();
+        byte[] garbage = {0x12, 0x34};
+        assertEquals(EncodedFrame.FLAG_KEY_FRAME, flags(scanner, garbage, EncodedFrame.FLAG_KEY_FRAME | 4));
+        assertEquals(0, scanner.getNalCount());
+    }
+
+    private static int flags(NalUnitScanner scanner, byte[] data, int bufferFlags) {
+        return scanner.scan(ByteBuffer.wrap(data), 0, data.length).toFrameFlags(bufferFlags);
+    }
+}
@@ -0,0 +1,135 @@
+package com.ztn.camera.push;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PtsNormalizerTest {
+
+    private static final int VIDEO = EncodedFrame.TRACK_VIDEO;
+    private static final int AUDIO = EncodedFrame.TRACK_AUDIO;
+    private static final long VIDEO_FRAME_US = 33333L;
+    private static final long AUDIO_FRAME_US = 23220L;
+    // encoder output lags capture by this much
+    private static final long ENCODER_DELAY_US = 20000L;
+
+    @Test
+    public void startsAtZeroAndDropsUntilResumed() throws Exception {
+        PtsNormalizer normalizer = new PtsNormalizer();
+        assertTrue(normalizer.isPaused());
+        assertEquals(PtsNormalizer.DROP, normalizer.normalize(VIDEO, 500000L, 520000L));
+
+        normalizer.resume(1000000L);
+        // captured before the resume, encoded after it
+        assertEquals(PtsNormalizer.DROP, normalizer.normalize(VIDEO, 990000L, 1010000L));
+        assertEquals(0L, normalizer.normalize(VIDEO, 1000000L, 1020000L));
+        assertEquals(VIDEO_FRAME_US, normalizer.normalize(VIDEO, 1000000L + VIDEO_FRAME_US, 1053333L));
+        assertEquals(10000L, normalizer.normalize(AUDIO, 1010000L, 1030000L));
+    }
+
+    @Test
+    public void pauseGapIsCutFromBothTracks() throws Exception {
+        PtsNormalizer normalizer = new PtsNormalizer();
+        normalizer.resume(0L);
+        long videoPts = 0L;
+        long audioPts = 0L;
+        long lastVideoOut = 0L;
+        long lastAudioOut = 0L;
+        for (int i = 0; i < 30; i++, videoPts += VIDEO_FRAME_US) {
+            lastVideoOut = normalizer.normalize(VIDEO, videoPts, videoPts + ENCODER_DELAY_US);
+        }
+        for (; audioPts < videoPts; audioPts += AUDIO_FRAME_US) {
+            lastAudioOut = normalizer.normalize(AUDIO, audioPts, audioPts + ENCODER_DELAY_US);
+        }
+
+        normalizer.pause(videoPts);
+        long pauseUs = 5000000L;
+        for (long t = videoPts; t < videoPts + pauseUs; t += VIDEO_FRAME_US) {
+            assertEquals(PtsNormalizer.DROP, normalizer.normalize(VIDEO, t, t + ENCODER_DELAY_US));
+        }
+        long resumeUs = videoPts + pauseUs;
+        normalizer.resume(resumeUs);
+        assertEquals(pauseUs, normalizer.getPauseGapUs());
+
+        long videoOut = normalizer.normalize(VIDEO, resumeUs, resumeUs + ENCODER_DELAY_US);
+        long audioOut = normalizer.normalize(AUDIO, resumeUs + 5000L, resumeUs + 5000L + ENCODER_DELAY_US);
+        // continues right after the pause point, no hole and no overlap
+        assertTrue(videoOut > lastVideoOut && videoOut - lastVideoOut <= VIDEO_FRAME_US);
+        assertTrue(audioOut > lastAudioOut && audioOut - lastAudioOut <= AUDIO_FRAME_US + 5000L);
+        // and the tracks keep their relation
+        assertEquals(5000L, audioOut - videoOut);
+    }
+
+    @Test
+    public void keepsEachTrackStrictlyIncreasing() throws Exception {
+        PtsNormalizer normalizer = new PtsNormalizer();
+        normalizer.resume(0L);
+        long[] raw = {0L, 23220L, 46440L, 46440L, 40000L, 69660L};
+        long last = Long.MIN_VALUE;
+        for (long pts : raw) {
+            long out = normalizer.normalize(AUDIO, pts, pts + ENCODER_DELAY_US);
+            assertTrue(out > last);
+            last = out;
+        }
+        assertEquals(2L, normalizer.getClampedFrames());
+        // video is independent of audio
+        assertEquals(10000L, normalizer.normalize(VIDEO, 10000L, 30000L));
+    }
+
+    @Test
+    public void slewsAudioTowardsVideoWhenMicClockIsSlow() throws Exception {
+        PtsNormalizer normalizer = new PtsNormalizer();
+        normalizer.resume(0L);
+        // mic clock runs 500ppm slow: its pts fall behind capture time by 30ms per minute
+        long slowPpm = 500L;
+        long durationUs = 120L * 1000000L;
+        long nextVideoUs = 0L;
+        long nextAudioUs = 0L;
+        long lastCorrectionUs = 0L;
+        long lastAudioTrueUs = 0L;
+        long maxErrorUs = 0L;
+        while (nextVideoUs < durationUs || nextAudioUs < durationUs) {
+            if (nextVideoUs <= nextAudioUs) {
+                normalizer.normalize(VIDEO, nextVideoUs, nextVideoUs + ENCODER_DELAY_US + jitter(nextVideoUs));
+                nextVideoUs += VIDEO_FRAME_US;
+                continue;
+            }
+            long trueUs = nextAudioUs;
+            long rawUs = trueUs - trueUs * slowPpm / 1000000L;
+            long out = normalizer.normalize(AUDIO, rawUs, trueUs + ENCODER_DELAY_US + jitter(trueUs));
+            long correctionUs = normalizer.getAudioCorrectionUs();
+            // never faster than the slew limit
+            long stepLimitUs = Math.max(1L, (trueUs - lastAudioTrueUs) * PtsNormalizer.MAX_SLEW_PPM / 1000000L) + 1;
+            assertTrue(Math.abs(correctionUs - lastCorrectionUs) <= stepLimitUs);
+            lastCorrectionUs = correctionUs;
+            lastAudioTrueUs = trueUs;
+            if (trueUs > 10L * 1000000L) {
+                maxErrorUs = Math.max(maxErrorUs, Math.abs(out - trueUs));
+            }
+            nextAudioUs += AUDIO_FRAME_US;
+        }
+        // 60ms of drift at the end, audio stays within a few ms of where it was captured
+        assertTrue("drift " + normalizer.getAudioDriftUs(), normalizer.getAudioDriftUs() > 50000L);
+        assertTrue("max error " + maxErrorUs + "us", maxErrorUs < 8000L);
+    }
+
+    @Test
+    public void noCorrectionWithoutDrift() throws Exception {
+        PtsNormalizer normalizer = new PtsNormalizer();
+        normalizer.resume(0L);
+        for (long t = 0L; t < 30L * 1000000L; t += AUDIO_FRAME_US) {
+            normalizer.normalize(VIDEO, t, t + 30000L + jitter(t));
+            // different but constant pipeline delay is not drift
+            normalizer.normalize(AUDIO, t, t + ENCODER_DELAY_US + jitter(t + 1));
+        }
+        assertEquals(0L, normalizer.getAudioCorrectionUs());
+    }
+
+    /**
+     * deterministic 0..4ms scheduling noise
+     */
+    private static long jitter(long seed) {
+        long x = seed * 6364136223846793005L + 1442695040888963407L;
+        return ((x >>> 33) % 5) * 1000L;
+    }
+}
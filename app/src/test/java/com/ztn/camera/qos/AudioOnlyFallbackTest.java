@@ -0,0 +1,79 @@
+package com.ztn.camera.qos;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AudioOnlyFallbackTest {
+
+    private static final int MIN_BITRATE = 200000;
+
+    @Test
+    public void fallsBackOnlyAtMinBitrateBelowThreshold() throws Exception {
+        AudioOnlyFallback fallback = new AudioOnlyFallback(MIN_BITRATE, MIN_BITRATE, 5000);
+        final List<Boolean> changes = new ArrayList<Boolean>();
+        fallback.setOnAudioOnlyChangedListener(new AudioOnlyFallback.OnAudioOnlyChangedListener() {
+            @Override
+            public void onAudioOnlyChanged(boolean isAudioOnly) {
+                changes.add(isAudioOnly);
+            }
+        });
+        long nowMs = 0;
+        // 100kbps uplink with 2s queued, but bitrate still above the floor: BitrateController's job
+        for (int i = 0; i < 5; i++) {
+            assertFalse(fallback.sample(25000, 100000, 400000, nowMs += 1000));
+        }
+        // at the floor: a short spike is not enough
+        assertFalse(fallback.sample(25000, 100000, MIN_BITRATE, nowMs += 1000));
+        assertFalse(fallback.sample(25000, 100000, MIN_BITRATE, nowMs += 1000));
+        assertFalse(fallback.sample(0, 100000, MIN_BITRATE, nowMs += 1000));
+        assertFalse(fallback.sample(25000, 100000, MIN_BITRATE, nowMs += 1000));
+        assertFalse(fallback.sample(25000, 100000, MIN_BITRATE, nowMs += 1000));
+        assertTrue(changes.isEmpty());
+        assertTrue(fallback.sample(25000, 100000, MIN_BITRATE, nowMs += 1000));
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0));
+
+        // audio only for the retry delay, then only with a drained queue
+        long enteredMs = nowMs;
+        while (nowMs - enteredMs < 4000) {
+            assertTrue(fallback.sample(0, 64000, MIN_BITRATE, nowMs += 1000));
+        }
+        assertTrue(fallback.sample(8000, 64000, MIN_BITRATE, nowMs += 1000));
+        assertFalse(fallback.sample(0, 64000, MIN_BITRATE, nowMs += 1000));
+        assertEquals(2, changes.size());
+        assertFalse(changes.get(1));
+    }
+
+    @Test
+    public void retryDelayDoublesWhenVideoDoesNotHold() throws Exception {
+        AudioOnlyFallback fallback = new AudioOnlyFallback(MIN_BITRATE, MIN_BITRATE, 5000);
+        long nowMs = 0;
+        for (int round = 0; round < 5; round++) {
+            // uplink gone entirely: queue stuck, nothing measured
+            for (int i = 0; i < AudioOnlyFallback.ENTER_HOLD_SAMPLES; i++) {
+                fallback.sample(25000, 0, MIN_BITRATE, nowMs += 1000);
+            }
+            assertTrue(fallback.isAudioOnly());
+            long expected = 5000L << Math.min(round, 3);
+            assertEquals(expected, fallback.getRetryDelayMs());
+            long enteredMs = nowMs;
+            while (fallback.sample(0, 64000, MIN_BITRATE, nowMs += 1000)) {
+                assertTrue(nowMs - enteredMs <= expected);
+            }
+            assertTrue(nowMs - enteredMs >= expected);
+        }
+
+        // video that holds resets the delay
+        nowMs += AudioOnlyFallback.STABLE_VIDEO_MS;
+        assertFalse(fallback.sample(0, 300000, MIN_BITRATE, nowMs));
+        for (int i = 0; i < AudioOnlyFallback.ENTER_HOLD_SAMPLES; i++) {
+            fallback.sample(25000, 50000, MIN_BITRATE, nowMs += 1000);
+        }
+        assertTrue(fallback.isAudioOnly());
+        assertEquals(5000L, fallback.getRetryDelayMs());
+    }
+}
@@ -0,0 +1,110 @@
+package com.ztn.camera.qos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * drive BitrateController with a simulated uplink: the encoder produces at the controlled bitrate,
+ * the link drains at the capacity of the trace, whatever is left waits in the send-queue.
+ */
+public class BitrateControllerTest {
+
+    private static final int MIN = 200000;
+    private static final int MAX = 1000000;
+
+    /**
+     * one sample per second, capacity in bps
+     */
+    private static int[] trace(int... segments) {
+        int total = 0;
+        for (int i = 0; i < segments.length; i += 2) {
+            total += segments[i + 1];
+        }
+        int[] trace = new int[total];
+        int pos = 0;
+        for (int i = 0; i < segments.length; i += 2) {
+            for (int j = 0; j < segments[i + 1]; j++) {
+                trace[pos++] = segments[i];
+            }
+        }
+        return trace;
+    }
+
+    private static class Result {
+        int[] bitrates;
+        long[] queuedBytes;
+        int increased;
+        int decreased;
+    }
+
+    private static Result simulate(BitrateController controller, int[] capacity) {
+        final Result result = new Result();
+        result.bitrates = new int[capacity.length];
+        result.queuedBytes = new long[capacity.length];
+        controller.setOnBitrateChangedListener(new BitrateController.OnBitrateChangedListener() {
+            @Override
+            public void onBitrateChanged(int bitrate, boolean isIncreased) {
+                if (isIncreased) {
+                    result.increased++;
+                } else {
+                    result.decreased++;
+                }
+            }
+        });
+        long queued = 0;
+        int bitrate = controller.getCurrentBitrate();
+        for (int i = 0; i < capacity.length; i++) {
+            queued += bitrate / 8;
+            long sent = Math.min(queued, capacity[i] / 8);
+            queued -= sent;
+            bitrate = controller.sample(queued, (int) (sent * 8));
+            result.bitrates[i] = bitrate;
+            result.queuedBytes[i] = queued;
+        }
+        return result;
+    }
+
+    @Test
+    public void stepsDownOnCongestionAndRecovers() {
+        BitrateController controller = new BitrateController(800000, MIN, MAX, 5);
+        int[] capacity = trace(2000000, 20, 400000, 30, 2000000, 120);
+        Result result = simulate(controller, capacity);
+
+        // congestion starts at t=20; bitrate must fall under capacity within a few seconds
+        assertTrue(result.bitrates[25] <= 400000);
+        // and the send-queue drains again while still congested
+        assertTrue("queue=" + result.queuedBytes[49], result.queuedBytes[49] * 8 < 400000);
+        assertTrue(result.decreased > 0);
+
+        // climbs back to max after the link recovers
+        assertEquals(MAX, result.bitrates[capacity.length - 1]);
+        assertTrue(result.increased > 0);
+    }
+
+    @Test
+    public void neverLeavesConfiguredRange() {
+        BitrateController controller = new BitrateController(600000, MIN, MAX, 5);
+        Result result = simulate(controller, trace(50000, 30, 5000000, 200));
+        for (int bitrate : result.bitrates) {
+            assertTrue(bitrate >= MIN && bitrate <= MAX);
+        }
+        assertEquals(MAX, result.bitrates[result.bitrates.length - 1]);
+    }
+
+    @Test
+    public void higherSensitivityRaisesSlower() {
+        int[] capacity = trace(5000000, 40);
+        Result fast = simulate(new BitrateController(MIN, MIN, MAX, 5), capacity);
+        Result slow = simulate(new BitrateController(MIN, MIN, MAX, 10), capacity);
+        assertTrue(fast.increased > slow.increased);
+    }
+
+    @Test
+    public void holdsOnStableLink() {
+        BitrateController controller = new BitrateController(MAX, MIN, MAX, 5);
+        Result result = simulate(controller, trace(3000000, 60));
+        assertEquals(0, result.decreased);
+        assertEquals(MAX, result.bitrates[59]);
+    }
+}
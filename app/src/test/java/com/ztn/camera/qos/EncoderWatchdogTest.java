@@ -0,0 +1,104 @@
+package com.ztn.camera.qos;
+
+import com.ztn.camera.push.EncodedFrame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EncoderWatchdogTest {
+
+    private static final int VIDEO = EncodedFrame.TRACK_VIDEO;
+    private static final int AUDIO = EncodedFrame.TRACK_AUDIO;
+
+    private static class RecordingListener implements EncoderWatchdog.OnEncoderStallListener {
+        final List<Long> mStalls = new ArrayList<Long>();
+        final List<Long> mRecoveries = new ArrayList<Long>();
+        int mLastTrack = -1;
+
+        @Override
+        public void onEncoderStalled(int trackType, long stalledMs) {
+            mStalls.add(stalledMs);
+            mLastTrack = trackType;
+        }
+
+        @Override
+        public void onEncoderRecovered(int trackType, long recoveryMs) {
+            mRecoveries.add(recoveryMs);
+            mLastTrack = trackType;
+        }
+    }
+
+    @Test
+    public void reportsStallOnlyWhileInputArrives() throws Exception {
+        EncoderWatchdog watchdog = new EncoderWatchdog(3000);
+        RecordingListener listener = new RecordingListener();
+        watchdog.setOnEncoderStallListener(listener);
+        watchdog.start(VIDEO, 0);
+        watchdog.start(AUDIO, 0);
+
+        long input = 0;
+        long nowMs = 0;
+        for (int i = 0; i < 5; i++) {
+            nowMs += 1000;
+            input += 25;
+            watchdog.onEncodedFrame(VIDEO, nowMs);
+            watchdog.onEncodedFrame(AUDIO, nowMs);
+            watchdog.check(VIDEO, input, nowMs);
+            watchdog.check(AUDIO, input, nowMs);
+        }
+        // camera stopped: no input, no output, no stall
+        for (int i = 0; i < 10; i++) {
+            watchdog.check(VIDEO, input, nowMs += 1000);
+        }
+        assertTrue(listener.mStalls.isEmpty());
+
+        // input again but the encoder stays silent
+        long lastOutputMs = nowMs - 10000;
+        input += 25;
+        watchdog.check(VIDEO, input, nowMs += 1000);
+        assertEquals(1, listener.mStalls.size());
+        assertEquals(VIDEO, listener.mLastTrack);
+        assertEquals(nowMs - lastOutputMs, (long) listener.mStalls.get(0));
+        assertTrue(watchdog.isStalled(VIDEO));
+        assertFalse(watchdog.isStalled(AUDIO));
+    }
+
+    @Test
+    public void retriesAndReportsRecoveryTime() throws Exception {
+        EncoderWatchdog watchdog = new EncoderWatchdog(3000);
+        RecordingListener listener = new RecordingListener();
+        watchdog.setOnEncoderStallListener(listener);
+        watchdog.start(AUDIO, 0);
+        watchdog.check(AUDIO, 0, 0);
+
+        long input = 0;
+        long nowMs = 0;
+        for (int i = 0; i < 4; i++) {
+            watchdog.check(AUDIO, input += 43, nowMs += 1000);
+        }
+        assertEquals(1, listener.mStalls.size());
+        long stalledAtMs = nowMs;
+
+        // the rebuilt encoder gets the threshold to come up before it is rebuilt again
+        for (int i = 0; i < 3; i++) {
+            watchdog.check(AUDIO, input += 43, nowMs += 1000);
+        }
+        assertEquals(1, listener.mStalls.size());
+        watchdog.check(AUDIO, input += 43, nowMs += 1000);
+        assertEquals(2, listener.mStalls.size());
+
+        watchdog.onEncodedFrame(AUDIO, nowMs + 500);
+        watchdog.check(AUDIO, input += 43, nowMs += 1000);
+        assertEquals(1, listener.mRecoveries.size());
+        assertEquals(nowMs - 500 - stalledAtMs, (long) listener.mRecoveries.get(0));
+        assertFalse(watchdog.isStalled(AUDIO));
+
+        watchdog.stop(AUDIO);
+        watchdog.check(AUDIO, input + 1000, nowMs + 60000);
+        assertEquals(2, listener.mStalls.size());
+    }
+}
@@ -0,0 +1,42 @@
+package com.ztn.camera.qos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameRateControllerTest {
+
+    @Test
+    public void stepsDownAndBackUpWithBitrate() throws Exception {
+        FrameRateController controller = new FrameRateController(25, 1280, 720);
+        final int[] changes = new int[2];
+        controller.setOnFrameRateChangedListener(new FrameRateController.OnFrameRateChangedListener() {
+            @Override
+            public void onFrameRateChanged(int fps, boolean isIncreased) {
+                changes[isIncreased ? 0 : 1]++;
+            }
+        });
+        assertEquals(25, controller.onBitrateChanged(1024000));
+        assertEquals(25, controller.onBitrateChanged(850000));
+        assertEquals(15, controller.onBitrateChanged(700000));
+        assertEquals(10, controller.onBitrateChanged(400000));
+        // collapse straight to the bottom
+        controller.reset();
+        assertEquals(10, controller.onBitrateChanged(200000));
+
+        // just above the threshold is not enough to go back up
+        assertEquals(10, controller.onBitrateChanged(500000));
+        assertEquals(15, controller.onBitrateChanged(700000));
+        // one step per change on the way up
+        assertEquals(15, controller.onBitrateChanged(900000));
+        assertEquals(25, controller.onBitrateChanged(1024000));
+        assertEquals(2, changes[0]);
+        assertEquals(3, changes[1]);
+    }
+
+    @Test
+    public void lowResolutionNeverDrops() throws Exception {
+        FrameRateController controller = new FrameRateController(30, 320, 240);
+        assertEquals(30, controller.onBitrateChanged(200000));
+    }
+}
@@ -0,0 +1,83 @@
+package com.ztn.camera.qos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * drive FrameRateLimiter like the filter does: frames arrive at the capture rate, only submitted ones
+ * are reported, and submission reopens after the returned delay
+ */
+public class FrameRateLimiterTest {
+
+    private static final int CAPTURE_FPS = 25;
+    private static final long CAPTURE_INTERVAL_US = 1000000L / CAPTURE_FPS;
+    // filter runs this long after capture
+    private static final long FILTER_DELAY_US = 8000L;
+
+    private static class Result {
+        int submitted;
+        long maxGapUs;
+        long maxKeyFrameGapUs;
+        int keyFrames;
+    }
+
+    private static Result run(FrameRateLimiter limiter, long durationUs) {
+        Result result = new Result();
+        long openAtUs = 0L;
+        long lastPtsUs = -1L;
+        long lastKeyPtsUs = -1L;
+        boolean isKeyRequested = false;
+        for (long ptsUs = 0L; ptsUs < durationUs; ptsUs += CAPTURE_INTERVAL_US) {
+            long nowUs = ptsUs + FILTER_DELAY_US;
+            if (nowUs < openAtUs) {
+                continue;
+            }
+            result.submitted++;
+            if (lastPtsUs >= 0) {
+                assertTrue(ptsUs > lastPtsUs);
+                result.maxGapUs = Math.max(result.maxGapUs, ptsUs - lastPtsUs);
+            }
+            lastPtsUs = ptsUs;
+            if (isKeyRequested) {
+                if (lastKeyPtsUs >= 0) {
+                    result.maxKeyFrameGapUs = Math.max(result.maxKeyFrameGapUs, ptsUs - lastKeyPtsUs);
+                }
+                lastKeyPtsUs = ptsUs;
+                result.keyFrames++;
+            }
+            isKeyRequested = limiter.isKeyFrameDue(ptsUs);
+            openAtUs = nowUs + limiter.onFrameSubmitted(ptsUs, nowUs);
+        }
+        return result;
+    }
+
+    @Test
+    public void submitsEveryFrameAtCaptureRate() throws Exception {
+        FrameRateLimiter limiter = new FrameRateLimiter(CAPTURE_FPS, 2);
+        assertFalse(limiter.isLimiting());
+        Result result = run(limiter, 10000000L);
+        assertEquals(250, result.submitted);
+        assertEquals(0, result.keyFrames);
+        // above capture rate is capped
+        limiter.setTargetFps(60);
+        assertEquals(CAPTURE_FPS, limiter.getTargetFps());
+    }
+
+    @Test
+    public void averagesTheTargetRateAndKeepsGopSeconds() throws Exception {
+        int[] targets = {15, 10};
+        for (int target : targets) {
+            FrameRateLimiter limiter = new FrameRateLimiter(CAPTURE_FPS, 2);
+            limiter.setTargetFps(target);
+            Result result = run(limiter, 20000000L);
+            assertEquals("target " + target, target * 20, result.submitted, 2);
+            // no frame held longer than one target interval plus a capture interval
+            assertTrue(result.maxGapUs <= 1000000L / target + CAPTURE_INTERVAL_US);
+            // a key frame every 2s, not every 2s worth of frames at 25fps
+            assertTrue(result.keyFrames >= 9);
+            assertTrue("key frame gap " + result.maxKeyFrameGapUs,
+                    result.maxKeyFrameGapUs <= 2000000L + 1000000L / target);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.ztn.camera.rtmp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * local rtmp ingest stand-in: accepts handshake, connect, createStream and publish,
+ * then records when each audio/video message arrives
+ * <p>
+ * serves one publisher at a time; a new connection is accepted after the previous one closes
+ */
+public class LoopbackRtmpServer implements Closeable {
+
+    public static final String APP = "live";
+
+    /**
+     * one complete message as seen by the server
+     */
+    public static class Arrival {
+        public final long arrivalNs;
+        public final int type;
+        public final long timestamp;
+        public final int size;
+        public final int connection;
+        /**
+         * first two bytes of payload: flv frame/codec byte and packet type
+         */
+        public final int tagHeader;
+
+        Arrival(long arrivalNs, int type, long timestamp, int size, int connection, int tagHeader) {
+            this.arrivalNs = arrivalNs;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.size = size;
+            this.connection = connection;
+            this.tagHeader = tagHeader;
+        }
+
+        /**
+         * avc or aac sequence header
+         */
+        public boolean isSequenceHeader() {
+            return (tagHeader & 0xff) == 0;
+        }
+
+        public boolean isKeyFrame() {
+            return type == RtmpMessage.TYPE_VIDEO && (tagHeader >> 12) == 1 && !isSequenceHeader();
+        }
+    }
+
+    private final ServerSocketChannel mServer;
+    private final Thread mAcceptThread;
+    private volatile boolean mIsClosed = false;
+    private volatile SocketChannel mClient;
+    private volatile boolean mIsReadingPaused = false;
+    private volatile long mReadBitrate = 0L;
+
+    private final List<Arrival> mArrivals = new ArrayList<Arrival>();
+    private int mConnections = 0;
+    private int mPublishes = 0;
+    private long mReceivedBytes = 0L;
+
+    public LoopbackRtmpServer() throws IOException {
+        mServer = ServerSocketChannel.open();
+        mServer.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        mAcceptThread = new Thread("LoopbackRtmpServer") {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    public int getPort() {
+        return mServer.socket().getLocalPort();
+    }
+
+    public String getUrl(String streamName) {
+        return "rtmp://127.0.0.1:" + getPort() + "/" + APP + "/" + streamName;
+    }
+
+    public synchronized List<Arrival> getArrivals() {
+        return new ArrayList<Arrival>(mArrivals);
+    }
+
+    public synchronized long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    public synchronized int getConnections() {
+        return mConnections;
+    }
+
+    public synchronized int getPublishes() {
+        return mPublishes;
+    }
+
+    /**
+     * wait until this many audio/video messages arrived
+     */
+    public synchronized boolean awaitArrivals(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mArrivals.size() < count) {
+            long waitMs = deadline - System.currentTimeMillis();
+            if (waitMs <= 0) {
+                return false;
+            }
+            wait(waitMs);
+        }
+        return true;
+    }
+
+    public synchronized boolean awaitPublishes(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mPublishes < count) {
+            long waitMs = deadline - System.currentTimeMillis();
+            if (waitMs <= 0) {
+                return false;
+            }
+            wait(waitMs);
+        }
+        return true;
+    }
+
+    /**
+     * stop reading from the publisher, as a stalled ingest would; tcp backpressure does the rest
+     */
+    public void setReadingPaused(boolean isPaused) {
+        mIsReadingPaused = isPaused;
+    }
+
+    /**
+     * read at most this many bits per second, as a slow uplink would; 0 for no limit. set before connecting
+     */
+    public void setReadBitrate(long readBitrate) {
+        mReadBitrate = readBitrate;
+    }
+
+    /**
+     * drop the current publisher connection, as an ingest restart would
+     */
+    public void disconnectClient() {
+        SocketChannel client = mClient;
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        mIsClosed = true;
+        disconnectClient();
+        try {
+            mServer.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            mAcceptThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mIsClosed) {
+            try {
+                SocketChannel client = mServer.accept();
+                client.socket().setTcpNoDelay(true);
+                mClient = client;
+                int connection;
+                synchronized (this) {
+                    connection = ++mConnections;
+                }
+                try {
+                    serve(client, connection);
+                } catch (IOException e) {
+                    // publisher went away
+                } finally {
+                    mClient = null;
+                    client.close();
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(SocketChannel client, int connection) throws IOException {
+        RtmpChunkReader reader = new RtmpChunkReader(client);
+        RtmpChunkWriter writer = new RtmpChunkWriter(client);
+
+        ByteBuffer c0c1 = ByteBuffer.allocate(1 + 1536);
+        reader.readFully(c0c1, c0c1.capacity());
+        ByteBuffer s0s1s2 = ByteBuffer.allocate(1 + 1536 * 2);
+        s0s1s2.put((byte) 3);
+        s0s1s2.position(1 + 1536);
+        c0c1.position(1);
+        s0s1s2.put(c0c1); // S2 echoes C1
+        s0s1s2.flip();
+        while (s0s1s2.hasRemaining()) {
+            client.write(s0s1s2);
+        }
+        ByteBuffer c2 = ByteBuffer.allocate(1536);
+        reader.readFully(c2, c2.capacity());
+
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        long ackWindowSize = 0L;
+        long lastAckBytes = 0L;
+        long throttleStartNs = 0L;
+        long throttleStartBytes = 0L;
+        while (!mIsClosed) {
+            while (mIsReadingPaused && !mIsClosed) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            RtmpMessage message = reader.readMessage();
+            long readBitrate = mReadBitrate;
+            if (readBitrate > 0) {
+                if (throttleStartNs == 0) {
+                    throttleStartNs = System.nanoTime();
+                    throttleStartBytes = reader.getBytesRead();
+                }
+                long dueNs = throttleStartNs
+                        + (reader.getBytesRead() - throttleStartBytes) * 8 * 1000000000L / readBitrate;
+                long sleepNs = dueNs - System.nanoTime();
+                if (sleepNs > 0) {
+                    try {
+                        Thread.sleep(sleepNs / 1000000, (int) (sleepNs % 1000000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            long arrivalNs = System.nanoTime();
+            switch (message.type) {
+                case RtmpMessage.TYPE_AUDIO:
+                case RtmpMessage.TYPE_VIDEO:
+                    int tagHeader = message.payload.remaining() >= 2 ? message.payload.getShort(0) & 0xffff : 0;
+                    synchronized (this) {
+                        mArrivals.add(new Arrival(arrivalNs, message.type, message.timestamp,
+                                message.payload.remaining(), connection, tagHeader));
+                        mReceivedBytes += message.payload.remaining();
+                        notifyAll();
+                    }
+                    break;
+                case RtmpMessage.TYPE_COMMAND_AMF0:
+                    handleCommand(writer, out, message);
+                    break;
+                case RtmpMessage.TYPE_WINDOW_ACK_SIZE:
+                    ackWindowSize = message.payload.getInt(0) & 0xffffffffL;
+                    break;
+                default:
+                    break;
+            }
+            // acknowledge like an ingest server does, so the publisher can measure its ack lag
+            if (ackWindowSize > 0 && reader.getBytesRead() - lastAckBytes >= ackWindowSize) {
+                lastAckBytes = reader.getBytesRead();
+                out.clear();
+                out.putInt((int) lastAckBytes).flip();
+                writer.writeMessage(2, RtmpMessage.TYPE_ACKNOWLEDGEMENT, 0, 0, null, out);
+            }
+        }
+    }
+
+    private void handleCommand(RtmpChunkWriter writer, ByteBuffer out, RtmpMessage message) throws IOException {
+        List<Object> values = Amf0.readAll(message.payload);
+        if (values.size() < 2) {
+            return;
+        }
+        Object name = values.get(0);
+        double transactionId = values.get(1) instanceof Double ? (Double) values.get(1) : 0;
+        out.clear();
+        if ("connect".equals(name)) {
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            properties.put("fmsVer", "FMS/3,0,1,123");
+            Map<String, Object> information = new LinkedHashMap<String, Object>();
+            information.put("level", "status");
+            information.put("code", "NetConnection.Connect.Success");
+            Amf0.writeString(out, "_result");
+            Amf0.writeNumber(out, transactionId);
+            Amf0.writeObject(out, properties);
+            Amf0.writeObject(out, information);
+        } else if ("createStream".equals(name)) {
+            Amf0.writeString(out, "_result");
+            Amf0.writeNumber(out, transactionId);
+            Amf0.writeNull(out);
+            Amf0.writeNumber(out, 1);
+        } else if ("publish".equals(name)) {
+            Map<String, Object> information = new LinkedHashMap<String, Object>();
+            information.put("level", "status");
+            information.put("code", "NetStream.Publish.Start");
+            Amf0.writeString(out, "onStatus");
+            Amf0.writeNumber(out, 0);
+            Amf0.writeNull(out);
+            Amf0.writeObject(out, information);
+        } else {
+            return;
+        }
+        out.flip();
+        writer.writeMessage(3, RtmpMessage.TYPE_COMMAND_AMF0, message.streamId, 0, null, out);
+        if ("publish".equals(name)) {
+            synchronized (this) {
+                mPublishes++;
+                notifyAll();
+            }
+        }
+    }
+}
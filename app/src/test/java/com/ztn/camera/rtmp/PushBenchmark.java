@@ -0,0 +1,230 @@
+package com.ztn.camera.rtmp;
+
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.EncodedFrameQueue;
+import com.ztn.camera.push.FrameSink;
+import com.ztn.camera.push.FrameWriterThread;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * drives the push path (FrameWriterThread -> EncodedFrameQueue -> RtmpSink) with synthetic
+ * encoded frames against {@link LoopbackRtmpServer}
+ * <p>
+ * run from the command line with: fps bitrate(bps) seconds
+ */
+public class PushBenchmark {
+
+    public static final int AUDIO_SAMPLE_RATE = 44100;
+    public static final int AUDIO_BITRATE = 64000;
+
+    private int mFps = 30;
+    private int mVideoBitrate = 2000000;
+    private int mDurationMs = 3000;
+    private int mGopFrames = 60;
+
+    /**
+     * numbers of one run
+     */
+    public static class Result {
+        public int videoFramesSent;
+        public int videoFramesReceived;
+        public int audioFramesReceived;
+        public long receivedBytes;
+        public long durationNs;
+        /**
+         * offer to arrival at server, per video frame, sorted
+         */
+        public long[] latencyNs;
+        public long writerCpuNs;
+        public long producerCpuNs;
+
+        public double throughputKbps() {
+            return receivedBytes * 8.0 * 1000000 / durationNs;
+        }
+
+        public long latencyPercentileNs(double percentile) {
+            if (latencyNs.length == 0) {
+                return -1;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencyNs.length) - 1;
+            return latencyNs[Math.max(0, Math.min(latencyNs.length - 1, index))];
+        }
+
+        public long cpuNsPerFrame() {
+            int frames = videoFramesReceived + audioFramesReceived;
+            return frames == 0 ? 0 : (writerCpuNs + producerCpuNs) / frames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("video %d/%d frames, audio %d frames, throughput %.1f kbps, "
+                            + "latency p50 %.2f ms p90 %.2f ms p99 %.2f ms max %.2f ms, "
+                            + "cpu %.1f us/frame (writer %.1f ms, producer %.1f ms)",
+                    videoFramesReceived, videoFramesSent, audioFramesReceived, throughputKbps(),
+                    latencyPercentileNs(50) / 1e6, latencyPercentileNs(90) / 1e6,
+                    latencyPercentileNs(99) / 1e6, latencyPercentileNs(100) / 1e6,
+                    cpuNsPerFrame() / 1e3, writerCpuNs / 1e6, producerCpuNs / 1e6);
+        }
+    }
+
+    public PushBenchmark setFps(int fps) {
+        mFps = fps;
+        return this;
+    }
+
+    public PushBenchmark setVideoBitrate(int bitrate) {
+        mVideoBitrate = bitrate;
+        return this;
+    }
+
+    public PushBenchmark setDurationMs(int durationMs) {
+        mDurationMs = durationMs;
+        return this;
+    }
+
+    public PushBenchmark setGopFrames(int gopFrames) {
+        mGopFrames = gopFrames;
+        return this;
+    }
+
+    public Result run() throws Exception {
+        return run(null);
+    }
+
+    /**
+     * @param sink null for a RtmpSink to a fresh loopback server
+     */
+    public Result run(FrameSink sink) throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        RtmpSink rtmpSink = null;
+        if (sink == null) {
+            rtmpSink = new RtmpSink(server.getUrl("bench"));
+            sink = rtmpSink;
+        }
+        // one second of data, as LiveStreamSession does
+        EncodedFrameQueue queue = new EncodedFrameQueue((mVideoBitrate + AUDIO_BITRATE) / 8);
+        FrameWriterThread writer = new FrameWriterThread(queue, sink);
+        writer.start();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        int videoFrames = mFps * mDurationMs / 1000;
+        long videoFrameUs = 1000000L / mFps;
+        long audioFrameUs = 1000000L * 1024 / AUDIO_SAMPLE_RATE;
+        int videoFrameSize = mVideoBitrate / 8 / mFps;
+        int audioFrameSize = AUDIO_BITRATE / 8 * 1024 / AUDIO_SAMPLE_RATE;
+        ByteBuffer idr = syntheticNal(0x65, videoFrameSize * 4);
+        ByteBuffer inter = syntheticNal(0x41, videoFrameSize);
+        ByteBuffer audio = syntheticNal(0, audioFrameSize);
+        long[] offerNs = new long[videoFrames];
+
+        ByteBuffer sps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 9,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80});
+        ByteBuffer asc = ByteBuffer.wrap(new byte[]{0x12, 0x10});
+        writer.offer(EncodedFrame.TRACK_VIDEO, sps, 0, sps.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+        writer.offer(EncodedFrame.TRACK_AUDIO, asc, 0, asc.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+
+        long producerCpuStart = threads.getCurrentThreadCpuTime();
+        long startNs = System.nanoTime();
+        long nextAudioUs = 0;
+        int audioFrames = 0;
+        for (int i = 0; i < videoFrames; i++) {
+            long ptsUs = i * videoFrameUs;
+            while (nextAudioUs <= ptsUs) {
+                writer.offer(EncodedFrame.TRACK_AUDIO, audio, 0, audio.remaining(), nextAudioUs, 0);
+                nextAudioUs += audioFrameUs;
+                audioFrames++;
+            }
+            long waitNs = startNs + ptsUs * 1000 - System.nanoTime();
+            if (waitNs > 0) {
+                LockSupport.parkNanos(waitNs);
+            }
+            boolean isKeyFrame = i % mGopFrames == 0;
+            ByteBuffer frame = isKeyFrame ? idr : inter;
+            offerNs[i] = System.nanoTime();
+            writer.offer(EncodedFrame.TRACK_VIDEO, frame, 0, frame.remaining(), ptsUs,
+                    isKeyFrame ? EncodedFrame.FLAG_KEY_FRAME : 0);
+        }
+        long producerCpuNs = threads.getCurrentThreadCpuTime() - producerCpuStart;
+
+        Result result = new Result();
+        result.videoFramesSent = videoFrames;
+        // sequence headers come in addition to the frames
+        server.awaitArrivals(videoFrames + audioFrames + 2, 5000);
+        result.durationNs = System.nanoTime() - startNs;
+        result.writerCpuNs = threads.getThreadCpuTime(writer.getId());
+        result.producerCpuNs = producerCpuNs;
+        writer.quit();
+        writer.join(1000);
+        if (rtmpSink != null) {
+            rtmpSink.close();
+        }
+
+        List<LoopbackRtmpServer.Arrival> arrivals = server.getArrivals();
+        server.close();
+        long[] latencyNs = new long[videoFrames];
+        int latencies = 0;
+        for (LoopbackRtmpServer.Arrival arrival : arrivals) {
+            if (arrival.isSequenceHeader()) {
+                continue;
+            }
+            result.receivedBytes += arrival.size;
+            if (arrival.type == RtmpMessage.TYPE_AUDIO) {
+                result.audioFramesReceived++;
+                continue;
+            }
+            result.videoFramesReceived++;
+            int index = (int) Math.round(arrival.timestamp * 1000.0 / videoFrameUs);
+            if (index >= 0 && index < videoFrames && offerNs[index] > 0) {
+                latencyNs[latencies++] = arrival.arrivalNs - offerNs[index];
+            }
+        }
+        result.latencyNs = Arrays.copyOf(latencyNs, latencies);
+        Arrays.sort(result.latencyNs);
+        return result;
+    }
+
+    private static ByteBuffer syntheticNal(int nalHeader, int size) {
+        byte[] bytes = new byte[Math.max(size, 8)];
+        new Random(size).nextBytes(bytes);
+        if (nalHeader != 0) {
+            bytes[0] = 0;
+            bytes[1] = 0;
+            bytes[2] = 0;
+            bytes[3] = 1;
+            bytes[4] = (byte) nalHeader;
+            // no start code emulation in the body
+            for (int i = 5; i < bytes.length; i++) {
+                if (bytes[i] == 0) {
+                    bytes[i] = 1;
+                }
+            }
+        }
+        // direct like MediaCodec output buffers
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    public static void main(String[] args) throws Exception {
+        PushBenchmark benchmark = new PushBenchmark();
+        if (args.length > 0) {
+            benchmark.setFps(Integer.parseInt(args[0]));
+        }
+        if (args.length > 1) {
+            benchmark.setVideoBitrate(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            benchmark.setDurationMs(Integer.parseInt(args[2]) * 1000);
+        }
+        // warm up, then measure
+        benchmark.run();
+        System.out.println(benchmark.run());
+    }
+}
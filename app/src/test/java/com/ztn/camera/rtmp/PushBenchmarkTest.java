@@ -0,0 +1,19 @@
+package com.ztn.camera.rtmp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PushBenchmarkTest {
+
+    @Test
+    public void publishesEverythingToLoopbackServer() throws Exception {
+        PushBenchmark.Result result = new PushBenchmark()
+                .setFps(30).setVideoBitrate(2000000).setDurationMs(2000).run();
+
+        // timing depends on the machine, PushBenchmark.main measures it
+        assertEquals(result.videoFramesSent, result.videoFramesReceived);
+        assertEquals(result.videoFramesSent, result.latencyNs.length);
+        assertTrue(result.audioFramesReceived > 0);
+    }
+}
@@ -0,0 +1,151 @@
+package com.ztn.camera.rtmp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.*;
+
+public class RtmpChunkWriterTest {
+
+    /**
+     * collects everything written, one gathering write at a time
+     */
+    private static class BufferChannel implements GatheringByteChannel {
+        final ByteBuffer mOut = ByteBuffer.allocate(1024 * 1024);
+        int mWrites;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            mWrites++;
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += srcs[i].remaining();
+                mOut.put(srcs[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        ReadableByteChannel reader() {
+            ByteBuffer in = mOut.duplicate();
+            in.flip();
+            byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            return Channels.newChannel(new ByteArrayInputStream(bytes));
+        }
+    }
+
+    private static ByteBuffer payload(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void splitsIntoChunksAndReassembles() throws IOException {
+        BufferChannel channel = new BufferChannel();
+        RtmpChunkWriter writer = new RtmpChunkWriter(channel);
+        ByteBuffer prefix = ByteBuffer.wrap(new byte[]{0x17, 1, 0, 0, 0});
+        ByteBuffer body = payload(1000);
+
+        writer.writeMessage(6, RtmpMessage.TYPE_VIDEO, 1, 40, prefix, body);
+
+        // 1005 bytes in 128 byte chunks, one gathering write per chunk
+        assertEquals(8, channel.mWrites);
+        assertEquals(0, body.position());
+        assertEquals(1000, body.limit());
+        assertEquals(12 + 1005 + 7, writer.getBytesWritten());
+
+        RtmpMessage message = new RtmpChunkReader(channel.reader()).readMessage();
+        assertEquals(RtmpMessage.TYPE_VIDEO, message.type);
+        assertEquals(1, message.streamId);
+        assertEquals(40, message.timestamp);
+        assertEquals(1005, message.payload.remaining());
+        assertEquals(0x17, message.payload.get(0));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((byte) i, message.payload.get(5 + i));
+        }
+    }
+
+    @Test
+    public void largeChunkSizeAndExtendedTimestamp() throws IOException {
+        BufferChannel channel = new BufferChannel();
+        RtmpChunkWriter writer = new RtmpChunkWriter(channel);
+        ByteBuffer chunkSize = ByteBuffer.allocate(4);
+        chunkSize.putInt(0, RtmpPublisher.CHUNK_SIZE);
+        writer.writeMessage(2, RtmpMessage.TYPE_SET_CHUNK_SIZE, 0, 0, null, chunkSize);
+        writer.setChunkSize(RtmpPublisher.CHUNK_SIZE);
+
+        long timestamp = 0x1000000L;
+        writer.writeMessage(4, RtmpMessage.TYPE_AUDIO, 1, timestamp, null, payload(100000));
+
+        RtmpChunkReader reader = new RtmpChunkReader(channel.reader());
+        assertEquals(RtmpMessage.TYPE_SET_CHUNK_SIZE, reader.readMessage().type);
+        assertEquals(RtmpPublisher.CHUNK_SIZE, reader.getChunkSize());
+        RtmpMessage audio = reader.readMessage();
+        assertEquals(timestamp, audio.timestamp);
+        assertEquals(100000, audio.payload.remaining());
+        assertEquals((byte) 99999, audio.payload.get(99999));
+    }
+
+    @Test
+    public void rewritesAnnexBToAvcc() {
+        FlvTagBuilder builder = new FlvTagBuilder();
+        // 4 byte start codes: rewritten in place
+        ByteBuffer frame = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65, 1, 2, 0, 0, 0, 1, 0x41, 3});
+        ByteBuffer avcc = builder.toAvcc(frame);
+        assertSame(frame, avcc);
+        assertEquals(3, avcc.getInt(0));
+        assertEquals(2, avcc.getInt(7));
+
+        // 3 byte start code: copied with 4 byte length
+        frame = ByteBuffer.wrap(new byte[]{0, 0, 1, 0x65, 1, 2});
+        avcc = builder.toAvcc(frame);
+        assertEquals(7, avcc.remaining());
+        assertEquals(3, avcc.getInt(0));
+        assertEquals(0x65, avcc.get(4));
+    }
+
+    @Test
+    public void buildsAvcDecoderConfigurationRecord() {
+        ByteBuffer csd = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 9,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C});
+        ByteBuffer record = FlvTagBuilder.avcDecoderConfigurationRecord(csd);
+        assertNotNull(record);
+        assertEquals(1, record.get(0));
+        assertEquals(0x42, record.get(1));
+        assertEquals(0x1F, record.get(3));
+        assertEquals(5, record.getShort(6));
+        assertEquals(0x67, record.get(8));
+        assertEquals(1, record.get(13));
+        assertEquals(3, record.getShort(14));
+        assertEquals(11 + 5 + 3, record.remaining());
+    }
+}
@@ -0,0 +1,43 @@
+package com.ztn.camera.rtmp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class RtmpPublisherAckTest {
+
+    @Test
+    public void ackLagFollowsServerAcknowledgements() throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        RtmpPublisher publisher = new RtmpPublisher(server.getUrl("ack"));
+        try {
+            publisher.connect();
+            // nothing acknowledged yet
+            assertEquals(-1L, publisher.getAckLagBytes());
+
+            ByteBuffer header = ByteBuffer.wrap(new byte[]{0x27, 1, 0, 0, 0});
+            ByteBuffer payload = ByteBuffer.allocate(64 * 1024);
+            int frames = 32;
+            for (int i = 0; i < frames; i++) {
+                header.rewind();
+                payload.clear();
+                publisher.writeVideo(i * 40L, header, payload);
+            }
+            assertTrue(server.awaitArrivals(frames, 2000));
+            long deadlineMs = System.currentTimeMillis() + 2000;
+            // acks for the last frames may still be on their way
+            while ((publisher.getAckLagBytes() < 0 || publisher.getAckLagBytes() > RtmpPublisher.ACK_WINDOW_SIZE)
+                    && System.currentTimeMillis() < deadlineMs) {
+                Thread.sleep(5);
+            }
+            long ackLagBytes = publisher.getAckLagBytes();
+            // everything arrived, only the part since the last acknowledgement is outstanding
+            assertTrue("ack lag " + ackLagBytes, ackLagBytes >= 0 && ackLagBytes <= RtmpPublisher.ACK_WINDOW_SIZE);
+        } finally {
+            publisher.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ztn.camera.rtmp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RtmpPublisherProbeTest {
+
+    @Test
+    public void measuresThrottledUplinkWithinDuration() throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        server.setReadBitrate(800000);
+        RtmpPublisher publisher = new RtmpPublisher(server.getUrl("probe"));
+        try {
+            publisher.connect();
+            long startMs = System.currentTimeMillis();
+            int uplinkBps = publisher.probeUplink(1000, 5000000);
+            long durationMs = System.currentTimeMillis() - startMs;
+
+            assertTrue("took " + durationMs + "ms", durationMs < 1300);
+            assertTrue("uplink " + uplinkBps, uplinkBps > 600000 && uplinkBps < 1000000);
+            // padding is not part of the stream
+            assertTrue(server.getArrivals().isEmpty());
+            assertTrue(publisher.isConnected());
+        } finally {
+            publisher.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void stopsEarlyOnceMaxBitrateGetsThrough() throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        RtmpPublisher publisher = new RtmpPublisher(server.getUrl("probe"));
+        try {
+            publisher.connect();
+            long startMs = System.currentTimeMillis();
+            int uplinkBps = publisher.probeUplink(1000, 2000000);
+            long durationMs = System.currentTimeMillis() - startMs;
+
+            assertTrue("took " + durationMs + "ms", durationMs < 500);
+            assertTrue("uplink " + uplinkBps, uplinkBps >= 2000000);
+
+            // media afterwards is acknowledged at the normal window again
+            ByteBuffer header = ByteBuffer.wrap(new byte[]{0x27, 1, 0, 0, 0});
+            ByteBuffer payload = ByteBuffer.allocate(1024);
+            publisher.writeVideo(0, header, payload);
+            assertTrue(server.awaitArrivals(1, 2000));
+        } finally {
+            publisher.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void sinkProbesOnFirstConnectOnly() throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        server.setReadBitrate(2000000);
+        RtmpSink sink = new RtmpSink(server.getUrl("probe"));
+        final AtomicInteger probes = new AtomicInteger();
+        final AtomicInteger lastUplinkBps = new AtomicInteger();
+        sink.setUplinkProbe(500, 10000000, new RtmpSink.OnUplinkProbedListener() {
+            @Override
+            public void onUplinkProbed(int uplinkBps) {
+                probes.incrementAndGet();
+                lastUplinkBps.set(uplinkBps);
+            }
+        });
+        try {
+            sink.connect();
+            assertEquals(1, probes.get());
+            assertTrue("uplink " + lastUplinkBps.get(),
+                    lastUplinkBps.get() > 1500000 && lastUplinkBps.get() < 2500000);
+            server.disconnectClient();
+            sink.connect();
+            assertEquals(1, probes.get());
+        } finally {
+            sink.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ztn.camera.rtmp;
+
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.EncodedFrameQueue;
+import com.ztn.camera.push.FrameWriterThread;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RtmpSinkConfigChangeTest {
+
+    @Test
+    public void newSequenceHeaderGoesOutWithNextKeyFrame() throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        RtmpSink sink = new RtmpSink(server.getUrl("resolution"));
+        FrameWriterThread writer = new FrameWriterThread(new EncodedFrameQueue(1 << 20), sink);
+        writer.enableGopCache(1 << 20);
+        writer.start();
+        try {
+            ByteBuffer sps720 = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 9,
+                    0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C});
+            ByteBuffer sps480 = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1E, 7,
+                    0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C});
+            ByteBuffer idr = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65, 1, 2, 3, 4, 5, 6, 7});
+            ByteBuffer inter = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x41, 1, 2, 3});
+
+            writer.offer(EncodedFrame.TRACK_VIDEO, sps720, 0, sps720.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+            writer.offer(EncodedFrame.TRACK_VIDEO, idr, 0, idr.remaining(), 0, EncodedFrame.FLAG_KEY_FRAME);
+            writer.offer(EncodedFrame.TRACK_VIDEO, inter, 0, inter.remaining(), 40000, 0);
+            // the encoder is rebuilt at 480p: new sps/pps, then its IDR. a late frame of the old encoder
+            // in between must not reach viewers with the new header
+            writer.offer(EncodedFrame.TRACK_VIDEO, sps480, 0, sps480.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+            writer.offer(EncodedFrame.TRACK_VIDEO, inter, 0, inter.remaining(), 80000, 0);
+            writer.offer(EncodedFrame.TRACK_VIDEO, idr, 0, idr.remaining(), 120000, EncodedFrame.FLAG_KEY_FRAME);
+            writer.offer(EncodedFrame.TRACK_VIDEO, inter, 0, inter.remaining(), 160000, 0);
+
+            assertTrue(server.awaitArrivals(6, 2000));
+            Thread.sleep(100);
+        } finally {
+            writer.quit();
+            writer.join(1000);
+            sink.close();
+            server.close();
+        }
+
+        List<LoopbackRtmpServer.Arrival> video = new ArrayList<LoopbackRtmpServer.Arrival>();
+        for (LoopbackRtmpServer.Arrival arrival : server.getArrivals()) {
+            if (arrival.type == RtmpMessage.TYPE_VIDEO) {
+                video.add(arrival);
+            }
+        }
+        // header, idr, p | header, idr, p; still one connection
+        assertEquals(6, video.size());
+        assertEquals(1, server.getPublishes());
+        assertTrue(video.get(0).isSequenceHeader());
+        assertTrue(video.get(1).isKeyFrame());
+        assertFalse(video.get(2).isKeyFrame());
+        assertTrue(video.get(3).isSequenceHeader());
+        assertTrue(video.get(4).isKeyFrame());
+        assertEquals(120, video.get(4).timestamp);
+        assertEquals(160, video.get(5).timestamp);
+    }
+}
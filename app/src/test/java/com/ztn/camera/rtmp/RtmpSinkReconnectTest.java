@@ -0,0 +1,78 @@
+package com.ztn.camera.rtmp;
+
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.EncodedFrameQueue;
+import com.ztn.camera.push.FrameWriterThread;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RtmpSinkReconnectTest {
+
+    @Test
+    public void reconnectsAndReplaysGop() throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        RtmpSink sink = new RtmpSink(server.getUrl("reconnect"));
+        FrameWriterThread writer = new FrameWriterThread(new EncodedFrameQueue(1 << 20), sink);
+        writer.enableGopCache(1 << 20);
+        writer.start();
+
+        ByteBuffer sps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 9,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C});
+        ByteBuffer asc = ByteBuffer.wrap(new byte[]{0x12, 0x10});
+        ByteBuffer idr = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65, 1, 2, 3, 4, 5, 6, 7});
+        ByteBuffer inter = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x41, 1, 2, 3});
+        ByteBuffer aac = ByteBuffer.wrap(new byte[]{0x21, 0x10, 0x05});
+        writer.offer(EncodedFrame.TRACK_VIDEO, sps, 0, sps.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+        writer.offer(EncodedFrame.TRACK_AUDIO, asc, 0, asc.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+
+        // one gop of 100 frames at 50fps, the ingest drops us after 20
+        for (int i = 0; i < 100; i++) {
+            long ptsUs = i * 20000L;
+            if (i == 20) {
+                assertTrue(server.awaitPublishes(1, 2000));
+                server.disconnectClient();
+            }
+            ByteBuffer video = i == 0 ? idr : inter;
+            writer.offer(EncodedFrame.TRACK_VIDEO, video, 0, video.remaining(), ptsUs,
+                    i == 0 ? EncodedFrame.FLAG_KEY_FRAME : 0);
+            writer.offer(EncodedFrame.TRACK_AUDIO, aac, 0, aac.remaining(), ptsUs, 0);
+            Thread.sleep(20);
+        }
+        assertTrue(server.awaitPublishes(2, 2000));
+        Thread.sleep(100);
+        writer.quit();
+        writer.join(1000);
+        sink.close();
+        server.close();
+
+        assertEquals(1, writer.getResumeCount());
+        assertTrue(writer.getLastResumeTimeMs() >= 0);
+        assertTrue(writer.getLastResumeTimeMs() < 2000);
+
+        // the second connection starts with sequence headers and the cached key frame,
+        // not with a frame that cannot be decoded
+        List<LoopbackRtmpServer.Arrival> arrivals = server.getArrivals();
+        LoopbackRtmpServer.Arrival firstVideo = null;
+        boolean hasVideoSequenceHeader = false;
+        for (LoopbackRtmpServer.Arrival arrival : arrivals) {
+            if (arrival.connection != 2 || arrival.type != RtmpMessage.TYPE_VIDEO) {
+                continue;
+            }
+            if (arrival.isSequenceHeader()) {
+                hasVideoSequenceHeader = true;
+            } else {
+                firstVideo = arrival;
+                break;
+            }
+        }
+        assertTrue(hasVideoSequenceHeader);
+        assertNotNull(firstVideo);
+        assertTrue(firstVideo.isKeyFrame());
+        assertEquals(0, firstVideo.timestamp);
+    }
+}
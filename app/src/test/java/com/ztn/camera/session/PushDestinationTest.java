@@ -0,0 +1,234 @@
+package com.ztn.camera.session;
+
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.FrameSink;
+import com.ztn.camera.rtmp.LoopbackRtmpServer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PushDestinationTest {
+
+    private static final PushDestination.Callback CALLBACK = new PushDestination.Callback() {
+        @Override
+        public void onKeyFrameRequired() {
+        }
+
+        @Override
+        public void scheduleReconnect(PushDestination destination, long delayMs) {
+        }
+
+        @Override
+        public void onResumed(PushDestination destination, long resumeTimeMs) {
+        }
+
+        @Override
+        public void onUplinkProbed(PushDestination destination, int uplinkBps) {
+        }
+    };
+
+    private static ByteBuffer nal(int header, int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putInt(1).put((byte) header);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0x55);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void stalledDestinationDoesNotHoldBackOthers() throws Exception {
+        LoopbackRtmpServer fast = new LoopbackRtmpServer();
+        LoopbackRtmpServer stalled = new LoopbackRtmpServer();
+        int frames = 60;
+        int frameSize = 256 * 1024;
+        PushDestination fastDestination = new PushDestination(fast.getUrl("a"), null,
+                frameSize * 10, frameSize * 40, 30, 0, CALLBACK);
+        PushDestination stalledDestination = new PushDestination(stalled.getUrl("b"), null,
+                frameSize * 10, frameSize * 40, 30, 0, CALLBACK);
+        PushDestination[] destinations = {fastDestination, stalledDestination};
+        for (PushDestination destination : destinations) {
+            destination.connect();
+            destination.start();
+        }
+        try {
+            pushThrough(fast, stalled, fastDestination, stalledDestination, frames, frameSize);
+        } finally {
+            stalled.setReadingPaused(false);
+            for (PushDestination destination : destinations) {
+                destination.stop();
+                destination.release();
+            }
+            fast.close();
+            stalled.close();
+        }
+    }
+
+    @Test
+    public void stopsWhileTheIngestIsStalled() throws Exception {
+        LoopbackRtmpServer server = new LoopbackRtmpServer();
+        int frames = 60;
+        int frameSize = 256 * 1024;
+        final PushDestination destination = new PushDestination(server.getUrl("a"), null,
+                frameSize * 10, frameSize * 40, 30, 0, CALLBACK);
+        try {
+            destination.connect();
+            destination.start();
+            ByteBuffer idr = nal(0x65, frameSize);
+            ByteBuffer inter = nal(0x41, frameSize);
+            offerSps(destination);
+            destination.offer(EncodedFrame.TRACK_VIDEO, idr, 0, idr.remaining(), 0, EncodedFrame.FLAG_KEY_FRAME);
+            assertTrue(server.awaitArrivals(2, 3000));
+            server.setReadingPaused(true);
+            for (int i = 1; i < frames; i++) {
+                destination.offer(EncodedFrame.TRACK_VIDEO, inter, 0, inter.remaining(), i * 33333L, 0);
+                Thread.sleep(5);
+            }
+
+            // the writer is blocked in its socket write; stop must not wait for the ingest to read again
+            Thread stopper = new Thread() {
+                @Override
+                public void run() {
+                    destination.stop();
+                }
+            };
+            stopper.start();
+            stopper.join(10000);
+            assertFalse(stopper.isAlive());
+            // the stalled frames never went out
+            assertTrue(destination.getSentFrames() < frames + 1);
+            destination.release();
+            server.setReadingPaused(false);
+
+            destination.connect();
+            destination.start();
+            offerSps(destination);
+            destination.offer(EncodedFrame.TRACK_VIDEO, idr, 0, idr.remaining(), 0, EncodedFrame.FLAG_KEY_FRAME);
+            assertTrue(server.awaitPublishes(2, 5000));
+            assertTrue(awaitKeyFrame(server, server.getConnections(), 5000));
+        } finally {
+            server.setReadingPaused(false);
+            destination.stop();
+            destination.release();
+            server.close();
+        }
+    }
+
+    @Test
+    public void restartWaitsForTheWriteInProgress() throws Exception {
+        SlowSink sink = new SlowSink(300);
+        PushDestination destination = new PushDestination("rtmp://localhost/live/a", null,
+                1 << 20, 1 << 20, 30, 0, CALLBACK);
+        destination.setFrameSink(sink);
+        destination.start();
+        ByteBuffer idr = nal(0x65, 1024);
+        destination.offer(EncodedFrame.TRACK_VIDEO, idr, 0, idr.remaining(), 0, EncodedFrame.FLAG_KEY_FRAME);
+        assertTrue(sink.mEntered.await(3, TimeUnit.SECONDS));
+
+        destination.stop();
+        // the old writer is out of the sink and its frame is counted
+        assertEquals(0, sink.mInside.get());
+        assertEquals(1, destination.getSentFrames());
+
+        destination.start();
+        for (int i = 1; i <= 3; i++) {
+            destination.offer(EncodedFrame.TRACK_VIDEO, idr, 0, idr.remaining(), i * 33333L,
+                    EncodedFrame.FLAG_KEY_FRAME);
+        }
+        long deadlineMs = System.currentTimeMillis() + 3000;
+        while (destination.getSentFrames() < 4 && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        destination.stop();
+        assertEquals(4, destination.getSentFrames());
+        assertEquals(1, sink.mMaxInside.get());
+    }
+
+    private static void offerSps(PushDestination destination) {
+        ByteBuffer sps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 9,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C});
+        destination.offer(EncodedFrame.TRACK_VIDEO, sps, 0, sps.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+    }
+
+    private static boolean awaitKeyFrame(LoopbackRtmpServer server, int connection, long timeoutMs)
+            throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadlineMs) {
+            for (LoopbackRtmpServer.Arrival arrival : server.getArrivals()) {
+                if (arrival.connection == connection && arrival.isKeyFrame()) {
+                    return true;
+                }
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static class SlowSink implements FrameSink {
+        final CountDownLatch mEntered = new CountDownLatch(1);
+        final AtomicInteger mInside = new AtomicInteger();
+        final AtomicInteger mMaxInside = new AtomicInteger();
+        private final long mWriteMs;
+
+        SlowSink(long writeMs) {
+            mWriteMs = writeMs;
+        }
+
+        @Override
+        public void writeFrame(EncodedFrame frame) {
+            int inside = mInside.incrementAndGet();
+            if (inside > mMaxInside.get()) {
+                mMaxInside.set(inside);
+            }
+            mEntered.countDown();
+            long endMs = System.currentTimeMillis() + mWriteMs;
+            // a blocking socket write does not give up on interrupt either
+            while (System.currentTimeMillis() < endMs) {
+                Thread.yield();
+            }
+            mInside.decrementAndGet();
+        }
+    }
+
+    private static void pushThrough(LoopbackRtmpServer fast, LoopbackRtmpServer stalled,
+                                    PushDestination fastDestination, PushDestination stalledDestination,
+                                    int frames, int frameSize) throws Exception {
+        PushDestination[] destinations = {fastDestination, stalledDestination};
+
+        ByteBuffer sps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 9,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C});
+        ByteBuffer idr = nal(0x65, frameSize);
+        ByteBuffer inter = nal(0x41, frameSize);
+        for (PushDestination destination : destinations) {
+            destination.offer(EncodedFrame.TRACK_VIDEO, sps, 0, sps.remaining(), 0, EncodedFrame.FLAG_CODEC_CONFIG);
+        }
+        for (int i = 0; i < frames; i++) {
+            if (i == 1) {
+                // both are publishing, then one ingest stops reading
+                assertTrue(fast.awaitArrivals(2, 3000));
+                assertTrue(stalled.awaitArrivals(2, 3000));
+                stalled.setReadingPaused(true);
+            }
+            ByteBuffer frame = i % 30 == 0 ? idr : inter;
+            for (PushDestination destination : destinations) {
+                destination.offer(EncodedFrame.TRACK_VIDEO, frame, 0, frame.remaining(), i * 33333L,
+                        i % 30 == 0 ? EncodedFrame.FLAG_KEY_FRAME : 0);
+            }
+            Thread.sleep(33);
+        }
+        // sequence header + every frame
+        assertTrue(fast.awaitArrivals(frames + 1, 3000));
+
+        assertEquals(frames + 1, fastDestination.getSentFrames());
+        assertEquals(0, fastDestination.getDroppedFrames());
+        // the stalled one is blocked in its own socket write, its frames wait in its own ring
+        assertTrue(stalledDestination.getSentFrames() < frames);
+    }
+}
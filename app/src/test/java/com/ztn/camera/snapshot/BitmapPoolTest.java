@@ -0,0 +1,68 @@
+package com.ztn.camera.snapshot;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class BitmapPoolTest {
+
+    @Test
+    public void reusesAReleasedBitmapOfTheSameSize() throws Exception {
+        BitmapPool pool = new BitmapPool(2);
+        Bitmap first = pool.acquire(640, 360);
+        assertEquals(640, first.getWidth());
+        assertEquals(360, first.getHeight());
+        pool.release(first);
+
+        assertSame(first, pool.acquire(640, 360));
+        // in use, so the next one is new
+        Bitmap second = pool.acquire(640, 360);
+        assertNotSame(first, second);
+        Bitmap other = pool.acquire(360, 640);
+        assertEquals(3, pool.getAllocationCount());
+
+        pool.release(first);
+        pool.release(other);
+        assertSame(other, pool.acquire(360, 640));
+        assertSame(first, pool.acquire(640, 360));
+        assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void recyclesTheOldestWhenFull() throws Exception {
+        BitmapPool pool = new BitmapPool(2);
+        Bitmap small = pool.acquire(160, 90);
+        Bitmap medium = pool.acquire(320, 180);
+        Bitmap large = pool.acquire(640, 360);
+        pool.release(small);
+        pool.release(medium);
+        pool.release(large);
+
+        assertTrue(small.isRecycled());
+        assertFalse(medium.isRecycled());
+        assertNotSame(small, pool.acquire(160, 90));
+        assertSame(medium, pool.acquire(320, 180));
+        assertEquals(4, pool.getAllocationCount());
+    }
+
+    @Test
+    public void skipsRecycledBitmapsAndClears() throws Exception {
+        BitmapPool pool = new BitmapPool(2);
+        pool.release(null);
+        Bitmap recycled = pool.acquire(160, 90);
+        recycled.recycle();
+        pool.release(recycled);
+        assertNotSame(recycled, pool.acquire(160, 90));
+
+        Bitmap free = pool.acquire(320, 180);
+        pool.release(free);
+        pool.clear();
+        assertTrue(free.isRecycled());
+        assertNotSame(free, pool.acquire(320, 180));
+    }
+}
@@ -0,0 +1,103 @@
+package com.ztn.camera.snapshot;
+
+import android.graphics.Bitmap;
+
+import com.ztn.camera.listener.ScreenShotListener;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScreenShotterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fitsTheLongerEdge() throws Exception {
+        assertEquals(size(1280, 720), ScreenShotter.fitSize(1280, 720, 0));
+        assertEquals(size(1280, 720), ScreenShotter.fitSize(1280, 720, 1920));
+        assertEquals(size(640, 360), ScreenShotter.fitSize(1280, 720, 640));
+        assertEquals(size(360, 640), ScreenShotter.fitSize(720, 1280, 640));
+        assertEquals(size(1, 1), ScreenShotter.fitSize(4000, 2, 1));
+    }
+
+    @Test
+    public void writesTheShotAndCallsBack() throws Exception {
+        final Bitmap frame = Bitmap.createBitmap(1280, 720, Bitmap.Config.ARGB_8888);
+        ScreenShotter shotter = new ScreenShotter(new ScreenShotter.Source() {
+            @Override
+            public Bitmap getScreenShot() {
+                return frame;
+            }
+        });
+        File file = new File(folder.getRoot(), "shot.jpg");
+        Result result = new Result();
+        shotter.takeScreenShot(file, 640, Bitmap.CompressFormat.JPEG, 90, result);
+        assertTrue(result.mDone.await(5, TimeUnit.SECONDS));
+        shotter.release();
+
+        assertTrue(result.mIsSuccess);
+        assertEquals(file, result.mFile);
+        assertEquals(640, result.mWidth);
+        assertEquals(360, result.mHeight);
+        assertTrue(file.length() > 0);
+        assertFalse(frame.isRecycled());
+    }
+
+    @Test
+    public void failsWithoutAFrame() throws Exception {
+        ScreenShotter shotter = new ScreenShotter(new ScreenShotter.Source() {
+            @Override
+            public Bitmap getScreenShot() {
+                // preview not running
+                return null;
+            }
+        });
+        File file = new File(folder.getRoot(), "shot.png");
+        Result result = new Result();
+        shotter.takeScreenShot(file, 0, Bitmap.CompressFormat.PNG, 100, result);
+        assertTrue(result.mDone.await(5, TimeUnit.SECONDS));
+        shotter.release();
+
+        assertFalse(result.mIsSuccess);
+        assertEquals(file, result.mFile);
+        assertFalse(file.exists());
+    }
+
+    private static int size(int width, int height) {
+        return width << 16 | height;
+    }
+
+    private static class Result implements ScreenShotListener {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile boolean mIsSuccess = false;
+        volatile File mFile;
+        volatile int mWidth;
+        volatile int mHeight;
+
+        @Override
+        public void onScreenShot(File file, int width, int height, int waitMs, int encodeMs) {
+            mIsSuccess = true;
+            mFile = file;
+            mWidth = width;
+            mHeight = height;
+            mDone.countDown();
+        }
+
+        @Override
+        public void onScreenShotFailed(File file) {
+            mFile = file;
+            mDone.countDown();
+        }
+    }
+}
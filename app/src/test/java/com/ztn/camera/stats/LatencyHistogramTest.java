@@ -0,0 +1,104 @@
+package com.ztn.camera.stats;
+
+import com.ztn.camera.push.EncodedFrame;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesWithinOneSixteenth() throws Exception {
+        int lastIndex = -1;
+        for (long value = 0L; value < (1L << 20); value += 1 + value / 64) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index >= lastIndex);
+            lastIndex = index;
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertTrue(highest >= value);
+            assertTrue("value " + value, highest - value <= Math.max(0L, value / 16));
+            assertEquals(index, LatencyHistogram.bucketIndex(highest));
+            assertEquals(index + 1, LatencyHistogram.bucketIndex(highest + 1));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesOfUniformValues() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getValueAtPercentile(50));
+        for (long us = 1L; us <= 100000L; us++) {
+            histogram.record(us);
+        }
+        assertEquals(100000L, histogram.getCount());
+        assertEquals(100000L, histogram.getMax());
+        assertEquals(50000L, histogram.getMean());
+        assertNear(50000L, histogram.getValueAtPercentile(50));
+        assertNear(90000L, histogram.getValueAtPercentile(90));
+        assertNear(99000L, histogram.getValueAtPercentile(99));
+        assertEquals(100000L, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        histogram.record(-5L);
+        assertEquals(0L, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void concurrentRecordLosesNothing() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int perThread = 100000;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i % 1000 + offset);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        startLatch.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals((long) threads * perThread, histogram.getCount());
+        assertEquals(999L + threads - 1, histogram.getMax());
+    }
+
+    @Test
+    public void encoderStageMatchesInputByPts() throws Exception {
+        PipelineLatency latency = new PipelineLatency();
+        for (long pts = 0L; pts < 100 * 33333L; pts += 33333L) {
+            // 5ms in the filter, 12ms in the encoder
+            latency.markEncoderInput(EncodedFrame.TRACK_VIDEO, pts, pts + 5000L);
+            latency.markEncoderOutput(EncodedFrame.TRACK_VIDEO, pts, pts + 17000L);
+        }
+        // encoder made up its own pts
+        latency.markEncoderOutput(EncodedFrame.TRACK_AUDIO, 1L, 20000L);
+
+        assertEquals(100L, latency.getHistogram(PipelineLatency.STAGE_VIDEO_ENCODE).getCount());
+        assertNear(12000L, latency.getPercentileUs(PipelineLatency.STAGE_VIDEO_ENCODE, 99));
+        assertNear(5000L, latency.getPercentileUs(PipelineLatency.STAGE_VIDEO_FILTER, 50));
+        assertEquals(0L, latency.getHistogram(PipelineLatency.STAGE_AUDIO_ENCODE).getCount());
+        assertEquals(1L, latency.getUnmatchedFrames());
+        assertTrue(latency.dump().contains("video encode"));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
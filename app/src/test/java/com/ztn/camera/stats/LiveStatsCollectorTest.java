@@ -0,0 +1,84 @@
+package com.ztn.camera.stats;
+
+import com.ztn.camera.push.EncodedFrame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LiveStatsCollectorTest {
+
+    @Test
+    public void ratesCoverTheLastInterval() throws Exception {
+        LiveStatsCollector collector = new LiveStatsCollector();
+        assertNull(collector.sample(1000L, 0L, 0L, 0L, 0L, -1L));
+
+        // 2s at 25fps, 10KB video frames, 47 aac frames of 400 bytes per second
+        for (int i = 0; i < 50; i++) {
+            collector.onEncodedFrame(EncodedFrame.TRACK_VIDEO, 10000, 30000L);
+        }
+        for (int i = 0; i < 94; i++) {
+            collector.onEncodedFrame(EncodedFrame.TRACK_AUDIO, 400, 25000L);
+        }
+        collector.onFrameDropped(LiveStats.DROP_REASON_NO_KEY_FRAME);
+        collector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
+        collector.onFrameDropped(LiveStats.DROP_REASON_PAUSED);
+
+        LiveStats stats = collector.sample(3000L, 60L, 3L, 1L, 4096L, 1000L);
+        assertNotNull(stats);
+        assertSame(stats, collector.getLatestStats());
+        assertEquals(2000L, stats.getIntervalMs());
+        assertEquals(30f, stats.getCaptureFps(), 0.01f);
+        assertEquals(25f, stats.getEncodedFps(), 0.01f);
+        assertEquals(2000000, stats.getVideoBitrateBps());
+        assertEquals(150400, stats.getAudioBitrateBps());
+        assertEquals(2L, stats.getDroppedFrames(LiveStats.DROP_REASON_PAUSED));
+        assertEquals(1L, stats.getDroppedFrames(LiveStats.DROP_REASON_NO_KEY_FRAME));
+        assertEquals(3L, stats.getDroppedFrames(LiveStats.DROP_REASON_CONGESTION));
+        assertEquals(1L, stats.getDroppedFrames(LiveStats.DROP_REASON_OVERFLOW));
+        assertEquals(7L, stats.getTotalDroppedFrames());
+        assertEquals(4096L, stats.getSendQueueBytes());
+        assertEquals(1000L, stats.getAckLagBytes());
+        assertTrue(Math.abs(stats.getVideoEncoderLatencyUs() - 30000L) <= 30000L / 16);
+        assertTrue(Math.abs(stats.getAudioEncoderLatencyUs() - 25000L) <= 25000L / 16);
+
+        // an idle interval: rates fall to 0, drops stay totals
+        LiveStats idle = collector.sample(4000L, 60L, 3L, 1L, 0L, -1L);
+        assertEquals(0f, idle.getEncodedFps(), 0f);
+        assertEquals(0, idle.getVideoBitrateBps());
+        assertEquals(-1L, idle.getVideoEncoderLatencyUs());
+        assertEquals(7L, idle.getTotalDroppedFrames());
+        // the earlier snapshot did not change
+        assertEquals(25f, stats.getEncodedFps(), 0.01f);
+
+        collector.reset();
+        assertNull(collector.getLatestStats());
+        assertNull(collector.sample(5000L, 60L, 0L, 0L, 0L, -1L));
+    }
+
+    @Test
+    public void frameSizeSpreadShowsKeyFrameBursts() throws Exception {
+        LiveStatsCollector collector = new LiveStatsCollector();
+        collector.sample(1000L, 0L, 0L, 0L, 0L, -1L);
+
+        // even frames: no spread
+        for (int i = 0; i < 50; i++) {
+            collector.onEncodedFrame(EncodedFrame.TRACK_VIDEO, 5000, 30000L);
+        }
+        LiveStats even = collector.sample(3000L, 50L, 0L, 0L, 0L, -1L);
+        assertEquals(0, even.getVideoFrameSizeStdDev());
+        assertEquals(5000, even.getMaxVideoFrameBytes());
+
+        // an IDR ten times a P frame every 25 frames
+        for (int i = 0; i < 50; i++) {
+            collector.onEncodedFrame(EncodedFrame.TRACK_VIDEO, i % 25 == 0 ? 36760 : 3676, 30000L);
+        }
+        LiveStats bursty = collector.sample(5000L, 100L, 0L, 0L, 0L, -1L);
+        assertEquals(36760, bursty.getMaxVideoFrameBytes());
+        assertEquals(6483, bursty.getVideoFrameSizeStdDev(), 1);
+
+        LiveStats idle = collector.sample(6000L, 100L, 0L, 0L, 0L, -1L);
+        assertEquals(0, idle.getVideoFrameSizeStdDev());
+        assertEquals(0, idle.getMaxVideoFrameBytes());
+    }
+}
@@ -0,0 +1,55 @@
+package com.ztn.camera.stats;
+
+import com.ztn.camera.push.EncodedFrame;
+import com.ztn.camera.push.FramePool;
+import com.ztn.camera.push.NalUnitScanner;
+import com.ztn.camera.rtmp.FlvTagBuilder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SeiTimestampTest {
+
+    // idr slice header and some slice data
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, (byte) 0x88, (byte) 0x84, 0x00, 0x21, (byte) 0xff};
+
+    @Test
+    public void survivesPushPathAndAvcc() throws Exception {
+        SeiTimestamp seiTimestamp = new SeiTimestamp();
+        long captureTimeMs = 1760000000123L;
+        FramePool pool = new FramePool(EncodedFrame.TRACK_VIDEO, 2, 64);
+        ByteBuffer src = ByteBuffer.wrap(IDR);
+
+        EncodedFrame frame = pool.acquire(seiTimestamp.build(captureTimeMs), src, 0, IDR.length, 40000L,
+                EncodedFrame.FLAG_KEY_FRAME);
+        assertEquals(0, src.position());
+        assertEquals(captureTimeMs, SeiTimestamp.parse(frame.data, 0, frame.size));
+        // the slice is still the one deciding the frame's reference state
+        assertFalse(new NalUnitScanner().scan(frame.data, 0, frame.size).isNonReference());
+
+        ByteBuffer avcc = new FlvTagBuilder().toAvcc(frame.data);
+        assertEquals(captureTimeMs, SeiTimestamp.parse(avcc, avcc.position(), avcc.remaining()));
+
+        assertEquals(SeiTimestamp.NOT_FOUND, SeiTimestamp.parse(src, 0, IDR.length));
+    }
+
+    @Test
+    public void escapesStartCodesInTheTimestamp() throws Exception {
+        SeiTimestamp seiTimestamp = new SeiTimestamp();
+        // runs of zero bytes right after the uuid, which itself ends in 00 01
+        long captureTimeMs = 0x0000000100000003L;
+        ByteBuffer sei = seiTimestamp.build(captureTimeMs);
+        for (int i = 4; i + 2 < sei.limit(); i++) {
+            boolean isStartCodePrefix = sei.get(i) == 0 && sei.get(i + 1) == 0 && (sei.get(i + 2) & 0xff) <= 3;
+            assertFalse("unescaped 00 00 0x at " + i, isStartCodePrefix && sei.get(i + 2) != 3);
+        }
+        assertEquals(captureTimeMs, SeiTimestamp.parse(sei, 0, sei.limit()));
+
+        ByteBuffer other = seiTimestamp.build(captureTimeMs);
+        other.put(10, (byte) (other.get(10) ^ 1));
+        assertEquals("other uuid", SeiTimestamp.NOT_FOUND, SeiTimestamp.parse(other, 0, other.limit()));
+    }
+}